@@ -0,0 +1,569 @@
+package org.myrobotlab.arduino;
+
+import java.util.concurrent.TimeUnit;
+
+import org.myrobotlab.framework.TimerWheel;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Sliding window of MrlComm frames which have been sent but not yet
+ * acknowledged - replaces stop-and-wait, where every command waited for the
+ * ack of the one before it.
+ *
+ * The serial link is FIFO and MrlComm acks each command after processing it,
+ * in the order received. The wire format has no sequence number - the ack
+ * only carries the method type, and it is matched to the oldest frame in
+ * flight with that method. A match past the head means the frames before it
+ * were dropped.
+ *
+ * Because an ack can't say which of two frames of the same method it is for,
+ * and a late ack looks like a lost frame, only idempotent commands - ones
+ * which set an absolute value (servo target, velocity, pin value ..) - are
+ * ever resent: running one twice does no harm. A dropped or timed out frame
+ * of any other command (i2cWrite, servoAttach, serialRelay, motor commands
+ * ..) is counted lost and logged, never replayed.
+ *
+ * Per device ordering: a lost frame is resent behind the newer frames - so a
+ * resend must not undo what was sent after it for the same device (device id,
+ * pin or the board):
+ * <ul>
+ * <li>a frame with a newer one of the same method for the device is not
+ * resent - it is superseded</li>
+ * <li>otherwise the newer frames for the device are resent again after it,
+ * so the device ends up as it was told in the order it was told - a lost
+ * servoSetVelocity goes out again followed by the servoMoveToMicroseconds
+ * sent after it, and the move runs at the new velocity</li>
+ * <li>if one of those newer frames can't be resent it is not idempotent, or
+ * the window has no room for them - the lost frame is given up on</li>
+ * </ul>
+ *
+ * The window is limited by frame count and by bytes in flight - the default
+ * byte limit is the 64 byte serial receive buffer of an AVR, so pipelining
+ * can't overrun the board. send() never blocks - a frame which doesn't fit is
+ * queued behind the window and transmitted as acks make room. Senders wait
+ * for room with awaitRoom() before they take the encoder (Msg), so a full
+ * window never holds up the thread delivering acks.
+ */
+public class AckWindow {
+
+  public final static Logger log = LoggerFactory.getLogger(AckWindow.class);
+
+  /**
+   * largest window which can be configured
+   */
+  public static final int MAX_WINDOW = 32;
+
+  /**
+   * frames in flight and queued behind the window - beyond it frames are
+   * dropped
+   */
+  public static final int MAX_FRAMES = MAX_WINDOW * 4;
+
+  public interface Transmitter {
+    void transmit(byte[] frame, int off, int len) throws Exception;
+
+    /**
+     * write anything the transmitter is holding back
+     */
+    void flush() throws Exception;
+  }
+
+  public static class Stats {
+    public int inFlight;
+    public int bytesInFlight;
+    public int queued;
+    public long sent;
+    public long acked;
+    public long retransmits;
+    public long lost;
+    public long superseded;
+    public long strayAcks;
+    public long windowTimeouts;
+    public double avgRttMs;
+    public double minRttMs;
+    public double maxRttMs;
+
+    @Override
+    public String toString() {
+      return String.format(
+          "in flight %d (%d bytes) queued %d sent %d acked %d retransmits %d lost %d superseded %d stray acks %d window timeouts %d rtt avg %.3f min %.3f max %.3f ms",
+          inFlight, bytesInFlight, queued, sent, acked, retransmits, lost, superseded, strayAcks, windowTimeouts, avgRttMs, minRttMs, maxRttMs);
+    }
+  }
+
+  static class Slot {
+    long seq;
+    int method;
+    int key;
+    int device;
+    final byte[] frame = new byte[Msg.MAX_MSG_SIZE + 2];
+    int size;
+    long sentNs;
+    int retries;
+  }
+
+  final Transmitter transmitter;
+  final Slot[] slots = new Slot[MAX_FRAMES];
+  // seqs of the frames a resend is followed by
+  final long[] followers = new long[MAX_FRAMES];
+
+  // seq of the oldest frame in flight, of the next frame to transmit and of
+  // the next free slot - head..tail are in flight, tail..end are queued
+  long head = 0;
+  long tail = 0;
+  long end = 0;
+  int bytesInFlight = 0;
+
+  int window = 8;
+  int maxBytes = 64;
+  int timeoutMs = 500;
+  int maxRetries = 3;
+  int maxWaitMs = 2000;
+
+  transient TimerWheel.Timeout timer = null;
+
+  /**
+   * thread acks are delivered on - it must never wait for the window
+   */
+  transient volatile Thread ackThread = null;
+
+  // stats
+  long sent = 0;
+  long acked = 0;
+  long retransmits = 0;
+  long lost = 0;
+  long superseded = 0;
+  long strayAcks = 0;
+  long windowTimeouts = 0;
+  long rttCount = 0;
+  long totalRttNs = 0;
+  long minRttNs = Long.MAX_VALUE;
+  long maxRttNs = 0;
+
+  final Runnable onTimer = new Runnable() {
+    @Override
+    public void run() {
+      checkTimeout();
+    }
+  };
+
+  public AckWindow(Transmitter transmitter) {
+    this.transmitter = transmitter;
+    for (int i = 0; i < slots.length; ++i) {
+      slots[i] = new Slot();
+    }
+  }
+
+  /**
+   * @param method
+   *          Msg method type
+   * @return true if running the command twice does no harm - only these are
+   *         resent
+   */
+  public static boolean isIdempotent(int method) {
+    switch (method) {
+      case Msg.GET_BOARD_INFO:
+      case Msg.SET_DEBUG:
+      case Msg.ANALOG_WRITE:
+      case Msg.DIGITAL_WRITE:
+      case Msg.PIN_MODE:
+      case Msg.SET_AREF:
+      case Msg.SERVO_SET_VELOCITY:
+      case Msg.SERVO_MOVE_TO_MICROSECONDS:
+      case Msg.SERVO_SET_ACCELERATION:
+      case Msg.SERVO_SWEEP_STOP:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return what a frame addresses - 0x100 | pin for pin commands, -1 for the
+   *         board, otherwise the device id of its first parameter
+   */
+  static int getDevice(int method, byte[] frame, int off, int len) {
+    switch (method) {
+      case Msg.ENABLE_PIN:
+      case Msg.ANALOG_WRITE:
+      case Msg.DIGITAL_WRITE:
+      case Msg.DISABLE_PIN:
+      case Msg.PIN_MODE:
+      case Msg.SET_TRIGGER:
+      case Msg.SET_DEBOUNCE:
+        return (len > 3) ? 0x100 | (frame[off + 3] & 0xff) : -1;
+      case Msg.GET_BOARD_INFO:
+      case Msg.SET_DEBUG:
+      case Msg.SET_SERIAL_RATE:
+      case Msg.SOFT_RESET:
+      case Msg.ENABLE_ACK:
+      case Msg.ECHO:
+      case Msg.CUSTOM_MSG:
+      case Msg.DISABLE_PINS:
+      case Msg.SET_AREF:
+        return -1;
+      default:
+        return (len > 3) ? frame[off + 3] & 0xff : -1;
+    }
+  }
+
+  Slot slot(long seq) {
+    return slots[(int) (seq % slots.length)];
+  }
+
+  /**
+   * waits until the window has room for another frame - call it before
+   * taking the lock send() is called under. Doesn't wait on the ack thread.
+   *
+   * @throws Exception
+   *           e
+   */
+  public synchronized void awaitRoom() throws Exception {
+    if (Thread.currentThread() == ackThread || hasRoom()) {
+      return;
+    }
+    // frames held in a batch will never be acked
+    transmitter.flush();
+    long deadline = System.currentTimeMillis() + maxWaitMs;
+    while (!hasRoom()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        // timeouts resolve what is in flight - the frame is queued
+        log.warn("no room in the ack window for {} ms - {} frames in flight {} queued", maxWaitMs, tail - head, end - tail);
+        ++windowTimeouts;
+        return;
+      }
+      wait(remaining);
+    }
+  }
+
+  boolean hasRoom() {
+    return end - head < window;
+  }
+
+  /**
+   * sends the frame if it fits in the window, otherwise queues it until acks
+   * make room - never blocks
+   *
+   * @param frame
+   *          MAGIC_NUMBER|MSG_SIZE|METHOD|PARAMS ...
+   * @param off
+   *          offset
+   * @param len
+   *          frame size
+   * @return sequence number of the frame, -1 if it was dropped
+   * @throws Exception
+   *           e
+   */
+  public synchronized long send(byte[] frame, int off, int len) throws Exception {
+    int method = frame[off + 2] & 0xff;
+    if (end - head >= slots.length) {
+      log.error("{} frames in flight and queued - {} dropped", end - head, Msg.methodToString(method));
+      ++lost;
+      return -1;
+    }
+    long seq = end;
+    Slot slot = slot(end++);
+    System.arraycopy(frame, off, slot.frame, 0, len);
+    slot.size = len;
+    slot.method = method;
+    // method + first parameter
+    slot.key = (slot.method << 8) | ((len > 3) ? frame[off + 3] & 0xff : 0);
+    slot.device = getDevice(method, frame, off, len);
+    slot.retries = 0;
+    pump();
+    return seq;
+  }
+
+  boolean isFull(int len) {
+    int inFlight = (int) (tail - head);
+    return inFlight > 0 && (inFlight >= window || bytesInFlight + len > maxBytes);
+  }
+
+  /**
+   * transmits queued frames while they fit in the window - only called
+   * holding the lock so the wire order is the window order
+   */
+  void pump() throws Exception {
+    while (tail < end) {
+      Slot slot = slot(tail);
+      if (isFull(slot.size)) {
+        return;
+      }
+      slot.seq = tail++;
+      slot.sentNs = System.nanoTime();
+      bytesInFlight += slot.size;
+      if (slot.retries == 0) {
+        ++sent;
+      } else {
+        ++retransmits;
+      }
+      if (timer == null) {
+        timer = TimerWheel.getInstance().schedule(onTimer, timeoutMs);
+      }
+      transmitter.transmit(slot.frame, 0, slot.size);
+    }
+  }
+
+  Slot pop() {
+    Slot slot = slot(head++);
+    bytesInFlight -= slot.size;
+    return slot;
+  }
+
+  /**
+   * true if a frame for the same method and device was sent or queued after
+   * the frame of seq
+   */
+  boolean isSuperseded(long seq, int key) {
+    for (++seq; seq < end; ++seq) {
+      if (slot(seq).key == key) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * the latest frames for the device of the frame of seq sent or queued after
+   * it - the ones a resend of it has to be followed by
+   *
+   * @return how many were found - or -1 if one of them can't be resent
+   */
+  int getFollowers(long seq, int device, long[] followers) {
+    int count = 0;
+    for (++seq; seq < end; ++seq) {
+      Slot next = slot(seq);
+      if (next.device != device || isSuperseded(seq, next.key)) {
+        continue;
+      }
+      if (!isIdempotent(next.method)) {
+        return -1;
+      }
+      followers[count++] = seq;
+    }
+    return count;
+  }
+
+  /**
+   * copies a frame to the end of the window as a resend
+   */
+  void requeue(Slot slot) {
+    // the end can only land on a free slot - the popped one or one freed
+    // before it
+    Slot resend = slot(end++);
+    if (resend != slot) {
+      System.arraycopy(slot.frame, 0, resend.frame, 0, slot.size);
+      resend.size = slot.size;
+      resend.method = slot.method;
+      resend.key = slot.key;
+      resend.device = slot.device;
+    }
+    resend.retries = slot.retries + 1;
+  }
+
+  /**
+   * pops the oldest frame - it was not acknowledged. It is queued again, with
+   * the newer frames for its device behind it, if it is idempotent, not
+   * superseded, has retries left and its device's newer frames can be resent
+   * too - otherwise it is lost.
+   */
+  void resendHead() {
+    Slot slot = pop();
+    if (!isIdempotent(slot.method)) {
+      log.error("{} not acknowledged - not resent", Msg.methodToString(slot.method));
+      ++lost;
+      return;
+    }
+    long seq = head - 1;
+    if (isSuperseded(seq, slot.key)) {
+      ++superseded;
+      return;
+    }
+    if (slot.retries >= maxRetries) {
+      log.error("{} not acknowledged after {} retries", Msg.methodToString(slot.method), maxRetries);
+      ++lost;
+      return;
+    }
+    int count = getFollowers(seq, slot.device, followers);
+    if (count < 0 || end - head + 1 + count > slots.length) {
+      log.error("{} not acknowledged - newer commands for the device can't be resent after it", Msg.methodToString(slot.method));
+      ++lost;
+      return;
+    }
+    requeue(slot);
+    for (int i = 0; i < count; ++i) {
+      requeue(slot(followers[i]));
+    }
+  }
+
+  /**
+   * MrlComm acknowledged a frame
+   *
+   * @param method
+   *          the method type of the acknowledged frame
+   */
+  public synchronized void ack(int method) {
+    ackThread = Thread.currentThread();
+    long now = System.nanoTime();
+    long match = -1;
+    for (long seq = head; seq < tail; ++seq) {
+      if (slot(seq).method == method) {
+        match = seq;
+        break;
+      }
+    }
+    if (match < 0) {
+      // an ack for a frame sent before the window was enabled, or for one
+      // already given up on
+      ++strayAcks;
+      return;
+    }
+    // frames before the match never made it
+    while (head < match) {
+      resendHead();
+    }
+    Slot slot = pop();
+    ++acked;
+    // Karn - a retransmitted frame gives no usable round trip time
+    if (slot.retries == 0) {
+      long rtt = now - slot.sentNs;
+      ++rttCount;
+      totalRttNs += rtt;
+      if (rtt < minRttNs) {
+        minRttNs = rtt;
+      }
+      if (rtt > maxRttNs) {
+        maxRttNs = rtt;
+      }
+    }
+    try {
+      pump();
+    } catch (Exception e) {
+      log.error("send threw", e);
+    }
+    notifyAll();
+  }
+
+  synchronized void checkTimeout() {
+    timer = null;
+    if (head == end) {
+      return;
+    }
+    long timeoutNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    long now = System.nanoTime();
+    // every frame which timed out is given up on or queued again - in order
+    while (head < tail && now - slot(head).sentNs >= timeoutNs) {
+      resendHead();
+    }
+    try {
+      pump();
+    } catch (Exception e) {
+      log.error("resend threw", e);
+    }
+    if (head < tail) {
+      long age = now - slot(head).sentNs;
+      timer = TimerWheel.getInstance().schedule(onTimer, TimeUnit.NANOSECONDS.toMillis(Math.max(0, timeoutNs - age)) + 1);
+    }
+    notifyAll();
+  }
+
+  /**
+   * wait until everything in flight and queued has been acknowledged
+   *
+   * @param timeoutMs
+   *          max ms to wait
+   * @return false on timeout
+   * @throws InterruptedException
+   *           e
+   */
+  public synchronized boolean drain(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (head != end) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  /**
+   * forget everything in flight and drop what is queued
+   */
+  public synchronized void clear() {
+    lost += end - tail;
+    head = tail = end;
+    bytesInFlight = 0;
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+    notifyAll();
+  }
+
+  /**
+   * @param frames
+   *          frames in flight before send blocks - 1 is stop-and-wait
+   */
+  public synchronized void setWindow(int frames) {
+    window = Math.max(1, Math.min(frames, MAX_WINDOW));
+    try {
+      pump();
+    } catch (Exception e) {
+      log.error("send threw", e);
+    }
+    notifyAll();
+  }
+
+  public synchronized int getWindow() {
+    return window;
+  }
+
+  /**
+   * @param bytes
+   *          bytes in flight before send blocks - the receive buffer size of
+   *          the board
+   */
+  public synchronized void setMaxBytes(int bytes) {
+    maxBytes = bytes;
+    notifyAll();
+  }
+
+  public synchronized void setTimeout(int timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  public synchronized void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  public synchronized int getInFlight() {
+    return (int) (tail - head);
+  }
+
+  public synchronized int getQueued() {
+    return (int) (end - tail);
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.inFlight = (int) (tail - head);
+    stats.bytesInFlight = bytesInFlight;
+    stats.queued = (int) (end - tail);
+    stats.sent = sent;
+    stats.acked = acked;
+    stats.retransmits = retransmits;
+    stats.lost = lost;
+    stats.superseded = superseded;
+    stats.strayAcks = strayAcks;
+    stats.windowTimeouts = windowTimeouts;
+    stats.avgRttMs = (rttCount == 0) ? 0 : totalRttNs / (double) rttCount / 1000000.0;
+    stats.minRttMs = (rttCount == 0) ? 0 : minRttNs / 1000000.0;
+    stats.maxRttMs = maxRttNs / 1000000.0;
+    return stats;
+  }
+
+}
@@ -224,6 +224,7 @@ public class ArduinoMsgGenerator {
     virtualJava = virtualJava.replace("%javaArduinoClass%", "MrlComm");
 
     fileSnr.put("%ackEnabled%", "true");
+    fileSnr.put("%mrlCommSide%", "false");
     // process substitutions
     for (String searchKey : fileSnr.keySet()) {
       idlToHpp = idlToHpp.replace(searchKey, fileSnr.get(searchKey));
@@ -241,6 +242,7 @@ public class ArduinoMsgGenerator {
 
     // process virtual msgs
     fileSnr.put("%ackEnabled%", "false");
+    fileSnr.put("%mrlCommSide%", "true");
     for (String searchKey : fileSnr.keySet()) {
       virtualJava = virtualJava.replace(searchKey, fileSnr.get(searchKey));
     }
@@ -382,7 +384,7 @@ public class ArduinoMsgGenerator {
     StringBuilder javaMethodParameters = new StringBuilder();
     StringBuilder cppMethodParameters = new StringBuilder();
     StringBuilder cppWrite = new StringBuilder("  write(" + CodecUtils.toUnderScore(name) + "); // msgType = " + msgIndex + "\n");
-    StringBuilder javaWrite = new StringBuilder("\t\t\twrite(" + CodecUtils.toUnderScore(name) + "); // msgType = " + msgIndex + "\n");
+    StringBuilder javaWrite = new StringBuilder("\t\t\t\twrite(" + CodecUtils.toUnderScore(name) + "); // msgType = " + msgIndex + "\n");
 
     String arduinoOrMrlComm = (keywords.contains(name)) ? "" : "mrlComm->";
     StringBuilder cppCaseHeader = new StringBuilder("\tcase " + CodecUtils.toUnderScore(name) + ": { // " + name + "\n");
@@ -396,8 +398,8 @@ public class ArduinoMsgGenerator {
     StringBuilder javaCaseRecord = new StringBuilder("\t\t\tif(record != null){");
     javaCaseRecord.append("\n\t\t\t\trxBuffer.append(\"< " + name + "\");\n");
 
-    StringBuilder javaSendRecord = new StringBuilder("\t\t\tif(record != null){");
-    javaSendRecord.append("\n\t\t\t\ttxBuffer.append(\"> " + name + "\");\n");
+    StringBuilder javaSendRecord = new StringBuilder("\t\t\t\tif(record != null){");
+    javaSendRecord.append("\n\t\t\t\t\ttxBuffer.append(\"> " + name + "\");\n");
 
     // compiler check
     StringBuilder javaCaseArduinoMethodComment = new StringBuilder("\n\t\t\t} else { \n \t\t\t\tarduino." + name + "(");
@@ -462,11 +464,11 @@ public class ArduinoMsgGenerator {
         javaCaseRecord.append("\t\t\t\trxBuffer.append(" + paramName + ");\n");
       }
 
-      javaSendRecord.append("\t\t\t\ttxBuffer.append(\"/\");\n");
+      javaSendRecord.append("\t\t\t\t\ttxBuffer.append(\"/\");\n");
       if (idlParamType.equals("[]")) {
-        javaSendRecord.append("\t\t\t\ttxBuffer.append(Arrays.toString(" + paramName + "));\n");
+        javaSendRecord.append("\t\t\t\t\ttxBuffer.append(Arrays.toString(" + paramName + "));\n");
       } else {
-        javaSendRecord.append("\t\t\t\ttxBuffer.append(" + paramName + ");\n");
+        javaSendRecord.append("\t\t\t\t\ttxBuffer.append(" + paramName + ");\n");
       }
 
       // msgSize += getCppTypeSize(idlParamType);
@@ -476,7 +478,7 @@ public class ArduinoMsgGenerator {
 
         // cppWrite.append(" writestr(" + paramName + ");\n");
         cppWrite.append("  write((byte*)" + paramName + ", " + paramName + "Size);\n");
-        javaWrite.append("\t\t\twrite(" + paramName + ");\n");
+        javaWrite.append("\t\t\t\twrite(" + paramName + ");\n");
 
         javaWriteMsgSize.append(" + (1 + " + paramName + ".length())");
 
@@ -485,14 +487,14 @@ public class ArduinoMsgGenerator {
       } else if (idlParamType.equals("[]")) {
 
         cppWrite.append("  write((byte*)" + paramName + ", " + paramName + "Size);\n");
-        javaWrite.append("\t\t\twrite(" + paramName + ");\n");
+        javaWrite.append("\t\t\t\twrite(" + paramName + ");\n");
 
         javaWriteMsgSize.append(" + (1 + " + paramName + ".length)");
 
         cppWriteMsgSize.append(" + (1 + " + paramName + "Size)");
       } else {
         cppWrite.append("  write" + idlParamType + "(" + paramName + ");\n");
-        javaWrite.append("\t\t\twrite" + idlParamType + "(" + paramName + ");\n");
+        javaWrite.append("\t\t\t\twrite" + idlParamType + "(" + paramName + ");\n");
         cppWriteMsgSize.append(" + " + getCppTypeSize(idlParamType));
         javaWriteMsgSize.append(" + " + getCppTypeSize(idlParamType));
       }
@@ -607,10 +609,10 @@ public class ArduinoMsgGenerator {
 
     } // end parameter loop
 
-    javaSendRecord.append("\t\t\t\ttxBuffer.append(\"\\n\");\n");
-    javaSendRecord.append("\t\t\t\trecord.write(txBuffer.toString().getBytes());\n");
-    javaSendRecord.append("\t\t\t\ttxBuffer.setLength(0);\n");
-    javaSendRecord.append("\t\t\t}\n");
+    javaSendRecord.append("\t\t\t\t\ttxBuffer.append(\"\\n\");\n");
+    javaSendRecord.append("\t\t\t\t\trecord.write(txBuffer.toString().getBytes());\n");
+    javaSendRecord.append("\t\t\t\t\ttxBuffer.setLength(0);\n");
+    javaSendRecord.append("\t\t\t\t}\n");
 
     javaCaseParams.append(");");
     // cpp
@@ -676,8 +678,8 @@ public class ArduinoMsgGenerator {
       methodSnr.put("javaGeneratedCallBack", "");
 
       // vJava send methods
-      methodSnr.put("vJavaHandleCase",
-          javaCaseHeader.toString() + javaCaseArduinoMethod + javaCaseParams + javaCaseArduinoMethodComment + javaCaseParams + "\n\t\t\t}" + javaCaseFooter);
+      methodSnr.put("vJavaHandleCase", javaCaseHeader.toString() + javaCaseArduinoMethod + javaCaseParams + javaCaseArduinoMethodComment + javaCaseParams + "\n\t\t\t}\n"
+          + javaCaseRecord + "\t\t\t}\n" + javaCaseFooter);
       methodSnr.put("vJavaGeneratedCallBack", javaGeneratedCallback + javaMethodParameters.toString() + "){}\n");
       methodSnr.put("vJavaMethod", "");
       
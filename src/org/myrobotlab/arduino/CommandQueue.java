@@ -0,0 +1,276 @@
+package org.myrobotlab.arduino;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.motion.MotionEngine;
+import org.slf4j.Logger;
+
+/**
+ * Outgoing command scheduler for Msg. Idempotent commands where only the
+ * latest value matters (servo targets, velocity, acceleration, pwm) are held
+ * until the next tick and coalesced per (command, device) - a Joystick or PID
+ * loop calling moveTo at hundreds of Hz sends one target per servo per tick.
+ * A command replacing a pending one moves to the back of the queue, so the
+ * commands of a device go out in the order of their latest values - moveTo a,
+ * setVelocity v, moveTo b sends setVelocity v then moveTo b. Everything pending
+ * in a tick is written to the serial device as one block.
+ *
+ * Every other command is a barrier - Msg flushes the queue before encoding it,
+ * so it is never reordered with the commands queued before it.
+ *
+ * Ticks come from the MotionEngine. The flush is handed to the engine's writer
+ * of this Msg, so a slow serial port never holds up the motion loop, servo
+ * sweeps or the ticks of other boards - and the flush itself never waits for
+ * the ack window, its frames are queued there. A tick of 0 sends every
+ * command immediately.
+ */
+public class CommandQueue {
+
+  public final static Logger log = LoggerFactory.getLogger(CommandQueue.class);
+
+  public static class Stats {
+    public long queued;
+    public long sent;
+    public long coalesced;
+    public long dropped;
+    public long ticks;
+    public long barriers;
+    public int pending;
+
+    @Override
+    public String toString() {
+      return String.format("queued %d sent %d coalesced %d dropped %d ticks %d barriers %d pending %d", queued, sent, coalesced, dropped, ticks, barriers, pending);
+    }
+  }
+
+  static class Command {
+    int method;
+    int id;
+    int value;
+  }
+
+  final Msg msg;
+
+  // pending command per method and device - in the order they were last
+  // queued
+  final LinkedHashMap<Integer, Command> pending = new LinkedHashMap<Integer, Command>();
+
+  // recycled commands
+  final ArrayList<Command> free = new ArrayList<Command>();
+
+  boolean flushing = false;
+
+  volatile int tickMs = 0;
+
+  transient MotionEngine.Job job = null;
+
+  final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  // stats
+  long queued = 0;
+  long sent = 0;
+  long coalesced = 0;
+  long dropped = 0;
+  volatile long ticks = 0;
+  long barriers = 0;
+
+  public CommandQueue(Msg msg) {
+    this.msg = msg;
+    msg.setCommandQueue(this);
+  }
+
+  /**
+   * @param method
+   *          Msg method type
+   * @return true if only the latest command of this type per device matters
+   */
+  public static boolean isCoalescable(int method) {
+    switch (method) {
+      case Msg.SERVO_MOVE_TO_MICROSECONDS:
+      case Msg.SERVO_SET_VELOCITY:
+      case Msg.SERVO_SET_ACCELERATION:
+      case Msg.ANALOG_WRITE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static Integer key(int method, int id) {
+    return (method << 8) | (id & 0xff);
+  }
+
+  /**
+   * queue a command - it replaces a pending command of the same type for the
+   * same device, otherwise it is sent at the next tick
+   *
+   * @param method
+   *          one of the coalescable Msg method types
+   * @param id
+   *          device id (pin for analogWrite)
+   * @param value
+   *          the value
+   */
+  public void add(int method, int id, int value) {
+    if (!isCoalescable(method)) {
+      throw new IllegalArgumentException(String.format("%s can not be queued", Msg.methodToString(method)));
+    }
+    synchronized (this) {
+      ++queued;
+      if (job != null) {
+        Integer key = key(method, id);
+        // re-appended - it goes out after what was queued before it
+        Command command = pending.remove(key);
+        if (command != null) {
+          ++coalesced;
+        } else {
+          command = (free.size() > 0) ? free.remove(free.size() - 1) : new Command();
+          command.method = method;
+          command.id = id;
+        }
+        command.value = value;
+        pending.put(key, command);
+        return;
+      }
+    }
+    // not ticking - straight out, Msg waits for room in the ack window
+    // before it takes its lock
+    synchronized (this) {
+      ++sent;
+    }
+    send(method, id, value);
+  }
+
+  void send(int method, int id, int value) {
+    switch (method) {
+      case Msg.SERVO_MOVE_TO_MICROSECONDS:
+        msg.servoMoveToMicroseconds(id, value);
+        break;
+      case Msg.SERVO_SET_VELOCITY:
+        msg.servoSetVelocity(id, value);
+        break;
+      case Msg.SERVO_SET_ACCELERATION:
+        msg.servoSetAcceleration(id, value);
+        break;
+      case Msg.ANALOG_WRITE:
+        msg.analogWrite(id, value);
+        break;
+    }
+  }
+
+  /**
+   * send everything pending as one block - called every tick and by Msg
+   * before any command which isn't queued. Msg is held throughout, so its
+   * frames don't wait for room in the ack window - they are queued there.
+   */
+  public void flush() {
+    // same lock order as Msg's encoders - msg then queue
+    synchronized (msg) {
+      synchronized (this) {
+        if (flushing || pending.isEmpty()) {
+          return;
+        }
+        flushing = true;
+        try {
+          msg.beginBatch();
+          Iterator<Command> it = pending.values().iterator();
+          while (it.hasNext()) {
+            Command command = it.next();
+            ++sent;
+            send(command.method, command.id, command.value);
+            free.add(command);
+          }
+        } finally {
+          pending.clear();
+          msg.endBatch();
+          flushing = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * called by Msg before encoding a command which isn't queued
+   */
+  synchronized void barrier() {
+    if (!flushing && !pending.isEmpty()) {
+      ++barriers;
+      flush();
+    }
+  }
+
+  /**
+   * @param ms
+   *          ms between ticks - 0 sends every command immediately
+   */
+  public void setTick(int ms) {
+    synchronized (this) {
+      tickMs = ms;
+      if (job != null) {
+        job.cancel();
+        job = null;
+      }
+      if (ms > 0) {
+        final MotionEngine engine = MotionEngine.getInstance();
+        job = engine.schedule(new MotionEngine.Job(msg) {
+          @Override
+          public long run() {
+            ++ticks;
+            // off the loop - a tick still flushing coalesces with this one
+            engine.write(msg, CommandQueue.this, flush);
+            return tickMs;
+          }
+        }, ms);
+        return;
+      }
+    }
+    // whatever was pending goes now - outside the lock to keep the msg then
+    // queue lock order
+    flush();
+  }
+
+  public synchronized int getTick() {
+    return tickMs;
+  }
+
+  /**
+   * discard everything pending - e.g. on disconnect
+   */
+  public synchronized void clear() {
+    dropped += pending.size();
+    free.addAll(pending.values());
+    pending.clear();
+  }
+
+  /**
+   * stop ticking - pending commands are dropped
+   */
+  public synchronized void stop() {
+    if (job != null) {
+      job.cancel();
+      job = null;
+    }
+    clear();
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.queued = queued;
+    stats.sent = sent;
+    stats.coalesced = coalesced;
+    stats.dropped = dropped;
+    stats.ticks = ticks;
+    stats.barriers = barriers;
+    stats.pending = pending.size();
+    return stats;
+  }
+
+}
@@ -3,8 +3,7 @@ package org.myrobotlab.arduino;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import org.myrobotlab.logging.Level;
@@ -62,9 +61,22 @@ import org.slf4j.Logger;
 public class Msg {
 
 	public static final int MAX_MSG_SIZE = 64;
+	public static final int MAX_BATCH_SIZE = 256;
 	public static final int MAGIC_NUMBER = 170; // 10101010
 	public static final int MRLCOMM_VERSION = 57;
 	
+	// MrlComm reads floats in AVR (little endian) byte order but writes
+	// them most significant byte first - true if this is the MrlComm side
+	static final boolean MRLCOMM_SIDE = false;
+	
+	// send frame - a whole message is assembled here and handed to the
+	// serial device in a single write
+	transient byte[] txFrame = new byte[MAX_MSG_SIZE + 2];
+	int txFrameSize = 0;
+	
+	// decode scratch for str parameters
+	transient byte[] strBuffer = new byte[MAX_MSG_SIZE];
+	
 	// send buffer
   int sendBufferSize = 0;
   int sendBuffer[] = new int[MAX_MSG_SIZE];
@@ -82,16 +94,49 @@ public class Msg {
 	
 	boolean ackEnabled = true;
 	
-	 public static class AckLock {
-	    // first is always true - since there
-	    // is no msg to be acknowledged...
-	    volatile boolean acknowledged = true;
-	  }
-	 
-	transient AckLock ackRecievedLock = new AckLock();
+	// batch - between beginBatch() and endBatch() frames are collected
+	// and written to the serial device together
+	transient byte[] batch = new byte[MAX_BATCH_SIZE];
+	int batchSize = 0;
+	boolean batching = false;
+	
+	// every frame is written through here
+	transient AckWindow.Transmitter transmitter = new AckWindow.Transmitter() {
+		@Override
+		public void transmit(byte[] frame, int off, int len) throws Exception {
+			synchronized (batch) {
+				if (!batching) {
+					serial.write(frame, off, len);
+					return;
+				}
+				if (batchSize + len > batch.length) {
+					flush();
+				}
+				System.arraycopy(frame, off, batch, batchSize, len);
+				batchSize += len;
+			}
+		}
+
+		@Override
+		public void flush() throws Exception {
+			synchronized (batch) {
+				if (batchSize > 0) {
+					serial.write(batch, 0, batchSize);
+					batchSize = 0;
+				}
+			}
+		}
+	};
+	
+	// frames sent but not yet acknowledged - senders only block when
+	// the window is full
+	transient AckWindow ackWindow = new AckWindow(transmitter);
+	
+	// coalesces high rate servo and pwm writes - null if not in use
+	transient CommandQueue commandQueue = null;
 	
 	// recording related
-	transient FileOutputStream record = null;
+	transient OutputStream record = null;
 	transient StringBuilder rxBuffer = new StringBuilder();
 	transient StringBuilder txBuffer = new StringBuilder();	
 
@@ -566,1287 +611,1367 @@ public class Msg {
 
 	// Java-land --to--> MrlComm
 
-	public synchronized void getBoardInfo() {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1); // size
-			write(GET_BOARD_INFO); // msgType = 2
+	public void getBoardInfo() {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1); // size
+				write(GET_BOARD_INFO); // msgType = 2
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> getBoardInfo");
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> getBoardInfo");
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("getBoardInfo threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("getBoardInfo threw", e);
+			}
+		}
 	}
 
-	public synchronized void enablePin(Integer address/*byte*/, Integer type/*byte*/, Integer rate/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 2); // size
-			write(ENABLE_PIN); // msgType = 4
-			write(address);
-			write(type);
-			writeb16(rate);
+	public void enablePin(Integer address/*byte*/, Integer type/*byte*/, Integer rate/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 2); // size
+				write(ENABLE_PIN); // msgType = 4
+				write(address);
+				write(type);
+				writeb16(rate);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> enablePin");
-				txBuffer.append("/");
-				txBuffer.append(address);
-				txBuffer.append("/");
-				txBuffer.append(type);
-				txBuffer.append("/");
-				txBuffer.append(rate);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> enablePin");
+					txBuffer.append("/");
+					txBuffer.append(address);
+					txBuffer.append("/");
+					txBuffer.append(type);
+					txBuffer.append("/");
+					txBuffer.append(rate);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("enablePin threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("enablePin threw", e);
+			}
+		}
 	}
 
-	public synchronized void setDebug(Boolean enabled/*bool*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(SET_DEBUG); // msgType = 5
-			writebool(enabled);
+	public void setDebug(Boolean enabled/*bool*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(SET_DEBUG); // msgType = 5
+				writebool(enabled);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> setDebug");
-				txBuffer.append("/");
-				txBuffer.append(enabled);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> setDebug");
+					txBuffer.append("/");
+					txBuffer.append(enabled);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("setDebug threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("setDebug threw", e);
+			}
+		}
 	}
 
-	public synchronized void setSerialRate(Integer rate/*b32*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 4); // size
-			write(SET_SERIAL_RATE); // msgType = 6
-			writeb32(rate);
+	public void setSerialRate(Integer rate/*b32*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 4); // size
+				write(SET_SERIAL_RATE); // msgType = 6
+				writeb32(rate);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> setSerialRate");
-				txBuffer.append("/");
-				txBuffer.append(rate);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> setSerialRate");
+					txBuffer.append("/");
+					txBuffer.append(rate);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("setSerialRate threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("setSerialRate threw", e);
+			}
+		}
 	}
 
-	public synchronized void softReset() {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1); // size
-			write(SOFT_RESET); // msgType = 7
+	public void softReset() {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1); // size
+				write(SOFT_RESET); // msgType = 7
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> softReset");
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> softReset");
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("softReset threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("softReset threw", e);
+			}
+		}
 	}
 
-	public synchronized void enableAck(Boolean enabled/*bool*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(ENABLE_ACK); // msgType = 8
-			writebool(enabled);
+	public void enableAck(Boolean enabled/*bool*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(ENABLE_ACK); // msgType = 8
+				writebool(enabled);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> enableAck");
-				txBuffer.append("/");
-				txBuffer.append(enabled);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> enableAck");
+					txBuffer.append("/");
+					txBuffer.append(enabled);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("enableAck threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("enableAck threw", e);
+			}
+		}
 	}
 
-	public synchronized void echo(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 4 + 1 + 4); // size
-			write(ECHO); // msgType = 10
-			writef32(myFloat);
-			write(myByte);
-			writef32(secondFloat);
+	public void echo(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 4 + 1 + 4); // size
+				write(ECHO); // msgType = 10
+				writef32(myFloat);
+				write(myByte);
+				writef32(secondFloat);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> echo");
-				txBuffer.append("/");
-				txBuffer.append(myFloat);
-				txBuffer.append("/");
-				txBuffer.append(myByte);
-				txBuffer.append("/");
-				txBuffer.append(secondFloat);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> echo");
+					txBuffer.append("/");
+					txBuffer.append(myFloat);
+					txBuffer.append("/");
+					txBuffer.append(myByte);
+					txBuffer.append("/");
+					txBuffer.append(secondFloat);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("echo threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("echo threw", e);
+			}
+		}
 	}
 
-	public synchronized void customMsg(int[] msg/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + (1 + msg.length)); // size
-			write(CUSTOM_MSG); // msgType = 12
-			write(msg);
+	public void customMsg(int[] msg/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + (1 + msg.length)); // size
+				write(CUSTOM_MSG); // msgType = 12
+				write(msg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> customMsg");
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(msg));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> customMsg");
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(msg));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("customMsg threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("customMsg threw", e);
+			}
+		}
 	}
 
-	public synchronized void deviceDetach(Integer deviceId/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(DEVICE_DETACH); // msgType = 14
-			write(deviceId);
+	public void deviceDetach(Integer deviceId/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(DEVICE_DETACH); // msgType = 14
+				write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> deviceDetach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> deviceDetach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("deviceDetach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("deviceDetach threw", e);
+			}
+		}
 	}
 
-	public synchronized void i2cBusAttach(Integer deviceId/*byte*/, Integer i2cBus/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(I2C_BUS_ATTACH); // msgType = 15
-			write(deviceId);
-			write(i2cBus);
+	public void i2cBusAttach(Integer deviceId/*byte*/, Integer i2cBus/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(I2C_BUS_ATTACH); // msgType = 15
+				write(deviceId);
+				write(i2cBus);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> i2cBusAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(i2cBus);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> i2cBusAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(i2cBus);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("i2cBusAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("i2cBusAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void i2cRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer size/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 1); // size
-			write(I2C_READ); // msgType = 16
-			write(deviceId);
-			write(deviceAddress);
-			write(size);
+	public void i2cRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer size/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 1); // size
+				write(I2C_READ); // msgType = 16
+				write(deviceId);
+				write(deviceAddress);
+				write(size);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> i2cRead");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(deviceAddress);
-				txBuffer.append("/");
-				txBuffer.append(size);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> i2cRead");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(deviceAddress);
+					txBuffer.append("/");
+					txBuffer.append(size);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("i2cRead threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("i2cRead threw", e);
+			}
+		}
 	}
 
-	public synchronized void i2cWrite(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, int[] data/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + (1 + data.length)); // size
-			write(I2C_WRITE); // msgType = 17
-			write(deviceId);
-			write(deviceAddress);
-			write(data);
+	public void i2cWrite(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, int[] data/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + (1 + data.length)); // size
+				write(I2C_WRITE); // msgType = 17
+				write(deviceId);
+				write(deviceAddress);
+				write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> i2cWrite");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(deviceAddress);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(data));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> i2cWrite");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(deviceAddress);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(data));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("i2cWrite threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("i2cWrite threw", e);
+			}
+		}
 	}
 
-	public synchronized void i2cWriteRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer readSize/*byte*/, Integer writeValue/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 1 + 1); // size
-			write(I2C_WRITE_READ); // msgType = 18
-			write(deviceId);
-			write(deviceAddress);
-			write(readSize);
-			write(writeValue);
+	public void i2cWriteRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer readSize/*byte*/, Integer writeValue/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 1 + 1); // size
+				write(I2C_WRITE_READ); // msgType = 18
+				write(deviceId);
+				write(deviceAddress);
+				write(readSize);
+				write(writeValue);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> i2cWriteRead");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(deviceAddress);
-				txBuffer.append("/");
-				txBuffer.append(readSize);
-				txBuffer.append("/");
-				txBuffer.append(writeValue);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> i2cWriteRead");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(deviceAddress);
+					txBuffer.append("/");
+					txBuffer.append(readSize);
+					txBuffer.append("/");
+					txBuffer.append(writeValue);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("i2cWriteRead threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("i2cWriteRead threw", e);
+			}
+		}
 	}
 
-	public synchronized void neoPixelAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer numPixels/*b32*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 4); // size
-			write(NEO_PIXEL_ATTACH); // msgType = 20
-			write(deviceId);
-			write(pin);
-			writeb32(numPixels);
+	public void neoPixelAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer numPixels/*b32*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 4); // size
+				write(NEO_PIXEL_ATTACH); // msgType = 20
+				write(deviceId);
+				write(pin);
+				writeb32(numPixels);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> neoPixelAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(numPixels);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> neoPixelAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(numPixels);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("neoPixelAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("neoPixelAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void neoPixelSetAnimation(Integer deviceId/*byte*/, Integer animation/*byte*/, Integer red/*byte*/, Integer green/*byte*/, Integer blue/*byte*/, Integer speed/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 1 + 1 + 1 + 2); // size
-			write(NEO_PIXEL_SET_ANIMATION); // msgType = 21
-			write(deviceId);
-			write(animation);
-			write(red);
-			write(green);
-			write(blue);
-			writeb16(speed);
+	public void neoPixelSetAnimation(Integer deviceId/*byte*/, Integer animation/*byte*/, Integer red/*byte*/, Integer green/*byte*/, Integer blue/*byte*/, Integer speed/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 1 + 1 + 1 + 2); // size
+				write(NEO_PIXEL_SET_ANIMATION); // msgType = 21
+				write(deviceId);
+				write(animation);
+				write(red);
+				write(green);
+				write(blue);
+				writeb16(speed);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> neoPixelSetAnimation");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(animation);
-				txBuffer.append("/");
-				txBuffer.append(red);
-				txBuffer.append("/");
-				txBuffer.append(green);
-				txBuffer.append("/");
-				txBuffer.append(blue);
-				txBuffer.append("/");
-				txBuffer.append(speed);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> neoPixelSetAnimation");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(animation);
+					txBuffer.append("/");
+					txBuffer.append(red);
+					txBuffer.append("/");
+					txBuffer.append(green);
+					txBuffer.append("/");
+					txBuffer.append(blue);
+					txBuffer.append("/");
+					txBuffer.append(speed);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("neoPixelSetAnimation threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("neoPixelSetAnimation threw", e);
+			}
+		}
 	}
 
-	public synchronized void neoPixelWriteMatrix(Integer deviceId/*byte*/, int[] buffer/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + (1 + buffer.length)); // size
-			write(NEO_PIXEL_WRITE_MATRIX); // msgType = 22
-			write(deviceId);
-			write(buffer);
+	public void neoPixelWriteMatrix(Integer deviceId/*byte*/, int[] buffer/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + (1 + buffer.length)); // size
+				write(NEO_PIXEL_WRITE_MATRIX); // msgType = 22
+				write(deviceId);
+				write(buffer);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> neoPixelWriteMatrix");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(buffer));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> neoPixelWriteMatrix");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(buffer));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("neoPixelWriteMatrix threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("neoPixelWriteMatrix threw", e);
+			}
+		}
 	}
 
-	public synchronized void analogWrite(Integer pin/*byte*/, Integer value/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(ANALOG_WRITE); // msgType = 23
-			write(pin);
-			write(value);
+	public void analogWrite(Integer pin/*byte*/, Integer value/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(ANALOG_WRITE); // msgType = 23
+				write(pin);
+				write(value);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> analogWrite");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(value);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> analogWrite");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(value);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("analogWrite threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("analogWrite threw", e);
+			}
+		}
 	}
 
-	public synchronized void digitalWrite(Integer pin/*byte*/, Integer value/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(DIGITAL_WRITE); // msgType = 24
-			write(pin);
-			write(value);
+	public void digitalWrite(Integer pin/*byte*/, Integer value/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(DIGITAL_WRITE); // msgType = 24
+				write(pin);
+				write(value);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> digitalWrite");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(value);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> digitalWrite");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(value);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("digitalWrite threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("digitalWrite threw", e);
+			}
+		}
 	}
 
-	public synchronized void disablePin(Integer pin/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(DISABLE_PIN); // msgType = 25
-			write(pin);
+	public void disablePin(Integer pin/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(DISABLE_PIN); // msgType = 25
+				write(pin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> disablePin");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> disablePin");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("disablePin threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("disablePin threw", e);
+			}
+		}
 	}
 
-	public synchronized void disablePins() {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1); // size
-			write(DISABLE_PINS); // msgType = 26
+	public void disablePins() {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1); // size
+				write(DISABLE_PINS); // msgType = 26
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> disablePins");
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> disablePins");
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("disablePins threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("disablePins threw", e);
+			}
+		}
 	}
 
-	public synchronized void pinMode(Integer pin/*byte*/, Integer mode/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(PIN_MODE); // msgType = 27
-			write(pin);
-			write(mode);
+	public void pinMode(Integer pin/*byte*/, Integer mode/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(PIN_MODE); // msgType = 27
+				write(pin);
+				write(mode);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> pinMode");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(mode);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> pinMode");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(mode);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("pinMode threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("pinMode threw", e);
+			}
+		}
 	}
 
-	public synchronized void setTrigger(Integer pin/*byte*/, Integer triggerValue/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(SET_TRIGGER); // msgType = 30
-			write(pin);
-			write(triggerValue);
+	public void setTrigger(Integer pin/*byte*/, Integer triggerValue/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(SET_TRIGGER); // msgType = 30
+				write(pin);
+				write(triggerValue);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> setTrigger");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(triggerValue);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> setTrigger");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(triggerValue);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("setTrigger threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("setTrigger threw", e);
+			}
+		}
 	}
 
-	public synchronized void setDebounce(Integer pin/*byte*/, Integer delay/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(SET_DEBOUNCE); // msgType = 31
-			write(pin);
-			write(delay);
+	public void setDebounce(Integer pin/*byte*/, Integer delay/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(SET_DEBOUNCE); // msgType = 31
+				write(pin);
+				write(delay);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> setDebounce");
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(delay);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> setDebounce");
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(delay);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("setDebounce threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("setDebounce threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer initPos/*b16*/, Integer initVelocity/*b16*/, String name/*str*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 2 + 2 + (1 + name.length())); // size
-			write(SERVO_ATTACH); // msgType = 32
-			write(deviceId);
-			write(pin);
-			writeb16(initPos);
-			writeb16(initVelocity);
-			write(name);
+	public void servoAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer initPos/*b16*/, Integer initVelocity/*b16*/, String name/*str*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 2 + 2 + (1 + name.length())); // size
+				write(SERVO_ATTACH); // msgType = 32
+				write(deviceId);
+				write(pin);
+				writeb16(initPos);
+				writeb16(initVelocity);
+				write(name);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("/");
-				txBuffer.append(initPos);
-				txBuffer.append("/");
-				txBuffer.append(initVelocity);
-				txBuffer.append("/");
-				txBuffer.append(name);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("/");
+					txBuffer.append(initPos);
+					txBuffer.append("/");
+					txBuffer.append(initVelocity);
+					txBuffer.append("/");
+					txBuffer.append(name);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoAttachPin(Integer deviceId/*byte*/, Integer pin/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(SERVO_ATTACH_PIN); // msgType = 33
-			write(deviceId);
-			write(pin);
+	public void servoAttachPin(Integer deviceId/*byte*/, Integer pin/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(SERVO_ATTACH_PIN); // msgType = 33
+				write(deviceId);
+				write(pin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoAttachPin");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(pin);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoAttachPin");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(pin);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoAttachPin threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoAttachPin threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoDetachPin(Integer deviceId/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(SERVO_DETACH_PIN); // msgType = 34
-			write(deviceId);
+	public void servoDetachPin(Integer deviceId/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(SERVO_DETACH_PIN); // msgType = 34
+				write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoDetachPin");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoDetachPin");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoDetachPin threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoDetachPin threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoSetVelocity(Integer deviceId/*byte*/, Integer velocity/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 2); // size
-			write(SERVO_SET_VELOCITY); // msgType = 35
-			write(deviceId);
-			writeb16(velocity);
+	public void servoSetVelocity(Integer deviceId/*byte*/, Integer velocity/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 2); // size
+				write(SERVO_SET_VELOCITY); // msgType = 35
+				write(deviceId);
+				writeb16(velocity);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoSetVelocity");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(velocity);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoSetVelocity");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(velocity);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoSetVelocity threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoSetVelocity threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoSweepStart(Integer deviceId/*byte*/, Integer min/*byte*/, Integer max/*byte*/, Integer step/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 1 + 1); // size
-			write(SERVO_SWEEP_START); // msgType = 36
-			write(deviceId);
-			write(min);
-			write(max);
-			write(step);
+	public void servoSweepStart(Integer deviceId/*byte*/, Integer min/*byte*/, Integer max/*byte*/, Integer step/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 1 + 1); // size
+				write(SERVO_SWEEP_START); // msgType = 36
+				write(deviceId);
+				write(min);
+				write(max);
+				write(step);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoSweepStart");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(min);
-				txBuffer.append("/");
-				txBuffer.append(max);
-				txBuffer.append("/");
-				txBuffer.append(step);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoSweepStart");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(min);
+					txBuffer.append("/");
+					txBuffer.append(max);
+					txBuffer.append("/");
+					txBuffer.append(step);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoSweepStart threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoSweepStart threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoSweepStop(Integer deviceId/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(SERVO_SWEEP_STOP); // msgType = 37
-			write(deviceId);
+	public void servoSweepStop(Integer deviceId/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(SERVO_SWEEP_STOP); // msgType = 37
+				write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoSweepStop");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoSweepStop");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoSweepStop threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoSweepStop threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoMoveToMicroseconds(Integer deviceId/*byte*/, Integer target/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 2); // size
-			write(SERVO_MOVE_TO_MICROSECONDS); // msgType = 38
-			write(deviceId);
-			writeb16(target);
+	public void servoMoveToMicroseconds(Integer deviceId/*byte*/, Integer target/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 2); // size
+				write(SERVO_MOVE_TO_MICROSECONDS); // msgType = 38
+				write(deviceId);
+				writeb16(target);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoMoveToMicroseconds");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(target);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoMoveToMicroseconds");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(target);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoMoveToMicroseconds threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoMoveToMicroseconds threw", e);
+			}
+		}
 	}
 
-	public synchronized void servoSetAcceleration(Integer deviceId/*byte*/, Integer acceleration/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 2); // size
-			write(SERVO_SET_ACCELERATION); // msgType = 39
-			write(deviceId);
-			writeb16(acceleration);
+	public void servoSetAcceleration(Integer deviceId/*byte*/, Integer acceleration/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 2); // size
+				write(SERVO_SET_ACCELERATION); // msgType = 39
+				write(deviceId);
+				writeb16(acceleration);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> servoSetAcceleration");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(acceleration);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> servoSetAcceleration");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(acceleration);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("servoSetAcceleration threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("servoSetAcceleration threw", e);
+			}
+		}
 	}
 
-	public synchronized void serialAttach(Integer deviceId/*byte*/, Integer relayPin/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(SERIAL_ATTACH); // msgType = 41
-			write(deviceId);
-			write(relayPin);
+	public void serialAttach(Integer deviceId/*byte*/, Integer relayPin/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(SERIAL_ATTACH); // msgType = 41
+				write(deviceId);
+				write(relayPin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> serialAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(relayPin);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> serialAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(relayPin);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("serialAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("serialAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void serialRelay(Integer deviceId/*byte*/, int[] data/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + (1 + data.length)); // size
-			write(SERIAL_RELAY); // msgType = 42
-			write(deviceId);
-			write(data);
+	public void serialRelay(Integer deviceId/*byte*/, int[] data/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + (1 + data.length)); // size
+				write(SERIAL_RELAY); // msgType = 42
+				write(deviceId);
+				write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> serialRelay");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(data));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> serialRelay");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(data));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("serialRelay threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("serialRelay threw", e);
+			}
+		}
 	}
 
-	public synchronized void ultrasonicSensorAttach(Integer deviceId/*byte*/, Integer triggerPin/*byte*/, Integer echoPin/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 1); // size
-			write(ULTRASONIC_SENSOR_ATTACH); // msgType = 44
-			write(deviceId);
-			write(triggerPin);
-			write(echoPin);
+	public void ultrasonicSensorAttach(Integer deviceId/*byte*/, Integer triggerPin/*byte*/, Integer echoPin/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 1); // size
+				write(ULTRASONIC_SENSOR_ATTACH); // msgType = 44
+				write(deviceId);
+				write(triggerPin);
+				write(echoPin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> ultrasonicSensorAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(triggerPin);
-				txBuffer.append("/");
-				txBuffer.append(echoPin);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> ultrasonicSensorAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(triggerPin);
+					txBuffer.append("/");
+					txBuffer.append(echoPin);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("ultrasonicSensorAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("ultrasonicSensorAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void ultrasonicSensorStartRanging(Integer deviceId/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(ULTRASONIC_SENSOR_START_RANGING); // msgType = 45
-			write(deviceId);
+	public void ultrasonicSensorStartRanging(Integer deviceId/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(ULTRASONIC_SENSOR_START_RANGING); // msgType = 45
+				write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> ultrasonicSensorStartRanging");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> ultrasonicSensorStartRanging");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("ultrasonicSensorStartRanging threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("ultrasonicSensorStartRanging threw", e);
+			}
+		}
 	}
 
-	public synchronized void ultrasonicSensorStopRanging(Integer deviceId/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(ULTRASONIC_SENSOR_STOP_RANGING); // msgType = 46
-			write(deviceId);
+	public void ultrasonicSensorStopRanging(Integer deviceId/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(ULTRASONIC_SENSOR_STOP_RANGING); // msgType = 46
+				write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> ultrasonicSensorStopRanging");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> ultrasonicSensorStopRanging");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("ultrasonicSensorStopRanging threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("ultrasonicSensorStopRanging threw", e);
+			}
+		}
 	}
 
-	public synchronized void setAref(Integer type/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 2); // size
-			write(SET_AREF); // msgType = 48
-			writeb16(type);
+	public void setAref(Integer type/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 2); // size
+				write(SET_AREF); // msgType = 48
+				writeb16(type);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> setAref");
-				txBuffer.append("/");
-				txBuffer.append(type);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> setAref");
+					txBuffer.append("/");
+					txBuffer.append(type);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("setAref threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("setAref threw", e);
+			}
+		}
 	}
 
-	public synchronized void motorAttach(Integer deviceId/*byte*/, Integer type/*byte*/, int[] pins/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + (1 + pins.length)); // size
-			write(MOTOR_ATTACH); // msgType = 49
-			write(deviceId);
-			write(type);
-			write(pins);
+	public void motorAttach(Integer deviceId/*byte*/, Integer type/*byte*/, int[] pins/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + (1 + pins.length)); // size
+				write(MOTOR_ATTACH); // msgType = 49
+				write(deviceId);
+				write(type);
+				write(pins);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> motorAttach");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(type);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(pins));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> motorAttach");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(type);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(pins));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("motorAttach threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("motorAttach threw", e);
+			}
+		}
 	}
 
-	public synchronized void motorMove(Integer deviceId/*byte*/, Integer pwr/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(MOTOR_MOVE); // msgType = 50
-			write(deviceId);
-			write(pwr);
+	public void motorMove(Integer deviceId/*byte*/, Integer pwr/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(MOTOR_MOVE); // msgType = 50
+				write(deviceId);
+				write(pwr);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> motorMove");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(pwr);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> motorMove");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(pwr);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("motorMove threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("motorMove threw", e);
+			}
+		}
 	}
 
-	public synchronized void motorMoveTo(Integer deviceId/*byte*/, Integer pos/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1); // size
-			write(MOTOR_MOVE_TO); // msgType = 51
-			write(deviceId);
-			write(pos);
+	public void motorMoveTo(Integer deviceId/*byte*/, Integer pos/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1); // size
+				write(MOTOR_MOVE_TO); // msgType = 51
+				write(deviceId);
+				write(pos);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> motorMoveTo");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(pos);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> motorMoveTo");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(pos);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("motorMoveTo threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("motorMoveTo threw", e);
+			}
+		}
 	}
 
 
@@ -2014,11 +2139,10 @@ public class Msg {
 	}
 
 	public String str(int[] buffer, int start, int size) {
-		byte[] b = new byte[size];
 		for (int i = start; i < start + size; ++i){
-			b[i - start] = (byte)(buffer[i] & 0xFF);
+			strBuffer[i - start] = (byte)(buffer[i] & 0xFF);
 		}
-		return new String(b);
+		return new String(strBuffer, 0, size);
 	}
 
 	public int[] subArray(int[] buffer, int start, int size) {		
@@ -2050,12 +2174,10 @@ public class Msg {
 
   // float 32 bit bucket
   public float f32(int[] buffer, int start/*=0*/) {
-    byte[] b = new byte[4];
-    for (int i = 0; i < 4; ++i){
-      b[i] = (byte)buffer[start + i];
+    if (MRLCOMM_SIDE) {
+      return Float.intBitsToFloat((buffer[start + 3] << 24) + (buffer[start + 2] << 16) + (buffer[start + 1] << 8) + buffer[start]);
     }
-    float f = ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN).getFloat();
-    return f;
+    return Float.intBitsToFloat(b32(buffer, start));
   }
   
   public boolean readMsg() throws Exception {
@@ -2116,15 +2238,15 @@ public class Msg {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
-		serial.write(b8 & 0xFF);
+		if (txFrameSize == txFrame.length) {
+			throw new IOException(String.format("message larger than %d bytes", MAX_MSG_SIZE));
+		}
+
+		txFrame[txFrameSize++] = (byte) b8;
 	}
 
 	void writebool(boolean b1) throws Exception {
-		if (b1) {
-			serial.write(1);
-		} else {
-			serial.write(0);
-		}
+		write((b1) ? 1 : 0);
 	}
 
 	void writeb16(int b16) throws Exception {
@@ -2144,12 +2266,15 @@ public class Msg {
 	}
 	
 	void writef32(float f32) throws Exception {
-    //  int x = Float.floatToIntBits(f32);
-    byte[] f = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putFloat(f32).array();
-    write(f[3] & 0xFF);
-    write(f[2] & 0xFF);
-    write(f[1] & 0xFF);
-    write(f[0] & 0xFF);
+    int x = Float.floatToIntBits(f32);
+    if (MRLCOMM_SIDE) {
+      writeb32(x);
+      return;
+    }
+    write(x & 0xFF);
+    write(x >> 8 & 0xFF);
+    write(x >> 16 & 0xFF);
+    write(x >> 24 & 0xFF);
 	}
 	
 	void writebu32(long b32) throws Exception {
@@ -2179,9 +2304,69 @@ public class Msg {
 
 		// write data
 		for (int i = 0; i < array.length; ++i) {
-			write(array[i]);
+			write(array[i] & 0xFF);
+		}
+	}
+
+	/**
+	 * waits until the ack window has room for another frame - called before
+	 * the encoder is taken, so a full window never holds up the thread
+	 * delivering acks. A caller already holding the encoder (a batch of
+	 * the CommandQueue) doesn't wait - its frames are queued in the window.
+	 */
+	void awaitWindow() {
+		if (!ackEnabled || Thread.holdsLock(this)) {
+			return;
+		}
+		try {
+			ackWindow.awaitRoom();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("awaitWindow threw", e);
+		}
+	}
+
+	/**
+	 * hands the assembled frame to the serial device in one write
+	 */
+	void sendFrame() throws Exception {
+		if (ackEnabled) {
+			ackWindow.send(txFrame, 0, txFrameSize);
+		} else {
+			transmitter.transmit(txFrame, 0, txFrameSize);
+		}
+		txFrameSize = 0;
+	}
+
+	/**
+	 * collect the frames of the following messages and write them
+	 * together at endBatch()
+	 */
+	public void beginBatch() {
+		synchronized (batch) {
+			batching = true;
 		}
 	}
+
+	public void endBatch() {
+		synchronized (batch) {
+			batching = false;
+			try {
+				transmitter.flush();
+			} catch (Exception e) {
+				log.error("endBatch threw", e);
+			}
+		}
+	}
+
+	public void setCommandQueue(CommandQueue queue) {
+		commandQueue = queue;
+	}
+
+	public CommandQueue getCommandQueue() {
+		return commandQueue;
+	}
 	
 	
 	public boolean isRecording() {
@@ -2196,6 +2381,14 @@ public class Msg {
 		}
 	}
 
+	/**
+	 * record sent and received messages as text to a stream
+	 */
+	public void record(OutputStream out) {
+		stopRecording();
+		record = out;
+	}
+
 	public void stopRecording() {
 		if (record != null) {
 			try {
@@ -2258,6 +2451,7 @@ public class Msg {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  ackWindow.clear();
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -2266,31 +2460,27 @@ public class Msg {
 	  // }
 	}
 	
+	/**
+	 * blocks until everything in flight has been acknowledged
+	 */
 	public void waitForAck(){
-	  if (!ackEnabled || ackRecievedLock.acknowledged){
+	  if (!ackEnabled){
 	    return;
 	  }
-    synchronized (ackRecievedLock) {
-      try {
-        long ts = System.currentTimeMillis();
-        // log.info("***** starting wait *****");
-        ackRecievedLock.wait(2000);
-        // log.info("*****  waited {} ms *****", (System.currentTimeMillis() - ts));
-      } catch (InterruptedException e) {// don't care}
-      }
-
-      if (!ackRecievedLock.acknowledged) {
-        //log.error("Ack not received : {} {}", Msg.methodToString(ioCmd[0]), numAck);
-        log.error("Ack not received");
-      }
-    }
+	  try {
+	    if (!ackWindow.drain(2000)) {
+	      log.error("Ack not received");
+	    }
+	  } catch (InterruptedException e) {// don't care}
+	  }
 	}
 	
 	public void ackReceived(int function){
-	   synchronized (ackRecievedLock) {
-	      ackRecievedLock.acknowledged = true;
-	      ackRecievedLock.notifyAll();
-	    }
+	  ackWindow.ack(function);
+	}
+	
+	public AckWindow getAckWindow(){
+	  return ackWindow;
 	}
 	
 	public int getMethod(){
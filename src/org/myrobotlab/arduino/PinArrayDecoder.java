@@ -0,0 +1,108 @@
+package org.myrobotlab.arduino;
+
+import java.util.Arrays;
+
+import org.myrobotlab.service.data.PinSamples;
+
+/**
+ * Decodes publishPinArray - address|value msb|value lsb per pin - into pooled
+ * PinSamples. Each pin can have a deadband: a sample is dropped unless it
+ * differs from the last sample passed for that pin by at least the deadband,
+ * so an idle analog pin polled at a high rate costs nothing past the decode.
+ */
+public class PinArrayDecoder {
+
+  public static class Stats {
+    public long arrays;
+    public long samples;
+    public long filtered;
+    public long buffersCreated;
+
+    @Override
+    public String toString() {
+      return String.format("arrays %d samples %d filtered %d buffers created %d", arrays, samples, filtered, buffersCreated);
+    }
+  }
+
+  /**
+   * pin addresses are a byte on the wire
+   */
+  public static final int MAX_ADDRESS = 255;
+
+  static final int NO_VALUE = Integer.MIN_VALUE;
+
+  final PinSamples.Pool pool = new PinSamples.Pool(Msg.MAX_MSG_SIZE / 3, 8);
+
+  // per address
+  final int[] deadband = new int[MAX_ADDRESS + 1];
+  final int[] last = new int[MAX_ADDRESS + 1];
+
+  // stats
+  long arrays = 0;
+  long samples = 0;
+  long filtered = 0;
+
+  public PinArrayDecoder() {
+    Arrays.fill(last, NO_VALUE);
+  }
+
+  /**
+   * @param data
+   *          publishPinArray data
+   * @param ts
+   *          time the array was received
+   * @return the samples which passed their deadband - null if none did. The
+   *         caller releases it.
+   */
+  public synchronized PinSamples decode(int[] data, long ts) {
+    ++arrays;
+    PinSamples pinSamples = null;
+    for (int i = 0; i + 2 < data.length; i += 3) {
+      int address = data[i] & 0xff;
+      int value = ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+      ++samples;
+      int previous = last[address];
+      if (previous != NO_VALUE && Math.abs(value - previous) < deadband[address]) {
+        ++filtered;
+        continue;
+      }
+      last[address] = value;
+      if (pinSamples == null) {
+        pinSamples = pool.acquire();
+      }
+      pinSamples.add(address, value, ts);
+    }
+    return pinSamples;
+  }
+
+  /**
+   * @param address
+   *          pin address
+   * @param delta
+   *          smallest change which is published - 0 publishes every sample
+   */
+  public synchronized void setDeadband(int address, int delta) {
+    deadband[address & 0xff] = Math.max(0, delta);
+  }
+
+  public synchronized int getDeadband(int address) {
+    return deadband[address & 0xff];
+  }
+
+  /**
+   * forget the last values - the next sample of every pin passes
+   */
+  public synchronized void reset() {
+    Arrays.fill(last, NO_VALUE);
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.arrays = arrays;
+    stats.samples = samples;
+    stats.filtered = filtered;
+    stats.buffersCreated = pool.getCreated();
+    return stats;
+  }
+
+}
@@ -3,8 +3,7 @@ package org.myrobotlab.arduino;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import org.myrobotlab.logging.Level;
@@ -62,9 +61,22 @@ import org.slf4j.Logger;
 public class VirtualMsg {
 
 	public static final int MAX_MSG_SIZE = 64;
+	public static final int MAX_BATCH_SIZE = 256;
 	public static final int MAGIC_NUMBER = 170; // 10101010
 	public static final int MRLCOMM_VERSION = 57;
 	
+	// MrlComm reads floats in AVR (little endian) byte order but writes
+	// them most significant byte first - true if this is the MrlComm side
+	static final boolean MRLCOMM_SIDE = true;
+	
+	// send frame - a whole message is assembled here and handed to the
+	// serial device in a single write
+	transient byte[] txFrame = new byte[MAX_MSG_SIZE + 2];
+	int txFrameSize = 0;
+	
+	// decode scratch for str parameters
+	transient byte[] strBuffer = new byte[MAX_MSG_SIZE];
+	
 	// send buffer
   int sendBufferSize = 0;
   int sendBuffer[] = new int[MAX_MSG_SIZE];
@@ -82,16 +94,49 @@ public class VirtualMsg {
 	
 	boolean ackEnabled = false;
 	
-	 public static class AckLock {
-	    // first is always true - since there
-	    // is no msg to be acknowledged...
-	    volatile boolean acknowledged = true;
-	  }
-	 
-	transient AckLock ackRecievedLock = new AckLock();
+	// batch - between beginBatch() and endBatch() frames are collected
+	// and written to the serial device together
+	transient byte[] batch = new byte[MAX_BATCH_SIZE];
+	int batchSize = 0;
+	boolean batching = false;
+	
+	// every frame is written through here
+	transient AckWindow.Transmitter transmitter = new AckWindow.Transmitter() {
+		@Override
+		public void transmit(byte[] frame, int off, int len) throws Exception {
+			synchronized (batch) {
+				if (!batching) {
+					serial.write(frame, off, len);
+					return;
+				}
+				if (batchSize + len > batch.length) {
+					flush();
+				}
+				System.arraycopy(frame, off, batch, batchSize, len);
+				batchSize += len;
+			}
+		}
+
+		@Override
+		public void flush() throws Exception {
+			synchronized (batch) {
+				if (batchSize > 0) {
+					serial.write(batch, 0, batchSize);
+					batchSize = 0;
+				}
+			}
+		}
+	};
+	
+	// frames sent but not yet acknowledged - senders only block when
+	// the window is full
+	transient AckWindow ackWindow = new AckWindow(transmitter);
+	
+	// coalesces high rate servo and pwm writes - null if not in use
+	transient CommandQueue commandQueue = null;
 	
 	// recording related
-	transient FileOutputStream record = null;
+	transient OutputStream record = null;
 	transient StringBuilder rxBuffer = new StringBuilder();
 	transient StringBuilder txBuffer = new StringBuilder();	
 
@@ -311,6 +356,15 @@ public class VirtualMsg {
 			} else { 
  				arduino.getBoardInfo();
 			}
+			if(record != null){
+				rxBuffer.append("< getBoardInfo");
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ENABLE_PIN: {
@@ -325,6 +379,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.enablePin( address,  type,  rate);
 			}
+			if(record != null){
+				rxBuffer.append("< enablePin");
+				rxBuffer.append("/");
+				rxBuffer.append(address);
+				rxBuffer.append("/");
+				rxBuffer.append(type);
+				rxBuffer.append("/");
+				rxBuffer.append(rate);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SET_DEBUG: {
@@ -335,6 +404,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.setDebug( enabled);
 			}
+			if(record != null){
+				rxBuffer.append("< setDebug");
+				rxBuffer.append("/");
+				rxBuffer.append(enabled);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SET_SERIAL_RATE: {
@@ -345,6 +425,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.setSerialRate( rate);
 			}
+			if(record != null){
+				rxBuffer.append("< setSerialRate");
+				rxBuffer.append("/");
+				rxBuffer.append(rate);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SOFT_RESET: {
@@ -353,6 +444,15 @@ public class VirtualMsg {
 			} else { 
  				arduino.softReset();
 			}
+			if(record != null){
+				rxBuffer.append("< softReset");
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ENABLE_ACK: {
@@ -363,6 +463,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.enableAck( enabled);
 			}
+			if(record != null){
+				rxBuffer.append("< enableAck");
+				rxBuffer.append("/");
+				rxBuffer.append(enabled);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ECHO: {
@@ -377,6 +488,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.echo( myFloat,  myByte,  secondFloat);
 			}
+			if(record != null){
+				rxBuffer.append("< echo");
+				rxBuffer.append("/");
+				rxBuffer.append(myFloat);
+				rxBuffer.append("/");
+				rxBuffer.append(myByte);
+				rxBuffer.append("/");
+				rxBuffer.append(secondFloat);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case CUSTOM_MSG: {
@@ -387,6 +513,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.customMsg( msg);
 			}
+			if(record != null){
+				rxBuffer.append("< customMsg");
+				rxBuffer.append("/");
+				rxBuffer.append(Arrays.toString(msg));
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case DEVICE_DETACH: {
@@ -397,6 +534,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.deviceDetach( deviceId);
 			}
+			if(record != null){
+				rxBuffer.append("< deviceDetach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case I2C_BUS_ATTACH: {
@@ -409,6 +557,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.i2cBusAttach( deviceId,  i2cBus);
 			}
+			if(record != null){
+				rxBuffer.append("< i2cBusAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(i2cBus);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case I2C_READ: {
@@ -423,6 +584,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.i2cRead( deviceId,  deviceAddress,  size);
 			}
+			if(record != null){
+				rxBuffer.append("< i2cRead");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(deviceAddress);
+				rxBuffer.append("/");
+				rxBuffer.append(size);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case I2C_WRITE: {
@@ -437,6 +613,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.i2cWrite( deviceId,  deviceAddress,  data);
 			}
+			if(record != null){
+				rxBuffer.append("< i2cWrite");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(deviceAddress);
+				rxBuffer.append("/");
+				rxBuffer.append(Arrays.toString(data));
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case I2C_WRITE_READ: {
@@ -453,6 +644,23 @@ public class VirtualMsg {
 			} else { 
  				arduino.i2cWriteRead( deviceId,  deviceAddress,  readSize,  writeValue);
 			}
+			if(record != null){
+				rxBuffer.append("< i2cWriteRead");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(deviceAddress);
+				rxBuffer.append("/");
+				rxBuffer.append(readSize);
+				rxBuffer.append("/");
+				rxBuffer.append(writeValue);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case NEO_PIXEL_ATTACH: {
@@ -467,6 +675,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.neoPixelAttach( deviceId,  pin,  numPixels);
 			}
+			if(record != null){
+				rxBuffer.append("< neoPixelAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(numPixels);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case NEO_PIXEL_SET_ANIMATION: {
@@ -487,6 +710,27 @@ public class VirtualMsg {
 			} else { 
  				arduino.neoPixelSetAnimation( deviceId,  animation,  red,  green,  blue,  speed);
 			}
+			if(record != null){
+				rxBuffer.append("< neoPixelSetAnimation");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(animation);
+				rxBuffer.append("/");
+				rxBuffer.append(red);
+				rxBuffer.append("/");
+				rxBuffer.append(green);
+				rxBuffer.append("/");
+				rxBuffer.append(blue);
+				rxBuffer.append("/");
+				rxBuffer.append(speed);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case NEO_PIXEL_WRITE_MATRIX: {
@@ -499,6 +743,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.neoPixelWriteMatrix( deviceId,  buffer);
 			}
+			if(record != null){
+				rxBuffer.append("< neoPixelWriteMatrix");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(Arrays.toString(buffer));
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ANALOG_WRITE: {
@@ -511,6 +768,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.analogWrite( pin,  value);
 			}
+			if(record != null){
+				rxBuffer.append("< analogWrite");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(value);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case DIGITAL_WRITE: {
@@ -523,6 +793,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.digitalWrite( pin,  value);
 			}
+			if(record != null){
+				rxBuffer.append("< digitalWrite");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(value);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case DISABLE_PIN: {
@@ -533,6 +816,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.disablePin( pin);
 			}
+			if(record != null){
+				rxBuffer.append("< disablePin");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case DISABLE_PINS: {
@@ -541,6 +835,15 @@ public class VirtualMsg {
 			} else { 
  				arduino.disablePins();
 			}
+			if(record != null){
+				rxBuffer.append("< disablePins");
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case PIN_MODE: {
@@ -553,6 +856,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.pinMode( pin,  mode);
 			}
+			if(record != null){
+				rxBuffer.append("< pinMode");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(mode);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SET_TRIGGER: {
@@ -565,6 +881,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.setTrigger( pin,  triggerValue);
 			}
+			if(record != null){
+				rxBuffer.append("< setTrigger");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(triggerValue);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SET_DEBOUNCE: {
@@ -577,6 +906,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.setDebounce( pin,  delay);
 			}
+			if(record != null){
+				rxBuffer.append("< setDebounce");
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(delay);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_ATTACH: {
@@ -595,6 +937,25 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoAttach( deviceId,  pin,  initPos,  initVelocity,  name);
 			}
+			if(record != null){
+				rxBuffer.append("< servoAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+				rxBuffer.append("/");
+				rxBuffer.append(initPos);
+				rxBuffer.append("/");
+				rxBuffer.append(initVelocity);
+				rxBuffer.append("/");
+				rxBuffer.append(name);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_ATTACH_PIN: {
@@ -607,6 +968,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoAttachPin( deviceId,  pin);
 			}
+			if(record != null){
+				rxBuffer.append("< servoAttachPin");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(pin);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_DETACH_PIN: {
@@ -617,6 +991,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoDetachPin( deviceId);
 			}
+			if(record != null){
+				rxBuffer.append("< servoDetachPin");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_SET_VELOCITY: {
@@ -629,6 +1014,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoSetVelocity( deviceId,  velocity);
 			}
+			if(record != null){
+				rxBuffer.append("< servoSetVelocity");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(velocity);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_SWEEP_START: {
@@ -645,6 +1043,23 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoSweepStart( deviceId,  min,  max,  step);
 			}
+			if(record != null){
+				rxBuffer.append("< servoSweepStart");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(min);
+				rxBuffer.append("/");
+				rxBuffer.append(max);
+				rxBuffer.append("/");
+				rxBuffer.append(step);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_SWEEP_STOP: {
@@ -655,6 +1070,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoSweepStop( deviceId);
 			}
+			if(record != null){
+				rxBuffer.append("< servoSweepStop");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_MOVE_TO_MICROSECONDS: {
@@ -667,6 +1093,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoMoveToMicroseconds( deviceId,  target);
 			}
+			if(record != null){
+				rxBuffer.append("< servoMoveToMicroseconds");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(target);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERVO_SET_ACCELERATION: {
@@ -679,6 +1118,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.servoSetAcceleration( deviceId,  acceleration);
 			}
+			if(record != null){
+				rxBuffer.append("< servoSetAcceleration");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(acceleration);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERIAL_ATTACH: {
@@ -691,6 +1143,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.serialAttach( deviceId,  relayPin);
 			}
+			if(record != null){
+				rxBuffer.append("< serialAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(relayPin);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SERIAL_RELAY: {
@@ -703,6 +1168,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.serialRelay( deviceId,  data);
 			}
+			if(record != null){
+				rxBuffer.append("< serialRelay");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(Arrays.toString(data));
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ULTRASONIC_SENSOR_ATTACH: {
@@ -717,6 +1195,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.ultrasonicSensorAttach( deviceId,  triggerPin,  echoPin);
 			}
+			if(record != null){
+				rxBuffer.append("< ultrasonicSensorAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(triggerPin);
+				rxBuffer.append("/");
+				rxBuffer.append(echoPin);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ULTRASONIC_SENSOR_START_RANGING: {
@@ -727,6 +1220,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.ultrasonicSensorStartRanging( deviceId);
 			}
+			if(record != null){
+				rxBuffer.append("< ultrasonicSensorStartRanging");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case ULTRASONIC_SENSOR_STOP_RANGING: {
@@ -737,6 +1241,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.ultrasonicSensorStopRanging( deviceId);
 			}
+			if(record != null){
+				rxBuffer.append("< ultrasonicSensorStopRanging");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case SET_AREF: {
@@ -747,6 +1262,17 @@ public class VirtualMsg {
 			} else { 
  				arduino.setAref( type);
 			}
+			if(record != null){
+				rxBuffer.append("< setAref");
+				rxBuffer.append("/");
+				rxBuffer.append(type);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case MOTOR_ATTACH: {
@@ -761,6 +1287,21 @@ public class VirtualMsg {
 			} else { 
  				arduino.motorAttach( deviceId,  type,  pins);
 			}
+			if(record != null){
+				rxBuffer.append("< motorAttach");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(type);
+				rxBuffer.append("/");
+				rxBuffer.append(Arrays.toString(pins));
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case MOTOR_MOVE: {
@@ -773,6 +1314,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.motorMove( deviceId,  pwr);
 			}
+			if(record != null){
+				rxBuffer.append("< motorMove");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(pwr);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		case MOTOR_MOVE_TO: {
@@ -785,6 +1339,19 @@ public class VirtualMsg {
 			} else { 
  				arduino.motorMoveTo( deviceId,  pos);
 			}
+			if(record != null){
+				rxBuffer.append("< motorMoveTo");
+				rxBuffer.append("/");
+				rxBuffer.append(deviceId);
+				rxBuffer.append("/");
+				rxBuffer.append(pos);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
 			break;
 		}
 		
@@ -794,362 +1361,384 @@ public class VirtualMsg {
 
 	// Java-land --to--> MrlComm
 
-	public synchronized void publishMRLCommError(String errorMsg/*str*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + (1 + errorMsg.length())); // size
-			write(PUBLISH_MRLCOMM_ERROR); // msgType = 1
-			write(errorMsg);
+	public void publishMRLCommError(String errorMsg/*str*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + (1 + errorMsg.length())); // size
+				write(PUBLISH_MRLCOMM_ERROR); // msgType = 1
+				write(errorMsg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishMRLCommError");
-				txBuffer.append("/");
-				txBuffer.append(errorMsg);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishMRLCommError");
+					txBuffer.append("/");
+					txBuffer.append(errorMsg);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("publishMRLCommError threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("publishMRLCommError threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, int[] deviceSummary/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 2 + 2 + 1 + (1 + deviceSummary.length)); // size
-			write(PUBLISH_BOARD_INFO); // msgType = 3
-			write(version);
-			write(boardType);
-			writeb16(microsPerLoop);
-			writeb16(sram);
-			write(activePins);
-			write(deviceSummary);
+	public void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, int[] deviceSummary/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 2 + 2 + 1 + (1 + deviceSummary.length)); // size
+				write(PUBLISH_BOARD_INFO); // msgType = 3
+				write(version);
+				write(boardType);
+				writeb16(microsPerLoop);
+				writeb16(sram);
+				write(activePins);
+				write(deviceSummary);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishBoardInfo");
-				txBuffer.append("/");
-				txBuffer.append(version);
-				txBuffer.append("/");
-				txBuffer.append(boardType);
-				txBuffer.append("/");
-				txBuffer.append(microsPerLoop);
-				txBuffer.append("/");
-				txBuffer.append(sram);
-				txBuffer.append("/");
-				txBuffer.append(activePins);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(deviceSummary));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishBoardInfo threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishBoardInfo");
+					txBuffer.append("/");
+					txBuffer.append(version);
+					txBuffer.append("/");
+					txBuffer.append(boardType);
+					txBuffer.append("/");
+					txBuffer.append(microsPerLoop);
+					txBuffer.append("/");
+					txBuffer.append(sram);
+					txBuffer.append("/");
+					txBuffer.append(activePins);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(deviceSummary));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishBoardInfo threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishAck(Integer function/*byte*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1); // size
-			write(PUBLISH_ACK); // msgType = 9
-			write(function);
+	public void publishAck(Integer function/*byte*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1); // size
+				write(PUBLISH_ACK); // msgType = 9
+				write(function);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishAck");
-				txBuffer.append("/");
-				txBuffer.append(function);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishAck");
+					txBuffer.append("/");
+					txBuffer.append(function);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("publishAck threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("publishAck threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishEcho(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 4 + 1 + 4); // size
-			write(PUBLISH_ECHO); // msgType = 11
-			writef32(myFloat);
-			write(myByte);
-			writef32(secondFloat);
+	public void publishEcho(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 4 + 1 + 4); // size
+				write(PUBLISH_ECHO); // msgType = 11
+				writef32(myFloat);
+				write(myByte);
+				writef32(secondFloat);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishEcho");
-				txBuffer.append("/");
-				txBuffer.append(myFloat);
-				txBuffer.append("/");
-				txBuffer.append(myByte);
-				txBuffer.append("/");
-				txBuffer.append(secondFloat);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishEcho threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishEcho");
+					txBuffer.append("/");
+					txBuffer.append(myFloat);
+					txBuffer.append("/");
+					txBuffer.append(myByte);
+					txBuffer.append("/");
+					txBuffer.append(secondFloat);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishEcho threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishCustomMsg(int[] msg/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + (1 + msg.length)); // size
-			write(PUBLISH_CUSTOM_MSG); // msgType = 13
-			write(msg);
+	public void publishCustomMsg(int[] msg/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + (1 + msg.length)); // size
+				write(PUBLISH_CUSTOM_MSG); // msgType = 13
+				write(msg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishCustomMsg");
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(msg));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishCustomMsg");
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(msg));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("publishCustomMsg threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("publishCustomMsg threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishI2cData(Integer deviceId/*byte*/, int[] data/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + (1 + data.length)); // size
-			write(PUBLISH_I2C_DATA); // msgType = 19
-			write(deviceId);
-			write(data);
+	public void publishI2cData(Integer deviceId/*byte*/, int[] data/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + (1 + data.length)); // size
+				write(PUBLISH_I2C_DATA); // msgType = 19
+				write(deviceId);
+				write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishI2cData");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(data));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishI2cData threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishI2cData");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(data));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishI2cData threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishDebug(String debugMsg/*str*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + (1 + debugMsg.length())); // size
-			write(PUBLISH_DEBUG); // msgType = 28
-			write(debugMsg);
+	public void publishDebug(String debugMsg/*str*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + (1 + debugMsg.length())); // size
+				write(PUBLISH_DEBUG); // msgType = 28
+				write(debugMsg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishDebug");
-				txBuffer.append("/");
-				txBuffer.append(debugMsg);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishDebug");
+					txBuffer.append("/");
+					txBuffer.append(debugMsg);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("publishDebug threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("publishDebug threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishPinArray(int[] data/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + (1 + data.length)); // size
-			write(PUBLISH_PIN_ARRAY); // msgType = 29
-			write(data);
+	public void publishPinArray(int[] data/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + (1 + data.length)); // size
+				write(PUBLISH_PIN_ARRAY); // msgType = 29
+				write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishPinArray");
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(data));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishPinArray");
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(data));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
 
-	  } catch (Exception e) {
-	  			log.error("publishPinArray threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("publishPinArray threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishServoEvent(Integer deviceId/*byte*/, Integer eventType/*byte*/, Integer currentPos/*b16*/, Integer targetPos/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 2 + 2); // size
-			write(PUBLISH_SERVO_EVENT); // msgType = 40
-			write(deviceId);
-			write(eventType);
-			writeb16(currentPos);
-			writeb16(targetPos);
+	public void publishServoEvent(Integer deviceId/*byte*/, Integer eventType/*byte*/, Integer currentPos/*b16*/, Integer targetPos/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 1 + 2 + 2); // size
+				write(PUBLISH_SERVO_EVENT); // msgType = 40
+				write(deviceId);
+				write(eventType);
+				writeb16(currentPos);
+				writeb16(targetPos);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishServoEvent");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(eventType);
-				txBuffer.append("/");
-				txBuffer.append(currentPos);
-				txBuffer.append("/");
-				txBuffer.append(targetPos);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishServoEvent threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishServoEvent");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(eventType);
+					txBuffer.append("/");
+					txBuffer.append(currentPos);
+					txBuffer.append("/");
+					txBuffer.append(targetPos);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishServoEvent threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishSerialData(Integer deviceId/*byte*/, int[] data/*[]*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + (1 + data.length)); // size
-			write(PUBLISH_SERIAL_DATA); // msgType = 43
-			write(deviceId);
-			write(data);
+	public void publishSerialData(Integer deviceId/*byte*/, int[] data/*[]*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + (1 + data.length)); // size
+				write(PUBLISH_SERIAL_DATA); // msgType = 43
+				write(deviceId);
+				write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishSerialData");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(Arrays.toString(data));
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishSerialData threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishSerialData");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(Arrays.toString(data));
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishSerialData threw", e);
+			}
+		}
 	}
 
-	public synchronized void publishUltrasonicSensorData(Integer deviceId/*byte*/, Integer echoTime/*b16*/) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(1 + 1 + 2); // size
-			write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 47
-			write(deviceId);
-			writeb16(echoTime);
+	public void publishUltrasonicSensorData(Integer deviceId/*byte*/, Integer echoTime/*b16*/) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(1 + 1 + 2); // size
+				write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 47
+				write(deviceId);
+				writeb16(echoTime);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
-			if(record != null){
-				txBuffer.append("> publishUltrasonicSensorData");
-				txBuffer.append("/");
-				txBuffer.append(deviceId);
-				txBuffer.append("/");
-				txBuffer.append(echoTime);
-				txBuffer.append("\n");
-				record.write(txBuffer.toString().getBytes());
-				txBuffer.setLength(0);
-			}
-
-	  } catch (Exception e) {
-	  			log.error("publishUltrasonicSensorData threw",e);
-	  }
+				sendFrame();
+				if(record != null){
+					txBuffer.append("> publishUltrasonicSensorData");
+					txBuffer.append("/");
+					txBuffer.append(deviceId);
+					txBuffer.append("/");
+					txBuffer.append(echoTime);
+					txBuffer.append("\n");
+					record.write(txBuffer.toString().getBytes());
+					txBuffer.setLength(0);
+				}
+
+			} catch (Exception e) {
+				log.error("publishUltrasonicSensorData threw", e);
+			}
+		}
 	}
 
 
@@ -1317,11 +1906,10 @@ public class VirtualMsg {
 	}
 
 	public String str(int[] buffer, int start, int size) {
-		byte[] b = new byte[size];
 		for (int i = start; i < start + size; ++i){
-			b[i - start] = (byte)(buffer[i] & 0xFF);
+			strBuffer[i - start] = (byte)(buffer[i] & 0xFF);
 		}
-		return new String(b);
+		return new String(strBuffer, 0, size);
 	}
 
 	public int[] subArray(int[] buffer, int start, int size) {		
@@ -1353,12 +1941,10 @@ public class VirtualMsg {
 
   // float 32 bit bucket
   public float f32(int[] buffer, int start/*=0*/) {
-    byte[] b = new byte[4];
-    for (int i = 0; i < 4; ++i){
-      b[i] = (byte)buffer[start + i];
+    if (MRLCOMM_SIDE) {
+      return Float.intBitsToFloat((buffer[start + 3] << 24) + (buffer[start + 2] << 16) + (buffer[start + 1] << 8) + buffer[start]);
     }
-    float f = ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN).getFloat();
-    return f;
+    return Float.intBitsToFloat(b32(buffer, start));
   }
   
   public boolean readMsg() throws Exception {
@@ -1419,15 +2005,15 @@ public class VirtualMsg {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
-		serial.write(b8 & 0xFF);
+		if (txFrameSize == txFrame.length) {
+			throw new IOException(String.format("message larger than %d bytes", MAX_MSG_SIZE));
+		}
+
+		txFrame[txFrameSize++] = (byte) b8;
 	}
 
 	void writebool(boolean b1) throws Exception {
-		if (b1) {
-			serial.write(1);
-		} else {
-			serial.write(0);
-		}
+		write((b1) ? 1 : 0);
 	}
 
 	void writeb16(int b16) throws Exception {
@@ -1447,12 +2033,15 @@ public class VirtualMsg {
 	}
 	
 	void writef32(float f32) throws Exception {
-    //  int x = Float.floatToIntBits(f32);
-    byte[] f = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putFloat(f32).array();
-    write(f[3] & 0xFF);
-    write(f[2] & 0xFF);
-    write(f[1] & 0xFF);
-    write(f[0] & 0xFF);
+    int x = Float.floatToIntBits(f32);
+    if (MRLCOMM_SIDE) {
+      writeb32(x);
+      return;
+    }
+    write(x & 0xFF);
+    write(x >> 8 & 0xFF);
+    write(x >> 16 & 0xFF);
+    write(x >> 24 & 0xFF);
 	}
 	
 	void writebu32(long b32) throws Exception {
@@ -1482,9 +2071,69 @@ public class VirtualMsg {
 
 		// write data
 		for (int i = 0; i < array.length; ++i) {
-			write(array[i]);
+			write(array[i] & 0xFF);
 		}
 	}
+
+	/**
+	 * waits until the ack window has room for another frame - called before
+	 * the encoder is taken, so a full window never holds up the thread
+	 * delivering acks. A caller already holding the encoder (a batch of
+	 * the CommandQueue) doesn't wait - its frames are queued in the window.
+	 */
+	void awaitWindow() {
+		if (!ackEnabled || Thread.holdsLock(this)) {
+			return;
+		}
+		try {
+			ackWindow.awaitRoom();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("awaitWindow threw", e);
+		}
+	}
+
+	/**
+	 * hands the assembled frame to the serial device in one write
+	 */
+	void sendFrame() throws Exception {
+		if (ackEnabled) {
+			ackWindow.send(txFrame, 0, txFrameSize);
+		} else {
+			transmitter.transmit(txFrame, 0, txFrameSize);
+		}
+		txFrameSize = 0;
+	}
+
+	/**
+	 * collect the frames of the following messages and write them
+	 * together at endBatch()
+	 */
+	public void beginBatch() {
+		synchronized (batch) {
+			batching = true;
+		}
+	}
+
+	public void endBatch() {
+		synchronized (batch) {
+			batching = false;
+			try {
+				transmitter.flush();
+			} catch (Exception e) {
+				log.error("endBatch threw", e);
+			}
+		}
+	}
+
+	public void setCommandQueue(CommandQueue queue) {
+		commandQueue = queue;
+	}
+
+	public CommandQueue getCommandQueue() {
+		return commandQueue;
+	}
 	
 	
 	public boolean isRecording() {
@@ -1499,6 +2148,14 @@ public class VirtualMsg {
 		}
 	}
 
+	/**
+	 * record sent and received messages as text to a stream
+	 */
+	public void record(OutputStream out) {
+		stopRecording();
+		record = out;
+	}
+
 	public void stopRecording() {
 		if (record != null) {
 			try {
@@ -1561,6 +2218,7 @@ public class VirtualMsg {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  ackWindow.clear();
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -1569,31 +2227,27 @@ public class VirtualMsg {
 	  // }
 	}
 	
+	/**
+	 * blocks until everything in flight has been acknowledged
+	 */
 	public void waitForAck(){
-	  if (!ackEnabled || ackRecievedLock.acknowledged){
+	  if (!ackEnabled){
 	    return;
 	  }
-    synchronized (ackRecievedLock) {
-      try {
-        long ts = System.currentTimeMillis();
-        // log.info("***** starting wait *****");
-        ackRecievedLock.wait(2000);
-        // log.info("*****  waited {} ms *****", (System.currentTimeMillis() - ts));
-      } catch (InterruptedException e) {// don't care}
-      }
-
-      if (!ackRecievedLock.acknowledged) {
-        //log.error("Ack not received : {} {}", Msg.methodToString(ioCmd[0]), numAck);
-        log.error("Ack not received");
-      }
-    }
+	  try {
+	    if (!ackWindow.drain(2000)) {
+	      log.error("Ack not received");
+	    }
+	  } catch (InterruptedException e) {// don't care}
+	  }
 	}
 	
 	public void ackReceived(int function){
-	   synchronized (ackRecievedLock) {
-	      ackRecievedLock.acknowledged = true;
-	      ackRecievedLock.notifyAll();
-	    }
+	  ackWindow.ack(function);
+	}
+	
+	public AckWindow getAckWindow(){
+	  return ackWindow;
 	}
 	
 	public int getMethod(){
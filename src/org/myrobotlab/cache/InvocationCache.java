@@ -0,0 +1,305 @@
+package org.myrobotlab.cache;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * InvocationCache - per class table of resolved methods used by
+ * Service.invokeOn. Entries are keyed by (method name, arity, argument class
+ * tuple) and hold a MethodHandle adapted to (Object, Object[])Object so a
+ * cached call is a ClassValue get, a name lookup, a short identity scan of the
+ * argument classes and an invokeExact. Boxing, widening and upcasting are
+ * resolved once when the entry is created. Signatures which do not resolve
+ * are cached too, so repeated bad calls don't rescan getMethods() - up to
+ * MAX_MISSES per class, then they are cleared rather than grown without bound.
+ */
+public class InvocationCache {
+
+  public final static Logger log = LoggerFactory.getLogger(InvocationCache.class);
+
+  private static final InvocationCache instance = new InvocationCache();
+
+  static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  static final Entry[] EMPTY = new Entry[0];
+
+  /**
+   * most unresolvable signatures remembered per class - method names come
+   * from remote messages, so the negative entries are cleared rather than
+   * grown without bound
+   */
+  static final public int MAX_MISSES = 1000;
+
+  static final Map<Class<?>, Class<?>> primitiveToWrapper = new HashMap<Class<?>, Class<?>>();
+
+  static {
+    primitiveToWrapper.put(boolean.class, Boolean.class);
+    primitiveToWrapper.put(byte.class, Byte.class);
+    primitiveToWrapper.put(char.class, Character.class);
+    primitiveToWrapper.put(short.class, Short.class);
+    primitiveToWrapper.put(int.class, Integer.class);
+    primitiveToWrapper.put(long.class, Long.class);
+    primitiveToWrapper.put(float.class, Float.class);
+    primitiveToWrapper.put(double.class, Double.class);
+  }
+
+  /**
+   * a resolved (or unresolvable) signature
+   */
+  public static class Entry {
+    final String name;
+    final Class<?>[] argTypes;
+    final Method method;
+    final MethodHandle handle;
+
+    Entry(String name, Class<?>[] argTypes, Method method, MethodHandle handle) {
+      this.name = name;
+      this.argTypes = argTypes;
+      this.method = method;
+      this.handle = handle;
+    }
+
+    /**
+     * identity match of the argument classes - no allocation
+     */
+    final boolean matches(Object[] params) {
+      int arity = (params == null) ? 0 : params.length;
+      if (arity != argTypes.length) {
+        return false;
+      }
+      for (int i = 0; i < arity; ++i) {
+        Object p = params[i];
+        if (argTypes[i] != ((p == null) ? null : p.getClass())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return false if this is a negative cache entry
+     */
+    public boolean isValid() {
+      return handle != null;
+    }
+
+    public Method getMethod() {
+      return method;
+    }
+
+    public Object invoke(Object obj, Object[] params) throws Throwable {
+      return (Object) handle.invokeExact(obj, params);
+    }
+  }
+
+  /**
+   * method name to the signatures seen for it - arrays are copy on write
+   */
+  static class ClassTable {
+    final ConcurrentHashMap<String, Entry[]> entries = new ConcurrentHashMap<String, Entry[]>();
+    // negative entries - guarded by the table
+    int misses = 0;
+
+    /**
+     * drops the negative entries - called holding the table
+     */
+    void clearMisses() {
+      for (Map.Entry<String, Entry[]> e : entries.entrySet()) {
+        Entry[] list = e.getValue();
+        int valid = 0;
+        for (int i = 0; i < list.length; ++i) {
+          if (list[i].isValid()) {
+            ++valid;
+          }
+        }
+        if (valid == 0) {
+          entries.remove(e.getKey());
+        } else if (valid < list.length) {
+          Entry[] kept = new Entry[valid];
+          valid = 0;
+          for (int i = 0; i < list.length; ++i) {
+            if (list[i].isValid()) {
+              kept[valid++] = list[i];
+            }
+          }
+          entries.put(e.getKey(), kept);
+        }
+      }
+      misses = 0;
+    }
+  }
+
+  final ClassValue<ClassTable> tables = new ClassValue<ClassTable>() {
+    @Override
+    protected ClassTable computeValue(Class<?> type) {
+      return new ClassTable();
+    }
+  };
+
+  protected InvocationCache() {
+  }
+
+  public static InvocationCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * find the cached entry for calling method with params on an instance of c
+   * - resolving and caching it on a miss
+   *
+   * @param c
+   *          class of the target object
+   * @param method
+   *          method name
+   * @param params
+   *          arguments (may be null)
+   * @return the entry - check isValid() for a negative hit
+   */
+  public Entry getEntry(Class<?> c, String method, Object[] params) {
+    ClassTable table = tables.get(c);
+    Entry[] list = table.entries.get(method);
+    if (list != null) {
+      for (int i = 0; i < list.length; ++i) {
+        if (list[i].matches(params)) {
+          return list[i];
+        }
+      }
+    }
+
+    Entry entry = resolve(c, method, params);
+    synchronized (table) {
+      if (!entry.isValid() && ++table.misses > MAX_MISSES) {
+        table.clearMisses();
+        table.misses = 1;
+      }
+      list = table.entries.get(method);
+      if (list == null) {
+        list = EMPTY;
+      }
+      Entry[] grown = Arrays.copyOf(list, list.length + 1);
+      grown[list.length] = entry;
+      table.entries.put(method, grown);
+    }
+    return entry;
+  }
+
+  Entry resolve(Class<?> c, String name, Object[] params) {
+    int arity = (params == null) ? 0 : params.length;
+    Class<?>[] argTypes = new Class<?>[arity];
+    boolean hasNull = false;
+    for (int i = 0; i < arity; ++i) {
+      if (params[i] == null) {
+        hasNull = true;
+      } else {
+        argTypes[i] = params[i].getClass();
+      }
+    }
+
+    Method found = null;
+    if (!hasNull) {
+      try {
+        found = c.getMethod(name, argTypes);
+      } catch (NoSuchMethodException e) {
+      }
+    }
+
+    if (found == null) {
+      // c.getMethod - returns on EXACT match - not "Working" match
+      for (Method m : c.getMethods()) {
+        if (m.getName().equals(name) && isCompatible(m.getParameterTypes(), argTypes)) {
+          found = m;
+          break;
+        }
+      }
+    }
+
+    if (found == null) {
+      log.info("no method {}.{} for {} - caching miss", c.getSimpleName(), name, Arrays.toString(argTypes));
+      return new Entry(name, argTypes, null, null);
+    }
+
+    try {
+      return new Entry(name, argTypes, found, toInvoker(found));
+    } catch (Exception e) {
+      log.error("could not create handle for {}", found, e);
+      return new Entry(name, argTypes, null, null);
+    }
+  }
+
+  static MethodHandle toInvoker(Method m) throws IllegalAccessException {
+    MethodHandle mh = null;
+    try {
+      mh = MethodHandles.publicLookup().unreflect(m);
+    } catch (IllegalAccessException e) {
+      // public method declared on a non public class (e.g. anonymous or
+      // package scoped)
+      m.setAccessible(true);
+      mh = MethodHandles.lookup().unreflect(m);
+    }
+    // (Target, A, B..)R -> (Object, Object[])Object
+    // asType does the same unboxing and widening Method.invoke does
+    int arity = m.getParameterTypes().length;
+    return mh.asSpreader(Object[].class, arity).asType(INVOKER_TYPE);
+  }
+
+  /**
+   * can arguments of these runtime classes be passed to these parameters -
+   * null means a null argument
+   */
+  public static boolean isCompatible(Class<?>[] paramTypes, Class<?>[] argTypes) {
+    if (paramTypes.length != argTypes.length) {
+      return false;
+    }
+    for (int i = 0; i < paramTypes.length; ++i) {
+      if (!isCompatible(paramTypes[i], argTypes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public static boolean isCompatible(Class<?> paramType, Class<?> argType) {
+    if (argType == null) {
+      return !paramType.isPrimitive();
+    }
+    if (!paramType.isPrimitive()) {
+      return paramType.isAssignableFrom(argType);
+    }
+    if (primitiveToWrapper.get(paramType) == argType) {
+      return true;
+    }
+    // unboxing followed by primitive widening
+    if (paramType == double.class) {
+      return argType == Float.class || argType == Long.class || argType == Integer.class || argType == Short.class || argType == Byte.class || argType == Character.class;
+    } else if (paramType == float.class) {
+      return argType == Long.class || argType == Integer.class || argType == Short.class || argType == Byte.class || argType == Character.class;
+    } else if (paramType == long.class) {
+      return argType == Integer.class || argType == Short.class || argType == Byte.class || argType == Character.class;
+    } else if (paramType == int.class) {
+      return argType == Short.class || argType == Byte.class || argType == Character.class;
+    } else if (paramType == short.class) {
+      return argType == Byte.class;
+    }
+    return false;
+  }
+
+  /**
+   * drop everything cached for a class - e.g. after a script has redefined it
+   *
+   * @param c
+   *          the class
+   */
+  public void clear(Class<?> c) {
+    tables.remove(c);
+  }
+
+}
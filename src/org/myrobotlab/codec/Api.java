@@ -155,4 +155,20 @@ public abstract class Api {
   
   abstract public Object process(MessageSender sender, OutputStream out, Message msgFromUri, String data) throws Exception;
 
+  /**
+   * data encoded with the codec of mimeType - apis which only speak json take
+   * it as a String
+   * 
+   * @param sender - sender
+   * @param out - response stream
+   * @param msgFromUri - message constructed from the uri
+   * @param data - request payload, may be null
+   * @param mimeType - the connection's codec e.g. CodecUtils.MIME_TYPE_CBOR
+   * @return - return data from the invoked method
+   * @throws Exception - can throw from invalid or broken streams
+   */
+  public Object process(MessageSender sender, OutputStream out, Message msgFromUri, byte[] data, String mimeType) throws Exception {
+    return process(sender, out, msgFromUri, (data == null) ? null : new String(data));
+  }
+
 }
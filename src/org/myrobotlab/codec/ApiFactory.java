@@ -110,10 +110,41 @@ public class ApiFactory {
     // FIXME - handle errors by returning structured errors - or allow
     // Exceptions to be thrown ?
     Message msg = Api.uriToMsg(requestUri);
-    String apiKey = msg.apiKey;
 
     log.warn("{}", msg);
-    
+
+    Api processor = getProcessor(msg);
+    if (processor == null) {
+      return null; // vs return message status error with detail or getApis ?
+    }
+
+    // delegate request to process
+    return processor.process(sender, out, msg, data);
+  }
+
+  /**
+   * process data encoded with the codec a connection negotiated - see
+   * CodecFactory.getMimeType
+   * 
+   * @param sender - MessageSender
+   * @param out - response stream, replies are encoded with the same codec
+   * @param requestUri - request Uri
+   * @param data - request payload encoded as mimeType
+   * @param mimeType - e.g. CodecUtils.MIME_TYPE_CBOR
+   * @return - return data from the invoked method
+   * @throws Exception - can throw from invalid or broken streams
+   */
+  public Object process(MessageSender sender, OutputStream out, String requestUri, byte[] data, String mimeType) throws Exception {
+    Message msg = Api.uriToMsg(requestUri);
+    Api processor = getProcessor(msg);
+    if (processor == null) {
+      return null;
+    }
+    return processor.process(sender, out, msg, data, mimeType);
+  }
+
+  Api getProcessor(Message msg) {
+    String apiKey = msg.apiKey;
     if (!processors.containsKey(apiKey)) {
       String className = null;
       Object p = null;
@@ -125,13 +156,10 @@ public class ApiFactory {
         processors.put(msg.apiKey, (Api) p);
       } catch (Exception e) {
         log.error("could not create api", e);
-        return null; // vs return message status error with detail or getApis ?
+        return null;
       }      
     }
-
-    // delegate request to process
-    Api processor = processors.get(apiKey);
-    return processor.process(sender, out, msg, data);
+    return processors.get(apiKey);
   }
 
   public static ApiFactory getInstance() {
@@ -3,7 +3,6 @@ package org.myrobotlab.codec;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.net.URLDecoder;
 
 import org.myrobotlab.codec.ApiFactory.ApiDescription;
@@ -95,7 +94,6 @@ public class ApiService extends Api {
     }
 
     Class<?> clazz = si.getClass();
-    Class<?>[] paramTypes = null;
     Object[] params = new Object[0];
     Object[] encodedArray = new Object[0];
 
@@ -107,28 +105,19 @@ public class ApiService extends Api {
         String result = URLDecoder.decode((String) msgFromUri.data[i], "UTF-8");
         encodedArray[i] = result;
       }
-
-      // FETCH AND MERGE METHOD - we have ordinal count now - but NOT the
-      // decoded
-      // parameters
-      // NOW HAVE ORDINAL - fetch the method with its types
-      paramTypes = MethodCache.getCandidateOnOrdinalSignature(si.getClass(), msgFromUri.method, encodedArray.length);
-      // WE NOW HAVE ORDINAL AND TYPES
-      params = new Object[encodedArray.length];
-
-      // DECODE AND FILL THE PARAMS
-      for (int i = 0; i < params.length; ++i) {
-        params[i] = codec.decode(encodedArray[i], paramTypes[i]);
-      }
     }
-    // FIXME - ONE INVOKER !!! ONE METHOD CACHE !!!
-    Method method = clazz.getMethod(msgFromUri.method, paramTypes);
+    // FETCH THE METHOD - we have ordinal count now - the cached decode plan
+    // holds the method handle and the parameter adapters
+    MethodCache.DecodePlan plan = MethodCache.getDecodePlan(clazz, msgFromUri.method, encodedArray.length);
+
+    // DECODE AND FILL THE PARAMS
+    params = plan.decode(encodedArray, codec);
     // send vs send blocking ...
     // sender.send(msgFromUri);
 
     if (si.isLocal()) {
       log.debug("{} is local", msgFromUri.name);
-      ret = method.invoke(si, params);
+      ret = plan.invoke(si, params);
     } else {
       // FIXME - create blocking message request
       log.debug("{} is is remote", msgFromUri.name);
@@ -146,12 +135,10 @@ public class ApiService extends Api {
       } else if (Serializable.class.isAssignableFrom(ret.getClass())){
         codec.encode(out, ret);
       } else {
-        log.error("could not serialize return from {} class {}", method, ret.getClass());
+        log.error("could not serialize return from {} class {}", plan.method, ret.getClass());
       }
     }
 
-    MethodCache.cache(clazz, method);
-
     return ret;
 
   }
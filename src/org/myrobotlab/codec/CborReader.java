@@ -0,0 +1,281 @@
+package org.myrobotlab.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads CBOR (RFC 7049) into plain Java values - integers are Long, floats
+ * Double, text String, byte strings byte[], arrays ArrayList and maps
+ * LinkedHashMap. RFC 8746 typed arrays come back as the primitive array they
+ * were written from (int[], float[] ...) - other tags are skipped and their
+ * content returned.
+ */
+public class CborReader {
+
+  final InputStream in;
+  final byte[] data;
+  final int end;
+  int pos;
+
+  // the BREAK stop code of an indefinite array or map
+  static final Object BREAK = new Object();
+
+  public CborReader(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  public CborReader(byte[] data, int offset, int length) {
+    this.in = null;
+    this.data = data;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  public CborReader(InputStream in) {
+    this.in = in;
+    this.data = null;
+    this.end = 0;
+  }
+
+  public static Object read(byte[] data) throws IOException {
+    return new CborReader(data).read();
+  }
+
+  int readByte() throws IOException {
+    if (in != null) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("end of cbor data");
+      }
+      return b;
+    }
+    if (pos >= end) {
+      throw new EOFException("end of cbor data");
+    }
+    return data[pos++] & 0xff;
+  }
+
+  void readFully(byte[] b) throws IOException {
+    if (in != null) {
+      int off = 0;
+      while (off < b.length) {
+        int n = in.read(b, off, b.length - off);
+        if (n < 0) {
+          throw new EOFException("end of cbor data");
+        }
+        off += n;
+      }
+      return;
+    }
+    if (end - pos < b.length) {
+      throw new EOFException("end of cbor data");
+    }
+    System.arraycopy(data, pos, b, 0, b.length);
+    pos += b.length;
+  }
+
+  long readArgument(int info) throws IOException {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readByte();
+      case 25:
+        return (readByte() << 8) | readByte();
+      case 26:
+        return ((long) readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+      case 27: {
+        long v = 0;
+        for (int i = 0; i < 8; ++i) {
+          v = (v << 8) | readByte();
+        }
+        return v;
+      }
+      default:
+        throw new IOException(String.format("invalid cbor argument %d", info));
+    }
+  }
+
+  int readLength(int info) throws IOException {
+    long length = readArgument(info);
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException(String.format("cbor length %d too large", length));
+    }
+    return (int) length;
+  }
+
+  /**
+   * @return the next value
+   */
+  public Object read() throws IOException {
+    Object o = readItem();
+    if (o == BREAK) {
+      throw new IOException("unexpected cbor break");
+    }
+    return o;
+  }
+
+  Object readItem() throws IOException {
+    int initial = readByte();
+    int major = initial & 0xe0;
+    int info = initial & 0x1f;
+
+    switch (major) {
+      case CborWriter.MAJOR_UINT:
+        return readArgument(info);
+      case CborWriter.MAJOR_NEGINT:
+        return -1 - readArgument(info);
+      case CborWriter.MAJOR_BYTES:
+        return readBytes(info);
+      case CborWriter.MAJOR_TEXT:
+        return new String(readBytes(info), "UTF-8");
+      case CborWriter.MAJOR_ARRAY: {
+        List<Object> list = new ArrayList<Object>();
+        if (info == CborWriter.INDEFINITE) {
+          for (Object o = readItem(); o != BREAK; o = readItem()) {
+            list.add(o);
+          }
+        } else {
+          int length = readLength(info);
+          for (int i = 0; i < length; ++i) {
+            list.add(read());
+          }
+        }
+        return list;
+      }
+      case CborWriter.MAJOR_MAP: {
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        if (info == CborWriter.INDEFINITE) {
+          for (Object key = readItem(); key != BREAK; key = readItem()) {
+            map.put(key, read());
+          }
+        } else {
+          int length = readLength(info);
+          for (int i = 0; i < length; ++i) {
+            map.put(read(), read());
+          }
+        }
+        return map;
+      }
+      case CborWriter.MAJOR_TAG:
+        return readTagged(readArgument(info));
+      default:
+        return readSimple(initial, info);
+    }
+  }
+
+  byte[] readBytes(int info) throws IOException {
+    if (info != CborWriter.INDEFINITE) {
+      byte[] b = new byte[readLength(info)];
+      readFully(b);
+      return b;
+    }
+    // chunked
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for (Object chunk = readItem(); chunk != BREAK; chunk = readItem()) {
+      if (chunk instanceof String) {
+        bos.write(((String) chunk).getBytes("UTF-8"));
+      } else {
+        bos.write((byte[]) chunk);
+      }
+    }
+    return bos.toByteArray();
+  }
+
+  Object readTagged(long tag) throws IOException {
+    Object content = read();
+    if (!(content instanceof byte[])) {
+      return content;
+    }
+    byte[] b = (byte[]) content;
+    int i = 0;
+    switch ((int) tag) {
+      case CborWriter.TAG_INT16: {
+        short[] a = new short[b.length / 2];
+        for (int n = 0; n < a.length; ++n, i += 2) {
+          a[n] = (short) ((b[i] << 8) | (b[i + 1] & 0xff));
+        }
+        return a;
+      }
+      case CborWriter.TAG_INT32: {
+        int[] a = new int[b.length / 4];
+        for (int n = 0; n < a.length; ++n, i += 4) {
+          a[n] = getInt(b, i);
+        }
+        return a;
+      }
+      case CborWriter.TAG_INT64: {
+        long[] a = new long[b.length / 8];
+        for (int n = 0; n < a.length; ++n, i += 8) {
+          a[n] = ((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xffffffffL);
+        }
+        return a;
+      }
+      case CborWriter.TAG_FLOAT32: {
+        float[] a = new float[b.length / 4];
+        for (int n = 0; n < a.length; ++n, i += 4) {
+          a[n] = Float.intBitsToFloat(getInt(b, i));
+        }
+        return a;
+      }
+      case CborWriter.TAG_FLOAT64: {
+        double[] a = new double[b.length / 8];
+        for (int n = 0; n < a.length; ++n, i += 8) {
+          a[n] = Double.longBitsToDouble(((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xffffffffL));
+        }
+        return a;
+      }
+      default:
+        return b;
+    }
+  }
+
+  static int getInt(byte[] b, int i) {
+    return (b[i] << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+  }
+
+  Object readSimple(int initial, int info) throws IOException {
+    switch (initial) {
+      case CborWriter.FALSE:
+        return Boolean.FALSE;
+      case CborWriter.TRUE:
+        return Boolean.TRUE;
+      case CborWriter.NULL:
+      case 0xf7: // undefined
+        return null;
+      case CborWriter.FLOAT16:
+        return halfToDouble((int) readArgument(25));
+      case CborWriter.FLOAT32:
+        return (double) Float.intBitsToFloat((int) readArgument(26));
+      case CborWriter.FLOAT64:
+        return Double.longBitsToDouble(readArgument(27));
+      case CborWriter.BREAK:
+        return BREAK;
+      default:
+        // unassigned simple values
+        return readArgument(info);
+    }
+  }
+
+  static double halfToDouble(int half) {
+    int exp = (half >> 10) & 0x1f;
+    int mant = half & 0x3ff;
+    double value;
+    if (exp == 0) {
+      value = mant * Math.pow(2, -24);
+    } else if (exp != 31) {
+      value = (mant + 1024) * Math.pow(2, exp - 25);
+    } else {
+      value = (mant == 0) ? Double.POSITIVE_INFINITY : Double.NaN;
+    }
+    return ((half & 0x8000) != 0) ? -value : value;
+  }
+
+}
@@ -0,0 +1,453 @@
+package org.myrobotlab.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams CBOR (RFC 7049) to an OutputStream. It is a JsonWriter so Gson's
+ * type adapters serialize any object straight into it - objects and arrays
+ * Gson writes become indefinite length maps and arrays. Primitive arrays are
+ * written as RFC 8746 typed arrays - one header and the raw big endian values.
+ *
+ * Bytes are gathered in a small buffer - flush() writes them to the stream.
+ */
+public class CborWriter extends JsonWriter {
+
+  public static final int MAJOR_UINT = 0 << 5;
+  public static final int MAJOR_NEGINT = 1 << 5;
+  public static final int MAJOR_BYTES = 2 << 5;
+  public static final int MAJOR_TEXT = 3 << 5;
+  public static final int MAJOR_ARRAY = 4 << 5;
+  public static final int MAJOR_MAP = 5 << 5;
+  public static final int MAJOR_TAG = 6 << 5;
+  public static final int MAJOR_SIMPLE = 7 << 5;
+
+  public static final int INDEFINITE = 31;
+
+  public static final int FALSE = 0xf4;
+  public static final int TRUE = 0xf5;
+  public static final int NULL = 0xf6;
+  public static final int FLOAT16 = 0xf9;
+  public static final int FLOAT32 = 0xfa;
+  public static final int FLOAT64 = 0xfb;
+  public static final int BREAK = 0xff;
+
+  /**
+   * RFC 8746 typed array tags - big endian
+   */
+  public static final int TAG_INT16 = 73;
+  public static final int TAG_INT32 = 74;
+  public static final int TAG_INT64 = 75;
+  public static final int TAG_FLOAT32 = 81;
+  public static final int TAG_FLOAT64 = 82;
+
+  /**
+   * JsonWriter needs a Writer - nothing is ever written to it
+   */
+  static final Writer NO_WRITER = new Writer() {
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  final OutputStream out;
+  final byte[] buffer;
+  int pos = 0;
+
+  // name of the next map entry - written with its value
+  String deferredName = null;
+
+  public CborWriter(OutputStream out) {
+    this(out, 8192);
+  }
+
+  public CborWriter(OutputStream out, int bufferSize) {
+    super(NO_WRITER);
+    this.out = out;
+    buffer = new byte[Math.max(bufferSize, 16)];
+  }
+
+  void ensure(int n) throws IOException {
+    if (buffer.length - pos < n) {
+      drain();
+    }
+  }
+
+  void drain() throws IOException {
+    if (pos > 0) {
+      out.write(buffer, 0, pos);
+      pos = 0;
+    }
+  }
+
+  void writeByte(int b) throws IOException {
+    ensure(1);
+    buffer[pos++] = (byte) b;
+  }
+
+  void writeRaw(byte[] data, int off, int len) throws IOException {
+    if (len > buffer.length - pos) {
+      drain();
+      if (len > buffer.length) {
+        out.write(data, off, len);
+        return;
+      }
+    }
+    System.arraycopy(data, off, buffer, pos, len);
+    pos += len;
+  }
+
+  void writeShort(int v) {
+    buffer[pos++] = (byte) (v >> 8);
+    buffer[pos++] = (byte) v;
+  }
+
+  void writeInt(int v) {
+    buffer[pos++] = (byte) (v >> 24);
+    buffer[pos++] = (byte) (v >> 16);
+    buffer[pos++] = (byte) (v >> 8);
+    buffer[pos++] = (byte) v;
+  }
+
+  void writeLong(long v) {
+    writeInt((int) (v >> 32));
+    writeInt((int) v);
+  }
+
+  /**
+   * major type and its argument in the fewest bytes
+   */
+  public void writeHead(int major, long value) throws IOException {
+    ensure(9);
+    if (value < 24) {
+      buffer[pos++] = (byte) (major | (int) value);
+    } else if (value < 0x100) {
+      buffer[pos++] = (byte) (major | 24);
+      buffer[pos++] = (byte) value;
+    } else if (value < 0x10000) {
+      buffer[pos++] = (byte) (major | 25);
+      writeShort((int) value);
+    } else if (value < 0x100000000L) {
+      buffer[pos++] = (byte) (major | 26);
+      writeInt((int) value);
+    } else {
+      buffer[pos++] = (byte) (major | 27);
+      writeLong(value);
+    }
+  }
+
+  void writeDeferredName() throws IOException {
+    if (deferredName != null) {
+      writeText(deferredName);
+      deferredName = null;
+    }
+  }
+
+  /**
+   * utf-8 straight into the buffer - no intermediate byte[]
+   */
+  void writeText(String s) throws IOException {
+    int length = s.length();
+    int utf8 = length;
+    for (int i = 0; i < length; ++i) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          utf8 += 1;
+        } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+          // 4 bytes for the pair
+          utf8 += 2;
+          ++i;
+        } else {
+          utf8 += 2;
+        }
+      }
+    }
+    writeHead(MAJOR_TEXT, utf8);
+    for (int i = 0; i < length; ++i) {
+      ensure(4);
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[pos++] = (byte) (0xc0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
+      } else {
+        // lone surrogates are written as they are - as String.getBytes would
+        // replace them the count above stays right
+        buffer[pos++] = (byte) (0xe0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  void writeInteger(long v) throws IOException {
+    if (v >= 0) {
+      writeHead(MAJOR_UINT, v);
+    } else {
+      writeHead(MAJOR_NEGINT, -1 - v);
+    }
+  }
+
+  void writeDouble(double v) throws IOException {
+    float f = (float) v;
+    if (f == v) {
+      // no precision lost - half the size
+      writeFloat(f);
+      return;
+    }
+    ensure(9);
+    buffer[pos++] = (byte) FLOAT64;
+    writeLong(Double.doubleToLongBits(v));
+  }
+
+  void writeFloat(float v) throws IOException {
+    ensure(5);
+    buffer[pos++] = (byte) FLOAT32;
+    writeInt(Float.floatToIntBits(v));
+  }
+
+  // ============ JsonWriter ==================
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    writeDeferredName();
+    writeByte(MAJOR_ARRAY | INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    writeByte(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    writeDeferredName();
+    writeByte(MAJOR_MAP | INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    writeByte(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("name == null");
+    }
+    deferredName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter jsonValue(String value) throws IOException {
+    return value(value);
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (deferredName != null) {
+      if (!getSerializeNulls()) {
+        // drop the whole entry - as JsonWriter does
+        deferredName = null;
+        return this;
+      }
+      writeDeferredName();
+    }
+    writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    writeDeferredName();
+    writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    return value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    writeDeferredName();
+    writeDouble(value);
+    return this;
+  }
+
+  public JsonWriter value(float value) throws IOException {
+    writeDeferredName();
+    writeFloat(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    writeDeferredName();
+    writeInteger(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      writeInteger(value.longValue());
+    } else if (value instanceof Float) {
+      writeFloat(value.floatValue());
+    } else if (value instanceof Double) {
+      writeDouble(value.doubleValue());
+    } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+      writeInteger(value.longValue());
+    } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+      // no arbitrary precision - as text
+      writeText(value.toString());
+    } else {
+      // e.g. a number Gson parsed - integral ones as integers
+      double d = value.doubleValue();
+      if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 9.007199254740992E15) {
+        writeInteger((long) d);
+      } else {
+        writeDouble(d);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  /**
+   * writes what is buffered - the stream is left open, it belongs to the
+   * caller
+   */
+  @Override
+  public void close() throws IOException {
+    drain();
+  }
+
+  // ============ typed arrays ==================
+
+  public void bytes(byte[] data, int off, int len) throws IOException {
+    writeDeferredName();
+    writeHead(MAJOR_BYTES, len);
+    writeRaw(data, off, len);
+  }
+
+  void typedHead(int tag, int length, int size) throws IOException {
+    writeDeferredName();
+    writeHead(MAJOR_TAG, tag);
+    writeHead(MAJOR_BYTES, (long) length * size);
+  }
+
+  public void typedArray(short[] a) throws IOException {
+    typedHead(TAG_INT16, a.length, 2);
+    for (int i = 0; i < a.length; ++i) {
+      ensure(2);
+      writeShort(a[i]);
+    }
+  }
+
+  public void typedArray(int[] a) throws IOException {
+    typedHead(TAG_INT32, a.length, 4);
+    for (int i = 0; i < a.length; ++i) {
+      ensure(4);
+      writeInt(a[i]);
+    }
+  }
+
+  public void typedArray(long[] a) throws IOException {
+    typedHead(TAG_INT64, a.length, 8);
+    for (int i = 0; i < a.length; ++i) {
+      ensure(8);
+      writeLong(a[i]);
+    }
+  }
+
+  public void typedArray(float[] a) throws IOException {
+    typedHead(TAG_FLOAT32, a.length, 4);
+    for (int i = 0; i < a.length; ++i) {
+      ensure(4);
+      writeInt(Float.floatToIntBits(a[i]));
+    }
+  }
+
+  public void typedArray(double[] a) throws IOException {
+    typedHead(TAG_FLOAT64, a.length, 8);
+    for (int i = 0; i < a.length; ++i) {
+      ensure(8);
+      writeLong(Double.doubleToLongBits(a[i]));
+    }
+  }
+
+  /**
+   * @return false if array isn't a primitive array with a typed form
+   */
+  public boolean typedArray(Object array) throws IOException {
+    if (array instanceof byte[]) {
+      byte[] b = (byte[]) array;
+      bytes(b, 0, b.length);
+    } else if (array instanceof int[]) {
+      typedArray((int[]) array);
+    } else if (array instanceof float[]) {
+      typedArray((float[]) array);
+    } else if (array instanceof double[]) {
+      typedArray((double[]) array);
+    } else if (array instanceof long[]) {
+      typedArray((long[]) array);
+    } else if (array instanceof short[]) {
+      typedArray((short[]) array);
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+}
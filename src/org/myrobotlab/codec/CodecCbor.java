@@ -0,0 +1,198 @@
+package org.myrobotlab.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Binary codec - CBOR (RFC 7049). Gson's type adapters write straight into a
+ * CborWriter on the OutputStream, so there is no intermediate String or JSON
+ * tree on the way out. Primitive arrays - int[], float[], double[], byte[]
+ * images ... - are written as one header and their raw values (RFC 8746 typed
+ * arrays) instead of a list of numbers, and come back as the same primitive
+ * arrays.
+ *
+ * Decoding reads the CBOR into plain values (see CborReader) and converts them
+ * to the requested type. Message.data is taken as it was read, so parameters
+ * keep their primitive arrays - ApiMessages converts each parameter to the
+ * method's signature with decode(param, type).
+ */
+public class CodecCbor extends Codec {
+
+  public final static Logger log = LoggerFactory.getLogger(CodecCbor.class);
+
+  /**
+   * primitive arrays as typed arrays when writing cbor - anything else as
+   * Gson would
+   */
+  static class TypedArrayAdapterFactory implements TypeAdapterFactory {
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+      Class<? super T> raw = type.getRawType();
+      if (!raw.isArray() || !raw.getComponentType().isPrimitive() || raw == boolean[].class || raw == char[].class) {
+        return null;
+      }
+      final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+      return new TypeAdapter<T>() {
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+          if (value != null && out instanceof CborWriter && ((CborWriter) out).typedArray(value)) {
+            return;
+          }
+          delegate.write(out, value);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+          return delegate.read(in);
+        }
+      };
+    }
+  }
+
+  private transient static Gson mapper = new GsonBuilder().registerTypeAdapterFactory(new TypedArrayAdapterFactory()).create();
+
+  @Override
+  public void encode(OutputStream out, Object obj) throws IOException {
+    CborWriter writer = new CborWriter(out, 4096);
+    if (obj == null) {
+      writer.nullValue();
+    } else {
+      mapper.toJson(obj, obj.getClass(), writer);
+    }
+    writer.flush();
+  }
+
+  /**
+   * @param data
+   *          encoded cbor - byte[] or InputStream
+   * @return plain values - see CborReader
+   */
+  static public Object read(Object data) throws IOException {
+    if (data instanceof byte[]) {
+      return new CborReader((byte[]) data).read();
+    }
+    if (data instanceof InputStream) {
+      return new CborReader((InputStream) data).read();
+    }
+    throw new IOException(String.format("can not read cbor from %s", data.getClass().getSimpleName()));
+  }
+
+  @Override
+  public Object[] decodeArray(Object data) throws Exception {
+    Object o = (data instanceof byte[] || data instanceof InputStream) ? read(data) : data;
+    if (o == null) {
+      return null;
+    }
+    if (o instanceof List) {
+      return ((List<?>) o).toArray();
+    }
+    if (o instanceof Object[]) {
+      return (Object[]) o;
+    }
+    return new Object[] { o };
+  }
+
+  /**
+   * @param data
+   *          encoded cbor (byte[] or InputStream) or a value already read -
+   *          e.g. a Message.data parameter. A byte[] which already is the type
+   *          wanted (byte[] or Object) is taken as the value, not as cbor.
+   * @param type
+   *          the type wanted
+   */
+  @Override
+  public Object decode(Object data, Class<?> type) throws Exception {
+    if (data == null || type.isInstance(data)) {
+      return data;
+    }
+    Object o = data;
+    if (data instanceof byte[] || data instanceof InputStream) {
+      o = read(data);
+    }
+    return convert(o, type);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Object convert(Object o, Class<?> type) {
+    if (o == null || type == null || type.isInstance(o)) {
+      return o;
+    }
+    if (type == Message.class && o instanceof Map) {
+      return toMessage((Map<Object, Object>) o);
+    }
+    return mapper.fromJson(mapper.toJsonTree(o), type);
+  }
+
+  /**
+   * every message goes through here - its fields are set directly, and data
+   * is taken as it was read - a tree would turn its typed arrays into lists
+   */
+  @SuppressWarnings("unchecked")
+  static Message toMessage(Map<Object, Object> map) {
+    Message msg = new Message();
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      Object value = entry.getValue();
+      String key = (String) entry.getKey();
+      if ("data".equals(key)) {
+        if (value instanceof List) {
+          msg.data = ((List<?>) value).toArray();
+        } else if (value != null) {
+          msg.data = new Object[] { value };
+        }
+      } else if ("msgId".equals(key)) {
+        msg.msgId = ((Number) value).longValue();
+      } else if ("hopCount".equals(key)) {
+        msg.hopCount = ((Number) value).intValue();
+      } else if ("security".equals(key)) {
+        msg.security = (value == null) ? null : mapper.fromJson(mapper.toJsonTree(value), HashMap.class);
+      } else if (value == null || value instanceof String) {
+        String s = (String) value;
+        if ("name".equals(key)) {
+          msg.name = s;
+        } else if ("method".equals(key)) {
+          msg.method = s;
+        } else if ("sender".equals(key)) {
+          msg.sender = s;
+        } else if ("sendingMethod".equals(key)) {
+          msg.sendingMethod = s;
+        } else if ("uri".equals(key)) {
+          msg.uri = s;
+        } else if ("apiKey".equals(key)) {
+          msg.apiKey = s;
+        } else if ("status".equals(key)) {
+          msg.status = s;
+        } else if ("msgType".equals(key)) {
+          msg.msgType = s;
+        }
+      }
+    }
+    return msg;
+  }
+
+  @Override
+  public String getMimeType() {
+    return CodecUtils.MIME_TYPE_CBOR;
+  }
+
+  @Override
+  public String getKey() {
+    return "cbor";
+  }
+
+}
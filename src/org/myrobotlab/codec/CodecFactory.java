@@ -13,6 +13,7 @@ public class CodecFactory {
   static public synchronized void init() {
     if (!initialized) {
       mimeTypeMap.put("application/json", "org.myrobotlab.codec.CodecJson"); // vs application/mrl-json
+      mimeTypeMap.put(CodecUtils.MIME_TYPE_CBOR, "org.myrobotlab.codec.CodecCbor");
       initialized = true;
     }
 
@@ -27,7 +28,7 @@ public class CodecFactory {
     if (mimeTypeMap.containsKey(mimeType)) {
       clazz = mimeTypeMap.get(mimeType);
     } else {
-      clazz = CodecUtils.MIME_TYPE_JSON;
+      clazz = mimeTypeMap.get(CodecUtils.MIME_TYPE_JSON);
     }
 
     if (codecMap.containsKey(mimeType)) {
@@ -41,4 +42,31 @@ public class CodecFactory {
     }
   }
 
+  /**
+   * mime type a client asked for - a mime type, a codec key (e.g. ?codec=cbor)
+   * or an Accept header. JSON unless a registered binary codec is asked for.
+   * 
+   * @param requested
+   *          e.g. "cbor", "application/cbor" or "application/cbor, application/json;q=0.5"
+   * @return a registered mime type
+   */
+  static public String getMimeType(String requested) {
+    if (!initialized) {
+      init();
+    }
+    if (requested == null) {
+      return CodecUtils.MIME_TYPE_JSON;
+    }
+    for (String part : requested.split(",")) {
+      String mimeType = part.split(";")[0].trim().toLowerCase();
+      if (mimeType.indexOf('/') < 0) {
+        mimeType = "application/" + mimeType;
+      }
+      if (mimeTypeMap.containsKey(mimeType)) {
+        return mimeType;
+      }
+    }
+    return CodecUtils.MIME_TYPE_JSON;
+  }
+
 }
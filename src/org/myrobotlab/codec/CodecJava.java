@@ -0,0 +1,74 @@
+package org.myrobotlab.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Java serialization - what MRL to MRL links (RemoteAdapter) have always sent.
+ * It is the only codec which brings back the concrete classes of a payload -
+ * a registering service arrives as the service, not as a map of its fields.
+ *
+ * Each encode is a complete serialization stream (header, class descriptors
+ * and object), so frames can be decoded on their own and nothing is
+ * remembered between them - unlike one ObjectOutputStream per connection,
+ * whose handle table keeps every object written until reset().
+ *
+ * Not registered with the CodecFactory - deserializing what a browser sends
+ * is not something WebGui should offer.
+ */
+public class CodecJava extends Codec {
+
+  public final static String MIME_TYPE = "application/x-java-serialized-object";
+
+  @Override
+  public void encode(OutputStream out, Object obj) throws IOException {
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.writeObject(obj);
+    // flush not close - the stream belongs to the caller
+    oos.flush();
+  }
+
+  @Override
+  public Object[] decodeArray(Object data) throws Exception {
+    Object o = decode(data, Object.class);
+    if (o == null || o instanceof Object[]) {
+      return (Object[]) o;
+    }
+    return new Object[] { o };
+  }
+
+  /**
+   * @param data
+   *          serialized bytes (byte[] or InputStream) or a value already
+   *          decoded
+   */
+  @Override
+  public Object decode(Object data, Class<?> type) throws Exception {
+    if (data == null) {
+      return null;
+    }
+    if (data instanceof byte[]) {
+      data = new ByteArrayInputStream((byte[]) data);
+    }
+    if (!(data instanceof InputStream)) {
+      return data;
+    }
+    ObjectInputStream ois = new ObjectInputStream((InputStream) data);
+    return ois.readObject();
+  }
+
+  @Override
+  public String getMimeType() {
+    return MIME_TYPE;
+  }
+
+  @Override
+  public String getKey() {
+    return "java";
+  }
+
+}
@@ -1,6 +1,8 @@
 package org.myrobotlab.codec;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.myrobotlab.codec.ApiFactory.ApiDescription;
@@ -20,38 +22,45 @@ public class CodecJson extends Codec {
     return mapper.toJson(obj);
   }
 
+  static Gson getMapper() {
+    return mapper;
+  }
+
+  /**
+   * streams utf-8 json to out - no intermediate String or byte[]
+   */
   @Override
   public void encode(OutputStream out, Object obj) throws IOException {
-
-    String json = mapper.toJson(obj);
-
-    // if (log.isDebugEnabled()){
-    //  log.warn("<< {}", json); - great for debugging !
-    // }
-
-    // if (recorder != null){
-    // recorder.write(String.format("message << %s\n", json).getBytes());
-    // }
-
-    out.write(json.getBytes());
+    CodecUtils.toJson(mapper, out, obj, (obj == null) ? Object.class : obj.getClass());
   }
 
   @Override
   public Object[] decodeArray(Object data) throws Exception {
-    // ITS GOT TO BE STRING - it just has to be !!! :)
-    String instr = (String) data;
+    if (data instanceof byte[] || data instanceof InputStream) {
+      return (Object[]) decode(data, Object[].class);
+    }
     // array of Strings ? - don't want to double encode !
-    Object[] ret = mapper.fromJson(instr, Object[].class);
+    Object[] ret = mapper.fromJson(data.toString(), Object[].class);
     return ret;
   }
 
+  /**
+   * @param data
+   *          json String, utf-8 byte[] or InputStream - bytes are decoded as
+   *          they are read
+   */
   @Override
   public Object decode(Object data, Class<?> type) throws Exception {
-    // data has to be a String !! .. just has to be
     if (data == null) {
       log.error("trying to decode null data");
       return null;
     }
+    if (data instanceof byte[]) {
+      return CodecUtils.fromJson(mapper, new ByteArrayInputStream((byte[]) data), type);
+    }
+    if (data instanceof InputStream) {
+      return CodecUtils.fromJson(mapper, (InputStream) data, type);
+    }
     return mapper.fromJson(data.toString(), type);
   }
 
@@ -6,10 +6,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -25,6 +33,8 @@ import org.slf4j.Logger;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * handles all encoding and decoding of MRL messages or api(s) assumed context -
@@ -57,6 +67,7 @@ public class CodecUtils {
   // public final static String MIME_TYPE_JSON = "application/json";
   // public final static String MIME_TYPE_MRL_JSON = "application/mrl-json";
   public final static String MIME_TYPE_JSON = "application/json";
+  public final static String MIME_TYPE_CBOR = "application/cbor";
 
   // disableHtmlEscaping to prevent encoding or "=" -
   // private transient static Gson gson = new
@@ -123,6 +134,27 @@ public class CodecUtils {
     return gson.fromJson(json, clazz);
   }
 
+  /**
+   * decodes utf-8 json from a stream - without reading it into a String
+   * first. The stream is not closed.
+   */
+  public final static <T extends Object> T fromJson(InputStream in, Class<T> clazz) throws IOException {
+    return fromJson(gson, in, clazz);
+  }
+
+  public final static <T extends Object> T fromJson(InputStream in, Type type) throws IOException {
+    return fromJson(gson, in, type);
+  }
+
+  static <T extends Object> T fromJson(Gson gson, InputStream in, Type type) throws IOException {
+    Utf8Reader reader = Utf8Reader.get(in);
+    try {
+      return gson.fromJson(new JsonReader(reader), type);
+    } finally {
+      reader.close();
+    }
+  }
+
   static public final byte[] getBytes(Object o) throws IOException {
     ByteArrayOutputStream byteStream = new ByteArrayOutputStream(5000);
     ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(byteStream));
@@ -356,10 +388,58 @@ public class CodecUtils {
     return gson.toJson(o, clazz);
   }
 
+  /**
+   * streams utf-8 json to out through the thread's reusable buffer - no
+   * String or byte[] of the whole document. The stream is flushed, not
+   * closed.
+   */
+  public final static void toJson(OutputStream out, Object o) throws IOException {
+    toJson(gson, out, o, (o == null) ? Object.class : o.getClass());
+  }
+
+  public final static void toJson(OutputStream out, Object o, Type type) throws IOException {
+    toJson(gson, out, o, type);
+  }
+
+  static void toJson(Gson gson, OutputStream out, Object o, Type type) throws IOException {
+    Utf8Writer writer = Utf8Writer.get(out);
+    try {
+      JsonWriter json = gson.newJsonWriter(writer);
+      if (o == null) {
+        json.nullValue();
+      } else {
+        gson.toJson(o, type, json);
+      }
+      json.flush();
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * decodes a json file - utf-8, or the platform charset when it is not valid
+   * utf-8, as configs saved before they were utf-8 are. Saving it again
+   * writes utf-8.
+   */
+  public final static <T extends Object> T fromJsonFile(File file, Class<T> clazz) throws IOException {
+    byte[] data = Files.readAllBytes(file.toPath());
+    try {
+      String json = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT)
+          .decode(ByteBuffer.wrap(data)).toString();
+      return fromJson(json, clazz);
+    } catch (CharacterCodingException e) {
+      log.info("{} is not utf-8 - decoding it as {}", file, Charset.defaultCharset());
+      return fromJson(new String(data, Charset.defaultCharset()), clazz);
+    }
+  }
+
   public static void toJsonFile(Object o, String filename) throws IOException {
     FileOutputStream fos = new FileOutputStream(new File(filename));
-    fos.write(gson.toJson(o).getBytes());
-    fos.close();
+    try {
+      toJson(fos, o);
+    } finally {
+      fos.close();
+    }
   }
 
   // === method signatures begin ===
@@ -423,8 +503,7 @@ public class CodecUtils {
 
   static public void write(String mimeType, OutputStream out, Object toEncode) throws IOException {
     if (JSON.equals(mimeType)) {
-      out.write(gson.toJson(toEncode).getBytes());
-      // out.flush();
+      toJson(out, toEncode);
     } else {
       log.error(String.format("write mimeType %s not supported", mimeType));
     }
@@ -1,12 +1,134 @@
 package org.myrobotlab.codec;
 
+import java.io.EOFException;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.lang.reflect.Type;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 public class MethodCache {
 
-  static final private HashMap<String, Method> cache = new HashMap<String, Method>();
+  static final private ConcurrentHashMap<String, Method> cache = new ConcurrentHashMap<String, Method>();
+
+  /**
+   * most unresolvable calls remembered - they come from clients, so the
+   * negative cache is cleared rather than grown without bound
+   */
+  static final public int MAX_REJECTED = 1000;
+
+  static final private ConcurrentHashMap<String, DecodePlan> plans = new ConcurrentHashMap<String, DecodePlan>();
+  static final private ConcurrentHashMap<String, String> rejected = new ConcurrentHashMap<String, String>();
+
+  static final private AtomicLong planHits = new AtomicLong();
+  static final private AtomicLong planMisses = new AtomicLong();
+  static final private AtomicLong rejectedHits = new AtomicLong();
+
+  /**
+   * Everything needed to call a method from encoded parameters - resolved
+   * once per service type, method name and parameter count. The method is
+   * called through a MethodHandle and json parameters are decoded straight
+   * with the Gson TypeAdapter of each parameter's (generic) type. Adapters are
+   * created by the first json decode, so a type Gson can't handle fails that
+   * call rather than the plan - other codecs never need them.
+   */
+  static public class DecodePlan {
+    final public Class<?> clazz;
+    final public Method method;
+    final public Class<?>[] paramTypes;
+    final Type[] genericTypes;
+    final AtomicReferenceArray<TypeAdapter<?>> adapters;
+    final Gson gson;
+    final MethodHandle handle;
+
+    DecodePlan(Class<?> clazz, Method method, Gson gson) throws IllegalAccessException {
+      this.clazz = clazz;
+      this.method = method;
+      this.gson = gson;
+      paramTypes = method.getParameterTypes();
+      genericTypes = method.getGenericParameterTypes();
+      adapters = new AtomicReferenceArray<TypeAdapter<?>>(paramTypes.length);
+      // public methods of non public classes (e.g. inner classes)
+      method.setAccessible(true);
+      // (Object target, Object[] params)Object
+      handle = MethodHandles.lookup().unreflect(method).asType(MethodType.genericMethodType(paramTypes.length + 1)).asSpreader(Object[].class, paramTypes.length);
+    }
+
+    /**
+     * decode parameters to the method's types - json Strings with the plan's
+     * adapters, anything else with the codec
+     */
+    public Object[] decode(Object[] encoded, Codec codec) throws Exception {
+      Object[] params = new Object[paramTypes.length];
+      boolean json = codec instanceof CodecJson;
+      for (int i = 0; i < params.length; ++i) {
+        Object data = encoded[i];
+        if (json && data instanceof String) {
+          params[i] = fromJson(getAdapter(i), (String) data);
+        } else {
+          params[i] = codec.decode(data, paramTypes[i]);
+        }
+      }
+      return params;
+    }
+
+    /**
+     * the json adapter of a parameter - two threads may race to create it,
+     * either will do
+     */
+    TypeAdapter<?> getAdapter(int i) {
+      TypeAdapter<?> adapter = adapters.get(i);
+      if (adapter == null) {
+        adapter = gson.getAdapter(TypeToken.get(genericTypes[i]));
+        adapters.set(i, adapter);
+      }
+      return adapter;
+    }
+
+    /**
+     * as Gson.fromJson(String, Type) - lenient, so unquoted strings from uris
+     * decode, and empty is null - and the whole of it has to be one value
+     */
+    static Object fromJson(TypeAdapter<?> adapter, String json) throws Exception {
+      JsonReader reader = new JsonReader(new StringReader(json));
+      reader.setLenient(true);
+      try {
+        reader.peek();
+      } catch (EOFException e) {
+        return null;
+      }
+      Object value = adapter.read(reader);
+      if (value != null && reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonSyntaxException("JSON document was not fully consumed.");
+      }
+      return value;
+    }
+
+    public Object invoke(Object target, Object[] params) throws Exception {
+      try {
+        return (Object) handle.invokeExact(target, params);
+      } catch (Exception e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+  }
 
   static final public String getSignature(Class<?> clazz, String methodName, int ordinal) {
     return String.format("%s/%s-%d", clazz.getSimpleName(), methodName, ordinal);
@@ -75,4 +197,72 @@ public class MethodCache {
     cache.put(getSignature(clazz, method.getName(), method.getParameterTypes().length), method);
   }
 
+  /**
+   * the decode plan of a call - one lookup once it is resolved. Calls which
+   * can not be resolved are rejected from a negative cache without scanning
+   * the methods again.
+   * 
+   * @param clazz
+   *          the service's type
+   * @param methodName
+   *          method
+   * @param ordinal
+   *          number of parameters
+   * @return the plan
+   * @throws NoSuchMethodException
+   *           no method of that name and parameter count
+   */
+  final public static DecodePlan getDecodePlan(Class<?> clazz, String methodName, int ordinal) throws NoSuchMethodException {
+    String key = clazz.getName() + "/" + methodName + "-" + ordinal;
+    DecodePlan plan = plans.get(key);
+    if (plan != null) {
+      planHits.incrementAndGet();
+      return plan;
+    }
+    String error = rejected.get(key);
+    if (error != null) {
+      rejectedHits.incrementAndGet();
+      throw new NoSuchMethodException(error);
+    }
+    planMisses.incrementAndGet();
+    try {
+      Class<?>[] paramTypes = getCandidateOnOrdinalSignature(clazz, methodName, ordinal);
+      plan = new DecodePlan(clazz, clazz.getMethod(methodName, paramTypes), CodecJson.getMapper());
+    } catch (NoSuchMethodException e) {
+      reject(key, e.getMessage());
+      throw e;
+    } catch (Exception e) {
+      String msg = String.format("could not plan %s.%s(ordinal %d) - %s", clazz.getSimpleName(), methodName, ordinal, e);
+      reject(key, msg);
+      throw new NoSuchMethodException(msg);
+    }
+    // two threads may race - either plan will do
+    plans.put(key, plan);
+    return plan;
+  }
+
+  static void reject(String key, String error) {
+    if (rejected.size() >= MAX_REJECTED) {
+      rejected.clear();
+    }
+    rejected.put(key, error);
+  }
+
+  /**
+   * forget the plans and rejected calls - e.g. after new service types are
+   * loaded
+   */
+  final public static void clearPlans() {
+    plans.clear();
+    rejected.clear();
+  }
+
+  /**
+   * @return plan lookups - hits, misses (resolved or rejected by scanning) and
+   *         calls rejected from the negative cache
+   */
+  final public static String getPlanStats() {
+    return String.format("plans %d hits %d misses %d rejected %d rejected hits %d", plans.size(), planHits.get(), planMisses.get(), rejected.size(), rejectedHits.get());
+  }
+
 }
@@ -0,0 +1,137 @@
+package org.myrobotlab.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 from an InputStream through a reused byte buffer - unlike an
+ * InputStreamReader which allocates its buffers every time. One per thread
+ * is reused - get(in) points it at a stream, close() hands it back without
+ * closing the stream.
+ */
+public class Utf8Reader extends Reader {
+
+  public static final int BUFFER_SIZE = 8192;
+
+  static final ThreadLocal<Utf8Reader> pool = new ThreadLocal<Utf8Reader>();
+
+  final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+  final ByteBuffer bytes;
+  InputStream in;
+  boolean eof = false;
+  // decoder flushed - nothing more to read
+  boolean done = false;
+  boolean inUse = false;
+
+  // second half of a surrogate pair which didn't fit the caller's buffer
+  final CharBuffer pair = CharBuffer.allocate(2);
+  int pending = -1;
+
+  /**
+   * @return the thread's reader pointed at in - or a new one if the thread's
+   *         is already in use
+   */
+  public static Utf8Reader get(InputStream in) {
+    Utf8Reader reader = pool.get();
+    if (reader == null) {
+      reader = new Utf8Reader(BUFFER_SIZE);
+      pool.set(reader);
+    }
+    if (reader.inUse) {
+      reader = new Utf8Reader(BUFFER_SIZE);
+    }
+    reader.reset(in);
+    return reader;
+  }
+
+  public Utf8Reader(InputStream in) {
+    this(BUFFER_SIZE);
+    reset(in);
+  }
+
+  Utf8Reader(int bufferSize) {
+    bytes = ByteBuffer.allocate(bufferSize);
+  }
+
+  void reset(InputStream in) {
+    this.in = in;
+    inUse = true;
+    eof = false;
+    done = false;
+    pending = -1;
+    bytes.clear();
+    bytes.flip();
+    decoder.reset();
+  }
+
+  void fill() throws IOException {
+    bytes.compact();
+    int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+    if (n < 0) {
+      eof = true;
+    } else {
+      bytes.position(bytes.position() + n);
+    }
+    bytes.flip();
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (pending >= 0) {
+      cbuf[off] = (char) pending;
+      pending = -1;
+      return 1;
+    }
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    while (true) {
+      if (!done) {
+        decoder.decode(bytes, out, eof);
+        if (eof && !bytes.hasRemaining()) {
+          decoder.flush(out);
+          done = true;
+        }
+      }
+      int count = out.position() - off;
+      if (count > 0) {
+        return count;
+      }
+      if (len == 1 && !done && bytes.hasRemaining()) {
+        // a surrogate pair needs two chars - hand out the first
+        pair.clear();
+        decoder.decode(bytes, pair, eof);
+        if (pair.position() > 0) {
+          cbuf[off] = pair.get(0);
+          if (pair.position() > 1) {
+            pending = pair.get(1);
+          }
+          return 1;
+        }
+      }
+      if (done) {
+        return -1;
+      }
+      if (!eof) {
+        fill();
+      }
+    }
+  }
+
+  /**
+   * hands the reader back - the stream is left open, it belongs to the caller
+   */
+  @Override
+  public void close() {
+    in = null;
+    inUse = false;
+  }
+
+}
@@ -0,0 +1,157 @@
+package org.myrobotlab.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes UTF-8 straight into a byte buffer and writes the buffer to an
+ * OutputStream when it fills - no String or byte[] per write. One per thread
+ * is reused - get(out) points it at a stream, close() hands it back without
+ * closing the stream.
+ */
+public class Utf8Writer extends Writer {
+
+  public static final int BUFFER_SIZE = 8192;
+
+  static final ThreadLocal<Utf8Writer> pool = new ThreadLocal<Utf8Writer>();
+
+  final boolean pooled;
+  final byte[] buffer;
+  int pos = 0;
+  OutputStream out;
+  boolean inUse = false;
+
+  // first half of a surrogate pair split over two writes
+  char highSurrogate = 0;
+
+  /**
+   * @return the thread's writer pointed at out - or a new one if the
+   *         thread's is already in use (e.g. encoding inside an encode)
+   */
+  public static Utf8Writer get(OutputStream out) {
+    Utf8Writer writer = pool.get();
+    if (writer == null) {
+      writer = new Utf8Writer(BUFFER_SIZE, true);
+      pool.set(writer);
+    }
+    if (writer.inUse) {
+      writer = new Utf8Writer(BUFFER_SIZE, false);
+    }
+    writer.out = out;
+    writer.inUse = true;
+    return writer;
+  }
+
+  public Utf8Writer(OutputStream out) {
+    this(BUFFER_SIZE, false);
+    this.out = out;
+    inUse = true;
+  }
+
+  Utf8Writer(int bufferSize, boolean pooled) {
+    this.buffer = new byte[bufferSize];
+    this.pooled = pooled;
+  }
+
+  void drain() throws IOException {
+    if (pos > 0) {
+      out.write(buffer, 0, pos);
+      pos = 0;
+    }
+  }
+
+  void put(int c) throws IOException {
+    if (buffer.length - pos < 4) {
+      drain();
+    }
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate((char) c)) {
+        int cp = Character.toCodePoint(high, (char) c);
+        buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
+        return;
+      }
+      // lone surrogate - as String.getBytes("UTF-8") would
+      buffer[pos++] = '?';
+      put(c);
+      return;
+    }
+    if (c < 0x80) {
+      buffer[pos++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[pos++] = (byte) (0xc0 | (c >> 6));
+      buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate((char) c)) {
+      highSurrogate = (char) c;
+    } else if (Character.isLowSurrogate((char) c)) {
+      buffer[pos++] = '?';
+    } else {
+      buffer[pos++] = (byte) (0xe0 | (c >> 12));
+      buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+    }
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    put(c & 0xffff);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    int end = off + len;
+    for (int i = off; i < end; ++i) {
+      char c = cbuf[i];
+      // ascii fast path
+      if (c < 0x80 && highSurrogate == 0 && pos < buffer.length) {
+        buffer[pos++] = (byte) c;
+      } else {
+        put(c);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    int end = off + len;
+    for (int i = off; i < end; ++i) {
+      char c = str.charAt(i);
+      if (c < 0x80 && highSurrogate == 0 && pos < buffer.length) {
+        buffer[pos++] = (byte) c;
+      } else {
+        put(c);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  /**
+   * writes what is buffered and hands the writer back - the stream is left
+   * open, it belongs to the caller
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (highSurrogate != 0) {
+        highSurrogate = 0;
+        put('?');
+      }
+      drain();
+    } finally {
+      pos = 0;
+      out = null;
+      inUse = false;
+    }
+  }
+
+}
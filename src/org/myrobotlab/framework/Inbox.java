@@ -27,72 +27,123 @@ package org.myrobotlab.framework;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
+import org.myrobotlab.framework.interfaces.Mailbox;
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
 
+/**
+ * A service's incoming message queue. The actual storage is a pluggable
+ * {@link Mailbox} - by default a lock-free {@link RingMailbox} so publishing
+ * threads don't contend on a single monitor per service.
+ */
 public class Inbox implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
   public final static Logger log = LoggerFactory.getLogger(Inbox.class.getCanonicalName());
 
+  /**
+   * inbox ids in use for message loop detection - a released id is reused
+   * lowest first, so a message's hop history only grows with the number of
+   * live inboxes, not with every service ever created
+   */
+  static final BitSet hopIds = new BitSet();
+
   String name;
-  LinkedList<Message> msgBox = new LinkedList<Message>();
+  final int hopId = allocateHopId();
+  boolean released = false;
+  transient Mailbox mailbox;
   boolean isRunning = false;
   boolean bufferOverrun = false;
-  boolean blocking = false;
   int maxQueue = 1024; // will need to adjust unit test if you change this
   // value
 
-  HashMap<Long, Object[]> blockingList = new HashMap<Long, Object[]>();
+  /**
+   * outstanding sendAsync / sendBlocking requests keyed by msgId - a RETURN
+   * message is matched when it is added, so it never reaches the queue and
+   * ordinary dequeues don't pay for the lookup
+   */
+  final ConcurrentHashMap<Long, PendingRequest> pending = new ConcurrentHashMap<Long, PendingRequest>();
+
+  /**
+   * a future for a return value which times out on the shared TimerWheel -
+   * cancelling it drops the request, so a caller which gives up (or never set
+   * a timeout) does not leave it behind
+   */
+  public static class PendingRequest extends CompletableFuture<Object> {
+    final ConcurrentHashMap<Long, PendingRequest> pending;
+    final long msgId;
+    TimerWheel.Timeout timeout;
+
+    PendingRequest(ConcurrentHashMap<Long, PendingRequest> pending, long msgId) {
+      this.pending = pending;
+      this.msgId = msgId;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      pending.remove(msgId, this);
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      return super.cancel(mayInterruptIfRunning);
+    }
+  }
 
   public Inbox() {
     this("Inbox");
   }
 
   public Inbox(String name) {
+    this(name, new RingMailbox(1024, OverflowPolicy.DROP_NEWEST));
+  }
+
+  public Inbox(String name, Mailbox mailbox) {
     this.name = name;
+    this.mailbox = mailbox;
+    this.maxQueue = mailbox.capacity();
   }
 
   public void add(Message msg) {
-    if ((msg.historyList.contains(name))) {
-      log.error(String.format("* %s dumping duplicate message %s.%s msgid - %d %s", name, msg.name, msg.method, msg.msgId, msg.historyList));
-      return;
-    }
-
-    msg.historyList.add(name);
-
-    synchronized (msgBox) {
-      while (blocking && msgBox.size() == maxQueue) // queue "full"
-      {
-        try {
-          msgBox.wait();
-        } catch (InterruptedException ex) {
-          log.debug("inbox enque msg INTERRUPTED " + name);
+    // --- sendAsync support begin --------------------
+    if (Message.RETURN.equals(msg.status)) {
+      PendingRequest request = pending.remove(msg.msgId);
+      if (request != null) {
+        if (request.timeout != null) {
+          request.timeout.cancel();
         }
+        // TODO - don't know if this is correct but this works for null data
+        request.complete((msg.data == null) ? null : msg.data[0]);
+        return;
       }
+    }
+    // --- sendAsync support end --------------------
 
-      if (msgBox.size() > maxQueue) {
-        bufferOverrun = true;
-        log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s", name, msgBox.size(), msg.method));
-      } else {
-        msgBox.addFirst(msg);
-        // Logging.logTime(String.format("inbox - %s size %d", name,
-        // msgBox.size()));
-        if (log.isDebugEnabled()) {
-          log.debug(String.format("%s.msgBox + 1 = %d", name, msgBox.size()));
-        }
-        msgBox.notifyAll(); // must own the lock
-      }
+    if (!msg.addHop(hopId)) {
+      log.error(String.format("* %s dumping duplicate message %s.%s msgid - %d", name, msg.name, msg.method, msg.msgId));
+      return;
     }
 
+    if (msg.hopCount > Message.MAX_HOPS) {
+      log.error(String.format("* %s dumping looping message %s.%s msgid - %d hops %d", name, msg.name, msg.method, msg.msgId, msg.hopCount));
+      return;
+    }
+
+    if (!mailbox.offer(msg)) {
+      bufferOverrun = true;
+      log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s", name, mailbox.size(), msg.method));
+    } else if (log.isDebugEnabled()) {
+      log.debug(String.format("%s.msgBox + 1 = %d", name, mailbox.size()));
+    }
   }
 
   public void clear() {
-    msgBox.clear();
+    mailbox.clear();
   }
 
   // FIXME - implement with HashSet or HashMap !!!!
@@ -120,55 +171,104 @@ public class Inbox implements Serializable {
    * @see Message
    */
   public Message getMsg() throws InterruptedException {
-    /*
-     * TODO - remove below - Inbox will call switchboards
-     * serializer/deserializer &amp; communicator send/recieve interface switchboard
-     * has references to serializer and communicator - also all configuration
-     * needed At this level ALL details on where the Message / Message came from
-     * should be hidden and interfaces should be exposed only-
-     */
-
-    Message msg = null;
-
-    synchronized (msgBox) {
-
-      while (msg == null) { // while no messages && no messages that are
-        // blocking
-        if (msgBox.size() == 0) {
-          // log.debug("Inbox WAITING " + name);
-          msgBox.wait(); // must own the lock
-        } else {
-          msg = msgBox.removeLast();
-          log.debug(String.format("%s.msgBox -1 %d", name, msgBox.size()));
-
-          // --- sendBlocking support begin --------------------
-          // TODO - possible safety check msg.status == Message.RETURN
-          // &&
-          if (blockingList.containsKey(msg.msgId)) {
-            Object[] returnContainer = blockingList.get(msg.msgId);
-            if (msg.data == null) // TODO - don't know if this is
-            // correct but this works for
-            // null data now
-            {
-              returnContainer[0] = null;
-            } else {
-              returnContainer[0] = msg.data[0]; // transferring
-              // return data !
-            }
-            synchronized (returnContainer) {
-              blockingList.remove(msg.msgId);
-              returnContainer.notify(); // addListener sender
-            }
-            msg = null; // do not invoke this msg - sendBlocking has
-            // been notified data returned
-          }
-          // --- sendBlocking support end --------------------
+    Message msg = mailbox.take();
+    if (log.isDebugEnabled()) {
+      log.debug(String.format("%s.msgBox -1 %d", name, mailbox.size()));
+    }
+    return msg;
+  }
 
+  /**
+   * register interest in the return of a request message - must be called
+   * before the request is sent
+   * 
+   * @param msgId
+   *          id of the request message
+   * @param timeout
+   *          ms before the future completes with a TimeoutException - null or 0
+   *          for none (cancel the future to drop the request)
+   * @return future completed with the returned data
+   */
+  public CompletableFuture<Object> expect(final long msgId, Integer timeout) {
+    final PendingRequest request = new PendingRequest(pending, msgId);
+    pending.put(msgId, request);
+    if (timeout != null && timeout > 0) {
+      request.timeout = TimerWheel.getInstance().schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (pending.remove(msgId, request)) {
+            request.completeExceptionally(new TimeoutException(String.format("%s no return for msg %d", name, msgId)));
+          }
         }
+      }, timeout);
+    }
+    return request;
+  }
+
+  /**
+   * @return number of outstanding requests
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public int getHopId() {
+    return hopId;
+  }
+
+  static synchronized int allocateHopId() {
+    int id = hopIds.nextClearBit(0);
+    hopIds.set(id);
+    return id;
+  }
+
+  /**
+   * returns the hop id for reuse - called when the owning service is released.
+   * A message still in flight which passed through this inbox could be taken
+   * for a loop by the next owner of the id, so it is only called once the
+   * service has stopped.
+   */
+  public void release() {
+    synchronized (Inbox.class) {
+      if (!released) {
+        released = true;
+        hopIds.clear(hopId);
       }
-      msgBox.notifyAll();
     }
-    return msg;
+  }
+
+  public Mailbox getMailbox() {
+    return mailbox;
+  }
+
+  /**
+   * swap the storage of this inbox - queued messages are carried over
+   * 
+   * @param mailbox
+   *          m
+   */
+  public void setMailbox(Mailbox mailbox) {
+    Mailbox old = this.mailbox;
+    this.mailbox = mailbox;
+    this.maxQueue = mailbox.capacity();
+    if (old != null) {
+      Message msg = null;
+      while ((msg = old.poll()) != null) {
+        mailbox.offer(msg);
+      }
+    }
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return mailbox.getOverflowPolicy();
+  }
+
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    mailbox.setOverflowPolicy(policy);
+  }
+
+  public long getDropped() {
+    return mailbox.getDropped();
   }
 
   public boolean isBufferOverrun() {
@@ -176,11 +276,15 @@ public class Inbox implements Serializable {
   }
 
   public void setBlocking(boolean toBlock) {
-    blocking = toBlock;
+    mailbox.setOverflowPolicy((toBlock) ? OverflowPolicy.BLOCK : OverflowPolicy.DROP_NEWEST);
+  }
+
+  public boolean isBlocking() {
+    return mailbox.getOverflowPolicy() == OverflowPolicy.BLOCK;
   }
 
   public int size() {
-    return msgBox.size();
+    return mailbox.size();
   }
 
 }
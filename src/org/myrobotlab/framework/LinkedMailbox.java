@@ -0,0 +1,118 @@
+package org.myrobotlab.framework;
+
+import java.util.LinkedList;
+
+import org.myrobotlab.framework.interfaces.Mailbox;
+
+/**
+ * The original Inbox storage - a LinkedList guarded by its own monitor with a
+ * notifyAll on every add and take. Kept as a pluggable alternative and as the
+ * baseline for throughput comparisons against RingMailbox.
+ */
+public class LinkedMailbox implements Mailbox {
+
+  final LinkedList<Message> msgBox = new LinkedList<Message>();
+  final int capacity;
+  volatile OverflowPolicy policy;
+  long dropped = 0;
+
+  public LinkedMailbox(int capacity) {
+    this(capacity, OverflowPolicy.DROP_NEWEST);
+  }
+
+  public LinkedMailbox(int capacity, OverflowPolicy policy) {
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  @Override
+  public boolean offer(Message msg) {
+    synchronized (msgBox) {
+      while (msgBox.size() >= capacity) {
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+          ++dropped;
+          return false;
+        } else if (policy == OverflowPolicy.DROP_OLDEST) {
+          msgBox.removeLast();
+          ++dropped;
+        } else {
+          try {
+            msgBox.wait();
+          } catch (InterruptedException e) {
+            ++dropped;
+            Thread.currentThread().interrupt();
+            return false;
+          }
+        }
+      }
+      msgBox.addFirst(msg);
+      msgBox.notifyAll(); // must own the lock
+    }
+    return true;
+  }
+
+  @Override
+  public Message poll() {
+    synchronized (msgBox) {
+      if (msgBox.size() == 0) {
+        return null;
+      }
+      Message msg = msgBox.removeLast();
+      msgBox.notifyAll();
+      return msg;
+    }
+  }
+
+  @Override
+  public Message take() throws InterruptedException {
+    synchronized (msgBox) {
+      while (msgBox.size() == 0) {
+        msgBox.wait(); // must own the lock
+      }
+      Message msg = msgBox.removeLast();
+      msgBox.notifyAll();
+      return msg;
+    }
+  }
+
+  @Override
+  public int size() {
+    synchronized (msgBox) {
+      return msgBox.size();
+    }
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public void clear() {
+    synchronized (msgBox) {
+      msgBox.clear();
+      msgBox.notifyAll();
+    }
+  }
+
+  @Override
+  public long getDropped() {
+    synchronized (msgBox) {
+      return dropped;
+    }
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  @Override
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    synchronized (msgBox) {
+      this.policy = policy;
+      msgBox.notifyAll();
+    }
+  }
+
+}
@@ -0,0 +1,57 @@
+package org.myrobotlab.framework;
+
+import org.myrobotlab.framework.interfaces.ServiceInterface;
+import org.myrobotlab.service.Runtime;
+
+/**
+ * A resolved destination for messages to a named service in this process -
+ * the target's Inbox. It is tagged with the registry version it was resolved
+ * against, so any register or release makes it stale and it is resolved again
+ * on the next use. Immutable so it can be swapped with a single volatile write.
+ * 
+ * A null inbox means the destination is not local (remote services go through
+ * the CommunicationManager and its gateways).
+ */
+public final class LocalRoute {
+
+  final Inbox inbox;
+  final long version;
+
+  LocalRoute(Inbox inbox, long version) {
+    this.inbox = inbox;
+    this.version = version;
+  }
+
+  public boolean isValid() {
+    return version == Runtime.getRegistryVersion();
+  }
+
+  public Inbox getInbox() {
+    return inbox;
+  }
+
+  /**
+   * @param name
+   *          destination service name
+   * @return a route or null if there is no such service - unknown services are
+   *         not cached so CommunicationManager can tear down the route
+   */
+  static public LocalRoute resolve(String name) {
+    // read the version first - if the registry changes after this the route
+    // is simply stale
+    long version = Runtime.getRegistryVersion();
+    ServiceInterface si = Runtime.getService(name);
+    if (si == null) {
+      return null;
+    }
+    // same test CommunicationManager uses for local delivery
+    if (si.getInstanceId() == null && si instanceof Service) {
+      Inbox inbox = ((Service) si).getInbox();
+      if (inbox != null) {
+        return new LocalRoute(inbox, version);
+      }
+    }
+    return new LocalRoute(null, version);
+  }
+
+}
@@ -71,6 +71,12 @@ public final class MRLListener implements Serializable {
    */
   public String callbackMethod;
 
+  /**
+   * cached resolution of callbackName to a local inbox so publishing does not
+   * look the name up in the registry for every message
+   */
+  transient volatile LocalRoute route = null;
+
   public MRLListener(String topicMethod, String callbackName, String callbackMethod) {
     this.topicMethod = topicMethod;
     this.callbackMethod = callbackMethod;
@@ -95,6 +101,19 @@ public final class MRLListener implements Serializable {
   }
   
 
+  /**
+   * @return the cached route if it is still valid - otherwise resolves it
+   *         again (null if the callback service does not exist)
+   */
+  public LocalRoute getRoute() {
+    LocalRoute r = route;
+    if (r == null || !r.isValid()) {
+      r = LocalRoute.resolve(callbackName);
+      route = r;
+    }
+    return r;
+  }
+
   @Override
   public String toString() {
     return String.format("%s -will activate-> %s.%s", topicMethod, callbackName, callbackMethod);
@@ -26,8 +26,8 @@
 package org.myrobotlab.framework;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 
 // FIXME - should 'only' have jvm imports - no other dependencies or simple interface references
 import org.myrobotlab.codec.CodecUtils;
@@ -48,6 +48,11 @@ public class Message implements Serializable {
   public final static String BLOCKING = "B";
   public final static String RETURN = "R";
 
+  /**
+   * a message delivered to more inboxes than this is considered to be looping
+   */
+  public final static int MAX_HOPS = 32;
+
   /**
    * unique identifier for this message
    */
@@ -79,13 +84,21 @@ public class Message implements Serializable {
   public String sendingMethod;
 
   /**
-   * history of the message, its routing stops and Services it passed through.
-   * This is important to prevent endless looping of messages. Turns out
-   * ArrayList is quicker than HashSet on small sets
-   * http://www.javacodegeeks.com
-   * /2010/08/java-best-practices-vector-arraylist.html
+   * history of the message - one bit per Inbox (Inbox.hopId) it has been
+   * delivered to in this process. This is important to prevent endless looping
+   * of messages. Ids below 64 live in a single long so the common case needs no
+   * allocation. Inbox ids only mean something in this process so they are not
+   * serialized.
    */
-  public HashSet<String> historyList;
+  transient long hops;
+  transient long[] moreHops;
+
+  /**
+   * number of inboxes this message has been delivered to - follows the message
+   * across processes to catch loops through gateways
+   */
+  public int hopCount;
+
   public HashMap<String, String> security;
 
   /**
@@ -107,15 +120,17 @@ public class Message implements Serializable {
    * the data which will be sent to the destination method data payload - if
    * invoking a service request this would be the parameter (list) - this would
    * the return type data if the message is outbound
+   * 
+   * On a broadcast the same data array is shared by every subscriber's message
+   * - it must be treated as immutable by receivers
    */
-  public Object[] data;  
+  public Object[] data;
 
   public Message() {
-    msgId = System.currentTimeMillis();
+    msgId = MessageId.next();
     name = new String(); // FIXME - allow NULL !
     sender = new String(); // FIXME - allow NULL !
     sendingMethod = new String();
-    historyList = new HashSet<String>();
     method = new String();
   }
 
@@ -137,9 +152,10 @@ public class Message implements Serializable {
     sender = other.sender;
     sendingMethod = other.sendingMethod;
     // FIXED - not valid making a copy of a message
-    // to send and copying there history list
-    // historyList = other.historyList;
-    historyList = new HashSet<String>();
+    // to send and copying there history
+    hops = 0;
+    moreHops = null;
+    hopCount = 0;
     status = other.status;
     msgType = other.msgType;
     method = other.method;
@@ -147,6 +163,71 @@ public class Message implements Serializable {
     data = other.data;
   }
 
+  /**
+   * a routing envelope for another destination - the payload (data) is shared
+   * not copied and the hop history starts fresh
+   * 
+   * @param name
+   *          destination name
+   * @param method
+   *          destination method
+   * @return the new envelope
+   */
+  final public Message route(String name, String method) {
+    Message msg = new Message(this);
+    msg.name = name;
+    msg.method = method;
+    return msg;
+  }
+
+  /**
+   * record delivery to an inbox
+   * 
+   * @param hopId
+   *          the Inbox's id
+   * @return false if this message has already been delivered there
+   */
+  final public boolean addHop(int hopId) {
+    ++hopCount;
+    if (hopId < 64) {
+      long bit = 1L << hopId;
+      if ((hops & bit) != 0) {
+        return false;
+      }
+      hops |= bit;
+      return true;
+    }
+    int index = (hopId >> 6) - 1;
+    if (moreHops == null) {
+      moreHops = new long[index + 1];
+    } else if (moreHops.length <= index) {
+      moreHops = Arrays.copyOf(moreHops, index + 1);
+    }
+    long bit = 1L << (hopId & 63);
+    if ((moreHops[index] & bit) != 0) {
+      return false;
+    }
+    moreHops[index] |= bit;
+    return true;
+  }
+
+  final public boolean hasHop(int hopId) {
+    if (hopId < 64) {
+      return (hops & (1L << hopId)) != 0;
+    }
+    int index = (hopId >> 6) - 1;
+    return moreHops != null && moreHops.length > index && (moreHops[index] & (1L << (hopId & 63))) != 0;
+  }
+
+  /**
+   * message becomes "new" - e.g. a task re-sending the same message
+   */
+  final public void clearHops() {
+    hops = 0;
+    moreHops = null;
+    hopCount = 0;
+  }
+
   final public void setData(Object... params) {
     this.data = params;
   }
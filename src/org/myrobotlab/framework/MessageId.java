@@ -0,0 +1,80 @@
+package org.myrobotlab.framework;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention free unique message ids. Each thread takes a block of ids from a
+ * shared counter and hands them out without synchronization, so concurrent
+ * publishers only touch the shared counter once per BLOCK_SIZE messages.
+ * 
+ * Layout (always positive) : 
+ * 
+ * <pre>
+ * | 0 | 16 bit instance discriminator | 47 bit sequence |
+ * </pre>
+ * 
+ * The discriminator is random per process unless set, so ids from connected
+ * MRL instances do not collide - e.g. when a sendBlocking return crosses a
+ * gateway.
+ */
+public class MessageId {
+
+  static final int SEQUENCE_BITS = 47;
+  static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+  static final int BLOCK_SIZE = 1024;
+
+  static final AtomicLong blocks = new AtomicLong();
+
+  static volatile long discriminator = ((long) (new SecureRandom().nextInt() & 0xFFFF)) << SEQUENCE_BITS;
+
+  static class Block {
+    long next = 0;
+    long limit = 0;
+  }
+
+  static final ThreadLocal<Block> block = new ThreadLocal<Block>() {
+    @Override
+    protected Block initialValue() {
+      return new Block();
+    }
+  };
+
+  /**
+   * @return a process unique id which also embeds this instance's
+   *         discriminator
+   */
+  public static long next() {
+    Block b = block.get();
+    if (b.next == b.limit) {
+      b.next = blocks.getAndAdd(BLOCK_SIZE);
+      b.limit = b.next + BLOCK_SIZE;
+    }
+    return discriminator | (b.next++ & SEQUENCE_MASK);
+  }
+
+  /**
+   * fix the instance discriminator - e.g. derived from Runtime's id so it is
+   * stable across restarts
+   * 
+   * @param value
+   *          only the low 16 bits are used
+   */
+  public static void setDiscriminator(int value) {
+    discriminator = ((long) (value & 0xFFFF)) << SEQUENCE_BITS;
+  }
+
+  public static int getDiscriminator() {
+    return (int) (discriminator >>> SEQUENCE_BITS);
+  }
+
+  /**
+   * @param id
+   *          a message id
+   * @return the discriminator of the instance which created it
+   */
+  public static int getDiscriminator(long id) {
+    return (int) ((id >>> SEQUENCE_BITS) & 0xFFFF);
+  }
+
+}
@@ -29,6 +29,15 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.framework.interfaces.NameProvider;
@@ -43,6 +52,11 @@ import org.slf4j.Logger;
  * (if necessary) send it to a local operator.
  * 
  * It knows nothing about protocols, serialization methods, or communication methods.
+ * 
+ * In parallel dispatch mode fan-out is handed to a process wide worker pool.  Each
+ * subscriber gets its own queue which is drained by at most one worker at a time,
+ * so a slow subscriber only delays itself and messages from this publisher to any
+ * one subscriber stay in FIFO order.
  */
 
 public class Outbox implements Runnable, Serializable {
@@ -65,6 +79,108 @@ public class Outbox implements Runnable, Serializable {
   public HashMap<String, ArrayList<MRLListener>> notifyList = new HashMap<String, ArrayList<MRLListener>>();
   CommunicationInterface comm = null;
 
+  /**
+   * fan-out to subscribers on the shared dispatch pool instead of the outbox
+   * thread
+   */
+  boolean parallelDispatch = false;
+
+  /**
+   * per subscriber (callback service name) dispatch queues
+   */
+  transient ConcurrentHashMap<String, SubscriberQueue> subscriberQueues = new ConcurrentHashMap<String, SubscriberQueue>();
+
+  /**
+   * max messages a worker sends for one subscriber before yielding the worker
+   * to other subscribers
+   */
+  static int dispatchBatchSize = 64;
+
+  static ExecutorService dispatchPool = null;
+
+  /**
+   * messages sent from this outbox - both direct and parallel
+   */
+  transient AtomicLong dispatched = new AtomicLong();
+
+  /**
+   * A single subscriber's queue - it is scheduled on the dispatch pool only
+   * when it has work and is never run by two workers at once
+   */
+  public class SubscriberQueue implements Runnable {
+    final String name;
+    final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<Message>();
+    final AtomicInteger depth = new AtomicInteger();
+    final AtomicBoolean scheduled = new AtomicBoolean(false);
+    final AtomicInteger maxDepth = new AtomicInteger();
+    final AtomicLong total = new AtomicLong();
+    volatile LocalRoute route = null;
+
+    SubscriberQueue(String name) {
+      this.name = name;
+    }
+
+    void add(Message msg) {
+      queue.add(msg);
+      int d = depth.incrementAndGet();
+      int max;
+      while (d > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, d)) {
+      }
+      if (d > maxQueue) {
+        log.warn(String.format("%s outbox subscriber %s BUFFER OVERRUN size %d", myService.getName(), name, d));
+      }
+      schedule();
+    }
+
+    void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        getDispatchPool().execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Message msg = null;
+        int count = 0;
+        while (count < dispatchBatchSize && (msg = queue.poll()) != null) {
+          depth.decrementAndGet();
+          ++count;
+          try {
+            LocalRoute r = route;
+            if (r == null || !r.isValid()) {
+              r = LocalRoute.resolve(name);
+              route = r;
+            }
+            send(msg, r);
+          } catch (Exception e) {
+            log.error(String.format("%s dispatch to %s.%s threw", myService.getName(), msg.name, msg.method), e);
+          }
+        }
+        total.addAndGet(count);
+        dispatched.addAndGet(count);
+      } finally {
+        scheduled.set(false);
+        // something may have been added after the last poll
+        if (!queue.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+
+    public int getDepth() {
+      return depth.get();
+    }
+
+    public int getMaxDepth() {
+      return maxDepth.get();
+    }
+
+    public long getTotal() {
+      return total.get();
+    }
+  }
+
   public Outbox(NameProvider myService) {
     this.myService = myService;
   }
@@ -108,6 +224,66 @@ public class Outbox implements Runnable, Serializable {
     return comm;
   }
 
+  static synchronized ExecutorService getDispatchPool() {
+    if (dispatchPool == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      dispatchPool = Executors.newFixedThreadPool(Math.max(2, java.lang.Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, String.format("outbox_dispatch_%d", threadCount.getAndIncrement()));
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return dispatchPool;
+  }
+
+  /**
+   * local fast path - straight into the destination's inbox when the route is
+   * local, otherwise CommunicationManager does the name resolution
+   */
+  void send(Message msg, LocalRoute route) {
+    if (route != null && route.inbox != null) {
+      route.inbox.add(msg);
+    } else {
+      comm.send(msg);
+    }
+  }
+
+  /**
+   * broadcast to a subscriber using the route cached on its listener
+   */
+  void dispatch(Message msg, MRLListener listener) {
+    if (parallelDispatch) {
+      dispatch(msg);
+    } else {
+      send(msg, listener.getRoute());
+      dispatched.incrementAndGet();
+    }
+  }
+
+  /**
+   * send a message to its destination - either directly from this thread or
+   * through the destination's subscriber queue
+   */
+  void dispatch(Message msg) {
+    if (parallelDispatch) {
+      SubscriberQueue sq = subscriberQueues.get(msg.name);
+      if (sq == null) {
+        sq = new SubscriberQueue(msg.name);
+        SubscriberQueue existing = subscriberQueues.putIfAbsent(msg.name, sq);
+        if (existing != null) {
+          sq = existing;
+        }
+      }
+      sq.add(msg);
+    } else {
+      comm.send(msg);
+      dispatched.incrementAndGet();
+    }
+  }
+
   // FIXME - consider using a blocking queue now that we are using Java 5.0
   @Override
   public void run() {
@@ -145,7 +321,7 @@ public class Outbox implements Runnable, Serializable {
       if (msg.name != null) { // commented out recently -> &&
         // !myService.getName().equals(msg.name)
         log.debug("{} configured to RELAY ", msg.getName());
-        comm.send(msg);
+        dispatch(msg);
         // recently added -
         // if I'm relaying I'm not broadcasting...(i think)
         continue;
@@ -161,16 +337,20 @@ public class Outbox implements Runnable, Serializable {
           continue;
         }
 
+        // the first subscriber gets the published message itself - the rest
+        // get a small routing envelope which shares its data - must be new
+        // for internal queues otherwise you'll change the name on existing
+        // enqueued messages
+        Message published = msg;
         for (int i = 0; i < subList.size(); ++i) {
           MRLListener listener = subList.get(i);
-          msg.name = listener.callbackName;
-          msg.method = listener.callbackMethod;
-          comm.send(msg);
-
-          // must make new for internal queues
-          // otherwise you'll change the name on
-          // existing enqueued messages
-          msg = new Message(msg);
+          if (i == 0) {
+            msg.name = listener.callbackName;
+            msg.method = listener.callbackMethod;
+          } else {
+            msg = published.route(listener.callbackName, listener.callbackMethod);
+          }
+          dispatch(msg, listener);
         }
       } else {
         if (log.isDebugEnabled()) {
@@ -206,6 +386,7 @@ public class Outbox implements Runnable, Serializable {
       outboxThreadPool.remove(i);
       t = null;
     }
+    subscriberQueues.clear();
   }
 
   public LinkedList<Message> getMsgBox() {
@@ -228,4 +409,39 @@ public class Outbox implements Runnable, Serializable {
     return isRunning;
   }
 
+  public boolean isParallelDispatch() {
+    return parallelDispatch;
+  }
+
+  /**
+   * switch between dispatching on the outbox thread (default) and fanning out
+   * on the shared dispatch pool with per subscriber ordering
+   * 
+   * @param b
+   *          true for parallel
+   */
+  public void setParallelDispatch(boolean b) {
+    parallelDispatch = b;
+  }
+
+  public Map<String, SubscriberQueue> getSubscriberQueues() {
+    return subscriberQueues;
+  }
+
+  /**
+   * @return snapshot of outbox load with per subscriber queue depth
+   */
+  public QueueStats getQueueStats() {
+    QueueStats stats = new QueueStats();
+    stats.name = myService.getName();
+    stats.currentQueueCount = size();
+    stats.total = (int) dispatched.get();
+    stats.ts = System.currentTimeMillis();
+    for (SubscriberQueue sq : subscriberQueues.values()) {
+      stats.subscriberQueueDepth.put(sq.name, sq.getDepth());
+      stats.subscriberMaxQueueDepth.put(sq.name, sq.getMaxDepth());
+    }
+    return stats;
+  }
+
 }
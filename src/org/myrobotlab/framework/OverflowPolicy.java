@@ -0,0 +1,20 @@
+package org.myrobotlab.framework;
+
+/**
+ * What a full Mailbox does with a new message.
+ */
+public enum OverflowPolicy {
+  /**
+   * producer waits until the consumer makes room
+   */
+  BLOCK,
+  /**
+   * oldest queued message is discarded to make room - good for sensor streams
+   * where only the latest value matters
+   */
+  DROP_OLDEST,
+  /**
+   * incoming message is discarded - original Inbox behavior
+   */
+  DROP_NEWEST
+}
@@ -1,9 +1,17 @@
 package org.myrobotlab.framework;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 public class QueueStats {
 
   public String name;
   public int currentQueueCount;
+
+  /**
+   * messages waiting in the service's inbox - currentQueueCount is the outbox
+   */
+  public int inboxQueueCount;
   public int total;
   public int interval;
   public long ts;
@@ -11,6 +19,17 @@ public class QueueStats {
   public long delta;
   public long lineSpeed;
 
+  /**
+   * current number of queued messages per subscriber - only populated when an
+   * Outbox is in parallel dispatch mode
+   */
+  public Map<String, Integer> subscriberQueueDepth = new TreeMap<String, Integer>();
+
+  /**
+   * high water mark of queued messages per subscriber
+   */
+  public Map<String, Integer> subscriberMaxQueueDepth = new TreeMap<String, Integer>();
+
   public String getName() {
     return name;
   }
@@ -0,0 +1,201 @@
+package org.myrobotlab.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.framework.interfaces.Mailbox;
+
+/**
+ * Bounded lock-free ring buffer mailbox. Producers claim slots with a CAS on
+ * the tail and publish through a per-slot sequence number (Dmitry Vyukov's
+ * bounded queue), so publishers never contend on a monitor. The head is also
+ * advanced with a CAS, which lets a producer evict the oldest message for
+ * DROP_OLDEST while the service thread is consuming.
+ *
+ * Only one thread is expected to call take() - the service thread. It parks
+ * when the ring is empty and is unparked by the producer which fills it.
+ */
+public class RingMailbox implements Mailbox {
+
+  /**
+   * how long a producer parks between retries when the policy is BLOCK and the
+   * ring is full
+   */
+  static final long BLOCK_BACKOFF_NS = 50000;
+
+  final int capacity;
+  final int mask;
+  final AtomicReferenceArray<Message> buffer;
+  final AtomicLongArray sequence;
+  final AtomicLong head = new AtomicLong();
+  final AtomicLong tail = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+
+  volatile OverflowPolicy policy;
+  volatile Thread waiter = null;
+
+  public RingMailbox(int capacity) {
+    this(capacity, OverflowPolicy.DROP_NEWEST);
+  }
+
+  public RingMailbox(int capacity, OverflowPolicy policy) {
+    if (capacity < 2) {
+      capacity = 2;
+    }
+    // round up to a power of 2 so index is a mask not a modulo
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.capacity = size;
+    this.mask = size - 1;
+    this.policy = policy;
+    buffer = new AtomicReferenceArray<Message>(size);
+    sequence = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      sequence.set(i, i);
+    }
+  }
+
+  boolean tryOffer(Message msg) {
+    long pos = tail.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long dif = sequence.get(index) - pos;
+      if (dif == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          buffer.lazySet(index, msg);
+          // volatile write publishes the slot to the consumer
+          sequence.set(index, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (dif < 0) {
+        // full
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  @Override
+  public boolean offer(Message msg) {
+    if (!tryOffer(msg)) {
+      OverflowPolicy p = policy;
+      if (p == OverflowPolicy.DROP_NEWEST) {
+        dropped.incrementAndGet();
+        return false;
+      } else if (p == OverflowPolicy.DROP_OLDEST) {
+        do {
+          if (poll() != null) {
+            dropped.incrementAndGet();
+          }
+        } while (!tryOffer(msg));
+      } else {
+        do {
+          LockSupport.parkNanos(this, BLOCK_BACKOFF_NS);
+          if (Thread.currentThread().isInterrupted()) {
+            dropped.incrementAndGet();
+            return false;
+          }
+        } while (!tryOffer(msg));
+      }
+    }
+
+    Thread w = waiter;
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+    return true;
+  }
+
+  @Override
+  public Message poll() {
+    long pos = head.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long dif = sequence.get(index) - (pos + 1);
+      if (dif == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          Message msg = buffer.get(index);
+          buffer.lazySet(index, null);
+          // release the slot for the next lap of producers
+          sequence.set(index, pos + capacity);
+          return msg;
+        }
+        pos = head.get();
+      } else if (dif < 0) {
+        // empty
+        return null;
+      } else {
+        pos = head.get();
+      }
+    }
+  }
+
+  @Override
+  public Message take() throws InterruptedException {
+    Message msg = poll();
+    if (msg != null) {
+      return msg;
+    }
+
+    Thread me = Thread.currentThread();
+    while (true) {
+      // advertise before the re-check so a concurrent offer can't be missed
+      waiter = me;
+      msg = poll();
+      if (msg != null) {
+        waiter = null;
+        return msg;
+      }
+      LockSupport.park(this);
+      waiter = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      msg = poll();
+      if (msg != null) {
+        return msg;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    // read head first so a concurrent take can't make the result negative
+    long h = head.get();
+    long size = tail.get() - h;
+    if (size < 0) {
+      return 0;
+    }
+    return (size > capacity) ? capacity : (int) size;
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public void clear() {
+    while (poll() != null) {
+    }
+  }
+
+  @Override
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  @Override
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    this.policy = policy;
+  }
+
+}
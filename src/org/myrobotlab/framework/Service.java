@@ -26,7 +26,6 @@
 package org.myrobotlab.framework;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
@@ -52,8 +51,12 @@ import java.util.SimpleTimeZone;
 import java.util.Timer;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
-import org.myrobotlab.cache.LRUMethodCache;
+import org.myrobotlab.cache.InvocationCache;
 import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.codec.Recorder;
 import org.myrobotlab.framework.interfaces.Attachable;
@@ -84,29 +87,6 @@ import org.slf4j.Logger;
  */
 public abstract class Service extends MessageService implements Runnable, Serializable, ServiceInterface, Invoker, QueueReporter {
 
-  // FIXME upgrade to ScheduledExecutorService
-  // http://howtodoinjava.com/2015/03/25/task-scheduling-with-executors-scheduledthreadpoolexecutor-example/
-  /*
-   * protected class Task extends TimerTask { String taskName; Message msg; long
-   * interval = 0;
-   * 
-   * public Task(String taskName, long interval, Message msg) { this.msg = msg;
-   * this.interval = interval; this.taskName = taskName; }
-   * 
-   * public Task(Task s) { this.msg = s.msg; this.interval = s.interval;
-   * this.taskName = s.taskName; }
-   * 
-   * @Override public void run() { // info("task %s running - next run %s",
-   * taskName, // MathUtils.msToString(interval)); getInbox().add(msg);
-   * 
-   * if (interval > 0) { Task t = new Task(this); // clear history list -
-   * becomes "new" message t.msg.historyList.clear(); Timer timer =
-   * tasks.get(taskName); if (timer != null) { // timer = new
-   * Timer(String.format("%s.timer", getName())); try { timer.schedule(t,
-   * interval); } catch (IllegalStateException e) { } } } }
-   * 
-   * }
-   */
   /**
    * contains all the meta data about the service - pulled from the static
    * method getMetaData() each instance will call the method and populate the
@@ -163,9 +143,9 @@ public abstract class Service extends MessageService implements Runnable, Serial
   transient Timer timer = null;
 
   /**
-   * a more capable task handler
+   * a more capable task handler - tasks run on the shared TaskScheduler
    */
-  transient HashMap<String, Timer> tasks = new HashMap<String, Timer>();
+  transient Map<String, Task> tasks = new ConcurrentHashMap<String, Task>();
 
   protected boolean allowDisplay = true;
 
@@ -859,18 +839,16 @@ public abstract class Service extends MessageService implements Runnable, Serial
    * @param params the params to pass
    */
   public void addTask(String taskName, int intervalMs, int delay, String method, Object... params) {
-    if (tasks.containsKey(taskName)) {
+    Message msg = Message.createMessage(this, getName(), method, params);
+    Task task = new Task(this, taskName, intervalMs, msg);
+    if (tasks.putIfAbsent(taskName, task) != null) {
       log.warn(String.format("already have active task \"%s\"", taskName));
       return;
     }
-    Timer timer = new Timer(String.format("%s.timer", String.format("%s.%s", getName(), taskName)));
-    Message msg = Message.createMessage(this, getName(), method, params);
-    Task task = new Task(this, taskName, intervalMs, msg);
-    timer.schedule(task, delay);
-    tasks.put(taskName, timer);
+    task.start(delay);
   }
 
-  public HashMap<String, Timer> getTasks() {
+  public Map<String, Task> getTasks() {
     return tasks;
   }
 
@@ -879,19 +857,10 @@ public abstract class Service extends MessageService implements Runnable, Serial
   }
 
   public void purgeTask(String taskName) {
-    if (tasks.containsKey(taskName)) {
+    Task task = tasks.remove(taskName);
+    if (task != null) {
       log.info("remove task {}", taskName);
-      Timer timer = tasks.get(taskName);
-      if (timer != null) {
-        try {
-          timer.cancel();
-          timer.purge();
-          timer = null;
-          tasks.remove(taskName);
-        } catch (Exception e) {
-          log.info(e.getMessage());
-        }
-      }
+      task.cancel();
     } else {
       log.warn("purgeTask - task {} does not exist", taskName);
     }
@@ -899,19 +868,11 @@ public abstract class Service extends MessageService implements Runnable, Serial
 
   public void purgeTasks() {
     for (String taskName : tasks.keySet()) {
-      Timer timer = tasks.get(taskName);
-      if (timer != null) {
-        try {
-          timer.cancel();
-          timer.purge();
-          timer = null;
-          tasks.remove(taskName);
-        } catch (Exception e) {
-          log.info(e.getMessage());
-        }
+      Task task = tasks.remove(taskName);
+      if (task != null) {
+        task.cancel();
       }
     }
-    tasks.clear();
   }
 
   public boolean allowDisplay() {
@@ -927,6 +888,19 @@ public abstract class Service extends MessageService implements Runnable, Serial
     invoke("publishState");
   }
 
+  /**
+   * publishes a snapshot of the outbox including per subscriber queue depth,
+   * and the depth of the inbox
+   * 
+   * @return the stats
+   */
+  public QueueStats broadcastQueueStats() {
+    QueueStats stats = outbox.getQueueStats();
+    stats.inboxQueueCount = inbox.size();
+    invoke("publishQueueStats", stats);
+    return stats;
+  }
+
   public String clearLastError() {
     String le = lastError.toString();
     lastError = null;
@@ -1324,104 +1298,23 @@ public abstract class Service extends MessageService implements Runnable, Serial
     }
 
     Object retobj = null;
-    Class<?> c = null;
-    Class<?>[] paramTypes = null;
-
-    try {
-      c = obj.getClass();
-
-      if (params != null) {
-        paramTypes = new Class[params.length];
-        for (int i = 0; i < params.length; ++i) {
-          if (params[i] != null) {
-            paramTypes[i] = params[i].getClass();
-          } else {
-            paramTypes[i] = null;
-          }
-        }
-      }
-      Method meth = null;
 
-      // TODO - method cache map
-      // can not auto-box or downcast with this method - getMethod will
-      // return a "specific & exact" match based
-      // on parameter types - the thing is we may have a typed signature
-      // which will allow execution - but
-      // if so we need to search
-      
-      // FIXME - WHY ISN'T METHOD CACHING USED HERE !!!
+    // resolved once per (class, method, argument classes) - boxing and
+    // upcasting matches as well as misses are cached
+    InvocationCache.Entry entry = InvocationCache.getInstance().getEntry(obj.getClass(), method, params);
+    if (!entry.isValid()) {
+      log.error(String.format("did not find method - %s(%s)", method, CodecUtils.getParameterSignature(params)));
+      return null;
+    }
 
+    try {
       // SECURITY - ??? can't be implemented here - need a full message
-      meth = c.getMethod(method, paramTypes); // getDeclaredMethod zod !!!
-      retobj = meth.invoke(obj, params);
+      retobj = entry.invoke(obj, params);
 
       // put return object onEvent
       out(method, retobj);
-    } catch (NoSuchMethodException e) {
-
-      // cache key compute
-
-      // TODO: validate what "params.toString()" returns.
-      StringBuilder keyBuilder = new StringBuilder();
-      if (paramTypes != null) {
-        for (Object o : paramTypes) {
-          keyBuilder.append(o);
-        }
-      }
-
-      Method mC = LRUMethodCache.getInstance().getCacheEntry(obj, method, paramTypes);
-      if (mC != null) {
-        // We found a cached hit! lets invoke on that.
-        try {
-          retobj = mC.invoke(obj, params);
-          // put return object onEvent
-          out(method, retobj);
-          // return
-          return retobj;
-        } catch (Exception e1) {
-          log.error(String.format("boom goes method %s", mC.getName()));
-          Logging.logError(e1);
-        }
-
-      }
-
-      // TODO - build method cache map from errors
-      log.info(String.format("no such method %s.%s - attempting upcasting", c.getSimpleName(), MethodEntry.getPrettySignature(method, paramTypes, null)));
-
-      // TODO - optimize with a paramter TypeConverter & Map
-      // c.getMethod - returns on EXACT match - not "Working" match
-      Method[] allMethods = c.getMethods(); // ouch
-      log.info(String.format("searching through %d methods", allMethods.length));
-
-      for (Method m : allMethods) {
-        String mname = m.getName();
-        if (!mname.equals(method)) {
-          continue;
-        }
-
-        Type[] pType = m.getGenericParameterTypes();
-        // checking parameter lengths
-        if (params == null && pType.length != 0 || pType.length != params.length) {
-          continue;
-        }
-        try {
-          log.debug("found appropriate method");
-          retobj = m.invoke(obj, params);
-          // put return object onEvent
-          out(method, retobj);
-          // we've found a match. put that in the cache.
-          log.debug("caching method cache key");
-          LRUMethodCache.getInstance().addCacheEntry(obj, method, paramTypes, m);
-          return retobj;
-        } catch (Exception e1) {
-          log.error(String.format("boom goes method %s", m.getName()));
-          Logging.logError(e1);
-        }
-      }
-
-      log.error(String.format("did not find method - %s(%s)", method, CodecUtils.getParameterSignature(params)));
-    } catch (Exception e) {
-      log.error(String.format("%s", e.getClass().getSimpleName()), e);
+    } catch (Throwable e) {
+      log.error(String.format("boom goes method %s.%s", obj.getClass().getSimpleName(), MethodEntry.getPrettySignature(method, entry.getMethod().getParameterTypes(), null)), e);
     }
 
     return retobj;
@@ -1468,8 +1361,8 @@ public abstract class Service extends MessageService implements Runnable, Serial
       File cfg = new File(filename);
       if (cfg.exists()) {
         // serializer.read(o, cfg);
-        String json = FileIO.toString(filename);
-        Object saved = CodecUtils.fromJson(json, o.getClass());
+        // older configs are in the platform charset - not utf-8
+        Object saved = CodecUtils.fromJsonFile(cfg, o.getClass());
         copyShallowFrom(o, saved);
         return true;
       }
@@ -1592,6 +1485,9 @@ public abstract class Service extends MessageService implements Runnable, Serial
     purgeTasks();
 
     Runtime.release(getName());
+
+    // loop detection id can be reused by the next service
+    inbox.release();
   }
 
   /**
@@ -1723,10 +1619,8 @@ public abstract class Service extends MessageService implements Runnable, Serial
         return false;
       }
 
-      String s = CodecUtils.toJson(this);
-      FileOutputStream out = new FileOutputStream(cfg);
-      out.write(s.getBytes());
-      out.close();
+      // streamed - no String of the whole service
+      CodecUtils.toJsonFile(this, cfg.getPath());
     } catch (Exception e) {
       Logging.logError(e);
       return false;
@@ -1738,10 +1632,7 @@ public abstract class Service extends MessageService implements Runnable, Serial
 
     try {
       File cfg = new File(String.format("%s%s%s", cfgDir, File.separator, cfgFileName));
-      String s = CodecUtils.toJson(o);
-      FileOutputStream out = new FileOutputStream(cfg);
-      out.write(s.getBytes());
-      out.close();
+      CodecUtils.toJsonFile(o, cfg.getPath());
     } catch (Exception e) {
       Logging.logError(e);
       return false;
@@ -1806,29 +1697,60 @@ public abstract class Service extends MessageService implements Runnable, Serial
     Message msg = Message.createMessage(this, name, method, data);
     msg.sender = this.getName();
     msg.status = Message.BLOCKING;
-    msg.msgId = Runtime.getUniqueID();
+    msg.msgId = MessageId.next();
     
     return sendBlocking(msg, timeout);
   }
   
   public Object sendBlocking(Message msg, Integer timeout) {
-    Object[] returnContainer = new Object[1];
-    /*
-     * if (inbox.blockingList.contains(msg.msgID)) { log.error("DUPLICATE"); }
-     */
-    inbox.blockingList.put(msg.msgId, returnContainer);
-
+    CompletableFuture<Object> ret = sendAsync(msg, timeout);
     try {
       // block until message comes back
-      synchronized (returnContainer) {
-        outbox.add(msg);
-        returnContainer.wait(timeout); // NEW !!! TIMEOUT !!!!
-      }
+      return ret.get();
     } catch (InterruptedException e) {
       log.error("interrupted", e);
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof TimeoutException)) {
+        log.error("sendBlocking failed", e);
+      }
+    } finally {
+      // nobody is waiting any more - drop the request if it's still pending
+      ret.cancel(false);
     }
+    // timeout returns null - same as it always has
+    return null;
+  }
 
-    return returnContainer[0];
+  public CompletableFuture<Object> sendAsync(String name, String method, Object... data) {
+    // default 1 second timeout - FIXME CONFIGURABLE
+    return sendAsync(name, 1000, method, data);
+  }
+
+  public CompletableFuture<Object> sendAsync(String name, Integer timeout, String method, Object... data) {
+    Message msg = Message.createMessage(this, name, method, data);
+    msg.sender = this.getName();
+    msg.status = Message.BLOCKING;
+    msg.msgId = MessageId.next();
+
+    return sendAsync(msg, timeout);
+  }
+
+  /**
+   * send a request without tying up the calling thread - the future is
+   * completed with the return value when the RETURN message arrives in our
+   * inbox, or exceptionally with a TimeoutException
+   * 
+   * @param msg
+   *          request message - msgId must be unique
+   * @param timeout
+   *          ms to wait for a return - null or 0 waits forever
+   * @return future return value
+   */
+  public CompletableFuture<Object> sendAsync(Message msg, Integer timeout) {
+    // register before sending - the return can beat us back
+    CompletableFuture<Object> ret = inbox.expect(msg.msgId, timeout);
+    outbox.add(msg);
+    return ret;
   }
   
 
@@ -0,0 +1,221 @@
+package org.myrobotlab.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.myrobotlab.framework.interfaces.RegistryListener;
+import org.myrobotlab.framework.interfaces.ServiceInterface;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * The Runtime's registry of all services (local and remote) by name. Reads -
+ * the message hot path getService(name) and interface lookups - take no lock.
+ * Writes are serialized on the registry and maintain secondary indexes by
+ * interface and by type, which hold immutable lists sorted by name that are
+ * swapped on every change (copy on write). Registration and release are rare
+ * compared to lookups so that trade is cheap.
+ */
+public class ServiceRegistry {
+
+  public final static Logger log = LoggerFactory.getLogger(ServiceRegistry.class);
+
+  static final Comparator<ServiceInterface> byName = new Comparator<ServiceInterface>() {
+    @Override
+    public int compare(ServiceInterface o1, ServiceInterface o2) {
+      return o1.getName().compareTo(o2.getName());
+    }
+  };
+
+  final ConcurrentSkipListMap<String, ServiceInterface> services = new ConcurrentSkipListMap<String, ServiceInterface>();
+
+  /**
+   * interfaces directly implemented by a service's class to those services
+   */
+  final ConcurrentHashMap<Class<?>, List<ServiceInterface>> byInterface = new ConcurrentHashMap<Class<?>, List<ServiceInterface>>();
+
+  /**
+   * full class name to services
+   */
+  final ConcurrentHashMap<String, List<ServiceInterface>> byType = new ConcurrentHashMap<String, List<ServiceInterface>>();
+
+  final CopyOnWriteArrayList<RegistryListener> listeners = new CopyOnWriteArrayList<RegistryListener>();
+
+  /**
+   * incremented on every change - lets cached routes (LocalRoute) detect that
+   * a service was released or re-registered
+   */
+  volatile long version = 0;
+
+  public ServiceInterface get(String name) {
+    return services.get(name);
+  }
+
+  public boolean containsKey(String name) {
+    return services.containsKey(name);
+  }
+
+  public int size() {
+    return services.size();
+  }
+
+  public Set<String> keySet() {
+    return Collections.unmodifiableSet(services.keySet());
+  }
+
+  public Collection<ServiceInterface> values() {
+    return Collections.unmodifiableCollection(services.values());
+  }
+
+  /**
+   * @return read only, sorted, concurrently iterable view of the registry
+   */
+  public Map<String, ServiceInterface> getMap() {
+    return Collections.unmodifiableMap(services);
+  }
+
+  /**
+   * add or replace a service
+   * 
+   * @param name
+   *          n
+   * @param si
+   *          the service
+   * @return the service previously registered under this name
+   */
+  public ServiceInterface put(String name, ServiceInterface si) {
+    ServiceInterface old = null;
+    synchronized (this) {
+      old = services.put(name, si);
+      if (old != null) {
+        unindex(old);
+      }
+      index(si);
+      ++version;
+    }
+    for (RegistryListener listener : listeners) {
+      try {
+        listener.onRegistered(si);
+      } catch (Exception e) {
+        log.error("registry listener threw", e);
+      }
+    }
+    return old;
+  }
+
+  public ServiceInterface remove(String name) {
+    ServiceInterface old = null;
+    synchronized (this) {
+      old = services.remove(name);
+      if (old != null) {
+        unindex(old);
+      }
+      ++version;
+    }
+    if (old != null) {
+      for (RegistryListener listener : listeners) {
+        try {
+          listener.onReleased(old);
+        } catch (Exception e) {
+          log.error("registry listener threw", e);
+        }
+      }
+    }
+    return old;
+  }
+
+  public synchronized void clear() {
+    services.clear();
+    byInterface.clear();
+    byType.clear();
+    ++version;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @param interfaze
+   *          interface
+   * @return services whose class directly implements interfaze - immutable,
+   *         sorted by name
+   */
+  public List<ServiceInterface> getServicesFromInterface(Class<?> interfaze) {
+    List<ServiceInterface> ret = byInterface.get(interfaze);
+    if (ret == null) {
+      return Collections.emptyList();
+    }
+    return ret;
+  }
+
+  /**
+   * @param type
+   *          full class name e.g. org.myrobotlab.service.Servo
+   * @return services of that type - immutable, sorted by name
+   */
+  public List<ServiceInterface> getServicesFromType(String type) {
+    List<ServiceInterface> ret = byType.get(type);
+    if (ret == null) {
+      return Collections.emptyList();
+    }
+    return ret;
+  }
+
+  public void addListener(RegistryListener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(RegistryListener listener) {
+    listeners.remove(listener);
+  }
+
+  // must own the registry lock
+  void index(ServiceInterface si) {
+    Class<?> c = si.getClass();
+    for (Class<?> interfaze : c.getInterfaces()) {
+      add(byInterface, interfaze, si);
+    }
+    add(byType, c.getName(), si);
+  }
+
+  // must own the registry lock
+  void unindex(ServiceInterface si) {
+    Class<?> c = si.getClass();
+    for (Class<?> interfaze : c.getInterfaces()) {
+      remove(byInterface, interfaze, si);
+    }
+    remove(byType, c.getName(), si);
+  }
+
+  static <K> void add(Map<K, List<ServiceInterface>> index, K key, ServiceInterface si) {
+    List<ServiceInterface> list = index.get(key);
+    ArrayList<ServiceInterface> copy = (list == null) ? new ArrayList<ServiceInterface>() : new ArrayList<ServiceInterface>(list);
+    copy.add(si);
+    Collections.sort(copy, byName);
+    index.put(key, Collections.unmodifiableList(copy));
+  }
+
+  static <K> void remove(Map<K, List<ServiceInterface>> index, K key, ServiceInterface si) {
+    List<ServiceInterface> list = index.get(key);
+    if (list == null) {
+      return;
+    }
+    ArrayList<ServiceInterface> copy = new ArrayList<ServiceInterface>(list);
+    copy.remove(si);
+    if (copy.size() == 0) {
+      index.remove(key);
+    } else {
+      index.put(key, Collections.unmodifiableList(copy));
+    }
+  }
+
+}
@@ -1,51 +1,135 @@
 package org.myrobotlab.framework;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
-public class Task extends TimerTask {
+/**
+ * A named task of a Service - sends msg to the service's inbox after a delay
+ * and then every interval ms if interval is &gt; 0. Runs on the shared
+ * TaskScheduler. Periodic runs are fixed rate - when a run is more than one
+ * interval late (e.g. a busy scheduler or a suspended process) the missed runs
+ * are coalesced into one instead of being fired back to back.
+ */
+public class Task implements Runnable {
 
   String taskName;
   Message msg;
   int interval = 0;
-  Service myService;
+  Inbox inbox;
+
+  transient volatile ScheduledFuture<?> future = null;
+  transient volatile boolean cancelled = false;
+
+  /**
+   * when the next run is due
+   */
+  long expected;
+
+  // stats
+  long runCount = 0;
+  long coalescedCount = 0;
+  long totalLateMs = 0;
+  long maxLateMs = 0;
 
-  // FIXME upgrade to ScheduledExecutorService
-  // http://howtodoinjava.com/2015/03/25/task-scheduling-with-executors-scheduledthreadpoolexecutor-example/
-  
   public Task(Service myService, String taskName, int interval, Message msg) {
-    this.myService = myService;
+    this(myService.getInbox(), taskName, interval, msg);
+  }
+
+  public Task(Inbox inbox, String taskName, int interval, Message msg) {
+    this.inbox = inbox;
     this.taskName = taskName;
     this.interval = interval;
     this.msg = msg;
   }
- 
-  public Task(Task s) {
-    this.msg = s.msg;
-    this.interval = s.interval;
-    this.taskName = s.taskName;
-    this.myService = s.myService;
+
+  /**
+   * start the task on the shared scheduler
+   * 
+   * @param delay
+   *          ms before the first run
+   */
+  public synchronized void start(int delay) {
+    expected = System.currentTimeMillis() + delay;
+    future = TaskScheduler.getInstance().schedule(this, delay);
+  }
+
+  public synchronized void cancel() {
+    cancelled = true;
+    if (future != null) {
+      future.cancel(false);
+    }
   }
 
   @Override
-  public void run() {
-    // info("task %s running - next run %s", taskName,
-    // MathUtils.msToString(interval));
-    myService.getInbox().add(msg);
+  public synchronized void run() {
+    if (cancelled) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long late = now - expected;
+    if (late > 0) {
+      totalLateMs += late;
+      if (late > maxLateMs) {
+        maxLateMs = late;
+      }
+    }
+    ++runCount;
+
+    // clear history list - becomes "new" message
+    msg.clearHops();
+    inbox.add(msg);
 
     if (interval > 0) {
-      Task t = new Task(this);
-      // clear history list - becomes "new" message
-      t.msg.historyList.clear();
-      Timer timer = myService.tasks.get(taskName);
-      if (timer != null) {
-        // timer = new Timer(String.format("%s.timer", getName()));
-        try {
-          timer.schedule(t, interval);
-        } catch (IllegalStateException e) {
-        }
+      expected += interval;
+      if (expected <= now) {
+        // overdue - skip the missed runs rather than firing a burst
+        long missed = (now - expected) / interval + 1;
+        coalescedCount += missed;
+        expected += missed * interval;
       }
+      future = TaskScheduler.getInstance().schedule(this, expected - now);
     }
   }
 
+  public String getName() {
+    return taskName;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public synchronized long getRunCount() {
+    return runCount;
+  }
+
+  /**
+   * @return number of periodic runs skipped because they were overdue
+   */
+  public synchronized long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /**
+   * @return worst lateness of a run in ms
+   */
+  public synchronized long getMaxLateMs() {
+    return maxLateMs;
+  }
+
+  /**
+   * @return average lateness (jitter) of a run in ms
+   */
+  public synchronized double getAverageLateMs() {
+    return (runCount == 0) ? 0 : (double) totalLateMs / runCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s interval %d runs %d coalesced %d late avg %.2f max %d ms", taskName, interval, getRunCount(), getCoalescedCount(), getAverageLateMs(), getMaxLateMs());
+  }
+
 }
@@ -0,0 +1,80 @@
+package org.myrobotlab.framework;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Process wide scheduler for Service tasks. A task only drops a message into
+ * its service's inbox, so a couple of daemon threads can serve every task in
+ * the process - instead of the one java.util.Timer thread per task Service
+ * used to create.
+ */
+public class TaskScheduler {
+
+  public final static Logger log = LoggerFactory.getLogger(TaskScheduler.class);
+
+  private static TaskScheduler instance = null;
+
+  static int poolSize = 2;
+
+  final ScheduledThreadPoolExecutor executor;
+
+  protected TaskScheduler(int poolSize) {
+    final AtomicInteger count = new AtomicInteger();
+    executor = new ScheduledThreadPoolExecutor(poolSize, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, String.format("task_scheduler_%d", count.incrementAndGet()));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    // purged tasks must not linger in the queue until their delay expires
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  public static synchronized TaskScheduler getInstance() {
+    if (instance == null) {
+      instance = new TaskScheduler(poolSize);
+    }
+    return instance;
+  }
+
+  /**
+   * number of scheduler threads - only has an effect before the scheduler is
+   * first used
+   * 
+   * @param size
+   *          threads
+   */
+  public static synchronized void setPoolSize(int size) {
+    poolSize = size;
+  }
+
+  /**
+   * schedule a task's next run - or any other short job
+   * 
+   * @param task
+   *          the task
+   * @param delayMs
+   *          ms from now
+   * @return the pending run
+   */
+  public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    return executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return number of scheduled runs waiting
+   */
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+}
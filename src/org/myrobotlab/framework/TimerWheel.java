@@ -0,0 +1,159 @@
+package org.myrobotlab.framework;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Hashed timer wheel for large numbers of short, usually cancelled timeouts -
+ * e.g. sendAsync request timeouts. Scheduling and cancelling are O(1) and lock
+ * free; a single daemon thread advances the wheel every tick and runs expired
+ * tasks, so tasks must be quick. Resolution is one tick.
+ */
+public class TimerWheel implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+  private static TimerWheel instance = null;
+
+  final long tickMs;
+  final int mask;
+  final ArrayList<Timeout>[] wheel;
+
+  /**
+   * new timeouts - handed to the wheel thread so the buckets need no locking
+   */
+  final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<Timeout>();
+
+  final long start = System.currentTimeMillis();
+  long tick = 0;
+  transient Thread worker = null;
+
+  public static class Timeout {
+    final Runnable task;
+    final long deadline;
+    long rounds;
+    volatile boolean cancelled = false;
+
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * @return process wide wheel - 10 ms ticks, 512 buckets
+   */
+  public static synchronized TimerWheel getInstance() {
+    if (instance == null) {
+      instance = new TimerWheel(10, 512);
+      instance.start();
+    }
+    return instance;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public TimerWheel(long tickMs, int buckets) {
+    this.tickMs = tickMs;
+    // power of 2 so a bucket is a mask
+    int size = Integer.highestOneBit(Math.max(2, buckets) - 1) << 1;
+    mask = size - 1;
+    wheel = new ArrayList[size];
+    for (int i = 0; i < size; ++i) {
+      wheel[i] = new ArrayList<Timeout>();
+    }
+  }
+
+  public synchronized void start() {
+    if (worker == null) {
+      worker = new Thread(this, "timer_wheel");
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  public synchronized void stop() {
+    if (worker != null) {
+      worker.interrupt();
+      worker = null;
+    }
+  }
+
+  /**
+   * @param task
+   *          quick task run on the wheel thread
+   * @param delayMs
+   *          delay
+   * @return handle to cancel with
+   */
+  public Timeout schedule(Runnable task, long delayMs) {
+    Timeout timeout = new Timeout(task, System.currentTimeMillis() + delayMs);
+    incoming.add(timeout);
+    return timeout;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        long next = start + (tick + 1) * tickMs;
+        long sleep = next - System.currentTimeMillis();
+        if (sleep > 0) {
+          Thread.sleep(sleep);
+        }
+        transfer();
+        expire(wheel[(int) (tick & mask)], System.currentTimeMillis());
+        ++tick;
+      }
+    } catch (InterruptedException e) {
+      log.info("timer wheel stopping");
+    }
+  }
+
+  void transfer() {
+    Timeout timeout = null;
+    while ((timeout = incoming.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+      long ticks = (timeout.deadline - start) / tickMs;
+      // already late - run on this tick
+      if (ticks < tick) {
+        ticks = tick;
+      }
+      timeout.rounds = (ticks - tick) / wheel.length;
+      wheel[(int) (ticks & mask)].add(timeout);
+    }
+  }
+
+  void expire(ArrayList<Timeout> bucket, long now) {
+    Iterator<Timeout> it = bucket.iterator();
+    while (it.hasNext()) {
+      Timeout timeout = it.next();
+      if (timeout.cancelled) {
+        it.remove();
+      } else if (timeout.rounds > 0) {
+        --timeout.rounds;
+      } else {
+        it.remove();
+        try {
+          timeout.task.run();
+        } catch (Exception e) {
+          log.error("timeout task threw", e);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,57 @@
+package org.myrobotlab.framework.interfaces;
+
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.framework.OverflowPolicy;
+
+/**
+ * Storage behind a service's Inbox. Many threads may add messages, but only
+ * the owning service thread takes them out. Implementations decide what
+ * happens when the mailbox is full through their OverflowPolicy.
+ *
+ * @see org.myrobotlab.framework.Inbox
+ * @see org.myrobotlab.framework.OverflowPolicy
+ */
+public interface Mailbox {
+
+  /**
+   * add a message - depending on overflow policy this might block, drop the
+   * oldest queued message or drop the incoming one
+   *
+   * @param msg
+   *          m
+   * @return false if the incoming message was dropped
+   */
+  public boolean offer(Message msg);
+
+  /**
+   * non blocking take
+   *
+   * @return the next message or null if empty
+   */
+  public Message poll();
+
+  /**
+   * blocks the (single) consumer until a message is available
+   *
+   * @return the next message
+   * @throws InterruptedException
+   *           e
+   */
+  public Message take() throws InterruptedException;
+
+  public int size();
+
+  public int capacity();
+
+  public void clear();
+
+  /**
+   * @return number of messages dropped because of overflow
+   */
+  public long getDropped();
+
+  public OverflowPolicy getOverflowPolicy();
+
+  public void setOverflowPolicy(OverflowPolicy policy);
+
+}
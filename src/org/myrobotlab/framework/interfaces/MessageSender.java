@@ -1,5 +1,7 @@
 package org.myrobotlab.framework.interfaces;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.myrobotlab.framework.Message;
 
 public interface MessageSender extends NameProvider {
@@ -38,4 +40,19 @@ public interface MessageSender extends NameProvider {
   
   public Object sendBlocking(Message msg, Integer timeout);
 
+  /**
+   * Send a request and return a future for its return value
+   * instead of blocking the calling thread.
+   * 
+   * @param name - name of destination service
+   * @param method - method of destination service
+   * @param data - parameter data
+   * @return future completed with the return value
+   */
+  public CompletableFuture<Object> sendAsync(String name, String method, Object... data);
+
+  public CompletableFuture<Object> sendAsync(String name, Integer timeout, String method, Object... data);
+
+  public CompletableFuture<Object> sendAsync(Message msg, Integer timeout);
+
 }
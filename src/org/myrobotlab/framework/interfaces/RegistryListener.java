@@ -0,0 +1,12 @@
+package org.myrobotlab.framework.interfaces;
+
+/**
+ * notified synchronously when services enter or leave the Runtime registry
+ */
+public interface RegistryListener {
+
+  public void onRegistered(ServiceInterface si);
+
+  public void onReleased(ServiceInterface si);
+
+}
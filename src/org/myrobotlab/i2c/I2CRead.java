@@ -0,0 +1,167 @@
+package org.myrobotlab.i2c;
+
+/**
+ * Completion handle for one i2c read - an optional register write followed by
+ * a read. The controller completes it when the data comes back, so the caller
+ * can queue several reads and wait for them together instead of paying one
+ * round trip per register.
+ *
+ * Controllers which can't pipeline (the default I2CController.i2cReadAsync)
+ * complete the handle before returning it.
+ */
+public class I2CRead {
+
+  public final int busAddress;
+  public final int deviceAddress;
+  public final byte[] writeBuffer;
+  public final int writeSize;
+  public final byte[] readBuffer;
+  public final int readSize;
+
+  /**
+   * controller's id of the bus the read was sent on
+   */
+  int deviceId = -1;
+
+  /**
+   * controller's sequence number of the request
+   */
+  long id = -1;
+
+  boolean done = false;
+
+  /**
+   * bytes read - -1 if the read failed
+   */
+  int count = -1;
+
+  /**
+   * read preceded by a register write
+   */
+  public I2CRead(int busAddress, int deviceAddress, byte[] writeBuffer, int writeSize, byte[] readBuffer, int readSize) {
+    this.busAddress = busAddress;
+    this.deviceAddress = deviceAddress;
+    this.writeBuffer = writeBuffer;
+    this.writeSize = writeSize;
+    this.readBuffer = readBuffer;
+    this.readSize = readSize;
+  }
+
+  /**
+   * plain read
+   */
+  public I2CRead(int busAddress, int deviceAddress, byte[] readBuffer, int readSize) {
+    this(busAddress, deviceAddress, null, 0, readBuffer, readSize);
+  }
+
+  /**
+   * read of a register
+   */
+  public I2CRead(int busAddress, int deviceAddress, int register, byte[] readBuffer, int readSize) {
+    this(busAddress, deviceAddress, new byte[] { (byte) register }, 1, readBuffer, readSize);
+  }
+
+  /**
+   * called by the controller when the request is sent
+   */
+  public synchronized void setId(int deviceId, long id) {
+    this.deviceId = deviceId;
+    this.id = id;
+  }
+
+  public synchronized int getDeviceId() {
+    return deviceId;
+  }
+
+  public synchronized long getId() {
+    return id;
+  }
+
+  /**
+   * called by the controller with the data read
+   */
+  public synchronized void complete(int[] data) {
+    if (done) {
+      // failed or timed out - the buffer belongs to the caller again
+      return;
+    }
+    int size = Math.min(data.length, Math.min(readSize, readBuffer.length));
+    for (int i = 0; i < size; ++i) {
+      readBuffer[i] = (byte) (data[i] & 0xff);
+    }
+    complete(size);
+  }
+
+  /**
+   * called by the controller when the data is already in readBuffer - or with
+   * -1 when the read failed
+   */
+  public synchronized void complete(int count) {
+    if (done) {
+      return;
+    }
+    this.count = count;
+    done = true;
+    notifyAll();
+  }
+
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /**
+   * @return bytes read - -1 if the read failed or is not done
+   */
+  public synchronized int getCount() {
+    return count;
+  }
+
+  /**
+   * wait for the read to complete
+   *
+   * @param timeoutMs
+   *          max ms to wait
+   * @return bytes read - -1 on failure or timeout
+   * @throws InterruptedException
+   *           e
+   */
+  public synchronized int waitFor(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (!done) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return -1;
+      }
+      wait(remaining);
+    }
+    return count;
+  }
+
+  /**
+   * wait for every read to complete
+   *
+   * @param timeoutMs
+   *          max ms to wait for all of them
+   * @param reads
+   *          the reads
+   * @return true if all completed successfully
+   * @throws InterruptedException
+   *           e
+   */
+  public static boolean waitForAll(long timeoutMs, I2CRead... reads) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    boolean ok = true;
+    for (I2CRead read : reads) {
+      if (read.waitFor(Math.max(0, deadline - System.currentTimeMillis())) < 0) {
+        ok = false;
+      }
+    }
+    return ok;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("i2c read %d bus %d device 0x%02x write %d read %d - %s", id, busAddress, deviceAddress, writeSize, readSize, (done) ? count + " bytes" : "pending");
+  }
+
+}
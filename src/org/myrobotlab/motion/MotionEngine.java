@@ -0,0 +1,397 @@
+package org.myrobotlab.motion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * MotionEngine - one event loop which drives the timed motion of every servo
+ * in the process (sweeps, auto disable ...) instead of a Timer or Thread per
+ * servo per move. Jobs are kept in a deadline ordered queue owned by the loop
+ * thread; the thread parks until the earliest deadline, collects every job
+ * which is due and runs them grouped by batch key (the servo controller).
+ *
+ * Jobs only compute - they must not block the loop. Controller i/o (moveTo,
+ * disable ...) is handed to write(), which keeps the latest write per target
+ * for each batch key and runs them on a writer thread of that key. Writes
+ * queued during a tick are released together at its end, so a controller gets
+ * a tick's writes as one batch, and a slow or stuck controller only holds up
+ * its own writes - not the loop, the other servos or the other controllers.
+ *
+ * Velocity is not interpolated here - servoSetVelocity is sent to the
+ * controller, MrlComm steps the servo itself and reports back with servo
+ * events.
+ *
+ * Jitter (how late a job ran) and missed deadlines (a job ran more than one
+ * tick late) are counted so a busy host shows up in getStats().
+ */
+public class MotionEngine implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(MotionEngine.class);
+
+  private static MotionEngine instance = null;
+
+  /**
+   * a timed piece of motion - run() is called on the loop thread when the job
+   * is due and returns the delay in ms until it should run again, or a
+   * negative number when it is finished
+   */
+  public static abstract class Job {
+    final Object batchKey;
+    long deadline;
+    volatile boolean cancelled = false;
+
+    /**
+     * @param batchKey
+     *          jobs with the same key which are due in the same tick run
+     *          together - typically the controller they write to (may be null)
+     */
+    public Job(Object batchKey) {
+      this.batchKey = batchKey;
+    }
+
+    public abstract long run();
+
+    public Object getBatchKey() {
+      return batchKey;
+    }
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * the pending writes of one batch key - drained by one writer thread at a
+   * time
+   */
+  class Writer implements Runnable {
+    final Object batchKey;
+
+    // latest write per target - in the order the targets were last written
+    final LinkedHashMap<Object, Runnable> pending = new LinkedHashMap<Object, Runnable>();
+
+    final ArrayList<Runnable> batch = new ArrayList<Runnable>();
+
+    boolean running = false;
+
+    Writer(Object batchKey) {
+      this.batchKey = batchKey;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        synchronized (writers) {
+          if (pending.isEmpty()) {
+            running = false;
+            writers.remove(batchKey);
+            return;
+          }
+          batch.addAll(pending.values());
+          pending.clear();
+          ++writeBatches;
+        }
+        for (int i = 0; i < batch.size(); ++i) {
+          try {
+            batch.get(i).run();
+          } catch (Exception e) {
+            log.error("motion write threw", e);
+          }
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  public static class Stats {
+    public long ticks;
+    public long jobsRun;
+    public long missedDeadlines;
+    public double avgJitterMs;
+    public double maxJitterMs;
+    public int scheduled;
+    public long writes;
+    public long coalescedWrites;
+    public long writeBatches;
+    public int writing;
+
+    @Override
+    public String toString() {
+      return String.format("ticks %d jobs %d missed %d jitter avg %.3f max %.3f ms scheduled %d writes %d coalesced %d batches %d writing %d", ticks, jobsRun, missedDeadlines,
+          avgJitterMs, maxJitterMs, scheduled, writes, coalescedWrites, writeBatches, writing);
+    }
+  }
+
+  final long tickNs;
+
+  /**
+   * new jobs - handed over to the loop thread which owns the queue
+   */
+  final ConcurrentLinkedQueue<Job> incoming = new ConcurrentLinkedQueue<Job>();
+
+  final PriorityQueue<Job> queue = new PriorityQueue<Job>(64, new Comparator<Job>() {
+    @Override
+    public int compare(Job a, Job b) {
+      return Long.compare(a.deadline, b.deadline);
+    }
+  });
+
+  /**
+   * groups due jobs by batch key - sort is stable so deadline order is kept
+   * within a batch
+   */
+  static final Comparator<Job> byBatchKey = new Comparator<Job>() {
+    @Override
+    public int compare(Job a, Job b) {
+      return Integer.compare(System.identityHashCode(a.batchKey), System.identityHashCode(b.batchKey));
+    }
+  };
+
+  final ArrayList<Job> due = new ArrayList<Job>();
+
+  /**
+   * writers with pending writes - by batch key (identity, as jobs are
+   * batched), guards every Writer's state
+   */
+  final IdentityHashMap<Object, Writer> writers = new IdentityHashMap<Object, Writer>();
+
+  /**
+   * writers the loop wrote to in this tick - released at its end
+   */
+  final ArrayList<Writer> written = new ArrayList<Writer>();
+
+  final ExecutorService writerPool = Executors.newCachedThreadPool(new ThreadFactory() {
+    int count = 0;
+
+    @Override
+    public synchronized Thread newThread(Runnable r) {
+      Thread t = new Thread(r, String.format("motion_writer.%d", ++count));
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  transient Thread worker = null;
+
+  // stats - written by the loop thread only
+  volatile long ticks = 0;
+  volatile long jobsRun = 0;
+  volatile long missedDeadlines = 0;
+  volatile long totalJitterNs = 0;
+  volatile long maxJitterNs = 0;
+
+  // write stats - guarded by writers
+  long writes = 0;
+  long coalescedWrites = 0;
+  long writeBatches = 0;
+
+  public MotionEngine(long tickMs) {
+    this.tickNs = TimeUnit.MILLISECONDS.toNanos(tickMs);
+  }
+
+  public static synchronized MotionEngine getInstance() {
+    if (instance == null) {
+      instance = new MotionEngine(1);
+      instance.start();
+    }
+    return instance;
+  }
+
+  /**
+   * schedule a job
+   *
+   * @param job
+   *          the job
+   * @param delayMs
+   *          ms before its first run
+   * @return the job - cancel() it to stop
+   */
+  public Job schedule(Job job, long delayMs) {
+    job.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+    incoming.add(job);
+    Thread w = worker;
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+    return job;
+  }
+
+  /**
+   * queue blocking controller i/o - it runs on a writer thread of the batch
+   * key, never on the loop. Called from a job the write goes out with the
+   * other writes of the tick, from any other thread right away.
+   *
+   * @param batchKey
+   *          the controller written to - its writes run in order, one at a
+   *          time
+   * @param target
+   *          what is written (the servo, the job ..) - a write replaces the
+   *          pending write of the same target, so a stuck controller doesn't
+   *          pile up stale positions
+   * @param write
+   *          the i/o
+   */
+  public void write(Object batchKey, Object target, Runnable write) {
+    boolean release;
+    Writer writer;
+    synchronized (writers) {
+      writer = writers.get(batchKey);
+      if (writer == null) {
+        writer = new Writer(batchKey);
+        writers.put(batchKey, writer);
+      }
+      ++writes;
+      // re-append - the latest write of a target goes out after the writes
+      // queued before it
+      if (writer.pending.remove(target) != null) {
+        ++coalescedWrites;
+      }
+      writer.pending.put(target, write);
+      if (writer.running) {
+        return;
+      }
+      if (Thread.currentThread() == worker) {
+        if (!written.contains(writer)) {
+          written.add(writer);
+        }
+        return;
+      }
+      writer.running = true;
+    }
+    writerPool.execute(writer);
+  }
+
+  /**
+   * hand the writes queued by this tick's jobs to their writers
+   */
+  void releaseWrites() {
+    synchronized (writers) {
+      for (int i = 0; i < written.size(); ++i) {
+        Writer writer = written.get(i);
+        if (writer.running || writer.pending.isEmpty()) {
+          continue;
+        }
+        writer.running = true;
+        writerPool.execute(writer);
+      }
+      written.clear();
+    }
+  }
+
+  public synchronized void start() {
+    if (worker == null) {
+      worker = new Thread(this, "motion_engine");
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  public synchronized void stop() {
+    if (worker != null) {
+      worker.interrupt();
+      worker = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    Thread me = Thread.currentThread();
+    while (worker == me) {
+      Job job;
+      while ((job = incoming.poll()) != null) {
+        queue.add(job);
+      }
+
+      long now = System.nanoTime();
+      Job next = queue.peek();
+      if (next == null) {
+        LockSupport.park(this);
+        continue;
+      }
+      if (next.deadline > now) {
+        // new jobs unpark us early
+        LockSupport.parkNanos(this, next.deadline - now);
+        continue;
+      }
+
+      // everything due this tick
+      long tickEnd = now + tickNs;
+      while ((next = queue.peek()) != null && next.deadline <= tickEnd) {
+        due.add(queue.poll());
+      }
+      if (due.size() > 1) {
+        Collections.sort(due, byBatchKey);
+      }
+
+      ++ticks;
+      for (int i = 0; i < due.size(); ++i) {
+        job = due.get(i);
+        if (job.cancelled) {
+          continue;
+        }
+        long late = now - job.deadline;
+        if (late > 0) {
+          totalJitterNs += late;
+          if (late > maxJitterNs) {
+            maxJitterNs = late;
+          }
+          if (late > tickNs) {
+            ++missedDeadlines;
+          }
+        }
+        ++jobsRun;
+        long delay = -1;
+        try {
+          delay = job.run();
+        } catch (Exception e) {
+          log.error("motion job threw", e);
+        }
+        if (delay >= 0 && !job.cancelled) {
+          // fixed rate from the deadline - a late job doesn't drift
+          job.deadline += TimeUnit.MILLISECONDS.toNanos(delay);
+          if (job.deadline < now) {
+            job.deadline = now;
+          }
+          queue.add(job);
+        }
+      }
+      due.clear();
+      releaseWrites();
+    }
+  }
+
+  public Stats getStats() {
+    Stats stats = new Stats();
+    stats.ticks = ticks;
+    stats.jobsRun = jobsRun;
+    stats.missedDeadlines = missedDeadlines;
+    stats.avgJitterMs = (jobsRun == 0) ? 0 : totalJitterNs / (double) jobsRun / 1000000.0;
+    stats.maxJitterMs = maxJitterNs / 1000000.0;
+    stats.scheduled = queue.size() + incoming.size();
+    synchronized (writers) {
+      stats.writes = writes;
+      stats.coalescedWrites = coalescedWrites;
+      stats.writeBatches = writeBatches;
+      stats.writing = writers.size();
+    }
+    return stats;
+  }
+
+}
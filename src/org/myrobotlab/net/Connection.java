@@ -63,6 +63,18 @@ public class Connection implements Serializable {
   public String txName;
   public String txMethod;
 
+  // framed transport - bytes on the wire, socket writes and how long messages
+  // waited to be written
+  public String codec;
+  public long rxBytes = 0;
+  public long txBytes = 0;
+  public int txFrames = 0;
+  public int txBatches = 0;
+  public int txQueued = 0;
+  public long txLatencyTotalUs = 0;
+  public long txLatencyAvgUs = 0;
+  public long txLatencyMaxUs = 0;
+
   public boolean authenticated = false;
 
   public HashMap<String, String> addInfo = new HashMap<String, String>();
@@ -82,8 +94,8 @@ public class Connection implements Serializable {
 
   @Override
   public String toString() {
-    return String.format("%s %s rx %d %s.%s --> %s.%s tx %d %s.%s --> %s.%s", protocolKey, state, rx, rxSender, rxSendingMethod, rxName, rxMethod, tx, txSender, txSendingMethod,
-        txName, txMethod);
+    return String.format("%s %s rx %d %s.%s --> %s.%s tx %d %s.%s --> %s.%s - %s rx %d bytes tx %d bytes %d frames %d writes latency avg %d us max %d us", protocolKey, state, rx,
+        rxSender, rxSendingMethod, rxName, rxMethod, tx, txSender, txSendingMethod, txName, txMethod, codec, rxBytes, txBytes, txFrames, txBatches, txLatencyAvgUs, txLatencyMaxUs);
   }
 
 }
@@ -0,0 +1,346 @@
+package org.myrobotlab.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.myrobotlab.codec.Codec;
+import org.myrobotlab.codec.CodecCbor;
+import org.myrobotlab.codec.CodecJava;
+import org.myrobotlab.codec.CodecJson;
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Length prefixed frames of messages over a stream - RemoteAdapter's tcp
+ * connections. A frame is
+ *
+ * <pre>
+ * [int length][byte codec][length bytes of the encoded message]
+ * </pre>
+ *
+ * The codec byte says how the frame was encoded, so each end sends with the
+ * codec it was set to and reads whatever arrives - 0 java serialization (the
+ * default - see CodecJava), 1 json, 2 cbor. Json and cbor messages keep their
+ * data as plain values (maps, lists ..) - fine for messages of simple
+ * parameters, not for register which needs the service itself.
+ *
+ * send() only queues. A writer thread per connection takes what is queued -
+ * waiting up to the flush window for more - encodes it into one reused buffer
+ * and writes it to the socket in one write. Bytes, socket writes and the time
+ * messages waited in the queue are counted in the Connection.
+ */
+public class FramedTransport {
+
+  public final static Logger log = LoggerFactory.getLogger(FramedTransport.class);
+
+  public final static int HEADER_SIZE = 5;
+
+  /**
+   * larger frames are taken as a broken stream
+   */
+  public final static int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * a batch is written when it reaches this size - even if more is queued
+   */
+  public final static int MAX_BATCH_SIZE = 64 * 1024;
+
+  /**
+   * send() blocks when this many messages are queued - a slow peer slows its
+   * senders as the blocking write did
+   */
+  public final static int QUEUE_SIZE = 1024;
+
+  // the index is the codec byte of a frame
+  final static Codec[] codecs = new Codec[] { new CodecJava(), new CodecJson(), new CodecCbor() };
+  final static String[] keys = new String[] { "java", "json", "cbor" };
+
+  static class Pending {
+    final Message msg;
+    final long queuedNs;
+
+    Pending(Message msg) {
+      this.msg = msg;
+      this.queuedNs = System.nanoTime();
+    }
+  }
+
+  /**
+   * the batch buffer - frames are encoded in place and their length filled in
+   * after
+   */
+  static class FrameBuffer extends ByteArrayOutputStream {
+
+    FrameBuffer(int size) {
+      super(size);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+
+    void setSize(int size) {
+      count = size;
+    }
+
+    void putInt(int pos, int value) {
+      buf[pos] = (byte) (value >> 24);
+      buf[pos + 1] = (byte) (value >> 16);
+      buf[pos + 2] = (byte) (value >> 8);
+      buf[pos + 3] = (byte) value;
+    }
+
+    /**
+     * drops a buffer a large message grew
+     */
+    void trim() {
+      count = 0;
+      if (buf.length > MAX_BATCH_SIZE * 4) {
+        buf = new byte[MAX_BATCH_SIZE * 2];
+      }
+    }
+  }
+
+  final Connection data;
+  final DataInputStream in;
+  final OutputStream out;
+  final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>(QUEUE_SIZE);
+  final FrameBuffer batch = new FrameBuffer(MAX_BATCH_SIZE * 2);
+  final Thread writer;
+
+  volatile int codecId = 0;
+  volatile int flushWindowMs = 0;
+  volatile boolean isRunning = true;
+
+  byte[] readBuffer = new byte[8192];
+
+  /**
+   * @param name
+   *          name of the writer thread
+   * @param data
+   *          the connection's counters
+   */
+  public FramedTransport(String name, Connection data, InputStream in, OutputStream out) {
+    this.data = data;
+    this.in = new DataInputStream(new BufferedInputStream(in));
+    this.out = out;
+    data.codec = keys[codecId];
+    writer = new Thread(String.format("%s.writer", name)) {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    };
+    writer.start();
+  }
+
+  /**
+   * @param key
+   *          java, json or cbor
+   * @return the codec byte of frames encoded with it
+   */
+  public static int getCodecId(String key) {
+    for (int i = 0; i < keys.length; ++i) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(String.format("%s is not a frame codec - java, json or cbor", key));
+  }
+
+  /**
+   * @param key
+   *          codec of the frames sent from now on - java, json or cbor
+   */
+  public void setCodec(String key) {
+    codecId = getCodecId(key);
+    data.codec = key;
+  }
+
+  /**
+   * @param ms
+   *          how long the writer waits for more messages before it writes what
+   *          it has - 0 writes what is queued right away
+   */
+  public void setFlushWindow(int ms) {
+    flushWindowMs = ms;
+  }
+
+  /**
+   * queues a message for the writer - blocks only while the queue is full
+   */
+  public void send(Message msg) throws IOException, InterruptedException {
+    if (!isRunning) {
+      throw new IOException(String.format("%s closed", writer.getName()));
+    }
+    queue.put(new Pending(msg));
+    data.txQueued = queue.size();
+  }
+
+  static void writeFrame(FrameBuffer buffer, int id, Object msg) throws Exception {
+    int start = buffer.size();
+    buffer.write(0);
+    buffer.write(0);
+    buffer.write(0);
+    buffer.write(0);
+    buffer.write(id);
+    try {
+      codecs[id].encode(buffer, msg);
+    } catch (Exception e) {
+      buffer.setSize(start);
+      throw e;
+    }
+    buffer.putInt(start, buffer.size() - start - HEADER_SIZE);
+  }
+
+  /**
+   * @return one frame - e.g. a udp datagram
+   */
+  public static byte[] encode(Message msg, String codecKey) throws Exception {
+    FrameBuffer buffer = new FrameBuffer(1024);
+    writeFrame(buffer, getCodecId(codecKey), msg);
+    return buffer.toByteArray();
+  }
+
+  /**
+   * @return the message of a frame - e.g. a udp datagram
+   */
+  public static Message decode(byte[] frame, int offset, int length) throws Exception {
+    if (length < HEADER_SIZE) {
+      throw new IOException(String.format("frame of %d bytes", length));
+    }
+    int size = ((frame[offset] & 0xff) << 24) | ((frame[offset + 1] & 0xff) << 16) | ((frame[offset + 2] & 0xff) << 8) | (frame[offset + 3] & 0xff);
+    if (size != length - HEADER_SIZE) {
+      throw new IOException(String.format("frame says %d bytes - %d received", size, length - HEADER_SIZE));
+    }
+    return decode(frame[offset + 4] & 0xff, frame, offset + HEADER_SIZE, size);
+  }
+
+  static Message decode(int id, byte[] b, int offset, int length) throws Exception {
+    if (id >= codecs.length) {
+      throw new IOException(String.format("unknown frame codec %d", id));
+    }
+    return (Message) codecs[id].decode(new ByteArrayInputStream(b, offset, length), Message.class);
+  }
+
+  /**
+   * blocks until the next frame is read
+   *
+   * @return the message
+   */
+  public Message read() throws Exception {
+    int length = in.readInt();
+    int id = in.readUnsignedByte();
+    if (length < 0 || length > MAX_FRAME_SIZE) {
+      throw new IOException(String.format("frame length %d - stream is broken", length));
+    }
+    byte[] b = readBuffer;
+    if (length > b.length) {
+      b = new byte[length];
+      // keep it unless it's huge
+      if (length <= MAX_BATCH_SIZE * 4) {
+        readBuffer = b;
+      }
+    }
+    in.readFully(b, 0, length);
+    data.rxBytes += length + HEADER_SIZE;
+    return decode(id, b, 0, length);
+  }
+
+  void writeLoop() {
+    List<Pending> pending = new ArrayList<Pending>();
+    try {
+      while (isRunning) {
+        Pending next = queue.take();
+        int window = flushWindowMs;
+        long deadline = System.nanoTime() + window * 1000000L;
+        int id = codecId;
+        while (next != null) {
+          try {
+            writeFrame(batch, id, next.msg);
+            pending.add(next);
+          } catch (Exception e) {
+            // this message can not be sent - the others can
+            log.error("{} could not encode {}.{}", writer.getName(), next.msg.name, next.msg.method, e);
+          }
+          if (batch.size() >= MAX_BATCH_SIZE) {
+            break;
+          }
+          next = queue.poll();
+          if (next == null && window > 0) {
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+              next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            }
+          }
+        }
+
+        if (batch.size() > 0) {
+          out.write(batch.array(), 0, batch.size());
+          out.flush();
+
+          long now = System.nanoTime();
+          data.txBytes += batch.size();
+          data.txFrames += pending.size();
+          ++data.txBatches;
+          for (int i = 0; i < pending.size(); ++i) {
+            long us = (now - pending.get(i).queuedNs) / 1000;
+            data.txLatencyTotalUs += us;
+            if (us > data.txLatencyMaxUs) {
+              data.txLatencyMaxUs = us;
+            }
+          }
+          data.txLatencyAvgUs = data.txLatencyTotalUs / data.txFrames;
+        }
+        data.txQueued = queue.size();
+        pending.clear();
+        batch.trim();
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (Exception e) {
+      if (isRunning) {
+        log.error("{} write threw", writer.getName(), e);
+      }
+    }
+    // the reader fails on the closed stream and releases the connection
+    close();
+  }
+
+  /**
+   * stops the writer - what is still queued is dropped - and closes both
+   * streams
+   */
+  public void close() {
+    isRunning = false;
+    queue.clear();
+    if (Thread.currentThread() != writer) {
+      writer.interrupt();
+    }
+    try {
+      out.close();
+    } catch (Exception e) {
+      // dont care
+    }
+    try {
+      in.close();
+    } catch (Exception e) {
+      // dont care
+    }
+  }
+
+  public boolean isRunning() {
+    return isRunning;
+  }
+
+}
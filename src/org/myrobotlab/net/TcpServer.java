@@ -137,6 +137,18 @@ public class TcpServer implements Runnable {
 		return myService.connections;
 	}
 
+	public void setCodec(String codec) {
+		for (TcpThread tcp : tcpClientList.values()) {
+			tcp.transport.setCodec(codec);
+		}
+	}
+
+	public void setFlushWindow(int ms) {
+		for (TcpThread tcp : tcpClientList.values()) {
+			tcp.transport.setFlushWindow(ms);
+		}
+	}
+
 	public void sendTcp(URI uri, Message msg) {
 		TcpThread tcp = null;
 		try {
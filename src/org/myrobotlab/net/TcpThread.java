@@ -2,8 +2,6 @@ package org.myrobotlab.net;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -30,8 +28,7 @@ public class TcpThread extends Thread {
 	RemoteAdapter myService;
 	public Socket socket;
 	public Connection data;
-	ObjectInputStream in;
-	ObjectOutputStream out;
+	FramedTransport transport;
 	boolean isRunning = false;
 	URI protocolKey;
 	URI uri; // mrl uri
@@ -48,9 +45,11 @@ public class TcpThread extends Thread {
 			socket = new Socket(uri.getHost(), uri.getPort());
 		}
 		this.socket = socket;
-		out = new ObjectOutputStream((socket.getOutputStream()));
-		out.flush();
-		in = new ObjectInputStream(socket.getInputStream());
+		// the writer batches - Nagle would only add delay
+		socket.setTcpNoDelay(true);
+		transport = new FramedTransport(getName(), data, socket.getInputStream(), socket.getOutputStream());
+		transport.setCodec(service.getCodec());
+		transport.setFlushWindow(service.getFlushWindow());
 		this.start();
 
 		msgLog = new FileOutputStream(String.format("%s.%d.json", service.getName(), System.currentTimeMillis()));
@@ -69,8 +68,7 @@ public class TcpThread extends Thread {
 			log.error("shutting down thread");
 			isRunning = false;
 			log.error("attempting to close streams");
-			in.close();
-			out.close();
+			transport.close();
 			log.error("attempting to close socket");
 			socket.close();
 		} catch (Exception dontCare) {
@@ -91,11 +89,7 @@ public class TcpThread extends Thread {
 			data.state = Connection.CONNECTED;
 			while (socket != null && isRunning) {
 
-				Message msg = null;
-				Object o = null;
-
-				o = in.readObject();
-				msg = (Message) o;
+				Message msg = transport.read();
 				++data.rx;
 				// nice for debugging
 				if (msgLog != null) {
@@ -288,7 +282,7 @@ public class TcpThread extends Thread {
 	}
 
 	// FIXME - merge with RemoteAdapter - this is just sendRemote
-	public synchronized void send(Message msg) {
+	public void send(Message msg) {
 		try {
 
 			// router x-forwarded outbound proxy begin
@@ -316,11 +310,8 @@ public class TcpThread extends Thread {
 			}
 			*/
 			
-			out.writeObject(msg);
-			out.flush();
-			// MAKE NOTE !!! :
-			// a reset is necessary after every object !
-			out.reset();
+			// queued - the transport's writer thread encodes and writes it
+			transport.send(msg);
 			data.txSender = msg.sender;
 			data.txSendingMethod = msg.sendingMethod;
 			data.txName = msg.name;
@@ -0,0 +1,513 @@
+package org.myrobotlab.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.framework.TaskScheduler;
+
+/**
+ * Routes published messages to many clients (e.g. WebGui browser tabs) by
+ * topic. A topic is {sender}.{sendingMethod} - e.g. servo01.publishServoEvent.
+ * A client without subscriptions gets everything, a client with subscriptions
+ * gets the topics they match - exactly, as {sender}.*, *.{method} or *.
+ *
+ * A topic can have a max rate - for every client or just one. Messages faster
+ * than the rate are conflated: the client gets the latest when its interval is
+ * up, the ones it replaced are counted as dropped.
+ *
+ * A message is encoded once per codec, when it is sent, and the same payload
+ * goes to every client of that codec which takes it. A message which is
+ * filtered, or conflated and replaced before its interval is up, is never
+ * encoded - a 30 fps topic throttled to 2/s costs 2 encodes a second. A
+ * client's codec is the mime type it connected with - null is the default
+ * (json).
+ *
+ * Nothing in the routing path logs - WebGui routes log events through here.
+ */
+public class TopicRouter {
+
+  /**
+   * encodes a message for the wire
+   */
+  public interface Encoder {
+    /**
+     * @param mimeType
+     *          the client's codec - null is the default
+     * @return String or byte[] payload
+     */
+    Object encode(Message msg, String mimeType) throws Exception;
+  }
+
+  /**
+   * delivers payloads to clients
+   */
+  public interface Sink {
+    /**
+     * @param clientIds
+     *          the clients to deliver to
+     * @param payload
+     *          encoded message - String or byte[]
+     * @param everyone
+     *          true if clientIds is every client - the sink can use a plain
+     *          broadcast
+     */
+    void send(List<String> clientIds, Object payload, boolean everyone) throws Exception;
+  }
+
+  public static class ClientStats {
+    public String id;
+    public String mimeType;
+    public List<String> topics;
+    public long sent;
+    public long filtered;
+    public long dropped;
+    public int backlog;
+    public int maxBacklog;
+
+    @Override
+    public String toString() {
+      return String.format("%s %s topics %s sent %d filtered %d dropped %d backlog %d max backlog %d", id, (mimeType == null) ? "default" : mimeType,
+          (topics == null) ? "*" : topics, sent, filtered, dropped, backlog, maxBacklog);
+    }
+  }
+
+  static class Client {
+    final String id;
+
+    // null - the default codec
+    final String mimeType;
+
+    // null - everything
+    Set<String> topics = null;
+
+    // topic - min interval ns for this client only
+    final Map<String, Long> intervals = new HashMap<String, Long>();
+
+    // topic - ns of the last send, for rate limited topics
+    final Map<String, Long> lastSent = new HashMap<String, Long>();
+
+    // topic - latest conflated message waiting for its interval
+    final Map<String, Message> pending = new HashMap<String, Message>();
+
+    // stats
+    long sent = 0;
+    long filtered = 0;
+    long dropped = 0;
+    int maxBacklog = 0;
+
+    Client(String id, String mimeType) {
+      this.id = id;
+      this.mimeType = mimeType;
+    }
+
+    boolean wants(String[] keys) {
+      if (topics == null) {
+        return true;
+      }
+      for (int i = 0; i < keys.length; ++i) {
+        if (topics.contains(keys[i])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    synchronized ClientStats getStats() {
+      ClientStats stats = new ClientStats();
+      stats.id = id;
+      stats.mimeType = mimeType;
+      stats.topics = (topics == null) ? null : new ArrayList<String>(topics);
+      stats.sent = sent;
+      stats.filtered = filtered;
+      stats.dropped = dropped;
+      stats.backlog = pending.size();
+      stats.maxBacklog = maxBacklog;
+      return stats;
+    }
+  }
+
+  final Encoder encoder;
+  final Sink sink;
+
+  final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+
+  // topic - min interval ns for every client
+  final ConcurrentHashMap<String, Long> intervals = new ConcurrentHashMap<String, Long>();
+
+  // true while every client takes every topic unthrottled in the default codec
+  volatile boolean everything = true;
+
+  // pending conflated payloads
+  ScheduledFuture<?> flush = null;
+  long flushDueNs = 0;
+
+  // stats
+  final AtomicLong encoded = new AtomicLong();
+  final AtomicLong errors = new AtomicLong();
+
+  public TopicRouter(Encoder encoder, Sink sink) {
+    this.encoder = encoder;
+    this.sink = sink;
+  }
+
+  public static String getTopic(Message msg) {
+    String method = (msg.sendingMethod == null || msg.sendingMethod.length() == 0) ? msg.method : msg.sendingMethod;
+    return String.format("%s.%s", msg.sender, method);
+  }
+
+  /**
+   * the keys a topic matches - itself, {sender}.*, *.{method} and *
+   */
+  static String[] getKeys(String topic) {
+    int dot = topic.indexOf('.');
+    if (dot < 0) {
+      return new String[] { topic, "*" };
+    }
+    return new String[] { topic, topic.substring(0, dot + 1) + "*", "*" + topic.substring(dot), "*" };
+  }
+
+  static long getInterval(Map<String, Long> intervals, String[] keys) {
+    if (intervals.isEmpty()) {
+      return 0;
+    }
+    for (int i = 0; i < keys.length; ++i) {
+      Long interval = intervals.get(keys[i]);
+      if (interval != null) {
+        return interval;
+      }
+    }
+    return 0;
+  }
+
+  static long toInterval(double maxPerSecond) {
+    return (maxPerSecond > 0) ? (long) (1000000000L / maxPerSecond) : 0;
+  }
+
+  public void addClient(String id) {
+    addClient(id, null);
+  }
+
+  /**
+   * @param mimeType
+   *          the codec the client's payloads are encoded with - null is the
+   *          default
+   */
+  public void addClient(String id, String mimeType) {
+    if (clients.putIfAbsent(id, new Client(id, mimeType)) == null) {
+      update();
+    }
+  }
+
+  public void removeClient(String id) {
+    clients.remove(id);
+    update();
+  }
+
+  public boolean hasClient(String id) {
+    return clients.containsKey(id);
+  }
+
+  public int getClientCount() {
+    return clients.size();
+  }
+
+  Client getClient(String id) {
+    Client client = clients.get(id);
+    if (client == null) {
+      addClient(id);
+      client = clients.get(id);
+    }
+    return client;
+  }
+
+  /**
+   * client only gets the topics it subscribed to from now on
+   *
+   * @param id
+   *          client
+   * @param topic
+   *          {sender}.{method} - either can be *
+   */
+  public void subscribe(String id, String topic) {
+    subscribe(id, topic, 0);
+  }
+
+  /**
+   * @param maxPerSecond
+   *          max rate of the topic for this client - 0 is unlimited
+   */
+  public void subscribe(String id, String topic, double maxPerSecond) {
+    Client client = getClient(id);
+    synchronized (client) {
+      if (client.topics == null) {
+        client.topics = new HashSet<String>();
+      }
+      client.topics.add(topic);
+      if (maxPerSecond > 0) {
+        client.intervals.put(topic, toInterval(maxPerSecond));
+      } else {
+        client.intervals.remove(topic);
+      }
+    }
+    update();
+  }
+
+  public void unsubscribe(String id, String topic) {
+    Client client = clients.get(id);
+    if (client == null) {
+      return;
+    }
+    synchronized (client) {
+      if (client.topics != null) {
+        client.topics.remove(topic);
+      }
+      client.intervals.remove(topic);
+    }
+  }
+
+  /**
+   * back to everything unthrottled
+   */
+  public void reset(String id) {
+    Client client = clients.get(id);
+    if (client == null) {
+      return;
+    }
+    synchronized (client) {
+      client.topics = null;
+      client.intervals.clear();
+    }
+    update();
+  }
+
+  /**
+   * max rate of a topic for every client
+   *
+   * @param topic
+   *          {sender}.{method} - either can be *
+   * @param maxPerSecond
+   *          0 is unlimited
+   */
+  public void setRate(String topic, double maxPerSecond) {
+    if (maxPerSecond > 0) {
+      intervals.put(topic, toInterval(maxPerSecond));
+    } else {
+      intervals.remove(topic);
+    }
+    update();
+  }
+
+  void update() {
+    boolean all = intervals.isEmpty();
+    for (Client client : clients.values()) {
+      synchronized (client) {
+        if (client.topics != null || !client.intervals.isEmpty() || client.mimeType != null) {
+          all = false;
+        }
+      }
+    }
+    everything = all;
+  }
+
+  /**
+   * route a message to the clients which want it
+   */
+  public void broadcast(Message msg) {
+    try {
+      if (everything) {
+        // nothing to filter or throttle
+        List<String> ids = new ArrayList<String>(clients.keySet());
+        Object payload = encoder.encode(msg, null);
+        encoded.incrementAndGet();
+        for (Client client : clients.values()) {
+          synchronized (client) {
+            ++client.sent;
+          }
+        }
+        sink.send(ids, payload, true);
+        return;
+      }
+
+      String topic = getTopic(msg);
+      String[] keys = getKeys(topic);
+      long globalInterval = getInterval(intervals, keys);
+      long now = System.nanoTime();
+      // codec - the clients it goes to
+      Map<String, List<String>> sendTo = null;
+      long nextDue = Long.MAX_VALUE;
+
+      for (Client client : clients.values()) {
+        synchronized (client) {
+          if (!client.wants(keys)) {
+            ++client.filtered;
+            continue;
+          }
+          long interval = getInterval(client.intervals, keys);
+          if (interval == 0) {
+            interval = globalInterval;
+          }
+          if (interval == 0) {
+            ++client.sent;
+            sendTo = add(sendTo, client);
+            continue;
+          }
+          Long last = client.lastSent.get(topic);
+          if ((last == null || now - last >= interval) && !client.pending.containsKey(topic)) {
+            client.lastSent.put(topic, now);
+            ++client.sent;
+            sendTo = add(sendTo, client);
+          } else {
+            // last value wins
+            if (client.pending.put(topic, msg) != null) {
+              ++client.dropped;
+            }
+            if (client.pending.size() > client.maxBacklog) {
+              client.maxBacklog = client.pending.size();
+            }
+            nextDue = Math.min(nextDue, ((last == null) ? now : last) + interval);
+          }
+        }
+      }
+
+      if (sendTo != null) {
+        send(msg, sendTo);
+      }
+      if (nextDue != Long.MAX_VALUE) {
+        scheduleFlush(nextDue);
+      }
+    } catch (Exception e) {
+      errors.incrementAndGet();
+    }
+  }
+
+  /**
+   * encodes the message once per codec and sends it to the clients of the
+   * codec
+   */
+  void send(Message msg, Map<String, List<String>> sendTo) throws Exception {
+    for (Map.Entry<String, List<String>> entry : sendTo.entrySet()) {
+      Object payload = encoder.encode(msg, entry.getKey());
+      encoded.incrementAndGet();
+      sink.send(entry.getValue(), payload, false);
+    }
+  }
+
+  static Map<String, List<String>> add(Map<String, List<String>> sendTo, Client client) {
+    if (sendTo == null) {
+      sendTo = new HashMap<String, List<String>>(4);
+    }
+    List<String> ids = sendTo.get(client.mimeType);
+    if (ids == null) {
+      ids = new ArrayList<String>();
+      sendTo.put(client.mimeType, ids);
+    }
+    ids.add(client.id);
+    return sendTo;
+  }
+
+  synchronized void scheduleFlush(long dueNs) {
+    if (flush != null && flushDueNs <= dueNs) {
+      return;
+    }
+    if (flush != null) {
+      flush.cancel(false);
+    }
+    flushDueNs = dueNs;
+    long delayMs = Math.max(0, (dueNs - System.nanoTime() + 999999) / 1000000);
+    flush = TaskScheduler.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, delayMs);
+  }
+
+  /**
+   * send the conflated messages which are due - a message due for several
+   * clients is encoded once per codec
+   */
+  public void flush() {
+    synchronized (this) {
+      flush = null;
+    }
+    long now = System.nanoTime();
+    long nextDue = Long.MAX_VALUE;
+    // message - codec - the clients it goes to
+    Map<Message, Map<String, List<String>>> due = null;
+    for (Client client : clients.values()) {
+      synchronized (client) {
+        Iterator<Map.Entry<String, Message>> it = client.pending.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<String, Message> entry = it.next();
+          String topic = entry.getKey();
+          String[] keys = getKeys(topic);
+          long interval = getInterval(client.intervals, keys);
+          if (interval == 0) {
+            interval = getInterval(intervals, keys);
+          }
+          Long last = client.lastSent.get(topic);
+          long dueNs = (last == null) ? now : last + interval;
+          if (dueNs <= now) {
+            if (due == null) {
+              due = new IdentityHashMap<Message, Map<String, List<String>>>();
+            }
+            due.put(entry.getValue(), add(due.get(entry.getValue()), client));
+            client.lastSent.put(topic, now);
+            ++client.sent;
+            it.remove();
+          } else {
+            nextDue = Math.min(nextDue, dueNs);
+          }
+        }
+      }
+    }
+    if (due != null) {
+      for (Map.Entry<Message, Map<String, List<String>>> entry : due.entrySet()) {
+        try {
+          send(entry.getKey(), entry.getValue());
+        } catch (Exception e) {
+          errors.incrementAndGet();
+        }
+      }
+    }
+    if (nextDue != Long.MAX_VALUE) {
+      scheduleFlush(nextDue);
+    }
+  }
+
+  public List<ClientStats> getStats() {
+    List<ClientStats> stats = new ArrayList<ClientStats>();
+    for (Client client : clients.values()) {
+      stats.add(client.getStats());
+    }
+    return stats;
+  }
+
+  public ClientStats getStats(String id) {
+    Client client = clients.get(id);
+    return (client == null) ? null : client.getStats();
+  }
+
+  /**
+   * @return messages encoded - once per message and codec however many clients
+   *         take it
+   */
+  public long getEncodedCount() {
+    return encoded.get();
+  }
+
+  public long getErrorCount() {
+    return errors.get();
+  }
+
+}
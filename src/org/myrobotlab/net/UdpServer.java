@@ -1,7 +1,5 @@
 package org.myrobotlab.net;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
@@ -69,17 +67,14 @@ public class UdpServer implements Runnable {
 
 			byte[] b = new byte[65507]; // max udp size 65507 + 8 byte
 			// header = 65535
-			ByteArrayInputStream b_in = new ByteArrayInputStream(b);
 			DatagramPacket dgram = new DatagramPacket(b, b.length);
 
 			while (isRunning) {
 				serverSocket.receive(dgram); // receives all datagrams
-				// FIXME - do we need o re-create???
-				ObjectInputStream o_in = new ObjectInputStream(b_in);
 				try {
-					Message msg = (Message) o_in.readObject();
+					// one frame per datagram
+					Message msg = FramedTransport.decode(b, 0, dgram.getLength());
 					dgram.setLength(b.length); // must reset length field!
-					b_in.reset();
 
 					/*
 					 * if ("getConnections".equals(msg.method)) {
@@ -182,8 +177,6 @@ public class UdpServer implements Runnable {
 					log.error("processing msg threw", e);
 				}
 				dgram.setLength(b.length); // must reset length field!
-				b_in.reset(); // reset so next read is from start of byte[]
-				// again
 			} // while isRunning
 
 		} catch (SocketException se) {
@@ -0,0 +1,322 @@
+package org.myrobotlab.serial;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of primitive bytes for serial receive data - replaces
+ * the BlockingQueue&lt;Integer&gt; which cost a boxed Integer and a linked
+ * node per byte. The producer publishes with an ordered write of the tail and
+ * the consumer with an ordered write of the head, so one producer and one
+ * consumer never contend. Additional producers or consumers are serialized by
+ * a lock on their own side only.
+ *
+ * A full buffer drops the newest bytes, like a hardware UART overrun - the
+ * number dropped is kept in getOverrunCount().
+ */
+public class ByteRingBuffer {
+
+  final byte[] buffer;
+  final int capacity;
+  final int mask;
+
+  /**
+   * total bytes ever read / written - index is position &amp; mask
+   */
+  final AtomicLong head = new AtomicLong();
+  final AtomicLong tail = new AtomicLong();
+  final AtomicLong overrun = new AtomicLong();
+
+  final Object readLock = new Object();
+  final Object writeLock = new Object();
+
+  /**
+   * reader parked waiting for data - a reader never parks longer than this so
+   * a second waiting reader overwriting the slot only costs latency
+   */
+  static final long MAX_PARK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  volatile Thread waiter = null;
+
+  /**
+   * high water mark
+   */
+  volatile int maxFill = 0;
+
+  public ByteRingBuffer(int capacity) {
+    if (capacity < 2) {
+      capacity = 2;
+    }
+    // round up to a power of 2 so index is a mask not a modulo
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.capacity = size;
+    this.mask = size - 1;
+    buffer = new byte[size];
+  }
+
+  /**
+   * write a block - whatever doesn't fit is dropped and counted as overrun
+   *
+   * @param data
+   *          bytes to write
+   * @param off
+   *          offset
+   * @param len
+   *          number of bytes
+   * @return number of bytes written
+   */
+  public int write(byte[] data, int off, int len) {
+    int written;
+    synchronized (writeLock) {
+      long t = tail.get();
+      int free = capacity - (int) (t - head.get());
+      written = Math.min(free, len);
+      int index = (int) (t & mask);
+      int first = Math.min(written, capacity - index);
+      System.arraycopy(data, off, buffer, index, first);
+      if (written > first) {
+        System.arraycopy(data, off + first, buffer, 0, written - first);
+      }
+      // ordered write publishes the bytes to the consumer
+      tail.lazySet(t + written);
+      int fill = (int) (t + written - head.get());
+      if (fill > maxFill) {
+        maxFill = fill;
+      }
+    }
+    if (written < len) {
+      overrun.addAndGet(len - written);
+    }
+    signal();
+    return written;
+  }
+
+  /**
+   * @param b
+   *          byte to write
+   * @return false if the buffer was full
+   */
+  public boolean write(int b) {
+    boolean written = false;
+    synchronized (writeLock) {
+      long t = tail.get();
+      int fill = (int) (t - head.get());
+      if (fill < capacity) {
+        buffer[(int) (t & mask)] = (byte) b;
+        tail.lazySet(t + 1);
+        written = true;
+        if (fill + 1 > maxFill) {
+          maxFill = fill + 1;
+        }
+      }
+    }
+    if (!written) {
+      overrun.incrementAndGet();
+    }
+    signal();
+    return written;
+  }
+
+  void signal() {
+    Thread w = waiter;
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+  }
+
+  /**
+   * @return number of bytes which can be read without blocking
+   */
+  public int available() {
+    // read head first so a concurrent read can't make the result negative
+    long h = head.get();
+    return (int) (tail.get() - h);
+  }
+
+  /**
+   * wait until there is something to read
+   *
+   * @param timeoutMs
+   *          ms to wait - null waits forever
+   * @return false on timeout
+   * @throws InterruptedException
+   *           e
+   */
+  public boolean await(Integer timeoutMs) throws InterruptedException {
+    return awaitUntil(deadline(timeoutMs));
+  }
+
+  static long deadline(Integer timeoutMs) {
+    return (timeoutMs == null) ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+  }
+
+  boolean awaitUntil(long deadline) throws InterruptedException {
+    if (available() > 0) {
+      return true;
+    }
+    Thread me = Thread.currentThread();
+    try {
+      while (true) {
+        // advertise before the re-check so a concurrent write can't be missed
+        waiter = me;
+        if (available() > 0) {
+          return true;
+        }
+        long remaining = (deadline == Long.MAX_VALUE) ? MAX_PARK_NS : deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NS));
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    } finally {
+      waiter = null;
+    }
+  }
+
+  /**
+   * blocking read of a single byte
+   *
+   * @param timeoutMs
+   *          ms to wait - null waits forever
+   * @return the byte 0-255 or -1 on timeout
+   * @throws InterruptedException
+   *           e
+   */
+  public int read(Integer timeoutMs) throws InterruptedException {
+    long deadline = deadline(timeoutMs);
+    // wait outside the lock so clear() or another reader is never held up
+    while (awaitUntil(deadline)) {
+      synchronized (readLock) {
+        long h = head.get();
+        if (tail.get() > h) {
+          int b = buffer[(int) (h & mask)] & 0xff;
+          head.lazySet(h + 1);
+          return b;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * blocking bulk read - waits for at least one byte then copies as much as is
+   * available up to len
+   *
+   * @param data
+   *          destination
+   * @param off
+   *          offset
+   * @param len
+   *          max bytes to read
+   * @param timeoutMs
+   *          ms to wait - null waits forever
+   * @return number of bytes read - 0 on timeout
+   * @throws InterruptedException
+   *           e
+   */
+  public int read(byte[] data, int off, int len, Integer timeoutMs) throws InterruptedException {
+    long deadline = deadline(timeoutMs);
+    while (awaitUntil(deadline)) {
+      int count = read(data, off, len);
+      if (count > 0 || len == 0) {
+        return count;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * non blocking bulk read
+   *
+   * @param data
+   *          destination
+   * @param off
+   *          offset
+   * @param len
+   *          max bytes to read
+   * @return number of bytes read - may be 0
+   */
+  public int read(byte[] data, int off, int len) {
+    synchronized (readLock) {
+      long h = head.get();
+      int count = Math.min((int) (tail.get() - h), len);
+      int index = (int) (h & mask);
+      int first = Math.min(count, capacity - index);
+      System.arraycopy(buffer, index, data, off, first);
+      if (count > first) {
+        System.arraycopy(buffer, 0, data, off + first, count - first);
+      }
+      head.lazySet(h + count);
+      return count;
+    }
+  }
+
+  /**
+   * scan the readable bytes for a delimiter without consuming them
+   *
+   * @param delimiter
+   *          byte to look for
+   * @return offset from the read position of the first delimiter or -1
+   */
+  public int indexOf(int delimiter) {
+    byte d = (byte) delimiter;
+    long h = head.get();
+    int count = (int) (tail.get() - h);
+    for (int i = 0; i < count; ++i) {
+      if (buffer[(int) ((h + i) & mask)] == d) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return copy of the readable bytes - nothing is consumed
+   */
+  public byte[] toArray() {
+    synchronized (readLock) {
+      long h = head.get();
+      byte[] data = new byte[(int) (tail.get() - h)];
+      for (int i = 0; i < data.length; ++i) {
+        data[i] = buffer[(int) ((h + i) & mask)];
+      }
+      return data;
+    }
+  }
+
+  public void clear() {
+    synchronized (readLock) {
+      head.lazySet(tail.get());
+    }
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return bytes dropped because the buffer was full
+   */
+  public long getOverrunCount() {
+    return overrun.get();
+  }
+
+  /**
+   * @return fraction of the buffer in use 0.0 - 1.0
+   */
+  public double getFillLevel() {
+    return available() / (double) capacity;
+  }
+
+  /**
+   * @return most bytes ever waiting in the buffer
+   */
+  public int getMaxFill() {
+    return maxFill;
+  }
+
+}
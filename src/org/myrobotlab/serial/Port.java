@@ -50,8 +50,19 @@ public abstract class Port implements Runnable, SerialControl {
   int txErrors;
   int rxErrors;
 
+  /**
+   * size of the block read buffer handed to listeners' onBytes
+   */
+  int rxBufferSize = 1024;
+
   boolean isOpen = false;
 
+  /**
+   * the reader pool polling this port - null when it has a reading thread of
+   * its own
+   */
+  transient SerialReaderPool pool = null;
+
   // necessary - to be able to invoke
   // "nameless" port implementation to query "hardware" ports
   // overloading a "Port" and a PortQuery - :P
@@ -76,6 +87,9 @@ public abstract class Port implements Runnable, SerialControl {
 
     // closed = new CountDownLatch(1);
     listening = false;
+    if (pool != null) {
+      pool.remove(this);
+    }
     if (readingThread != null) {
       readingThread.interrupt();
     }
@@ -129,6 +143,57 @@ public abstract class Port implements Runnable, SerialControl {
     // }
   }
 
+  /**
+   * listen through a reader pool - the pool's threads poll this port along
+   * with the other ports it services instead of it getting a blocking reading
+   * thread of its own. Ports which can't poll get their own thread anyway.
+   * 
+   * @param listeners
+   *          listeners
+   * @param pool
+   *          the pool - null for a reading thread
+   */
+  public void listen(HashMap<String, SerialDataListener> listeners, SerialReaderPool pool) {
+    if (pool == null || !isPollable()) {
+      listen(listeners);
+      return;
+    }
+    this.listeners = listeners;
+    if (readingThread != null || this.pool != null) {
+      log.info(String.format("%s already listening", portName));
+      return;
+    }
+    this.pool = pool;
+    listening = true;
+    pool.add(this);
+  }
+
+  public SerialReaderPool getPool() {
+    return pool;
+  }
+
+  /**
+   * @return true if poll is implemented
+   */
+  public boolean isPollable() {
+    return false;
+  }
+
+  /**
+   * non blocking block read for SerialReaderPool - returns what is there and
+   * never waits
+   * 
+   * @param buffer
+   *          buffer to fill
+   * @return number of bytes read - 0 if there is nothing to read, -1 at end of
+   *         stream
+   * @throws Exception
+   *           e
+   */
+  public int poll(byte[] buffer) throws Exception {
+    return 0;
+  }
+
   public void open() throws IOException {
     log.info(String.format("opening port %s", portName));
     isOpen = true;
@@ -136,6 +201,55 @@ public abstract class Port implements Runnable, SerialControl {
 
   abstract public int read() throws Exception;
 
+  /**
+   * block read - blocks until at least one byte is available then returns
+   * what is there without blocking further. Ports which can't do better read a
+   * single byte.
+   * 
+   * @param buffer
+   *          buffer to fill
+   * @return number of bytes read or -1 at end of stream
+   * @throws Exception
+   *           e
+   */
+  public int read(byte[] buffer) throws Exception {
+    int newByte = read();
+    if (newByte < 0) {
+      return -1;
+    }
+    buffer[0] = (byte) newByte;
+    return 1;
+  }
+
+  /**
+   * hand a block of received bytes to every listener and update the rx stats
+   * 
+   * @param buffer
+   *          received data
+   * @param count
+   *          number of bytes in buffer
+   * @throws IOException
+   *           e
+   */
+  protected void onBytes(byte[] buffer, int count) throws IOException {
+    for (SerialDataListener listener : listeners.values()) {
+      listener.onBytes(buffer, 0, count);
+    }
+    int before = stats.total;
+    stats.total += count;
+    if (stats.interval > 0 && before / stats.interval != stats.total / stats.interval) {
+      stats.ts = System.currentTimeMillis();
+      stats.delta = stats.ts - stats.lastTS;
+      if (stats.delta > 0) {
+        stats.lineSpeed = (8 * stats.interval) / stats.delta;
+      }
+      for (SerialDataListener listener : listeners.values()) {
+        listener.updateStats(stats);
+      }
+      stats.lastTS = stats.ts;
+    }
+  }
+
   /**
    * reads from Ports input stream and puts it on the Serials main RX line - to
    * be published and buffered
@@ -151,34 +265,18 @@ public abstract class Port implements Runnable, SerialControl {
 
     log.info(String.format("listening on port %s", portName));
     listening = true;
-    Integer newByte = -1;
+    byte[] buffer = new byte[rxBufferSize];
+    int count = -1;
     try {
       // opened.countDown();
-      // TODO - if (Queue) while take()
       // normal streams are processed here - rxtx is abnormal
-      while (listening && ((newByte = read()) > -1)) { // "real" java byte
-        // 255 / -1 will
-        // kill this
-    	// log.info(String.format("%d",newByte));
-        for (String key : listeners.keySet()) {
-          listeners.get(key).onByte(newByte);
-          // log.info(String.format("%d",newByte));
-        }
-        ++stats.total;
-        if (stats.total % stats.interval == 0) {
-
-          stats.ts = System.currentTimeMillis();
-          stats.delta = stats.ts - stats.lastTS;
-          stats.lineSpeed = (8 * stats.interval) / stats.delta;
-          for (String key : listeners.keySet()) {
-            listeners.get(key).updateStats(stats);
-          }
-          // publishQueueStats(stats);
-          stats.lastTS = stats.ts;
+      // a whole block goes to the listeners - not a callback per byte
+      while (listening && ((count = read(buffer)) > -1)) {
+        if (count > 0) {
+          onBytes(buffer, count);
         }
-        // log.info(String.format("%d",newByte));
       }
-      log.info(String.format("%s no longer listening - last byte %d ", portName, newByte));
+      log.info(String.format("%s no longer listening - last read %d ", portName, count));
     } catch (InterruptedException x) {
       log.info(String.format("InterruptedException %s stopping ", portName));
     } catch (InterruptedIOException c) {
@@ -222,6 +320,25 @@ public abstract class Port implements Runnable, SerialControl {
   
   abstract public void write(int[] data) throws Exception;
 
+  /**
+   * write part of a buffer - ports which can send a block in one call
+   * override this
+   * 
+   * @param data
+   *          buffer
+   * @param off
+   *          offset
+   * @param len
+   *          number of bytes
+   * @throws Exception
+   *           e
+   */
+  public void write(byte[] data, int off, int len) throws Exception {
+    for (int i = off; i < off + len; ++i) {
+      write(data[i] & 0xff);
+    }
+  }
+
   public boolean setParams(int rate, int dataBits, int stopBits, int parity) throws Exception {
     // TODO Auto-generated method stub
     return false;
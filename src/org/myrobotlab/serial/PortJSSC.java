@@ -3,6 +3,7 @@ package org.myrobotlab.serial;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.myrobotlab.logging.LoggerFactory;
@@ -118,6 +119,9 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 
 			listening = false;
 			readingThread = null;// is dead anyway
+			if (pool != null) {
+				pool.remove(this);
+			}
 
 			port.closePort();
 			// FIXME - JSSC issue (IMHO)
@@ -141,6 +145,45 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 		return data;
 	}
 
+	/**
+	 * blocks for the first byte then takes everything the driver has buffered
+	 * in one call
+	 */
+	@Override
+	public int read(byte[] buffer) throws Exception {
+		buffer[0] = port.readBytes(1)[0];
+		int count = 1;
+		int available = port.getInputBufferBytesCount();
+		if (available > 0) {
+			byte[] more = port.readBytes(Math.min(available, buffer.length - 1));
+			System.arraycopy(more, 0, buffer, 1, more.length);
+			count += more.length;
+		}
+		if (debug && debugRX) {
+			log.info("Read : {} bytes", count);
+		}
+		return count;
+	}
+
+	@Override
+	public boolean isPollable() {
+		return true;
+	}
+
+	/**
+	 * takes what the driver has buffered - nothing if it has nothing
+	 */
+	@Override
+	public int poll(byte[] buffer) throws Exception {
+		int available = port.getInputBufferBytesCount();
+		if (available <= 0) {
+			return 0;
+		}
+		byte[] data = port.readBytes(Math.min(available, buffer.length));
+		System.arraycopy(data, 0, buffer, 0, data.length);
+		return data.length;
+	}
+
 	@Override
 	public void setDTR(boolean state) {
 		try {
@@ -195,6 +238,16 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 		port.writeIntArray(data);
 	}
 
+	@Override
+	public void write(byte[] data, int off, int len) throws Exception {
+		// jssc only takes a whole array
+		if (off == 0 && len == data.length) {
+			port.writeBytes(data);
+		} else {
+			port.writeBytes(Arrays.copyOfRange(data, off, off + len));
+		}
+	}
+
 	@Override
 	public boolean isHardware() {
 		return true;
@@ -208,28 +261,15 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 	public void serialEvent(SerialPortEvent event) {
 		log.info(String.format("rxtx event on port %s", portName));
 
-		Integer newByte = -1;
+		byte[] buffer = new byte[rxBufferSize];
+		int count = -1;
 
 		try {
-			while (listening && ((newByte = read()) > -1)) {
-				// listener.onByte(newByte); // <-- FIXME ?? onMsg() < ???
-				for (String key : listeners.keySet()) {
-					listeners.get(key).onByte(newByte);
-				}
-				++stats.total;
-				if (stats.total % stats.interval == 0) {
-					stats.ts = System.currentTimeMillis();
-					log.error(String.format("===stats - dequeued total %d - %d bytes in %d ms %d Kbps", stats.total, stats.interval, stats.ts - stats.lastTS,
-							8 * stats.interval / (stats.ts - stats.lastTS)));
-					// publishQueueStats(stats);
-					stats.lastTS = stats.ts;
-				}
-				// log.info(String.format("%d",newByte));
-				// rxtx leave whenever it has no new data to delver with a -1
-				// which is not what an Java InputStream is supposed to do..
+			while (listening && port.getInputBufferBytesCount() > 0 && ((count = read(buffer)) > -1)) {
+				onBytes(buffer, count);
 			}
 
-			log.info(String.format("%d", newByte));
+			log.info(String.format("%d", count));
 		} catch (Exception e) {
 			++rxErrors;
 			Logging.logError(e);
@@ -3,7 +3,6 @@ package org.myrobotlab.serial;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
@@ -22,21 +21,29 @@ public class PortQueue extends Port {
 
   public final static Logger log = LoggerFactory.getLogger(PortQueue.class);
 
-  private BlockingQueue<Integer> in;
-  private BlockingQueue<Integer> out;
+  private ByteRingBuffer in;
+  private ByteRingBuffer out;
 
   public PortQueue(String portName) {
     super(portName);
   }
 
-  public PortQueue(String portName, BlockingQueue<Integer> in, BlockingQueue<Integer> out) {
+  public PortQueue(String portName, ByteRingBuffer in, ByteRingBuffer out) {
     super(portName);
     this.in = in;
     this.out = out;
   }
 
   public int available() throws IOException {
-    return in.size();
+    return in.available();
+  }
+
+  public ByteRingBuffer getInBuffer() {
+    return in;
+  }
+
+  public ByteRingBuffer getOutBuffer() {
+    return out;
   }
 
   @Override
@@ -48,7 +55,25 @@ public class PortQueue extends Port {
 
   @Override
   public int read() throws IOException, InterruptedException {
-    return in.take();
+    return in.read(null);
+  }
+
+  /**
+   * blocks for the first byte then drains whatever else is queued
+   */
+  @Override
+  public int read(byte[] buffer) throws IOException, InterruptedException {
+    return in.read(buffer, 0, buffer.length, null);
+  }
+
+  @Override
+  public boolean isPollable() {
+    return true;
+  }
+
+  @Override
+  public int poll(byte[] buffer) {
+    return in.read(buffer, 0, buffer.length);
   }
 
   public boolean setParams(int rate, int databits, int stopbits, int parity) {
@@ -59,16 +84,22 @@ public class PortQueue extends Port {
 
   @Override
   public void write(int data) throws IOException {
-    out.add(data);
-    // WOW - PipedOutputStream auto flushes about 1 time every second :P
-    // we force flushing here !
+    if (!out.write(data)) {
+      ++txErrors;
+    }
   }
   
   public void write(int[] data) throws IOException {
-    // TODO: is there a more effecient way to do this?
+    byte[] bytes = new byte[data.length];
     for (int i = 0; i < data.length ; i++) {
-      write(data[i]);
+      bytes[i] = (byte) data[i];
     }
+    txErrors += data.length - out.write(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException {
+    txErrors += len - out.write(data, off, len);
   }
 
   @Override
@@ -238,6 +238,11 @@ public class PortRXTX extends Port implements SerialControl, SerialPortEventList
     }
   }
 
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException {
+    out.write(data, off, len);
+  }
+
   @Override
   public boolean isHardware() {
     return true;
@@ -264,28 +269,23 @@ public class PortRXTX extends Port implements SerialControl, SerialPortEventList
   public void serialEvent(SerialPortEvent event) {
     log.info(String.format("rxtx event on port %s", portName));
 
-    Integer newByte = -1;
+    byte[] buffer = new byte[rxBufferSize];
+    int count = -1;
 
     try {
-      while (listening && ((newByte = read()) > -1)) {
-        // listener.onByte(newByte); // <-- FIXME ?? onMsg() < ???
-        for (String key : listeners.keySet()) {
-          listeners.get(key).onByte(newByte);
-        }
-        ++stats.total;
-        if (stats.total % stats.interval == 0) {
-          stats.ts = System.currentTimeMillis();
-          log.error(String.format("===stats - dequeued total %d - %d bytes in %d ms %d Kbps", stats.total, stats.interval, stats.ts - stats.lastTS,
-              8 * stats.interval / (stats.ts - stats.lastTS)));
-          // publishQueueStats(stats);
-          stats.lastTS = stats.ts;
+      // rxtx leaves whenever it has no new data to deliver with a -1
+      // which is not what an Java InputStream is supposed to do..
+      // so only read what it says is available - a block at a time
+      int available;
+      while (listening && (available = in.available()) > 0) {
+        count = in.read(buffer, 0, Math.min(available, buffer.length));
+        if (count < 0) {
+          break;
         }
-        // log.info(String.format("%d",newByte));
-        // rxtx leave whenever it has no new data to delver with a -1
-        // which is not what an Java InputStream is supposed to do..
+        onBytes(buffer, count);
       }
 
-      log.info(String.format("%d", newByte));
+      log.info(String.format("%d", count));
     } catch (Exception e) {
       ++rxErrors;
       Logging.logError(e);
@@ -0,0 +1,212 @@
+package org.myrobotlab.serial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Port which plays back the received data of a SerialRecorder capture - Serial
+ * and the services listening to it (e.g. Arduino) parse it as if it came from
+ * the device, so the receive path can be profiled and regression tested
+ * offline.
+ *
+ * Playback is at the recorded pace scaled by speed - 2.0 is twice as fast, 0
+ * is as fast as the listeners can take it. The port closes its end of the
+ * stream when the recording runs out.
+ *
+ * Data written to the port is compared with the recorded TX data in order -
+ * getTxMismatches() counts the bytes which differ.
+ */
+public class PortReplay extends Port {
+
+  public final static Logger log = LoggerFactory.getLogger(PortReplay.class);
+
+  final SerialRecording rx;
+  final SerialRecording tx;
+
+  final double speed;
+
+  // offset into the current rx record
+  int rxOffset = 0;
+  boolean rxValid = false;
+
+  // offset into the current tx record
+  int txOffset = 0;
+  boolean txValid = false;
+
+  long startNs = 0;
+
+  // when the current rx record is due
+  long dueNs = 0;
+
+  // stats
+  long rxBytes = 0;
+  long txBytes = 0;
+  long txMismatches = 0;
+
+  /**
+   * @param portName
+   *          name of the port
+   * @param filename
+   *          SerialRecorder capture
+   * @param speed
+   *          1.0 is the recorded pace - 0 as fast as possible
+   * @throws IOException
+   *           if it isn't a capture
+   */
+  public PortReplay(String portName, String filename, double speed) throws IOException {
+    super(portName);
+    rx = new SerialRecording(filename);
+    tx = new SerialRecording(filename);
+    this.speed = speed;
+  }
+
+  @Override
+  public void open() throws IOException {
+    super.open();
+    startNs = System.nanoTime();
+  }
+
+  @Override
+  public List<String> getPortNames() {
+    return new ArrayList<String>();
+  }
+
+  @Override
+  public boolean isHardware() {
+    return false;
+  }
+
+  /**
+   * moves to the next rx record once the current one is used up
+   *
+   * @return false at the end of the recording
+   */
+  boolean nextRx() {
+    if (rxValid && rxOffset < rx.getLength()) {
+      return true;
+    }
+    while (rx.next()) {
+      if (rx.isRx() && rx.getLength() > 0) {
+        rxValid = true;
+        rxOffset = 0;
+        dueNs = (speed > 0) ? startNs + (long) (rx.getNs() / speed) : startNs;
+        return true;
+      }
+    }
+    rxValid = false;
+    return false;
+  }
+
+  void awaitDue() throws InterruptedException {
+    long waitNs = dueNs - System.nanoTime();
+    if (waitNs > 0) {
+      Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+    }
+  }
+
+  @Override
+  public int read() throws Exception {
+    if (!nextRx()) {
+      return -1;
+    }
+    awaitDue();
+    ++rxBytes;
+    return rx.getByte(rxOffset++);
+  }
+
+  /**
+   * one recorded block per read - as the port delivered it
+   */
+  @Override
+  public int read(byte[] buffer) throws Exception {
+    if (!nextRx()) {
+      log.info("{} replay finished - {} bytes", portName, rxBytes);
+      return -1;
+    }
+    awaitDue();
+    int n = rx.getData(rxOffset, buffer, 0, buffer.length);
+    rxOffset += n;
+    rxBytes += n;
+    return n;
+  }
+
+  @Override
+  public boolean isPollable() {
+    return true;
+  }
+
+  /**
+   * the current block if it is due - nothing if it isn't yet
+   */
+  @Override
+  public int poll(byte[] buffer) throws Exception {
+    if (!nextRx()) {
+      log.info("{} replay finished - {} bytes", portName, rxBytes);
+      return -1;
+    }
+    if (System.nanoTime() < dueNs) {
+      return 0;
+    }
+    int n = rx.getData(rxOffset, buffer, 0, buffer.length);
+    rxOffset += n;
+    rxBytes += n;
+    return n;
+  }
+
+  /**
+   * next recorded tx byte - -1 when the recording has no more
+   */
+  int nextTx() {
+    while (!txValid || txOffset == tx.getLength()) {
+      if (!tx.next()) {
+        txValid = false;
+        return -1;
+      }
+      txValid = tx.isTx();
+      txOffset = 0;
+    }
+    return tx.getByte(txOffset++);
+  }
+
+  @Override
+  public synchronized void write(int b) throws Exception {
+    ++txBytes;
+    if (nextTx() != (b & 0xff)) {
+      ++txMismatches;
+    }
+  }
+
+  @Override
+  public void write(int[] data) throws Exception {
+    for (int i = 0; i < data.length; ++i) {
+      write(data[i]);
+    }
+  }
+
+  @Override
+  public synchronized void write(byte[] data, int off, int len) throws Exception {
+    for (int i = off; i < off + len; ++i) {
+      write(data[i]);
+    }
+  }
+
+  public synchronized long getRxBytes() {
+    return rxBytes;
+  }
+
+  public synchronized long getTxBytes() {
+    return txBytes;
+  }
+
+  /**
+   * @return bytes written which differ from the recording
+   */
+  public synchronized long getTxMismatches() {
+    return txMismatches;
+  }
+
+}
@@ -3,6 +3,8 @@ package org.myrobotlab.serial;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,9 +25,21 @@ public class PortStream extends Port {
 
   public final static Logger log = LoggerFactory.getLogger(PortStream.class);
 
+  /**
+   * how long a quiet socket goes before poll probes it for end of stream
+   */
+  public final static int PROBE_INTERVAL_MS = 500;
+
   private InputStream in;
   private OutputStream out;
 
+  /**
+   * the socket of a tcp port - available() stays 0 after the peer closes, so
+   * poll probes it with a short timed read to see the end of stream
+   */
+  private Socket socket;
+  private long lastProbe = System.currentTimeMillis();
+
   public PortStream(String portName) throws IOException {
     super(portName);
   }
@@ -36,6 +50,11 @@ public class PortStream extends Port {
     this.out = out;
   }
 
+  public PortStream(String portName, Socket socket) throws IOException {
+    this(portName, socket.getInputStream(), socket.getOutputStream());
+    this.socket = socket;
+  }
+
   public int available() throws IOException {
     return in.available();
   }
@@ -60,13 +79,51 @@ public class PortStream extends Port {
     return in.read();
   }
 
-  // WORTHLESS INPUTSTREAM FUNCTION !! -- because if the size of the buffer
-  // is ever bigger than the read and no end of stream has occurred
-  // it will block forever :P
+  /**
+   * InputStream.read(byte[]) blocks for the first byte and returns what is
+   * available - which is the block read Port.run wants
+   */
+  @Override
   public int read(byte[] data) throws IOException {
     return in.read(data);
   }
 
+  @Override
+  public boolean isPollable() {
+    return true;
+  }
+
+  /**
+   * reads only what the stream says it can deliver without blocking - a quiet
+   * socket is probed every PROBE_INTERVAL_MS with a 1 ms read, which returns
+   * -1 once the peer has closed
+   */
+  @Override
+  public int poll(byte[] data) throws IOException {
+    int available = in.available();
+    if (available > 0) {
+      return in.read(data, 0, Math.min(available, data.length));
+    }
+    if (socket == null) {
+      return 0;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastProbe < PROBE_INTERVAL_MS) {
+      return 0;
+    }
+    lastProbe = now;
+    int timeout = socket.getSoTimeout();
+    try {
+      socket.setSoTimeout(1);
+      return in.read(data, 0, data.length);
+    } catch (SocketTimeoutException e) {
+      // open and quiet
+      return 0;
+    } finally {
+      socket.setSoTimeout(timeout);
+    }
+  }
+
   public void setInputStream(InputStream in) {
     this.in = in;
   }
@@ -95,6 +152,12 @@ public class PortStream extends Port {
     }
   }
 
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException {
+    out.write(data, off, len);
+    out.flush();
+  }
+
   @Override
   public boolean isHardware() {
     return false;
@@ -0,0 +1,315 @@
+package org.myrobotlab.serial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.Logging;
+import org.slf4j.Logger;
+
+/**
+ * Reads many ports with a few threads. Instead of a blocking reading thread
+ * per port each pool thread polls the ports it was given in turn - Port.poll
+ * never blocks - and hands whatever it got to the port's listeners. When a
+ * whole sweep finds nothing the thread parks, backing off from MIN_IDLE_NS up
+ * to maxIdleNs, so a quiet pool costs next to nothing and a busy one never
+ * sleeps.
+ *
+ * Ports are spread over the threads by count. A slow listener holds up the
+ * other ports of its thread - getStats() shows the dispatch time and the poll
+ * gap (worst case wait of received data) per port.
+ */
+public class SerialReaderPool {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialReaderPool.class);
+
+  public static final int DEFAULT_THREADS = 2;
+
+  public static final long MIN_IDLE_NS = 50000;
+
+  static SerialReaderPool defaultPool = null;
+
+  public static class PortStats {
+    public String name;
+    public long bytes;
+    public long chunks;
+    public int maxChunk;
+    public long polls;
+    public long errors;
+    /**
+     * time between the poll which found data and the poll before it - how
+     * long the data could have waited
+     */
+    public long avgLatencyUs;
+    public long maxLatencyUs;
+    /**
+     * time the listeners took with a chunk
+     */
+    public long avgDispatchUs;
+    public long maxDispatchUs;
+    public long bytesPerSecond;
+
+    @Override
+    public String toString() {
+      return String.format("%s bytes %d chunks %d max chunk %d polls %d errors %d latency avg %d max %d us dispatch avg %d max %d us %d bytes/s", name, bytes, chunks, maxChunk,
+          polls, errors, avgLatencyUs, maxLatencyUs, avgDispatchUs, maxDispatchUs, bytesPerSecond);
+    }
+  }
+
+  static class Entry {
+    final Port port;
+    final long startNs = System.nanoTime();
+    long lastPollNs = startNs;
+
+    // stats
+    long bytes = 0;
+    long chunks = 0;
+    int maxChunk = 0;
+    long polls = 0;
+    long errors = 0;
+    long latencyNs = 0;
+    long maxLatencyNs = 0;
+    long dispatchNs = 0;
+    long maxDispatchNs = 0;
+
+    Entry(Port port) {
+      this.port = port;
+    }
+
+    synchronized PortStats getStats() {
+      PortStats stats = new PortStats();
+      stats.name = port.getName();
+      stats.bytes = bytes;
+      stats.chunks = chunks;
+      stats.maxChunk = maxChunk;
+      stats.polls = polls;
+      stats.errors = errors;
+      if (chunks > 0) {
+        stats.avgLatencyUs = latencyNs / chunks / 1000;
+        stats.avgDispatchUs = dispatchNs / chunks / 1000;
+      }
+      stats.maxLatencyUs = maxLatencyNs / 1000;
+      stats.maxDispatchUs = maxDispatchNs / 1000;
+      long elapsedNs = System.nanoTime() - startNs;
+      if (elapsedNs > 0) {
+        stats.bytesPerSecond = (long) (bytes * 1000000000.0 / elapsedNs);
+      }
+      return stats;
+    }
+  }
+
+  class Reader implements Runnable {
+    final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+    final Thread thread;
+    final byte[] buffer = new byte[bufferSize];
+
+    Reader(int index) {
+      thread = new Thread(this, String.format("%s.%d", name, index));
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long idleNs = MIN_IDLE_NS;
+      while (running) {
+        boolean busy = false;
+        for (Entry entry : entries) {
+          if (service(entry)) {
+            busy = true;
+          }
+        }
+        if (busy) {
+          idleNs = MIN_IDLE_NS;
+        } else {
+          LockSupport.parkNanos(this, idleNs);
+          idleNs = Math.min(idleNs * 2, maxIdleNs);
+        }
+      }
+      log.info("{} stopped", thread.getName());
+    }
+
+    /**
+     * poll one port and dispatch what it had
+     *
+     * @return true if there was data
+     */
+    boolean service(Entry entry) {
+      Port port = entry.port;
+      if (!port.isListening()) {
+        stop(this, entry);
+        return false;
+      }
+      long pollNs = System.nanoTime();
+      long gapNs = pollNs - entry.lastPollNs;
+      entry.lastPollNs = pollNs;
+      int count;
+      try {
+        count = port.poll(buffer);
+      } catch (Exception e) {
+        ++port.rxErrors;
+        log.error("{} poll threw - no longer listening", port.getName());
+        Logging.logError(e);
+        stop(this, entry);
+        return false;
+      }
+      if (count < 0) {
+        log.info("{} end of stream - no longer listening", port.getName());
+        stop(this, entry);
+        return false;
+      }
+      if (count == 0) {
+        synchronized (entry) {
+          ++entry.polls;
+        }
+        return false;
+      }
+      long dispatchStartNs = System.nanoTime();
+      boolean error = false;
+      try {
+        port.onBytes(buffer, count);
+      } catch (Exception e) {
+        error = true;
+        Logging.logError(e);
+      }
+      long dispatchNs = System.nanoTime() - dispatchStartNs;
+      synchronized (entry) {
+        ++entry.polls;
+        ++entry.chunks;
+        entry.bytes += count;
+        if (count > entry.maxChunk) {
+          entry.maxChunk = count;
+        }
+        entry.latencyNs += gapNs;
+        if (gapNs > entry.maxLatencyNs) {
+          entry.maxLatencyNs = gapNs;
+        }
+        entry.dispatchNs += dispatchNs;
+        if (dispatchNs > entry.maxDispatchNs) {
+          entry.maxDispatchNs = dispatchNs;
+        }
+        if (error) {
+          ++entry.errors;
+        }
+      }
+      return true;
+    }
+  }
+
+  final String name;
+  final int bufferSize;
+  final Reader[] readers;
+
+  volatile boolean running = true;
+  volatile long maxIdleNs = 1000000;
+
+  /**
+   * @return the pool shared by Serial services reading in pooled mode
+   */
+  public static synchronized SerialReaderPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new SerialReaderPool("serialReaderPool", DEFAULT_THREADS, 1024);
+    }
+    return defaultPool;
+  }
+
+  /**
+   * @param name
+   *          thread name prefix
+   * @param threads
+   *          number of reading threads
+   * @param bufferSize
+   *          most bytes handed to listeners per chunk
+   */
+  public SerialReaderPool(String name, int threads, int bufferSize) {
+    this.name = name;
+    this.bufferSize = bufferSize;
+    readers = new Reader[Math.max(1, threads)];
+    for (int i = 0; i < readers.length; ++i) {
+      readers[i] = new Reader(i);
+    }
+  }
+
+  /**
+   * start polling a port - Port.listen(listeners, pool) calls this
+   */
+  synchronized void add(Port port) {
+    if (!running) {
+      throw new IllegalStateException(String.format("%s is shut down", name));
+    }
+    Reader least = readers[0];
+    for (Reader reader : readers) {
+      for (Entry entry : reader.entries) {
+        if (entry.port == port) {
+          return;
+        }
+      }
+      if (reader.entries.size() < least.entries.size()) {
+        least = reader;
+      }
+    }
+    least.entries.add(new Entry(port));
+    if (!least.thread.isAlive()) {
+      least.thread.start();
+    }
+    log.info("{} polling {}", least.thread.getName(), port.getName());
+  }
+
+  void stop(Reader reader, Entry entry) {
+    reader.entries.remove(entry);
+    entry.port.listening = false;
+    entry.port.pool = null;
+  }
+
+  /**
+   * stop polling a port - closing the port does the same
+   */
+  public synchronized void remove(Port port) {
+    for (Reader reader : readers) {
+      for (Entry entry : reader.entries) {
+        if (entry.port == port) {
+          stop(reader, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param us
+   *          longest a thread parks when its ports are quiet - the worst case
+   *          latency of the first bytes after a pause
+   */
+  public void setMaxIdleUs(long us) {
+    maxIdleNs = Math.max(MIN_IDLE_NS, us * 1000);
+  }
+
+  public int getPortCount() {
+    int count = 0;
+    for (Reader reader : readers) {
+      count += reader.entries.size();
+    }
+    return count;
+  }
+
+  public List<PortStats> getStats() {
+    List<PortStats> stats = new ArrayList<PortStats>();
+    for (Reader reader : readers) {
+      for (Entry entry : reader.entries) {
+        stats.add(entry.getStats());
+      }
+    }
+    return stats;
+  }
+
+  public synchronized void shutdown() {
+    running = false;
+    for (Reader reader : readers) {
+      for (Entry entry : reader.entries) {
+        stop(reader, entry);
+      }
+      LockSupport.unpark(reader.thread);
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+package org.myrobotlab.serial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Binary capture of serial traffic - cheap enough to leave on. Every block
+ * received or written is appended as one record, the bytes are copied as they
+ * are and nothing is formatted. SerialRecording reads a capture back and
+ * PortReplay feeds it to Serial as if it came from the port.
+ *
+ * <pre>
+ * header  : int MAGIC | short VERSION | long start (ms since epoch)
+ * record  : byte RX or TX | long ns since start | int length | bytes
+ * </pre>
+ *
+ * Records are gathered in a direct buffer and appended to the file with one
+ * channel write when it fills up, on flush and on close. Once closed, records
+ * are ignored - the port's reading thread may still be in rx() when recording
+ * is stopped.
+ */
+public class SerialRecorder {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialRecorder.class);
+
+  /**
+   * "MRLS"
+   */
+  public static final int MAGIC = 0x4D524C53;
+  public static final short VERSION = 1;
+
+  public static final int HEADER_SIZE = 4 + 2 + 8;
+  public static final int RECORD_HEADER_SIZE = 1 + 8 + 4;
+
+  public static final byte RX = 0;
+  public static final byte TX = 1;
+
+  final String filename;
+  final RandomAccessFile file;
+  final FileChannel channel;
+  final ByteBuffer buffer;
+
+  final long startNs;
+  final long startMs;
+
+  boolean closed = false;
+
+  // stats
+  long records = 0;
+  long rxBytes = 0;
+  long txBytes = 0;
+
+  public SerialRecorder(String filename) throws IOException {
+    this(filename, 64 * 1024);
+  }
+
+  public SerialRecorder(String filename, int bufferSize) throws IOException {
+    this.filename = filename;
+    File f = new File(filename);
+    if (f.getParentFile() != null) {
+      f.getParentFile().mkdirs();
+    }
+    file = new RandomAccessFile(f, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, HEADER_SIZE + RECORD_HEADER_SIZE));
+    startNs = System.nanoTime();
+    startMs = System.currentTimeMillis();
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putLong(startMs);
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public void rx(byte[] data, int off, int len) throws IOException {
+    record(RX, data, off, len);
+  }
+
+  public void rx(int b) throws IOException {
+    record(RX, b);
+  }
+
+  public void tx(byte[] data, int off, int len) throws IOException {
+    record(TX, data, off, len);
+  }
+
+  public void tx(int b) throws IOException {
+    record(TX, b);
+  }
+
+  public void tx(int[] data) throws IOException {
+    record(TX, data);
+  }
+
+  public synchronized void record(byte type, byte[] data, int off, int len) throws IOException {
+    if (closed) {
+      return;
+    }
+    header(type, len);
+    while (len > 0) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.put(data, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  public synchronized void record(byte type, int b) throws IOException {
+    if (closed) {
+      return;
+    }
+    header(type, 1);
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put((byte) b);
+  }
+
+  /**
+   * one record of the low byte of each int
+   */
+  public synchronized void record(byte type, int[] data) throws IOException {
+    if (closed) {
+      return;
+    }
+    header(type, data.length);
+    for (int i = 0; i < data.length; ++i) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put((byte) data[i]);
+    }
+  }
+
+  void header(byte type, int len) throws IOException {
+    if (buffer.remaining() < RECORD_HEADER_SIZE) {
+      drain();
+    }
+    buffer.put(type);
+    buffer.putLong(System.nanoTime() - startNs);
+    buffer.putInt(len);
+    ++records;
+    if (type == RX) {
+      rxBytes += len;
+    } else {
+      txBytes += len;
+    }
+  }
+
+  void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  public synchronized void flush() throws IOException {
+    if (!closed) {
+      drain();
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      drain();
+    } finally {
+      file.close();
+    }
+    log.info("recorded {} records rx {} tx {} bytes to {}", records, rxBytes, txBytes, filename);
+  }
+
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  public synchronized long getRxBytes() {
+    return rxBytes;
+  }
+
+  public synchronized long getTxBytes() {
+    return txBytes;
+  }
+
+}
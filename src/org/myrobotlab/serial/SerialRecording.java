@@ -0,0 +1,173 @@
+package org.myrobotlab.serial;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.Logging;
+import org.slf4j.Logger;
+
+/**
+ * Reads a capture written by SerialRecorder. The file is memory mapped and
+ * walked one record at a time - next() moves to the following record and the
+ * getters describe it.
+ */
+public class SerialRecording {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialRecording.class);
+
+  final String filename;
+  final MappedByteBuffer map;
+
+  // for bulk copies of record data - shares the mapping
+  final ByteBuffer view;
+
+  final long startMs;
+
+  // current record
+  byte type = -1;
+  long ns = 0;
+  int length = 0;
+  int dataPos = 0;
+
+  public SerialRecording(String filename) throws IOException {
+    this.filename = filename;
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      // the mapping stays valid after the channel is closed
+      map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      file.close();
+    }
+    if (map.remaining() < SerialRecorder.HEADER_SIZE || map.getInt() != SerialRecorder.MAGIC) {
+      throw new IOException(String.format("%s is not a serial recording", filename));
+    }
+    short version = map.getShort();
+    if (version != SerialRecorder.VERSION) {
+      throw new IOException(String.format("%s is version %d - can only read %d", filename, version, SerialRecorder.VERSION));
+    }
+    startMs = map.getLong();
+    view = map.duplicate();
+  }
+
+  /**
+   * move to the next record
+   *
+   * @return false at the end of the recording - a record cut short by a crash
+   *         ends it too
+   */
+  public boolean next() {
+    if (type != -1) {
+      map.position(dataPos + length);
+    }
+    if (map.remaining() < SerialRecorder.RECORD_HEADER_SIZE) {
+      return false;
+    }
+    byte t = map.get();
+    long n = map.getLong();
+    int len = map.getInt();
+    if (len < 0 || map.remaining() < len) {
+      return false;
+    }
+    type = t;
+    ns = n;
+    length = len;
+    dataPos = map.position();
+    return true;
+  }
+
+  /**
+   * back to the first record
+   */
+  public void rewind() {
+    map.position(SerialRecorder.HEADER_SIZE);
+    type = -1;
+    length = 0;
+  }
+
+  public boolean isRx() {
+    return type == SerialRecorder.RX;
+  }
+
+  public boolean isTx() {
+    return type == SerialRecorder.TX;
+  }
+
+  public byte getType() {
+    return type;
+  }
+
+  /**
+   * @return ns since the recording started
+   */
+  public long getNs() {
+    return ns;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * copy part of the current record's data
+   *
+   * @param offset
+   *          offset in the record
+   * @param buffer
+   *          destination
+   * @param off
+   *          offset in buffer
+   * @param len
+   *          max bytes to copy
+   * @return bytes copied
+   */
+  public int getData(int offset, byte[] buffer, int off, int len) {
+    int n = Math.max(0, Math.min(len, length - offset));
+    view.position(dataPos + offset);
+    view.get(buffer, off, n);
+    return n;
+  }
+
+  public int getByte(int offset) {
+    return map.get(dataPos + offset) & 0xff;
+  }
+
+  public long getStartMs() {
+    return startMs;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * readable listing - one line per record
+   */
+  public void dump(PrintStream out) {
+    rewind();
+    StringBuilder sb = new StringBuilder();
+    while (next()) {
+      sb.setLength(0);
+      sb.append(String.format("%12.3f %s", ns / 1000000.0, (isRx()) ? "<" : ">"));
+      for (int i = 0; i < length; ++i) {
+        sb.append(String.format(" %02X", getByte(i)));
+      }
+      out.println(sb);
+    }
+    rewind();
+  }
+
+  public static void main(String[] args) {
+    try {
+      new SerialRecording(args[0]).dump(System.out);
+    } catch (Exception e) {
+      Logging.logError(e);
+    }
+  }
+
+}
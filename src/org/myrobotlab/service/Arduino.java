@@ -8,10 +8,13 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -20,25 +23,31 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.myrobotlab.arduino.AckWindow;
 import org.myrobotlab.arduino.ArduinoUtils;
 import org.myrobotlab.arduino.BoardInfo;
 import org.myrobotlab.arduino.BoardType;
+import org.myrobotlab.arduino.CommandQueue;
 import org.myrobotlab.arduino.DeviceSummary;
 import org.myrobotlab.arduino.Msg;
+import org.myrobotlab.arduino.PinArrayDecoder;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
 import org.myrobotlab.framework.interfaces.NameProvider;
 import org.myrobotlab.i2c.I2CBus;
+import org.myrobotlab.i2c.I2CRead;
 import org.myrobotlab.io.FileIO;
 import org.myrobotlab.io.Zip;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.math.Mapper;
+import org.myrobotlab.serial.PortReplay;
 import org.myrobotlab.service.data.DeviceMapping;
 import org.myrobotlab.service.data.Pin;
 import org.myrobotlab.service.data.PinData;
+import org.myrobotlab.service.data.PinSamples;
 import org.myrobotlab.service.data.SerialRelayData;
 import org.myrobotlab.service.interfaces.I2CBusControl;
 import org.myrobotlab.service.interfaces.I2CBusController;
@@ -76,6 +85,29 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     public String deviceAddress;
   }
 
+  /**
+   * a read in a bus FIFO - or, once it timed out, the tombstone which keeps
+   * its place so its late answer is thrown away instead of going to the next
+   * read
+   */
+  static class I2CPending {
+    final I2CRead read;
+    /**
+     * when the tombstone stops waiting for a late answer - 0 while the read
+     * is waiting
+     */
+    long staleTs = 0;
+    /**
+     * a tombstone ahead of this read took an answer while it was waiting -
+     * which may have been this read's own
+     */
+    boolean suspect = false;
+
+    I2CPending(I2CRead read) {
+      this.read = read;
+    }
+  }
+
   public static class Sketch implements Serializable {
     private static final long serialVersionUID = 1L;
     public String data;
@@ -203,22 +235,54 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   I2CBus i2cBus = null;
 
-  volatile byte[] i2cData = new byte[64];
+  /**
+   * i2c reads waiting for data per bus device id - MrlComm answers every read
+   * on a bus, in the order they were sent
+   */
+  transient Map<Integer, ArrayDeque<I2CPending>> i2cPending = new HashMap<Integer, ArrayDeque<I2CPending>>();
+
+  /**
+   * most tombstones of timed out reads kept per bus - beyond it the oldest is
+   * dropped and its answer taken as lost
+   */
+  public static final int MAX_I2C_TOMBSTONES = 8;
+
+  long i2cRequestId = 0;
 
   /**
-   * i2c This needs to be volatile because it will be updated in a different
-   * threads
+   * largest i2c read MrlComm does in one go - the AVR Wire buffer
    */
-  volatile boolean i2cDataReturned = false;
+  public static final int MAX_I2C_READ = 32;
+
+  int i2cTimeoutMs = 1000;
 
-  volatile int i2cDataSize;
+  /**
+   * how long after a read timed out an answer is still taken as its late
+   * answer
+   */
+  int i2cStaleMs = 1000;
 
   Map<String, I2CDeviceMap> i2cDevices = new ConcurrentHashMap<String, I2CDeviceMap>();
 
   transient int[] ioCmd = new int[MAX_MSG_SIZE];
 
+  /**
+   * onByte adapter buffer
+   */
+  transient byte[] oneByte = new byte[1];
+
   public transient Msg msg;
 
+  /**
+   * coalesces high rate servo and pwm writes to msg
+   */
+  transient CommandQueue commandQueue;
+
+  /**
+   * ms between command queue flushes - 0 sends every command immediately
+   */
+  int commandTickMs = 20;
+
   int msgSize;
 
   Integer nextDeviceId = 0;
@@ -246,6 +310,18 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
    */
   transient Map<Integer, List<PinListener>> pinListeners = new ConcurrentHashMap<Integer, List<PinListener>>();
 
+  /**
+   * pinListeners indexed by address - looked up per sample without boxing
+   */
+  transient volatile PinListener[][] pinListenerIndex = new PinListener[0][];
+
+  /**
+   * publishPinArray decoder with per pin deadband
+   */
+  transient PinArrayDecoder pinArrayDecoder = new PinArrayDecoder();
+
+  static final PinData[] NO_PINS = new PinData[0];
+
   /**
    * Serial service - the Arduino's serial connection
    */
@@ -292,7 +368,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   // > analogWrite/pin/value
   public void analogWrite(int pin, int value) {
     log.info(String.format("analogWrite(%d,%d)", pin, value));
-    msg.analogWrite(pin, value);
+    commandQueue.add(Msg.ANALOG_WRITE, pin, value);
   }
 
   /**
@@ -319,12 +395,26 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
       }
       list.add(listener);
       pinListeners.put(address, list);
+      indexPinListeners();
 
     } else {
       addListener("publishPin", name, "onPin");
     }
   }
 
+  synchronized void indexPinListeners() {
+    int size = 0;
+    for (Integer address : pinListeners.keySet()) {
+      size = Math.max(size, address + 1);
+    }
+    PinListener[][] index = new PinListener[size][];
+    for (Integer address : pinListeners.keySet()) {
+      List<PinListener> list = pinListeners.get(address);
+      index[address] = list.toArray(new PinListener[list.size()]);
+    }
+    pinListenerIndex = index;
+  }
+
   /**
    * Routing Attach - routes ServiceInterface.attach(service) to appropriate
    * methods for this class
@@ -393,7 +483,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
         return;
     }
     relay.attach(controller, this, controllerAttachAs);
-    msg = new Msg(this, relay);
+    setMsg(new Msg(this, relay));
     msg.softReset(); // needed because there is no serial connect <- GroG
     // says -
     // this is heavy handed no?
@@ -514,6 +604,23 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     broadcastState();
   }
 
+  /**
+   * feed a recording made with serial.record() through MrlComm message
+   * decoding and publishing - for profiling and regression testing without a
+   * board. Acks are off since the recorded board answers on its own schedule.
+   *
+   * @param filename
+   *          the recording
+   * @param speed
+   *          1.0 is the recorded pace, 0 as fast as possible
+   */
+  public PortReplay connectReplay(String filename, double speed) throws IOException {
+    msg.enableAcks(false);
+    PortReplay replay = serial.connectReplay(filename, speed);
+    broadcastState();
+    return replay;
+  }
+
   /**
    * This creates the pin definitions based on boardType Not sure how many pin
    * definition sets there are. Currently there are only 2 supported - Mega-Like
@@ -679,6 +786,47 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     msg.enableAcks(enabled);
   }
 
+  /**
+   * @param frames
+   *          commands which may be in flight to MrlComm before a send blocks
+   *          for an ack - 1 is stop-and-wait
+   */
+  public void setAckWindow(int frames) {
+    msg.getAckWindow().setWindow(frames);
+  }
+
+  public AckWindow.Stats getAckStats() {
+    return msg.getAckWindow().getStats();
+  }
+
+  /**
+   * a new Msg for a (re)connected serial device - servo and pwm writes to it
+   * go through a CommandQueue
+   */
+  void setMsg(Msg newMsg) {
+    if (commandQueue != null) {
+      commandQueue.stop();
+    }
+    msg = newMsg;
+    commandQueue = new CommandQueue(msg);
+    commandQueue.setTick(commandTickMs);
+  }
+
+  /**
+   * @param ms
+   *          servo targets, velocities, accelerations and pwm values are held
+   *          for up to this long and only the latest per device is sent - 0
+   *          sends every command immediately
+   */
+  public void setCommandTick(int ms) {
+    commandTickMs = ms;
+    commandQueue.setTick(ms);
+  }
+
+  public CommandQueue.Stats getCommandStats() {
+    return commandQueue.getStats();
+  }
+
   // msg
   // > enableBoardInfo/bool enabled
   public void enableBoardInfo(Boolean enabled) {
@@ -933,117 +1081,267 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   @Override
   // > i2cRead/deviceId/deviceAddress/size
   public int i2cRead(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
-    i2cDataReturned = false;
-    // Get the device index to the MRL i2c bus
-    String i2cBus = String.format("I2CBus%s", busAddress);
-    int deviceId = getDeviceId(i2cBus);
-    log.info(String.format("i2cRead requesting %s bytes", size));
-    msg.i2cRead(deviceId, deviceAddress, size);
+    return i2cWaitFor(new I2CRead(busAddress, deviceAddress, buffer, size));
+  }
+
+  /**
+   * sends the reads without waiting - each is completed by publishI2cData.
+   * Reads with more than one byte to write are sent as i2cWrite followed by
+   * i2cRead.
+   */
+  @Override
+  public void i2cReadAsync(I2CControl control, I2CRead... reads) {
+    Msg msg = this.msg;
+    // the msg lock keeps the wire order the same as the pending order - the
+    // serial receive thread only needs the i2cPending lock to complete a read
+    synchronized (msg) {
+      for (I2CRead read : reads) {
+        String i2cBus = String.format("I2CBus%s", read.busAddress);
+        Integer deviceId = getDeviceId(i2cBus);
+        if (deviceId == null) {
+          read.complete(-1);
+          continue;
+        }
+        i2cQueue(deviceId, read);
+        if (read.writeSize == 1) {
+          msg.i2cWriteRead(deviceId, read.deviceAddress, read.readSize, read.writeBuffer[0] & 0xFF);
+        } else {
+          if (read.writeSize > 1) {
+            msg.i2cWrite(deviceId, read.deviceAddress, toIntArray(read.writeBuffer, read.writeSize));
+          }
+          msg.i2cRead(deviceId, read.deviceAddress, read.readSize);
+        }
+      }
+    }
+  }
 
-    int retry = 0;
-    int retryMax = 1000; // ( About 1000ms = s)
+  /**
+   * reads larger than the AVR Wire buffer are split - every chunk is sent
+   * before waiting, so a burst costs about one round trip
+   */
+  @Override
+  public int i2cReadBurst(I2CControl control, int busAddress, int deviceAddress, int register, boolean increment, byte[] buffer, int size) {
+    int chunks = Math.max(1, (size + MAX_I2C_READ - 1) / MAX_I2C_READ);
+    I2CRead[] reads = new I2CRead[chunks];
+    for (int i = 0; i < chunks; ++i) {
+      int offset = i * MAX_I2C_READ;
+      int length = Math.min(MAX_I2C_READ, size - offset);
+      // the first chunk reads straight into the caller's buffer
+      byte[] chunk = (i == 0) ? buffer : new byte[length];
+      reads[i] = new I2CRead(busAddress, deviceAddress, (increment) ? register + offset : register, chunk, length);
+    }
+    i2cReadAsync(control, reads);
+    int count = 0;
     try {
-      /**
-       * We will wait up to retryMax times to get the i2c data back from
-       * MrlComm.c and wait 1 ms between each try. A blocking queue is not
-       * needed, as this is only a single data element - and blocking is not
-       * necessary.
-       */
-      while ((retry < retryMax) && (!i2cDataReturned)) {
-        sleep(1);
-        ++retry;
+      for (int i = 0; i < chunks; ++i) {
+        I2CRead read = reads[i];
+        int n = read.waitFor(i2cTimeoutMs);
+        if (n < 0) {
+          log.error("{} timed out after {} ms", read, i2cTimeoutMs);
+          // the later chunks are given up on too - answers still on their
+          // way are taken by their tombstones and thrown away
+          for (int j = i; j < chunks; ++j) {
+            i2cTimedOut(reads[j]);
+          }
+          return -1;
+        }
+        if (i > 0) {
+          System.arraycopy(read.readBuffer, 0, buffer, i * MAX_I2C_READ, n);
+        }
+        count += n;
       }
-    } catch (Exception e) {
-      Logging.logError(e);
+    } catch (InterruptedException e) {
+      return -1;
     }
-    if (i2cDataReturned) {
-      log.debug(String.format("i2cReturnData returned %s bytes to caller %s.", i2cDataSize, control.getName()));
-      for (int i = 0; i < i2cDataSize; i++) {
-        buffer[i] = i2cData[i];
-        log.debug(String.format("i2cReturnData returned ix %s value %s", i, buffer[i]));
+    return count;
+  }
+
+  int i2cWaitFor(I2CRead read) {
+    i2cReadAsync(null, read);
+    try {
+      int count = read.waitFor(i2cTimeoutMs);
+      if (count < 0) {
+        log.error("{} timed out after {} ms", read, i2cTimeoutMs);
+        i2cTimedOut(read);
       }
-      return i2cDataSize;
+      return count;
+    } catch (InterruptedException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * adds a read to the FIFO of its bus - in the order it is sent
+   */
+  void i2cQueue(int deviceId, I2CRead read) {
+    synchronized (i2cPending) {
+      read.setId(deviceId, i2cRequestId++);
+      ArrayDeque<I2CPending> pending = i2cPending.get(deviceId);
+      if (pending == null) {
+        pending = new ArrayDeque<I2CPending>();
+        i2cPending.put(deviceId, pending);
+      }
+      pending.add(new I2CPending(read));
+    }
+  }
+
+  /**
+   * completes the oldest read waiting on the bus. Tombstones ahead of it take
+   * the answer as their late one while they are fresh - stale ones are
+   * dropped, their answer was lost.
+   */
+  void i2cReturnData(int deviceId, int[] data) {
+    I2CRead read = null;
+    I2CRead late = null;
+    synchronized (i2cPending) {
+      ArrayDeque<I2CPending> pending = i2cPending.get(deviceId);
+      long now = System.currentTimeMillis();
+      while (pending != null && !pending.isEmpty()) {
+        I2CPending head = pending.poll();
+        if (head.staleTs == 0) {
+          read = head.read;
+          break;
+        }
+        if (now < head.staleTs) {
+          late = head.read;
+          // if this was not the late answer, it was the next read's
+          I2CPending next = pending.peek();
+          if (next != null) {
+            next.suspect = true;
+          }
+          break;
+        }
+        log.warn("{} - no answer within {} ms of its timeout, taken as lost", head.read, i2cStaleMs);
+      }
+    }
+    if (late != null) {
+      log.warn("{} - late answer of {} bytes thrown away", late, data.length);
+      return;
+    }
+    if (read == null) {
+      log.warn("i2c data from bus device {} with no read pending", deviceId);
+      return;
+    }
+    log.debug("{} returned {} bytes", read, data.length);
+    read.complete(data);
+  }
+
+  /**
+   * a read timed out - it is failed, and left in the bus FIFO as a tombstone
+   * for up to i2cStaleMs, so an answer which is late rather than lost is
+   * thrown away instead of completing the next read with the wrong data.
+   *
+   * A read whose answer may have been taken by a tombstone ahead of it is
+   * removed instead - otherwise every lost answer would make the next read
+   * time out, and its tombstone the one after.
+   */
+  void i2cTimedOut(I2CRead read) {
+    synchronized (i2cPending) {
+      ArrayDeque<I2CPending> pending = i2cPending.get(read.getDeviceId());
+      if (pending != null) {
+        I2CPending entry = null;
+        int tombstones = 0;
+        for (I2CPending p : pending) {
+          if (p.read == read) {
+            entry = p;
+          } else if (p.staleTs != 0) {
+            ++tombstones;
+          }
+        }
+        if (entry != null && entry.staleTs == 0) {
+          if (entry.suspect) {
+            pending.remove(entry);
+          } else {
+            entry.staleTs = System.currentTimeMillis() + i2cStaleMs;
+            if (tombstones >= MAX_I2C_TOMBSTONES) {
+              Iterator<I2CPending> it = pending.iterator();
+              while (it.hasNext()) {
+                if (it.next().staleTs != 0) {
+                  it.remove();
+                  break;
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    read.complete(-1);
+  }
+
+  /**
+   * fails every read waiting for data - e.g. on disconnect
+   */
+  void i2cClearPending() {
+    List<I2CRead> reads = new ArrayList<I2CRead>();
+    synchronized (i2cPending) {
+      for (ArrayDeque<I2CPending> pending : i2cPending.values()) {
+        for (I2CPending p : pending) {
+          reads.add(p.read);
+        }
+      }
+      i2cPending.clear();
+    }
+    for (I2CRead read : reads) {
+      read.complete(-1);
     }
-    // Time out, no data returned
-    return -1;
   }
 
   /**
    * This methods is called by the i2cBus object when data is returned from the
-   * i2cRead It populates the i2cData area and sets the i2cDataReturned flag to
-   * true so that the loop in i2cRead can return the data to the caller
-   * 
+   * i2cRead - it completes the oldest read waiting on the bus
    */
   @Override
   public void i2cReturnData(int[] rawData) {
-    i2cDataSize = rawData.length;
-    for (int i = 0; i < i2cDataSize; i++) {
-      i2cData[i] = (byte) (rawData[i] & 0xff);
+    if (i2cBus == null) {
+      return;
+    }
+    Integer deviceId = getDeviceId(i2cBus.getName());
+    if (deviceId != null) {
+      i2cReturnData(deviceId, rawData);
     }
-    log.debug(String.format("i2cReturnData invoked. i2cDataSize = %s", i2cDataSize));
-    i2cDataReturned = true;
   }
 
-  @Override
-  // > i2cWrite/deviceId/deviceAddress/[] data
-  public void i2cWrite(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
-    String i2cBus = String.format("I2CBus%s", busAddress);
-    int deviceId = getDeviceId(i2cBus);
+  /**
+   * @param timeoutMs
+   *          ms the blocking i2c reads wait for data
+   */
+  public void setI2cTimeout(int timeoutMs) {
+    i2cTimeoutMs = timeoutMs;
+  }
+
+  /**
+   * @param staleMs
+   *          ms after a read timed out its late answer is still expected -
+   *          an answer within it is thrown away, after it the answer is taken
+   *          as lost
+   */
+  public void setI2cStaleLimit(int staleMs) {
+    i2cStaleMs = staleMs;
+  }
 
+  static int[] toIntArray(byte[] buffer, int size) {
     int data[] = new int[size];
     for (int i = 0; i < size; ++i) {
       data[i] = buffer[i];// guess you want -128 to 127 ?? [ ] == unsigned
       // char & 0xff;
     }
+    return data;
+  }
+
+  @Override
+  // > i2cWrite/deviceId/deviceAddress/[] data
+  public void i2cWrite(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
+    String i2cBus = String.format("I2CBus%s", busAddress);
+    int deviceId = getDeviceId(i2cBus);
 
-    msg.i2cWrite(deviceId, deviceAddress, data);
+    msg.i2cWrite(deviceId, deviceAddress, toIntArray(buffer, size));
   }
 
   @Override
   // > i2cWriteRead/deviceId/deviceAddress/readSize/writeValue
   public int i2cWriteRead(I2CControl control, int busAddress, int deviceAddress, byte[] writeBuffer, int writeSize, byte[] readBuffer, int readSize) {
-    if (writeSize != 1) {
-      i2cWrite(control, busAddress, deviceAddress, writeBuffer, writeSize);
-      return i2cRead(control, busAddress, deviceAddress, readBuffer, readSize);
-    } else {
-      i2cDataReturned = false;
-      // Get the device index to the MRL i2c bus
-      String i2cBus = String.format("I2CBus%s", busAddress);
-      int deviceId = getDeviceId(i2cBus);
-
-      int msgBuffer[] = new int[4];
-      msgBuffer[0] = deviceId;
-      msgBuffer[1] = deviceAddress;
-      msgBuffer[2] = readSize;
-      msgBuffer[3] = writeBuffer[0];
-      msg.i2cWriteRead(deviceId, deviceAddress, readSize, writeBuffer[0] & 0xFF);
-      int retry = 0;
-      int retryMax = 1000; // ( About 1000ms = s)
-      try {
-        /**
-         * We will wait up to retryMax times to get the i2c data back from
-         * MrlComm.c and wait 1 ms between each try. A blocking queue is not
-         * needed, as this is only a single data element - and blocking is not
-         * necessary.
-         */
-        while ((retry < retryMax) && (!i2cDataReturned)) {
-          sleep(1);
-          ++retry;
-        }
-      } catch (Exception e) {
-        Logging.logError(e);
-      }
-      if (i2cDataReturned) {
-        log.debug(String.format("i2cReturnData returned %s bytes to caller %s.", i2cDataSize, control.getName()));
-        for (int i = 0; i < i2cDataSize; i++) {
-          readBuffer[i] = i2cData[i];
-          log.debug(String.format("i2cReturnData returned ix %s value %s", i, readBuffer[i]));
-        }
-        return i2cDataSize;
-      }
-      // Time out, no data returned
-      return -1;
-    }
+    return i2cWaitFor(new I2CRead(busAddress, deviceAddress, writeBuffer, writeSize, readBuffer, readSize));
   }
 
   @Override
@@ -1074,6 +1372,9 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     double powerOutput = motorPowerMapper.calcOutput(mc.getPowerLevel());
     //log.info(mc.getPowerLevel()+" "+powerOutput);
     
+    // pwm is sent directly, not through the command queue - a queued pwm
+    // would go out up to a tick after the direction it belongs to, and drive
+    // a reversing motor the wrong way until then
     if (Motor.class == type) {
       Motor config = (Motor) mc;
       msg.digitalWrite(config.getDirPin(), (powerOutput < 0) ? MOTOR_BACKWARD : MOTOR_FORWARD);
@@ -1193,96 +1494,74 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
    * Other services may use the same technique or subscribe to a Serial's
    * publishByte method
    *
-   * it might be worthwhile to look in optimizing reads into arrays vs single
-   * byte processing .. but maybe there would be no gain
-   *
+   * single bytes go through the same frame parser as onBytes
    */
-
-  // FIXME - onByte(int[] data)
   @Override
   public Integer onByte(Integer newByte) {
-    try {
-      /**
-       * Archtype InputStream read - rxtxLib does not have this straightforward
-       * design, but the details of how it behaves is is handled in the Serial
-       * service and we are given a unified interface
-       *
-       * The "read()" is data taken from a blocking queue in the Serial service.
-       * If we want to support blocking functions in Arduino then we'll
-       * "publish" to our local queues
-       */
-      // TODO: consider reading more than 1 byte at a time ,and make this
-      // callback onBytes or something like that.
-
-      ++byteCount;
-      if (log.isDebugEnabled()) {
-        log.info("onByte {} \tbyteCount \t{}", newByte, byteCount);
-      }
-      if (byteCount == 1) {
-        if (newByte != MAGIC_NUMBER) {
-          byteCount = 0;
-          msgSize = 0;
-          Arrays.fill(ioCmd, 0); // FIXME - optimize - remove
-          warn(String.format("Arduino->MRL error - bad magic number %d - %d rx errors", newByte, ++error_arduino_to_mrl_rx_cnt));
-          // dump.setLength(0);
+    oneByte[0] = (byte) newByte.intValue();
+    onBytes(oneByte, 0, 1);
+    return newByte;
+  }
+
+  /**
+   * block receive from the port's reading thread - MrlComm frames are parsed
+   * straight out of the receive buffer. The header is checked a byte at a
+   * time, the payload is copied in one pass per block.
+   *
+   * frame = MAGIC_NUMBER | size | size bytes of payload
+   */
+  @Override
+  public void onBytes(byte[] bytes, int off, int len) {
+    int i = off;
+    int end = off + len;
+    while (i < end) {
+      try {
+        if (byteCount == 0) {
+          int newByte = bytes[i++] & 0xff;
+          if (newByte != MAGIC_NUMBER) {
+            warn(String.format("Arduino->MRL error - bad magic number %d - %d rx errors", newByte, ++error_arduino_to_mrl_rx_cnt));
+            continue;
+          }
+          byteCount = 1;
+        } else if (byteCount == 1) {
+          // get the size of message
+          int newByte = bytes[i++] & 0xff;
+          if (newByte > 64) {
+            byteCount = 0;
+            msgSize = 0;
+            error(String.format("Arduino->MRL error %d rx sz errors", ++error_arduino_to_mrl_rx_cnt));
+            continue;
+          }
+          msgSize = newByte;
+          byteCount = 2;
+        } else {
+          // remove header - fill msg data
+          int have = byteCount - 2;
+          int n = Math.min(msgSize - have, end - i);
+          for (int j = 0; j < n; ++j) {
+            ioCmd[have + j] = bytes[i + j] & 0xff;
+          }
+          i += n;
+          byteCount += n;
         }
-        return newByte;
-      } else if (byteCount == 2) {
-        // get the size of message
-        if (newByte > 64) {
-          byteCount = 0;
+
+        if (byteCount > 1 && byteCount == 2 + msgSize) {
+          // we've received a full message
+          // clean up first so a throwing callback can't wedge the parser
           msgSize = 0;
-          error(String.format("Arduino->MRL error %d rx sz errors", ++error_arduino_to_mrl_rx_cnt));
-          return newByte;
+          byteCount = 0;
+          msg.processCommand(ioCmd);
         }
-        msgSize = newByte.intValue();
-        // dump.append(String.format("MSG|SZ %d", msgSize));
-      } else if (byteCount > 2) {
-        // remove header - fill msg data - (2) headbytes -1
-        // (offset)
-        // dump.append(String.format("|P%d %d", byteCount,
-        // newByte));
-        ioCmd[byteCount - 3] = newByte.intValue();
-      } else {
-        // the case where byteCount is negative?! not got.
-        error(String.format("Arduino->MRL error %d rx negsz errors", ++error_arduino_to_mrl_rx_cnt));
-        return newByte;
-      }
-      if (byteCount == 2 + msgSize) {
-        // we've received a full message
-
-        msg.processCommand(ioCmd);
-
-        // Our 'first' getBoardInfo may not receive a acknowledgement
-        // so this should be disabled until boadInfo is valid
-
-        /**
-         * acking is done in Msg ! if (boardInfo.isValid() && ackEnabled) {
-         * synchronized (ackRecievedLock) { try { long ts =
-         * System.currentTimeMillis(); log.info( "***** starting wait *****");
-         * ackRecievedLock.wait(10000); log.info("***** waited {} ms *****",
-         * (System.currentTimeMillis() - ts)); } catch (InterruptedException e)
-         * {// don't care} }
-         * 
-         * if (!ackRecievedLock.acknowledged) { log.error( "Ack not received :
-         * {} {}", Msg.methodToString(ioCmd[0]), numAck); } } }
-         ***/
-
-        // clean up memory/buffers
+      } catch (Exception e) {
+        ++error_mrl_to_arduino_rx_cnt;
+        error("msg structure violation %d", error_mrl_to_arduino_rx_cnt);
+        log.warn("msg_structure violation byteCount {} buffer {}", byteCount, Arrays.copyOf(ioCmd, Math.max(0, byteCount - 2)));
+        // try again (clean up memory buffer)
         msgSize = 0;
         byteCount = 0;
-        Arrays.fill(ioCmd, 0); // optimize remove
+        Logging.logError(e);
       }
-    } catch (Exception e) {
-      ++error_mrl_to_arduino_rx_cnt;
-      error("msg structure violation %d", error_mrl_to_arduino_rx_cnt);
-      log.warn("msg_structure violation byteCount {} buffer {}", byteCount, Arrays.copyOf(ioCmd, byteCount));
-      // try again (clean up memory buffer)
-      msgSize = 0;
-      byteCount = 0;
-      Logging.logError(e);
     }
-    return newByte;
   }
 
   @Override
@@ -1303,6 +1582,8 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     enableAck(false);
     enableBoardInfo(false);
     boardInfo.reset();
+    commandQueue.clear();
+    i2cClearPending();
     // chained...
     invoke("publishDisconnect", portName);
   }
@@ -1455,8 +1736,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   // < publishI2cData/deviceId/[] data
   public void publishI2cData(Integer deviceId, int[] data) {
-    log.info("publishI2cData");
-    i2cReturnData(data);
+    i2cReturnData(deviceId, data);
   }
 
   // < publishMRLCommError/str errorMsg
@@ -1478,38 +1758,51 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   // < publishPinArray/[] data
   public PinData[] publishPinArray(int[] data) {
-    log.debug("publishPinArray {}", data);
-    // if subscribers -
-    // look for subscribed pins and publish them
-
-    int pinDataCnt = data.length / 3;
-    PinData[] pinArray = new PinData[pinDataCnt];
-
-    // parse sort reduce ...
-    for (int i = 0; i < pinArray.length; ++i) {
-      PinData pinData = new PinData(data[3 * i], Serial.bytesToInt(data, (3 * i) + 1, 2));
-      pinArray[i] = pinData;
-      int address = pinData.address;
-
-      // handle individual pins
-      if (pinListeners.containsKey(address)) {
-        List<PinListener> list = pinListeners.get(address);
-        for (int j = 0; j < list.size(); ++j) {
-          PinListener pinListner = list.get(j);
-          if (pinListner.isLocal()) {
-            pinListner.onPin(pinData);
-          } else {
-            invoke("publishPin", pinData);
+    // samples inside their deadband are dropped before anything is created
+    PinSamples samples = pinArrayDecoder.decode(data, System.currentTimeMillis());
+    if (samples == null) {
+      return NO_PINS;
+    }
+    try {
+      // handle individual pins - only they need a PinData
+      PinListener[][] index = pinListenerIndex;
+      for (int i = 0; i < samples.size; ++i) {
+        int address = samples.address[i];
+        if (address < index.length && index[address] != null) {
+          PinData pinData = new PinData(address, samples.value[i]);
+          for (PinListener pinListener : index[address]) {
+            pinListener.onPin(pinData);
           }
         }
       }
-    }
 
-    for (String name : pinArrayListeners.keySet()) {
-      PinArrayListener pal = pinArrayListeners.get(name);
-      pal.onPinArray(pinArray);
+      for (PinArrayListener pal : pinArrayListeners.values()) {
+        pal.onPinSamples(samples);
+      }
+
+      // PinData[] only for subscribers of publishPinArray e.g. the oscope
+      if (outbox.notifyList.containsKey("publishPinArray")) {
+        return samples.toPinData();
+      }
+      return NO_PINS;
+    } finally {
+      samples.release();
     }
-    return pinArray;
+  }
+
+  /**
+   * @param address
+   *          pin address
+   * @param delta
+   *          smallest change of a polled pin's value which is published - 0
+   *          publishes every poll
+   */
+  public void setPinDeadband(int address, int delta) {
+    pinArrayDecoder.setDeadband(address, delta);
+  }
+
+  public PinArrayDecoder.Stats getPinArrayStats() {
+    return pinArrayDecoder.getStats();
   }
 
   // FIXME - reconcile - Arduino's input is int[] - this one is not used
@@ -1569,6 +1862,9 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     super.releaseService();
     sleep(300);
     disconnect();
+    if (commandQueue != null) {
+      commandQueue.stop();
+    }
   }
 
   /**
@@ -1713,7 +2009,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   // > servoSetVelocity/deviceId/b16 velocity
   public void servoSetVelocity(ServoControl servo) {
     log.info("servoSetVelocity {} id {} velocity {}", servo.getName(), getDeviceId(servo), (int) servo.getVelocity());
-    msg.servoSetVelocity(getDeviceId(servo), (int) servo.getVelocity());
+    commandQueue.add(Msg.SERVO_SET_VELOCITY, getDeviceId(servo), (int) servo.getVelocity());
   }
 
   // FIXME - this needs fixing .. should be microseconds - but interface still
@@ -1747,7 +2043,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     // so we convert to microseconds
     int us = degreeToMicroseconds(servo.getTargetOutput());
     log.info("servoMoveToMicroseconds servo {} id {} {}->{} us", servo.getName(), deviceId, servo.getPos(), us);
-    msg.servoMoveToMicroseconds(deviceId, us);
+    commandQueue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, deviceId, us);
   }
 
   /**
@@ -1761,7 +2057,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     log.info(String.format("writeMicroseconds %s %d id %d", servo.getName(), uS, deviceId));
     // msg.servoWriteMicroseconds(deviceId, uS);
     // lets use speed control
-    msg.servoMoveToMicroseconds(deviceId, uS);
+    commandQueue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, deviceId, uS);
   }
 
   public String setBoard(String board) {
@@ -1860,7 +2156,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     try {
       if (msg == null) {
         serial = (Serial) startPeer("serial");
-        msg = new Msg(this, serial);
+        setMsg(new Msg(this, serial));
         // FIXME - dynamically additive - if codec key has never been
         // used -
         // add key
@@ -2087,7 +2383,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   @Override
   public void servoSetAcceleration(ServoControl servo) {
-    msg.servoSetAcceleration(getDeviceId(servo), (int) servo.getAcceleration());
+    commandQueue.add(Msg.SERVO_SET_ACCELERATION, getDeviceId(servo), (int) servo.getAcceleration());
   }
 
   public boolean setArduinoPath(String path) {
@@ -407,6 +407,11 @@ public class Bno055 extends Service implements I2CControl, PinListener {
   }
   private OperationMode mode;
 
+  /**
+   * register page last selected - -1 if unknown
+   */
+  transient int page = -1;
+
   private PinArrayControl pinControl = null;
 
   private Integer pin = null;
@@ -567,21 +572,33 @@ public class Bno055 extends Service implements I2CControl, PinListener {
     sleep(20);
   }
 
-  private void i2cWrite(register reg, byte value) {
-    if (reg != register.PAGE_ID) {
-      byte[] wbuffer = new byte[] { register.PAGE_ID.value, reg.pageId };
-      controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), wbuffer, wbuffer.length);
+  /**
+   * selects the register page - only written when it changes
+   */
+  private void setPage(register reg) {
+    if (reg == register.PAGE_ID || reg.pageId == page) {
+      return;
     }
+    byte[] wbuffer = new byte[] { register.PAGE_ID.value, reg.pageId };
+    controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), wbuffer, wbuffer.length);
+    page = reg.pageId;
+  }
+
+  private void i2cWrite(register reg, byte value) {
+    setPage(reg);
     byte[] wbuffer1 = new byte[] { reg.value, value };
     controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), wbuffer1, wbuffer1.length);
+    if (reg == register.PAGE_ID) {
+      page = value;
+    } else if (reg == register.SYS_TRIGGGER) {
+      // a reset selects page 0 - don't assume
+      page = -1;
+    }
   }
 
   private void i2cWriteReadReg(register reg, byte[] data, int length) {
-    if (reg != register.PAGE_ID) {
-      byte[] wbuffer = new byte[] { register.PAGE_ID.value, reg.pageId };
-      controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), wbuffer, wbuffer.length);
-    }
-    controller.i2cWriteRead(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), new byte[] { reg.value }, 1, data, length);
+    setPage(reg);
+    controller.i2cReadBurst(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), reg.value & 0xFF, true, data, length);
   }
 
   private byte i2cWriteReadRegByte(register reg) {
@@ -606,13 +623,8 @@ public class Bno055 extends Service implements I2CControl, PinListener {
 
   public Bno055Event getEvent() {
     Bno055Event event = new Bno055Event();
-    byte[] wbuffer = new byte[] { register.EUL_HEADING_LSB.value };
     byte[] rbuffer = new byte[6];
-    // controller.i2cWrite(this, Integer.parseInt(deviceBus),
-    // Integer.decode(deviceAddress), wbuffer, wbuffer.length);
-    // controller.i2cRead(this, Integer.parseInt(deviceBus),
-    // Integer.decode(deviceAddress), rbuffer, rbuffer.length);
-    controller.i2cWriteRead(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), wbuffer, wbuffer.length, rbuffer, rbuffer.length);
+    i2cWriteReadReg(register.EUL_HEADING_LSB, rbuffer, rbuffer.length);
     log.info("Bno055 i2c Read return {}", rbuffer);
     event.orientation.x = (((int) (rbuffer[0] & 0xFF)) | (((int) (rbuffer[1])) << 8)) / 16.0;
     event.orientation.y = (((int) (rbuffer[2] & 0xFF)) | (((int) (rbuffer[3])) << 8)) / 16.0;
@@ -1697,6 +1709,7 @@ public class Bno055 extends Service implements I2CControl, PinListener {
 
     this.controller = controller;
     isAttached = true;
+    page = -1;
     controller.attachI2CControl(this);
     log.info(String.format("Attached %s device on bus: %s address %s", controllerName, deviceBus, deviceAddress));
     broadcastState();
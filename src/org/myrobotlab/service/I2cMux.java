@@ -150,6 +150,12 @@ public class I2cMux extends Service implements I2CControl, I2CController {
     return readBuffer.length;
   }
 
+  @Override
+  public int i2cReadBurst(I2CControl control, int busAddress, int deviceAddress, int register, boolean increment, byte[] buffer, int size) {
+    setMuxBus(busAddress);
+    return controller.i2cReadBurst(this, Integer.parseInt(this.deviceBus), deviceAddress, register, increment, buffer, size);
+  }
+
   /**
    * This static method returns all the details of the class without it having
    * to be constructed. It has description, categories, dependencies, and peer
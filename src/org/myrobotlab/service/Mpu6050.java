@@ -524,6 +524,11 @@ public class Mpu6050 extends Service implements I2CControl, OrientationPublisher
   public String controllerName;
   public boolean isAttached = false;
 
+  /**
+   * accel, temperature and gyro registers - reused by the OrientationPublisher
+   */
+  transient byte[] rawBuffer = new byte[14];
+
   // complementaryFiltered angles
   public double filtered_x_angle;
   public double filtered_y_angle;
@@ -622,14 +627,10 @@ public class Mpu6050 extends Service implements I2CControl, OrientationPublisher
   }
 
   public void getRaw() {
-    // Set the start address to read from
-    byte[] writebuffer = { MPU6050_RA_ACCEL_XOUT_H };
-    controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), writebuffer, writebuffer.length);
-    // The Arduino example executes a request_from()
-    // Not sure if this will do the trick
-    // Request 14 bytes from the MPU-6050
-    byte[] readbuffer = new byte[14];
-    controller.i2cRead(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), readbuffer, readbuffer.length);
+    // Request 14 bytes from the MPU-6050 - accel, temperature and gyro
+    // registers in one burst
+    byte[] readbuffer = rawBuffer;
+    controller.i2cReadBurst(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), MPU6050_RA_ACCEL_XOUT_H, true, readbuffer, readbuffer.length);
     // Fill the variables with the result from the read operation
     accelX = (byte) readbuffer[0] << 8 | readbuffer[1] & 0xFF;
     accelY = (byte) readbuffer[2] << 8 | readbuffer[3] & 0xFF;
@@ -4686,9 +4687,11 @@ public class Mpu6050 extends Service implements I2CControl, OrientationPublisher
    */
   int I2CdevReadWords(int devAddr, int regAddr, int length, int[] data) {
     byte bytebuffer[] = new byte[length * 2];
-    controller.i2cRead(this, Integer.parseInt(deviceBus), devAddr, bytebuffer, bytebuffer.length);
-    for (int i = 0; i < bytebuffer.length; i++) {
-      data[i] = bytebuffer[i * 2] << 8 + bytebuffer[i * 2 + 1] & 0xff;
+    if (controller.i2cReadBurst(this, Integer.parseInt(deviceBus), devAddr, regAddr, true, bytebuffer, bytebuffer.length) < 0) {
+      return -1;
+    }
+    for (int i = 0; i < length; i++) {
+      data[i] = bytebuffer[i * 2] << 8 | bytebuffer[i * 2 + 1] & 0xff;
     }
     return length;
   }
@@ -4708,10 +4711,11 @@ public class Mpu6050 extends Service implements I2CControl, OrientationPublisher
    */
   // TODO Return the correct length
   int I2CdevReadBytes(int devAddr, int regAddr, int length, int[] data) {
-    byte[] writebuffer = new byte[] { (byte) (regAddr & 0xff) };
     byte[] readbuffer = new byte[length];
-    controller.i2cWrite(this, Integer.parseInt(deviceBus), devAddr, writebuffer, writebuffer.length);
-    controller.i2cRead(this, Integer.parseInt(deviceBus), devAddr, readbuffer, readbuffer.length);
+    // FIFO and DMP memory are streamed from a single register - everything
+    // else is a block of registers
+    boolean increment = (regAddr != MPU6050_RA_FIFO_R_W && regAddr != MPU6050_RA_MEM_R_W);
+    controller.i2cReadBurst(this, Integer.parseInt(deviceBus), devAddr, regAddr & 0xff, increment, readbuffer, readbuffer.length);
     for (int i = 0; i < length; i++) {
       data[i] = readbuffer[i] & 0xff;
     }
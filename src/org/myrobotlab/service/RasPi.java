@@ -339,6 +339,34 @@ public class RasPi extends Service implements I2CController, PinArrayControl {
     return readBuffer.length;
   }
 
+  /**
+   * pi4j does the register write and the read as one combined transaction -
+   * wiringPi reads a register at a time
+   */
+  @Override
+  public int i2cReadBurst(I2CControl control, int busAddress, int deviceAddress, int register, boolean increment, byte[] buffer, int size) {
+    String key = String.format("%d.%d", busAddress, deviceAddress);
+    I2CDeviceMap devicedata = i2cDevices.get(key);
+    if (devicedata == null) {
+      createI2cDevice(busAddress, deviceAddress, control.getName());
+      devicedata = i2cDevices.get(key);
+    }
+
+    if (wiringPi) {
+      for (int i = 0; i < size; i++) {
+        int reg = ((increment) ? register + i : register) & 0xFF;
+        buffer[i] = (byte) (I2C.wiringPiI2CReadReg8(devicedata.deviceHandle, reg) & 0xFF);
+      }
+      return size;
+    }
+    try {
+      return devicedata.device.read(new byte[] { (byte) register }, 0, 1, buffer, 0, size);
+    } catch (IOException e) {
+      Logging.logError(e);
+    }
+    return -1;
+  }
+
   /**
    * This static method returns all the details of the class without it having
    * to be constructed. It has description, categories, dependencies, and peer
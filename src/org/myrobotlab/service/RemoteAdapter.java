@@ -25,9 +25,7 @@
 
 package org.myrobotlab.service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.DatagramPacket;
@@ -57,6 +55,7 @@ import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.net.Connection;
+import org.myrobotlab.net.FramedTransport;
 import org.myrobotlab.net.Scanner;
 import org.myrobotlab.net.TcpServer;
 import org.myrobotlab.net.UdpServer;
@@ -92,6 +91,18 @@ public class RemoteAdapter extends Service implements Gateway {
 	// udp) || websockets
 	transient TcpServer tcpServer = null;
 	transient UdpServer udpServer = null;
+	transient DatagramSocket udpSocket = null;
+
+	/**
+	 * codec of the frames this end sends - java (default), json or cbor - the
+	 * other end reads whichever it gets
+	 */
+	String codec = "java";
+
+	/**
+	 * ms a connection's writer waits for more messages to write them together
+	 */
+	int flushWindow = 0;
 
 	private Integer udpPort;
 	private Integer tcpPort;
@@ -217,6 +228,14 @@ public class RemoteAdapter extends Service implements Gateway {
 		return tcpPort;
 	}
 
+	public String getCodec() {
+		return codec;
+	}
+
+	public int getFlushWindow() {
+		return flushWindow;
+	}
+
 	public Integer getUdpPort() {
 		return udpPort;
 	}
@@ -309,27 +328,41 @@ public class RemoteAdapter extends Service implements Gateway {
 	public void sendRemoteUdp(URI uri, Message msg) {
 		try {
 
-			// FIXME - could use some optimization e.g. .reset()
-			DatagramSocket s = new DatagramSocket();
-			ByteArrayOutputStream b_out = new ByteArrayOutputStream();
-			ObjectOutputStream o_out = new ObjectOutputStream(b_out);
-			o_out.writeObject(msg);
-			o_out.flush();
-			b_out.flush();
-			byte[] b = b_out.toByteArray();
+			// one frame per datagram - the socket is kept
+			DatagramSocket socket = getUdpSocket();
+			byte[] b = FramedTransport.encode(msg, codec);
 			InetAddress hostAddress = InetAddress.getByName(uri.getHost());
 			DatagramPacket dgram = new DatagramPacket(b, b.length, hostAddress, uri.getPort());
-			s.send(dgram);
-			// dgram.se
-			// TODO - send the damn packet???
-			// close the datagram to avoid resource leaks
-			s.close();
+			socket.send(dgram);
 		} catch (Exception e) {
 			Logging.logError(e);
 		}
 
 	}
 
+	/**
+	 * the socket udp frames are sent from - created once, concurrent senders
+	 * share it
+	 */
+	synchronized DatagramSocket getUdpSocket() throws IOException {
+		if (udpSocket == null) {
+			udpSocket = new DatagramSocket();
+		}
+		return udpSocket;
+	}
+
+	/**
+	 * @param codec
+	 *          java, json or cbor - for the frames sent from now on, on every
+	 *          connection
+	 */
+	public void setCodec(String codec) {
+		FramedTransport.getCodecId(codec);
+		this.codec = codec;
+		tcpServer.setCodec(codec);
+		broadcastState();
+	}
+
 	public String setDefaultPrefix(String prefix) {
 		defaultPrefix = prefix;
 		return prefix;
@@ -339,6 +372,17 @@ public class RemoteAdapter extends Service implements Gateway {
 		prefixMap.put(source, prefix);
 	}
 
+	/**
+	 * @param ms
+	 *          how long a connection's writer waits for more messages before
+	 *          it writes - 0 writes what is queued right away
+	 */
+	public void setFlushWindow(int ms) {
+		flushWindow = ms;
+		tcpServer.setFlushWindow(ms);
+		broadcastState();
+	}
+
 	public void setTcpPort(Integer tcpPort) {
 		this.tcpPort = tcpPort;
 	}
@@ -381,6 +425,12 @@ public class RemoteAdapter extends Service implements Gateway {
 	public void stopService() {
 		super.stopService();
 		stopListening();
+		synchronized (this) {
+			if (udpSocket != null) {
+				udpSocket.close();
+				udpSocket = null;
+			}
+		}
 	}
 
 	public void startService() {
@@ -27,7 +27,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
@@ -41,14 +40,17 @@ import org.myrobotlab.framework.FileMsgScanner;
 import org.myrobotlab.framework.Instantiator;
 import org.myrobotlab.framework.MRLListener;
 import org.myrobotlab.framework.Message;
+import org.myrobotlab.framework.MessageId;
 import org.myrobotlab.framework.MessageListener;
 import org.myrobotlab.framework.MethodEntry;
 import org.myrobotlab.framework.Platform;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceEnvironment;
+import org.myrobotlab.framework.ServiceRegistry;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.Status;
 import org.myrobotlab.framework.SystemResources;
+import org.myrobotlab.framework.interfaces.RegistryListener;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
 import org.myrobotlab.framework.repo.Repo;
 import org.myrobotlab.framework.repo.ServiceData;
@@ -107,9 +109,9 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   /**
    * a registry of all services regardless of which environment they came from -
-   * each must have a unique name
+   * each must have a unique name - lock free for readers
    */
-  static private final TreeMap<String, ServiceInterface> registry = new TreeMap<String, ServiceInterface>();
+  static private final ServiceRegistry registry = new ServiceRegistry();
 
   /**
    * map to hide methods we are not interested in
@@ -165,8 +167,6 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   SystemResources resources = new SystemResources();
 
-  private static long uniqueID = new Random(System.currentTimeMillis()).nextLong();
-
   public final static Logger log = LoggerFactory.getLogger(Runtime.class);
 
   /**
@@ -423,7 +423,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
       dump.close();
 
       dump = new FileOutputStream("registry.json");
-      dump.write(CodecUtils.toJson(registry).getBytes());
+      dump.write(CodecUtils.toJson(registry.getMap()).getBytes());
       dump.close();
 
       StringBuffer sb = new StringBuffer().append("\ninstances:\n");
@@ -452,7 +452,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
       sb.append("\nregistry:");
 
-      Map<String, ServiceInterface> sorted3 = new TreeMap<String, ServiceInterface>(registry);
+      Map<String, ServiceInterface> sorted3 = new TreeMap<String, ServiceInterface>(registry.getMap());
       Iterator<String> rkeys = sorted3.keySet().iterator();
       while (rkeys.hasNext()) {
         serviceName = rkeys.next();
@@ -868,8 +868,28 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     return pid;
   }
 
+  /**
+   * @return read only view of the registry - safe to iterate while services are
+   *         being registered or released
+   */
   public static Map<String, ServiceInterface> getRegistry() {
-    return registry;// FIXME should return copy
+    return registry.getMap();
+  }
+
+  /**
+   * @return a number which changes whenever a service is registered or
+   *         released
+   */
+  public static long getRegistryVersion() {
+    return registry.getVersion();
+  }
+
+  public static void addRegistryListener(RegistryListener listener) {
+    registry.addListener(listener);
+  }
+
+  public static void removeRegistryListener(RegistryListener listener) {
+    registry.removeListener(listener);
   }
 
   /*
@@ -883,11 +903,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     if (name == null || name.length() == 0) {
       return Runtime.getInstance();
     }
-    if (!registry.containsKey(name)) {
-      return null;
-    } else {
-      return registry.get(name);
-    }
+    return registry.get(name);
   }
 
   public static ServiceEnvironment getEnvironment(URI url) {
@@ -945,30 +961,17 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
   /*
    * @return services which match
    */
-  public static synchronized ArrayList<ServiceInterface> getServicesFromInterface(Class<?> interfaze) {
-    ArrayList<ServiceInterface> ret = new ArrayList<ServiceInterface>();
-
-    Iterator<String> it = registry.keySet().iterator();
-    String serviceName;
-    ServiceInterface sw;
-    Class<?> c;
-    Class<?>[] interfaces;
-    Class<?> m;
-    while (it.hasNext()) {
-      serviceName = it.next();
-      sw = registry.get(serviceName);
-      c = sw.getClass();
-      interfaces = c.getInterfaces();
-      for (int i = 0; i < interfaces.length; ++i) {
-        m = interfaces[i];
-
-        if (m.equals(interfaze)) {
-          ret.add(sw);
-        }
-      }
-    }
+  public static ArrayList<ServiceInterface> getServicesFromInterface(Class<?> interfaze) {
+    return new ArrayList<ServiceInterface>(registry.getServicesFromInterface(interfaze));
+  }
 
-    return ret;
+  /*
+   * @param type - full class name e.g. org.myrobotlab.service.Servo
+   * 
+   * @return services of that type
+   */
+  public static List<ServiceInterface> getServicesFromType(String type) {
+    return registry.getServicesFromType(type);
   }
 
   static public Set<Thread> getThreads() {
@@ -1006,14 +1009,15 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   /**
    * unique id's are need for sendBlocking - to uniquely identify the message
-   * this is a method to support that - it is unique within a process, but not
-   * across processes
+   * this is a method to support that - it is unique within a process, and
+   * carries a per instance discriminator so it is unlikely to collide with
+   * ids from connected processes
    *
    * @return a unique id
+   * @see MessageId
    */
-  public static final synchronized long getUniqueID() {
-    ++uniqueID;
-    return uniqueID;
+  public static final long getUniqueID() {
+    return MessageId.next();
   }
 
   public static String getUptime() {
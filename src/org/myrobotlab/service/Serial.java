@@ -2,10 +2,7 @@ package org.myrobotlab.service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.net.Socket;
 import java.net.URI;
@@ -16,7 +13,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import org.myrobotlab.framework.Platform;
 import org.myrobotlab.framework.Service;
@@ -27,10 +23,14 @@ import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.serial.ByteRingBuffer;
 import org.myrobotlab.serial.Port;
 import org.myrobotlab.serial.PortQueue;
+import org.myrobotlab.serial.PortReplay;
 import org.myrobotlab.serial.PortStream;
 import org.myrobotlab.serial.SerialControl;
+import org.myrobotlab.serial.SerialReaderPool;
+import org.myrobotlab.serial.SerialRecorder;
 import org.myrobotlab.service.interfaces.PortConnector;
 import org.myrobotlab.service.interfaces.PortPublisher;
 import org.myrobotlab.service.interfaces.QueueSource;
@@ -97,9 +97,15 @@ public class Serial extends Service
 	int BUFFER_SIZE = 1024;
 
 	/**
-	 * blocking queue for blocking rx read requests
+	 * size of the wires between virtual ports - written without blocking so a
+	 * side nobody reads from overruns instead of growing forever
 	 */
-	transient BlockingQueue<Integer> blockingRX = new LinkedBlockingQueue<Integer>();
+	static int VIRTUAL_PORT_BUFFER_SIZE = 65536;
+
+	/**
+	 * primitive byte buffer for blocking rx read requests
+	 */
+	transient ByteRingBuffer blockingRX = new ByteRingBuffer(BUFFER_SIZE);
 
 	/**
 	 * our set of ports we have access to. This is a shared resource between ALL
@@ -153,8 +159,21 @@ public class Serial extends Service
 	 */
 	String hardwareLibrary = null;
 
-	transient OutputStream recordRx = null;
-	transient OutputStream recordTx = null;
+	/**
+	 * ports are read by the shared SerialReaderPool instead of a thread each -
+	 * for setups with many boards
+	 */
+	boolean pooledReads = false;
+
+	/**
+	 * binary capture of rx and tx - see record()
+	 */
+	transient SerialRecorder recorder = null;
+
+	/**
+	 * rx bytes logged as hex to stdout - see logRecv
+	 */
+	transient boolean logRx = false;
 
 	static List<String> formats = null;
 	static String format = "hex";
@@ -282,7 +301,7 @@ public class Serial extends Service
 	 * method similar to InputStream's
 	 */
 	public int available() {
-		return blockingRX.size();
+		return blockingRX.available();
 	}
 
 	/**
@@ -438,7 +457,11 @@ public class Serial extends Service
 		if (!port.isOpen()) {
 			port.open();
 		}
-		port.listen(listeners);
+		if (pooledReads) {
+			port.listen(listeners, SerialReaderPool.getDefault());
+		} else {
+			port.listen(listeners);
+		}
 		connectedPorts.put(port.getName(), newPort);
 
 		// FYI !!!
@@ -464,6 +487,22 @@ public class Serial extends Service
 		return port;
 	}
 
+	/**
+	 * play back a recording made with record() as if it was received from the
+	 * port - writes are checked against the recorded tx
+	 * 
+	 * @param filename
+	 *            the recording
+	 * @param speed
+	 *            1.0 is the recorded pace, 2.0 twice as fast, 0 as fast as
+	 *            possible
+	 */
+	public PortReplay connectReplay(String filename, double speed) throws IOException {
+		PortReplay replay = new PortReplay(new File(filename).getName(), filename, speed);
+		connectPort(replay, null);
+		return replay;
+	}
+
 	public boolean connectTcp(String url) throws IOException {
 		Port tcpPort = createTCPPort(url, this);
 		connectPort(tcpPort, this);
@@ -522,14 +561,14 @@ public class Serial extends Service
 		Socket socket = new Socket(uri.getHost(), uri.getPort());
 		// String portName = String.format("%s.%s", getName(),
 		// socket.getRemoteSocketAddress().toString());
-		Port socketPort = new PortStream(url, socket.getInputStream(), socket.getOutputStream());
+		Port socketPort = new PortStream(url, socket);
 		ports.put(portName, socketPort);
 		return socketPort;
 	}
 
 	public PortQueue createVirtualPort(String name) {
-		BlockingQueue<Integer> rx = new LinkedBlockingQueue<Integer>();
-		BlockingQueue<Integer> tx = new LinkedBlockingQueue<Integer>();
+		ByteRingBuffer rx = new ByteRingBuffer(VIRTUAL_PORT_BUFFER_SIZE);
+		ByteRingBuffer tx = new ByteRingBuffer(VIRTUAL_PORT_BUFFER_SIZE);
 		PortQueue portQueue = new PortQueue(name, rx, tx);
 		ports.put(name, portQueue);
 		return portQueue;
@@ -545,8 +584,8 @@ public class Serial extends Service
 
 	static public Serial connectVirtualUart(Serial uart, String myPort, String uartPort) throws IOException {
 
-		BlockingQueue<Integer> left = new LinkedBlockingQueue<Integer>();
-		BlockingQueue<Integer> right = new LinkedBlockingQueue<Integer>();
+		ByteRingBuffer left = new ByteRingBuffer(VIRTUAL_PORT_BUFFER_SIZE);
+		ByteRingBuffer right = new ByteRingBuffer(VIRTUAL_PORT_BUFFER_SIZE);
 
 		// add our virtual port
 		PortQueue vPort = new PortQueue(myPort, left, right);
@@ -673,9 +712,59 @@ public class Serial extends Service
 		return null;
 	}
 
+	/**
+	 * snapshot of the buffered rx bytes - reading is done through read() etc
+	 */
+	@Deprecated
 	@Override
 	public BlockingQueue<?> getQueue() {
-		return blockingRX;
+		LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+		for (byte b : blockingRX.toArray()) {
+			queue.add(b & 0xff);
+		}
+		return queue;
+	}
+
+	/**
+	 * @return rx bytes dropped because the blocking read buffer was full
+	 */
+	public long getRXOverrunCount() {
+		return blockingRX.getOverrunCount();
+	}
+
+	/**
+	 * @return fraction of the blocking read buffer in use 0.0 - 1.0
+	 */
+	public double getRXFillLevel() {
+		return blockingRX.getFillLevel();
+	}
+
+	/**
+	 * @return most bytes ever waiting in the blocking read buffer
+	 */
+	public int getRXMaxFill() {
+		return blockingRX.getMaxFill();
+	}
+
+	/**
+	 * read ports connected from now on with the shared SerialReaderPool - a few
+	 * threads polling every pooled port - instead of a blocking thread per port
+	 */
+	public void setPooledReads(boolean b) {
+		pooledReads = b;
+		broadcastState();
+	}
+
+	public boolean isPooledReads() {
+		return pooledReads;
+	}
+
+	/**
+	 * @return per port stats of the shared reader pool - every Serial's pooled
+	 *         ports
+	 */
+	public List<SerialReaderPool.PortStats> getReaderPoolStats() {
+		return SerialReaderPool.getDefault().getStats();
 	}
 
 	public int getRXCount() {
@@ -705,21 +794,60 @@ public class Serial extends Service
 		newByte = newByte & 0xff;
 		++rxCount;
 
-		// publish the rx byte !
-		invoke("publishRX", newByte);
+		// publish the rx byte ! - only if someone is listening
+		if (outbox.notifyList.containsKey("publishRX")) {
+			invoke("publishRX", newByte);
+		}
 
-		if (blockingRX.size() < BUFFER_SIZE) {
-			blockingRX.add(newByte);
+		blockingRX.write(newByte);
+
+		SerialRecorder r = recorder;
+		if (r != null) {
+			r.rx(newByte);
 		}
 
-		if (recordRx != null) {
-			// potentially variety of formats can be supported here
-			recordRx.write(String.format(" %02X", newByte).getBytes());
+		if (logRx) {
+			System.out.print(String.format(" %02X", newByte));
 		}
 
 		return newByte;
 	}
 
+	/**
+	 * block receive from the port's reading thread. Bytes are buffered for
+	 * the blocking reads; publishRX (a message per byte) is only invoked when
+	 * something subscribed to it, and publishBytes publishes the whole block as
+	 * one message
+	 */
+	@Override
+	public final void onBytes(byte[] bytes, int off, int len) throws IOException {
+		rxCount += len;
+		int end = off + len;
+		if (outbox.notifyList.containsKey("publishRX")) {
+			for (int i = off; i < end; ++i) {
+				invoke("publishRX", bytes[i] & 0xff);
+			}
+		}
+		blockingRX.write(bytes, off, len);
+
+		if (outbox.notifyList.containsKey("publishBytes")) {
+			invoke("publishBytes", Arrays.copyOfRange(bytes, off, end));
+		}
+
+		SerialRecorder r = recorder;
+		if (r != null) {
+			r.rx(bytes, off, len);
+		}
+
+		if (logRx) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = off; i < end; ++i) {
+				sb.append(String.format(" %02X", bytes[i] & 0xff));
+			}
+			System.out.print(sb);
+		}
+	}
+
 	@Override
 	public void onConnect(String portName) {
 		info("%s connected to %s", getName(), portName);
@@ -763,6 +891,13 @@ public class Serial extends Service
 		return data;
 	}
 
+	/*
+	 * batched RX publishing point - one message per received block
+	 */
+	public byte[] publishBytes(byte[] data) {
+		return data;
+	}
+
 	/*
 	 * main line TX publishing point
 	 */
@@ -778,12 +913,8 @@ public class Serial extends Service
 	@Override
 	public int read() throws IOException, InterruptedException {
 
-		if (timeoutMS == null) {
-			return blockingRX.take();
-		}
-
-		Integer newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-		if (newByte == null) {
+		int newByte = blockingRX.read(timeoutMS);
+		if (newByte < 0) {
 			String error = String.format("%d ms timeout was reached - no data", timeoutMS);
 			error(error);
 			throw new IOException(error);
@@ -793,8 +924,15 @@ public class Serial extends Service
 	}
 
 	public int read(byte[] data) throws IOException, InterruptedException {
-		for (int i = 0; i < data.length; ++i) {
-			data[i] = (byte) read();
+		int count = 0;
+		while (count < data.length) {
+			int n = blockingRX.read(data, count, data.length - count, timeoutMS);
+			if (n == 0) {
+				String error = String.format("%d ms timeout was reached - no data", timeoutMS);
+				error(error);
+				throw new IOException(error);
+			}
+			count += n;
 		}
 		return data.length;
 	}
@@ -809,45 +947,37 @@ public class Serial extends Service
 	 * 
 	 */
 	public byte[] read(int length) throws InterruptedException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] bytes = new byte[length];
 		int count = 0;
-		Integer newByte = null;
 		while (count < length) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-			}
-			if (newByte == null) {
+			int n = blockingRX.read(bytes, count, length - count, timeoutMS);
+			if (n == 0) {
 				if (count == 0) {
 					error("got nothing!");
 					return null;
 				} else {
 					error("expecting %d bytes got %d", length, count);
-					break;
+					return Arrays.copyOf(bytes, count);
 				}
 			}
-			bytes.write(newByte.intValue() & 0xff);
-			++count;
+			count += n;
 		}
-		return bytes.toByteArray();
+		return bytes;
 	}
 
 	public int read(int[] data) throws InterruptedException {
+		byte[] bytes = new byte[data.length];
 		int count = 0;
-		Integer newByte = null;
 		while (count < data.length) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
+			int n = blockingRX.read(bytes, count, data.length - count, timeoutMS);
+			for (int i = count; i < count + n; ++i) {
+				data[i] = bytes[i] & 0xff;
 			}
-			if (newByte == null) {
+			if (n == 0) {
 				error("expecting %d bytes got %d", data.length, count);
 				return count;
 			}
-			data[count] = newByte;
-			++count;
+			count += n;
 		}
 		return count;
 	}
@@ -856,22 +986,27 @@ public class Serial extends Service
 		return readLine('\n');
 	}
 
+	/**
+	 * read up to and including the delimiter - the buffered bytes are scanned
+	 * for it and moved out in bulk
+	 */
 	public byte[] readLine(char deliminater) throws InterruptedException {
 		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		Integer newByte = null;
-		while (newByte == null || newByte != deliminater) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
+		byte[] chunk = new byte[256];
+		while (true) {
+			int index = blockingRX.indexOf(deliminater);
+			int want = (index < 0) ? chunk.length : Math.min(index + 1, chunk.length);
+			int n = blockingRX.read(chunk, 0, want);
+			bytes.write(chunk, 0, n);
+			if (index >= 0 && index < n) {
+				// delimiter was in this chunk
+				return bytes.toByteArray();
 			}
-			if (newByte == null) {
+			if (index < 0 && !blockingRX.await(timeoutMS)) {
 				info("non blocking got nothing");
 				return bytes.toByteArray();
 			}
-			bytes.write(newByte.intValue() & 0xff);
 		}
-		return bytes.toByteArray();
 	}
 
 	public String readString() throws InterruptedException {
@@ -906,9 +1041,22 @@ public class Serial extends Service
 		return null;
 	}
 
-	public void record() throws FileNotFoundException {
-		recordRx = new FileOutputStream(String.format("%s.rx.%s", getName(), Serial.format));
-		recordTx = new FileOutputStream(String.format("%s.tx.%s", getName(), Serial.format));
+	/**
+	 * record rx and tx to {name}.rec - see record(String)
+	 */
+	public void record() throws IOException {
+		record(String.format("%s.rec", getName()));
+	}
+
+	/**
+	 * binary capture of everything received and written until stopRecording().
+	 * SerialRecording reads it back - connectReplay plays it back.
+	 */
+	public void record(String filename) throws IOException {
+		stopRecording();
+		recorder = new SerialRecorder(filename);
+		info("recording to %s", filename);
+		broadcastState();
 	}
 
 	public void setFormat(String format) throws Exception {
@@ -974,6 +1122,7 @@ public class Serial extends Service
 
 	public void setBufferSize(int size) {
 		BUFFER_SIZE = size;
+		blockingRX = new ByteRingBuffer(size);
 	}
 
 	public void setDTR(boolean state) {
@@ -997,14 +1146,10 @@ public class Serial extends Service
 
 	public void stopRecording() {
 		try {
-			if (recordRx != null) {
-				recordRx.close();
-				recordRx = null;
-			}
-
-			if (recordTx != null) {
-				recordTx.close();
-				recordTx = null;
+			SerialRecorder r = recorder;
+			if (r != null) {
+				recorder = null;
+				r.close();
 			}
 			broadcastState();
 		} catch (Exception e) {
@@ -1036,8 +1181,36 @@ public class Serial extends Service
 	 */
 	@Override
 	public void write(byte[] data) throws Exception {
-		for (int i = 0; i < data.length; ++i) {
-			write(data[i] & 0xff); // recently removed - & 0xFF
+		write(data, 0, data.length);
+	}
+
+	/**
+	 * writes the block to each port in a single call - like onBytes publishTX
+	 * is only invoked per byte if something subscribed to it
+	 */
+	@Override
+	synchronized public void write(byte[] data, int off, int len) throws Exception {
+
+		if (connectedPorts.size() == 0) {
+			error("can not write to a closed port!");
+			return;
+		}
+
+		for (Port writePort : connectedPorts.values()) {
+			writePort.write(data, off, len);
+		}
+
+		txCount += len;
+
+		if (outbox.notifyList.containsKey("publishTX")) {
+			for (int i = off; i < off + len; ++i) {
+				invoke("publishTX", data[i] & 0xff);
+			}
+		}
+
+		SerialRecorder r = recorder;
+		if (r != null) {
+			r.tx(data, off, len);
 		}
 	}
 
@@ -1058,8 +1231,9 @@ public class Serial extends Service
 		invoke("publishTX", b);
 
 		++txCount;
-		if (recordTx != null) {
-			recordTx.write(String.format(" %02X", b).getBytes());
+		SerialRecorder r = recorder;
+		if (r != null) {
+			r.tx(b);
 		}
 	}
 
@@ -1078,10 +1252,9 @@ public class Serial extends Service
 			}
 		}
 
-		if (recordTx != null) {
-			for (int i = 0; i < data.length; ++i) {
-				recordTx.write(data[i]);
-			}
+		SerialRecorder r = recorder;
+		if (r != null) {
+			r.tx(data);
 		}
 	}
 
@@ -1358,7 +1531,7 @@ public class Serial extends Service
 	}
 
 	public boolean isRecording() {
-		return (recordRx != null) || (recordTx != null);
+		return recorder != null;
 	}
 
 	public String getLastPortName() {
@@ -1403,9 +1576,9 @@ public class Serial extends Service
   
   public void logRecv(Boolean b){
     if (b){
-      recordRx = System.out;
+      logRx = true;
     } else {
-      recordRx = null;
+      logRx = false;
     }
   }
 
@@ -32,8 +32,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import org.myrobotlab.framework.MethodEntry;
 import org.myrobotlab.framework.Service;
@@ -45,6 +43,7 @@ import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.math.Mapper;
 import org.myrobotlab.math.MathUtils;
+import org.myrobotlab.motion.MotionEngine;
 import org.myrobotlab.service.data.PinData;
 import org.myrobotlab.service.interfaces.ServoControl;
 import org.myrobotlab.service.interfaces.ServoController;
@@ -79,50 +78,82 @@ public class Servo extends Service implements ServoControl {
    * Sweeper - TODO - should be implemented in the arduino code for smoother
    * function
    * 
-   * 
+   * Sweeping works on input, the shared MotionEngine is used as the
+   * "controller" (this is input) and input sweeps back and forth - the servo
+   * parameters know what to do for output. The step is computed on the loop,
+   * the moveTo goes out through the engine's writer of the controller.
    */
-  public class Sweeper extends Thread {
-
-    public Sweeper(String name) {
-      super(String.format("%s.sweeper", name));
-    }
+  public class Sweeper extends MotionEngine.Job {
 
-    /**
-     * Sweeping works on input, a thread is used as the "controller" (this is
-     * input) and input sweeps back and forth - the servo parameters know what
-     * to do for output
-     */
+    // start in the middle
+    volatile double sweepPos = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
 
-    @Override
-    public void run() {
+    final Runnable move = new Runnable() {
+      @Override
+      public void run() {
+        if (isSweeping) {
+          moveTo(sweepPos);
+        }
+      }
+    };
 
-      double sweepMin = 0.0;
-      double sweepMax = 0.0;
-      // start in the middle
-      double sweepPos = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
-      isSweeping = true;
+    public Sweeper() {
+      super(controller);
+    }
 
+    @Override
+    public long run() {
+      if (!isSweeping) {
+        return -1;
+      }
       try {
-        while (isSweeping) {
-
-          // set our range to be inside 'real' min & max input
-          sweepMin = mapper.getMinX() + 1;
-          sweepMax = mapper.getMaxX() - 1;
+        // set our range to be inside 'real' min & max input
+        double sweepMin = mapper.getMinX() + 1;
+        double sweepMax = mapper.getMaxX() - 1;
 
-          // if pos is too small or too big flip direction
-          if (sweepPos >= sweepMax || sweepPos <= sweepMin) {
-            sweepStep = sweepStep * -1;
-          }
-
-          sweepPos += sweepStep;
-          moveTo(sweepPos);
-          Thread.sleep(sweepDelay);
+        // if pos is too small or too big flip direction
+        if (sweepPos >= sweepMax || sweepPos <= sweepMin) {
+          sweepStep = sweepStep * -1;
         }
+
+        sweepPos += sweepStep;
+        MotionEngine.getInstance().write(getBatchKey(), this, move);
+        return sweepDelay;
       } catch (Exception e) {
         isSweeping = false;
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * disables the servo once it has been idle long enough - the disable goes
+   * out through the engine's writer of the controller
+   */
+  class AutoDisable extends MotionEngine.Job {
+
+    final Runnable disable = new Runnable() {
+      @Override
+      public void run() {
+        // a move after the job ran cancels it
+        if (!isCancelled() && !overrideAutoDisable && !isMoving()) {
+          disable();
+        }
+        synchronized (moveToBlocked) {
+          moveToBlocked.notify(); // Will wake up MoveToBlocked.wait()
+        }
       }
+    };
+
+    AutoDisable() {
+      super(controller);
     }
 
+    @Override
+    public long run() {
+      MotionEngine.getInstance().write(getBatchKey(), this, disable);
+      return -1;
+    }
   }
 
   private static final long serialVersionUID = 1L;
@@ -224,7 +255,7 @@ public class Servo extends Service implements ServoControl {
   // TODO - computer implemented speed control (non-sweep)
   boolean speedControlOnUC = false;
 
-  transient Thread sweeper = null;
+  transient MotionEngine.Job sweeper = null;
 
   /**
    * feedback of both incremental position and stops. would allow blocking
@@ -271,7 +302,7 @@ public class Servo extends Service implements ServoControl {
 
   private boolean overrideAutoDisable = false;
 
-  private transient Timer autoDisableTimer;
+  private transient MotionEngine.Job autoDisableJob;
   private int SensorPin = -1;
   private ArrayList<Integer> sensorValues = new ArrayList<Integer>();
   // stored values corresponding to min and max servo sensor feedback
@@ -516,9 +547,9 @@ public class Servo extends Service implements ServoControl {
 
     if (lastPos != pos) {
       // take care if servo will disable soon
-      if (autoDisableTimer != null) {
-        autoDisableTimer.cancel();
-        autoDisableTimer = null;
+      if (autoDisableJob != null) {
+        autoDisableJob.cancel();
+        autoDisableJob = null;
       }
       controller.servoMoveTo(this);
     }
@@ -573,22 +604,10 @@ public class Servo extends Service implements ServoControl {
         } else {
           disableDelay = defaultDisableDelayNoVelocity;
         }
-        if (autoDisableTimer != null) {
-          autoDisableTimer.cancel();
-          autoDisableTimer = null;
+        if (autoDisableJob != null) {
+          autoDisableJob.cancel();
         }
-        autoDisableTimer = new Timer();
-        autoDisableTimer.schedule(new TimerTask() {
-          @Override
-          public void run() {
-            if (!overrideAutoDisable && !isMoving()) {
-              disable();
-            }
-            synchronized (moveToBlocked) {
-              moveToBlocked.notify(); // Will wake up MoveToBlocked.wait()
-            }
-          }
-        }, (long) disableDelay);
+        autoDisableJob = MotionEngine.getInstance().schedule(new AutoDisable(), disableDelay);
       } else {
         synchronized (moveToBlocked) {
           moveToBlocked.notify(); // Will wake up MoveToBlocked.wait()
@@ -598,6 +617,14 @@ public class Servo extends Service implements ServoControl {
     broadcastState();
   }
 
+  /**
+   * @return jitter and missed deadline stats of the shared motion loop which
+   *         drives sweeps and auto disable for all servos
+   */
+  public MotionEngine.Stats getMotionStats() {
+    return MotionEngine.getInstance().getStats();
+  }
+
   public Double publishServoEvent(Double position) {
     return position;
   }
@@ -610,6 +637,13 @@ public class Servo extends Service implements ServoControl {
   @Override
   public void releaseService() {
     // disable();
+    isSweeping = false;
+    if (sweeper != null) {
+      sweeper.cancel();
+    }
+    if (autoDisableJob != null) {
+      autoDisableJob.cancel();
+    }
     detachServoController(controller);
     super.releaseService();
   }
@@ -708,7 +742,10 @@ public class Servo extends Service implements ServoControl {
   @Override
   public void stop() {
     isSweeping = false;
-    sweeper = null;
+    if (sweeper != null) {
+      sweeper.cancel();
+      sweeper = null;
+    }
     controller.servoSweepStop(this);
     broadcastState();
   }
@@ -749,8 +786,8 @@ public class Servo extends Service implements ServoControl {
         stop();
       }
 
-      sweeper = new Sweeper(getName());
-      sweeper.start();
+      isSweeping = true;
+      sweeper = MotionEngine.getInstance().schedule(new Sweeper(), 0);
     }
 
     isSweeping = true;
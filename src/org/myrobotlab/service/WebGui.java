@@ -11,10 +11,13 @@ import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -30,6 +33,8 @@ import javax.servlet.http.HttpSession;
 import org.atmosphere.cpr.ApplicationConfig;
 import org.atmosphere.cpr.AtmosphereRequest;
 import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceEvent;
+import org.atmosphere.cpr.AtmosphereResourceEventListenerAdapter;
 import org.atmosphere.cpr.AtmosphereResponse;
 import org.atmosphere.cpr.Broadcaster;
 import org.atmosphere.cpr.BroadcasterFactory;
@@ -57,6 +62,7 @@ import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.net.BareBonesBrowserLaunch;
 import org.myrobotlab.net.Connection;
+import org.myrobotlab.net.TopicRouter;
 //import org.myrobotlab.service.WebGUI3.Error;
 import org.myrobotlab.service.interfaces.AuthorizationProvider;
 import org.myrobotlab.service.interfaces.Gateway;
@@ -264,6 +270,17 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
 
   transient LiveVideoStreamHandler stream = new LiveVideoStreamHandler();
 
+  /**
+   * suspended /api/messages connections by uuid - the clients broadcasts are
+   * routed to
+   */
+  transient final ConcurrentHashMap<String, AtmosphereResource> clients = new ConcurrentHashMap<String, AtmosphereResource>();
+
+  /**
+   * per client topic subscriptions and rate limits
+   */
+  transient TopicRouter router;
+
   public WebGui(String n) {
     super(n);
     api = ApiFactory.getInstance(this);
@@ -276,6 +293,25 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
     } else {
       panels = desktops.get(currentDesktop);
     }
+    router = new TopicRouter(new TopicRouter.Encoder() {
+      @Override
+      public Object encode(Message msg, String mimeType) throws Exception {
+        if (mimeType == null) {
+          // text frames - straight to the String, no byte[] round trip
+          return CodecJson.encode(msg);
+        }
+        // binary codecs go out as binary frames
+        Codec codec = CodecFactory.getCodec(mimeType);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        codec.encode(bos, msg);
+        return bos.toByteArray();
+      }
+    }, new TopicRouter.Sink() {
+      @Override
+      public void send(List<String> clientIds, Object payload, boolean everyone) {
+        sendToClients(clientIds, payload, everyone);
+      }
+    });
     String name = Runtime.getRuntimeName();
     subscribe(name, "registered");
     // FIXME - "unregistered" / "released"
@@ -302,18 +338,141 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
 
   // ================ AuthorizationProvider begin ===========================
 
+  /**
+   * to every client which subscribed to the message's topic - encoded once
+   */
   public void broadcast(Message msg) {
-    try {
-      if (broadcaster != null) {
-        Codec codec = CodecFactory.getCodec(CodecUtils.MIME_TYPE_JSON);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        codec.encode(bos, msg);
-        bos.close();
-        broadcaster.broadcast(new String(bos.toByteArray())); // wtf
+    if (broadcaster != null) {
+      router.broadcast(msg);
+    }
+  }
+
+  /**
+   * TopicRouter's sink - one Atmosphere broadcast of the shared payload to the
+   * clients' resources. Clients which went away are dropped.
+   */
+  void sendToClients(List<String> clientIds, Object payload, boolean everyone) {
+    Broadcaster b = broadcaster;
+    if (b == null) {
+      return;
+    }
+    if (everyone) {
+      b.broadcast(payload);
+      return;
+    }
+    Set<AtmosphereResource> resources = new HashSet<AtmosphereResource>();
+    for (String id : clientIds) {
+      AtmosphereResource r = clients.get(id);
+      if (r == null || r.isCancelled()) {
+        removeClient(id);
+      } else {
+        resources.add(r);
       }
-    } catch (Exception e) {
-      Logging.logError(e);
     }
+    if (resources.size() > 0) {
+      b.broadcast(payload, resources);
+    }
+  }
+
+  void addClient(final AtmosphereResource r) {
+    final String id = r.uuid();
+    if (clients.putIfAbsent(id, r) != null) {
+      return;
+    }
+    String mimeType = getMimeType(r);
+    if (CodecUtils.MIME_TYPE_JSON.equals(mimeType)) {
+      router.addClient(id);
+    } else {
+      r.forceBinaryWrite(true);
+      router.addClient(id, mimeType);
+    }
+    r.addEventListener(new AtmosphereResourceEventListenerAdapter() {
+      @Override
+      public void onDisconnect(AtmosphereResourceEvent event) {
+        removeClient(id);
+      }
+    });
+    // topics can be given when connecting - /api/messages?topics=servo01.*,*.publishState
+    String topics = r.getRequest().getParameter("topics");
+    if (topics != null) {
+      for (String topic : topics.split(",")) {
+        if (topic.trim().length() > 0) {
+          router.subscribe(id, topic.trim());
+        }
+      }
+    }
+  }
+
+  /**
+   * the codec a connection asked for - /api/messages?codec=cbor or its Accept
+   * header - json by default
+   */
+  static String getMimeType(AtmosphereResource r) {
+    String codec = r.getRequest().getParameter("codec");
+    if (codec == null) {
+      codec = r.getRequest().getHeader("Accept");
+    }
+    return CodecFactory.getMimeType(codec);
+  }
+
+  void removeClient(String id) {
+    clients.remove(id);
+    router.removeClient(id);
+  }
+
+  /**
+   * client only gets the topics it subscribed to from now on - a client
+   * without subscriptions gets everything
+   * 
+   * @param uuid
+   *          the client's Atmosphere uuid
+   * @param topic
+   *          {service}.{method} e.g. servo01.publishServoEvent - either can be
+   *          *
+   */
+  public void subscribeClient(String uuid, String topic) {
+    router.subscribe(uuid, topic);
+  }
+
+  /**
+   * @param maxPerSecond
+   *          most messages of the topic per second for this client - the
+   *          latest wins
+   */
+  public void subscribeClient(String uuid, String topic, Double maxPerSecond) {
+    router.subscribe(uuid, topic, maxPerSecond);
+  }
+
+  public void unsubscribeClient(String uuid, String topic) {
+    router.unsubscribe(uuid, topic);
+  }
+
+  /**
+   * back to everything - unthrottled
+   */
+  public void resetClient(String uuid) {
+    router.reset(uuid);
+  }
+
+  /**
+   * most messages of a topic per second for every client - faster messages
+   * are conflated, the latest wins
+   * 
+   * @param topic
+   *          {service}.{method} - either can be *
+   * @param maxPerSecond
+   *          0 is unlimited
+   */
+  public void setTopicRate(String topic, Double maxPerSecond) {
+    router.setRate(topic, maxPerSecond);
+  }
+
+  /**
+   * @return per client sent, filtered and dropped counts and backlog of
+   *         conflated messages
+   */
+  public List<TopicRouter.ClientStats> getClientStats() {
+    return router.getStats();
   }
 
   @Override
@@ -586,9 +745,21 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
       if (!r.isSuspended()) {
         r.suspend();
       }
-      response.addHeader("Content-Type", CodecUtils.MIME_TYPE_JSON);
-
-      api.process(this, out, r.getRequest().getRequestURI(), request.body().asString());
+      addClient(r);
+      String mimeType = getMimeType(r);
+      response.addHeader("Content-Type", mimeType);
+
+      if (CodecUtils.MIME_TYPE_JSON.equals(mimeType)) {
+        api.process(this, out, r.getRequest().getRequestURI(), request.body().asString());
+      } else {
+        // binary codec - frames come in as bytes
+        byte[] data = null;
+        if (request.body().hasBytes()) {
+          int offset = request.body().byteOffset();
+          data = Arrays.copyOfRange(request.body().asBytes(), offset, offset + request.body().byteLength());
+        }
+        api.process(this, out, r.getRequest().getRequestURI(), data, mimeType);
+      }
 
       /*
        * // FIXME - GET or POST should work - so this "should" be unnecessary ..
@@ -623,16 +794,13 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
     OutputStream out = response.getOutputStream();
     response.addHeader("Content-Type", CodecUtils.MIME_TYPE_JSON);
     
-    String hack = null;
-    byte[] data = null;
+    String data = null;
     if (request.body() != null) {
-      hack = request.body().asString();
-      // data = request.body().asBytes();
-      if (hack != null){ // FIXME - hack because request.body().asBytes() ALWAYS returns null !!
-        data = hack.getBytes();
-      }
+      // FIXME - request.body().asBytes() ALWAYS returns null !!
+      data = request.body().asString();
     }
-    api.process(out, r.getRequest().getRequestURI(), data);
+    // the reply is streamed to out
+    api.process(this, out, r.getRequest().getRequestURI(), data);
   }
 
   public void handleSession(AtmosphereResource r) {
@@ -688,16 +856,8 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
    * 
    */
   public void onLogEvent(Message msg) {
-    try {
-      if (broadcaster != null) {
-        Codec codec = CodecFactory.getCodec(CodecUtils.MIME_TYPE_JSON);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        codec.encode(bos, msg);
-        bos.close();
-        broadcaster.broadcast(new String(bos.toByteArray())); // wtf
-      }
-    } catch (Exception e) {
-      System.out.print(e.getMessage());
+    if (broadcaster != null) {
+      router.broadcast(msg);
     }
   }
 
@@ -0,0 +1,146 @@
+package org.myrobotlab.service.data;
+
+import java.util.ArrayList;
+
+/**
+ * Pin samples of one or more polls in parallel primitive arrays - the
+ * allocation free alternative to PinData[]. sample i is address[i], value[i]
+ * read at ts[i] (ms).
+ *
+ * Buffers come from a pool and are only valid for the duration of
+ * PinArrayListener.onPinSamples - a listener which hands the buffer to another
+ * thread calls retain() and then release() when it is done with it.
+ */
+public class PinSamples {
+
+  public int size = 0;
+  public final int[] address;
+  public final int[] value;
+  public final long[] ts;
+
+  final Pool pool;
+  int refs = 0;
+
+  /**
+   * a pool of equally sized buffers
+   */
+  public static class Pool {
+    final int capacity;
+    final ArrayList<PinSamples> free = new ArrayList<PinSamples>();
+    final int maxFree;
+
+    // stats
+    long acquired = 0;
+    long created = 0;
+
+    public Pool(int capacity, int maxFree) {
+      this.capacity = capacity;
+      this.maxFree = maxFree;
+    }
+
+    /**
+     * @return an empty buffer - released by the caller when published
+     */
+    public synchronized PinSamples acquire() {
+      ++acquired;
+      PinSamples samples;
+      if (free.size() > 0) {
+        samples = free.remove(free.size() - 1);
+      } else {
+        ++created;
+        samples = new PinSamples(capacity, this);
+      }
+      samples.size = 0;
+      samples.refs = 1;
+      return samples;
+    }
+
+    synchronized void recycle(PinSamples samples) {
+      if (free.size() < maxFree) {
+        free.add(samples);
+      }
+    }
+
+    /**
+     * @return buffers created - stops growing once the pool is warm
+     */
+    public synchronized long getCreated() {
+      return created;
+    }
+
+    public synchronized long getAcquired() {
+      return acquired;
+    }
+  }
+
+  public PinSamples(int capacity) {
+    this(capacity, null);
+  }
+
+  PinSamples(int capacity, Pool pool) {
+    address = new int[capacity];
+    value = new int[capacity];
+    ts = new long[capacity];
+    this.pool = pool;
+  }
+
+  public int capacity() {
+    return address.length;
+  }
+
+  public boolean isFull() {
+    return size == address.length;
+  }
+
+  public void add(int address, int value, long ts) {
+    this.address[size] = address;
+    this.value[size] = value;
+    this.ts[size] = ts;
+    ++size;
+  }
+
+  /**
+   * keep the buffer after onPinSamples returns
+   */
+  public synchronized void retain() {
+    ++refs;
+  }
+
+  /**
+   * done with the buffer - it goes back to the pool when nobody holds it
+   */
+  public void release() {
+    synchronized (this) {
+      if (--refs > 0) {
+        return;
+      }
+    }
+    if (pool != null) {
+      pool.recycle(this);
+    }
+  }
+
+  /**
+   * for listeners which still take PinData
+   */
+  public PinData[] toPinData() {
+    PinData[] pinData = new PinData[size];
+    for (int i = 0; i < size; ++i) {
+      pinData[i] = new PinData(address[i], value[i]);
+    }
+    return pinData;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; ++i) {
+      if (i > 0) {
+        sb.append(" ");
+      }
+      sb.append(address[i]).append("=").append(value[i]);
+    }
+    return sb.toString();
+  }
+
+}
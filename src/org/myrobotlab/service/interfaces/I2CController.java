@@ -1,6 +1,7 @@
 package org.myrobotlab.service.interfaces;
 
 import org.myrobotlab.framework.interfaces.Attachable;
+import org.myrobotlab.i2c.I2CRead;
 
 /*
  * This interface is based on the methods for i2c read and write in the Pi4J project
@@ -57,5 +58,54 @@ public interface I2CController extends Attachable {
 	 *           thrown in case byte cannot be read from the i2c device or i2c bus
 	 */
 	int i2cWriteRead(I2CControl control, int busAddress, int deviceAddress, byte[] writeBuffer, int writeSize, byte[] readBuffer, int readSize);	
+
+	/**
+	 * Reads a block of registers - or a data register the device streams from,
+	 * like a FIFO - as a single transaction where the controller can, otherwise
+	 * as a burst of pipelined reads.
+	 * 
+	 * The default is one register write followed by a read of size bytes.
+	 * 
+	 * @param control c
+	 * @param busAddress bus address
+	 * @param deviceAddress device address
+	 * @param register
+	 *          first register to read
+	 * @param increment
+	 *          true if the device moves to the next register after each byte,
+	 *          false if every byte comes from the same register (FIFO)
+	 * @param buffer
+	 *          buffer the data is read into
+	 * @param size
+	 *          number of bytes to read
+	 * @return number of bytes read - -1 on failure
+	 */
+	default int i2cReadBurst(I2CControl control, int busAddress, int deviceAddress, int register, boolean increment, byte[] buffer, int size) {
+		return i2cWriteRead(control, busAddress, deviceAddress, new byte[] { (byte) register }, 1, buffer, size);
+	}
+
+	/**
+	 * Queues reads without waiting for their data. Each read is completed when
+	 * its data comes back - a sensor can send a burst of register reads and wait
+	 * for all of them with I2CRead.waitForAll in about one round trip.
+	 * 
+	 * The default does each read synchronously, so every handle is complete on
+	 * return.
+	 * 
+	 * @param control c
+	 * @param reads
+	 *          the reads, sent in order
+	 */
+	default void i2cReadAsync(I2CControl control, I2CRead... reads) {
+		for (I2CRead read : reads) {
+			int count;
+			if (read.writeSize > 0) {
+				count = i2cWriteRead(control, read.busAddress, read.deviceAddress, read.writeBuffer, read.writeSize, read.readBuffer, read.readSize);
+			} else {
+				count = i2cRead(control, read.busAddress, read.deviceAddress, read.readBuffer, read.readSize);
+			}
+			read.complete(count);
+		}
+	}
 	
 }
\ No newline at end of file
@@ -1,8 +1,21 @@
 package org.myrobotlab.service.interfaces;
 
 import org.myrobotlab.service.data.PinData;
+import org.myrobotlab.service.data.PinSamples;
 
 public interface PinArrayListener extends Listener {
 	
 	public void onPinArray(PinData[] pindata);
+
+	/**
+	 * Primitive alternative to onPinArray - controllers which decode into
+	 * PinSamples call this. Override it to avoid a PinData per pin. The samples
+	 * are only valid until it returns unless retained.
+	 * 
+	 * @param samples
+	 *          address, value and ts per sample
+	 */
+	default public void onPinSamples(PinSamples samples) {
+		onPinArray(samples.toPinData());
+	}
 }
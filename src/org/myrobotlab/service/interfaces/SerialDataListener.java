@@ -32,6 +32,26 @@ import org.myrobotlab.framework.interfaces.NameProvider;
 public interface SerialDataListener extends NameProvider, QueueReporter, PortListener {
 
   // FIXME - Integer object because no method cache
-  // FIXME - byte[] onBytes(byte[] bytes)
   public Integer onByte(Integer b) throws IOException;
+
+  /**
+   * block receive - called by the port's reading thread with everything it
+   * got in one read. The buffer is reused by the port after this returns, so
+   * listeners must copy anything they want to keep. Listeners which only
+   * implement onByte get the bytes one at a time.
+   * 
+   * @param bytes
+   *          receive buffer
+   * @param off
+   *          offset of the first new byte
+   * @param len
+   *          number of new bytes
+   * @throws IOException
+   *           e
+   */
+  default public void onBytes(byte[] bytes, int off, int len) throws IOException {
+    for (int i = off; i < off + len; ++i) {
+      onByte(bytes[i] & 0xff);
+    }
+  }
 }
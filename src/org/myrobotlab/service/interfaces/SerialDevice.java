@@ -1,6 +1,7 @@
 package org.myrobotlab.service.interfaces;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.myrobotlab.framework.interfaces.Attachable;
 
@@ -27,6 +28,14 @@ public interface SerialDevice extends PortPublisher, Attachable {
 	// write(byte[] b) IOException
 	void write(byte[] data) throws Exception;
 
+	/**
+	 * write part of a buffer - devices which can send a block in one call
+	 * override this so a caller can reuse one buffer for every message
+	 */
+	default void write(byte[] data, int off, int len) throws Exception {
+		write(Arrays.copyOfRange(data, off, off + len));
+	}
+
 	void write(int data) throws Exception;
 	
 	void write(String data) throws Exception;
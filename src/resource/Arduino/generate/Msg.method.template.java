@@ -1,19 +1,20 @@
-
-	public synchronized void %name%(%javaMethodParameters%) {
-		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
-			write(MAGIC_NUMBER);
-			write(%javaWriteMsgSize%); // size
+	public void %name%(%javaMethodParameters%) {
+		// waits for room in the ack window before taking the encoder
+		awaitWindow();
+		synchronized (this) {
+			try {
+				if (commandQueue != null) {
+					// anything queued before this goes first
+					commandQueue.barrier();
+				}
+				txFrameSize = 0;
+				write(MAGIC_NUMBER);
+				write(%javaWriteMsgSize%); // size
 %javaWrite% 
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+				sendFrame();
 %javaSendRecord%
-	  } catch (Exception e) {
-	  			log.error("%name% threw",e);
-	  }
+			} catch (Exception e) {
+				log.error("%name% threw", e);
+			}
+		}
 	}
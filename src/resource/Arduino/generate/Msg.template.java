@@ -3,8 +3,7 @@ package org.myrobotlab.arduino;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import org.myrobotlab.logging.Level;
@@ -62,9 +61,22 @@ import org.slf4j.Logger;
 public class %javaClass% {
 
 	public static final int MAX_MSG_SIZE = 64;
+	public static final int MAX_BATCH_SIZE = 256;
 	public static final int MAGIC_NUMBER = 170; // 10101010
 	public static final int MRLCOMM_VERSION = %MRLCOMM_VERSION%;
 	
+	// MrlComm reads floats in AVR (little endian) byte order but writes
+	// them most significant byte first - true if this is the MrlComm side
+	static final boolean MRLCOMM_SIDE = %mrlCommSide%;
+	
+	// send frame - a whole message is assembled here and handed to the
+	// serial device in a single write
+	transient byte[] txFrame = new byte[MAX_MSG_SIZE + 2];
+	int txFrameSize = 0;
+	
+	// decode scratch for str parameters
+	transient byte[] strBuffer = new byte[MAX_MSG_SIZE];
+	
 	// send buffer
   int sendBufferSize = 0;
   int sendBuffer[] = new int[MAX_MSG_SIZE];
@@ -82,16 +94,49 @@ public class %javaClass% {
 	
 	boolean ackEnabled = %ackEnabled%;
 	
-	 public static class AckLock {
-	    // first is always true - since there
-	    // is no msg to be acknowledged...
-	    volatile boolean acknowledged = true;
-	  }
-	 
-	transient AckLock ackRecievedLock = new AckLock();
+	// batch - between beginBatch() and endBatch() frames are collected
+	// and written to the serial device together
+	transient byte[] batch = new byte[MAX_BATCH_SIZE];
+	int batchSize = 0;
+	boolean batching = false;
+	
+	// every frame is written through here
+	transient AckWindow.Transmitter transmitter = new AckWindow.Transmitter() {
+		@Override
+		public void transmit(byte[] frame, int off, int len) throws Exception {
+			synchronized (batch) {
+				if (!batching) {
+					serial.write(frame, off, len);
+					return;
+				}
+				if (batchSize + len > batch.length) {
+					flush();
+				}
+				System.arraycopy(frame, off, batch, batchSize, len);
+				batchSize += len;
+			}
+		}
+
+		@Override
+		public void flush() throws Exception {
+			synchronized (batch) {
+				if (batchSize > 0) {
+					serial.write(batch, 0, batchSize);
+					batchSize = 0;
+				}
+			}
+		}
+	};
+	
+	// frames sent but not yet acknowledged - senders only block when
+	// the window is full
+	transient AckWindow ackWindow = new AckWindow(transmitter);
+	
+	// coalesces high rate servo and pwm writes - null if not in use
+	transient CommandQueue commandQueue = null;
 	
 	// recording related
-	transient FileOutputStream record = null;
+	transient OutputStream record = null;
 	transient StringBuilder rxBuffer = new StringBuilder();
 	transient StringBuilder txBuffer = new StringBuilder();	
 
@@ -173,11 +218,10 @@ public class %javaClass% {
 	}
 
 	public String str(int[] buffer, int start, int size) {
-		byte[] b = new byte[size];
 		for (int i = start; i < start + size; ++i){
-			b[i - start] = (byte)(buffer[i] & 0xFF);
+			strBuffer[i - start] = (byte)(buffer[i] & 0xFF);
 		}
-		return new String(b);
+		return new String(strBuffer, 0, size);
 	}
 
 	public int[] subArray(int[] buffer, int start, int size) {		
@@ -209,12 +253,10 @@ public class %javaClass% {
 
   // float 32 bit bucket
   public float f32(int[] buffer, int start/*=0*/) {
-    byte[] b = new byte[4];
-    for (int i = 0; i < 4; ++i){
-      b[i] = (byte)buffer[start + i];
+    if (MRLCOMM_SIDE) {
+      return Float.intBitsToFloat((buffer[start + 3] << 24) + (buffer[start + 2] << 16) + (buffer[start + 1] << 8) + buffer[start]);
     }
-    float f = ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN).getFloat();
-    return f;
+    return Float.intBitsToFloat(b32(buffer, start));
   }
   
   public boolean readMsg() throws Exception {
@@ -275,15 +317,15 @@ public class %javaClass% {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
-		serial.write(b8 & 0xFF);
+		if (txFrameSize == txFrame.length) {
+			throw new IOException(String.format("message larger than %d bytes", MAX_MSG_SIZE));
+		}
+
+		txFrame[txFrameSize++] = (byte) b8;
 	}
 
 	void writebool(boolean b1) throws Exception {
-		if (b1) {
-			serial.write(1);
-		} else {
-			serial.write(0);
-		}
+		write((b1) ? 1 : 0);
 	}
 
 	void writeb16(int b16) throws Exception {
@@ -303,12 +345,15 @@ public class %javaClass% {
 	}
 	
 	void writef32(float f32) throws Exception {
-    //  int x = Float.floatToIntBits(f32);
-    byte[] f = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putFloat(f32).array();
-    write(f[3] & 0xFF);
-    write(f[2] & 0xFF);
-    write(f[1] & 0xFF);
-    write(f[0] & 0xFF);
+    int x = Float.floatToIntBits(f32);
+    if (MRLCOMM_SIDE) {
+      writeb32(x);
+      return;
+    }
+    write(x & 0xFF);
+    write(x >> 8 & 0xFF);
+    write(x >> 16 & 0xFF);
+    write(x >> 24 & 0xFF);
 	}
 	
 	void writebu32(long b32) throws Exception {
@@ -338,9 +383,69 @@ public class %javaClass% {
 
 		// write data
 		for (int i = 0; i < array.length; ++i) {
-			write(array[i]);
+			write(array[i] & 0xFF);
+		}
+	}
+
+	/**
+	 * waits until the ack window has room for another frame - called before
+	 * the encoder is taken, so a full window never holds up the thread
+	 * delivering acks. A caller already holding the encoder (a batch of
+	 * the CommandQueue) doesn't wait - its frames are queued in the window.
+	 */
+	void awaitWindow() {
+		if (!ackEnabled || Thread.holdsLock(this)) {
+			return;
+		}
+		try {
+			ackWindow.awaitRoom();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("awaitWindow threw", e);
+		}
+	}
+
+	/**
+	 * hands the assembled frame to the serial device in one write
+	 */
+	void sendFrame() throws Exception {
+		if (ackEnabled) {
+			ackWindow.send(txFrame, 0, txFrameSize);
+		} else {
+			transmitter.transmit(txFrame, 0, txFrameSize);
+		}
+		txFrameSize = 0;
+	}
+
+	/**
+	 * collect the frames of the following messages and write them
+	 * together at endBatch()
+	 */
+	public void beginBatch() {
+		synchronized (batch) {
+			batching = true;
+		}
+	}
+
+	public void endBatch() {
+		synchronized (batch) {
+			batching = false;
+			try {
+				transmitter.flush();
+			} catch (Exception e) {
+				log.error("endBatch threw", e);
+			}
 		}
 	}
+
+	public void setCommandQueue(CommandQueue queue) {
+		commandQueue = queue;
+	}
+
+	public CommandQueue getCommandQueue() {
+		return commandQueue;
+	}
 	
 	
 	public boolean isRecording() {
@@ -355,6 +460,14 @@ public class %javaClass% {
 		}
 	}
 
+	/**
+	 * record sent and received messages as text to a stream
+	 */
+	public void record(OutputStream out) {
+		stopRecording();
+		record = out;
+	}
+
 	public void stopRecording() {
 		if (record != null) {
 			try {
@@ -381,6 +494,7 @@ public class %javaClass% {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  ackWindow.clear();
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -389,31 +503,27 @@ public class %javaClass% {
 	  // }
 	}
 	
+	/**
+	 * blocks until everything in flight has been acknowledged
+	 */
 	public void waitForAck(){
-	  if (!ackEnabled || ackRecievedLock.acknowledged){
+	  if (!ackEnabled){
 	    return;
 	  }
-    synchronized (ackRecievedLock) {
-      try {
-        long ts = System.currentTimeMillis();
-        // log.info("***** starting wait *****");
-        ackRecievedLock.wait(2000);
-        // log.info("*****  waited {} ms *****", (System.currentTimeMillis() - ts));
-      } catch (InterruptedException e) {// don't care}
-      }
-
-      if (!ackRecievedLock.acknowledged) {
-        //log.error("Ack not received : {} {}", Msg.methodToString(ioCmd[0]), numAck);
-        log.error("Ack not received");
-      }
-    }
+	  try {
+	    if (!ackWindow.drain(2000)) {
+	      log.error("Ack not received");
+	    }
+	  } catch (InterruptedException e) {// don't care}
+	  }
 	}
 	
 	public void ackReceived(int function){
-	   synchronized (ackRecievedLock) {
-	      ackRecievedLock.acknowledged = true;
-	      ackRecievedLock.notifyAll();
-	    }
+	  ackWindow.ack(function);
+	}
+	
+	public AckWindow getAckWindow(){
+	  return ackWindow;
 	}
 	
 	public int getMethod(){
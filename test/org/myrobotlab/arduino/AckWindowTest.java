@@ -0,0 +1,303 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.Arduino;
+import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.VirtualArduino;
+import org.slf4j.Logger;
+
+public class AckWindowTest {
+
+  public final static Logger log = LoggerFactory.getLogger(AckWindowTest.class);
+
+  /**
+   * keeps the method and first parameter of every frame transmitted
+   */
+  static class Wire implements AckWindow.Transmitter {
+    final List<String> frames = new ArrayList<String>();
+
+    @Override
+    public synchronized void transmit(byte[] frame, int off, int len) {
+      frames.add(String.format("%d/%d", frame[off + 2], (len > 3) ? frame[off + 3] : -1));
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+
+  static byte[] frame(int method, int deviceId) {
+    return new byte[] { (byte) Msg.MAGIC_NUMBER, 3, (byte) method, (byte) deviceId, 0 };
+  }
+
+  @Test
+  public void pipelined() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.setWindow(4);
+
+    // nothing acked yet - all 4 go out without blocking
+    for (int i = 0; i < 4; ++i) {
+      window.send(frame(i + 1, 0), 0, 5);
+    }
+    assertEquals(4, wire.frames.size());
+    assertEquals(4, window.getInFlight());
+    assertTrue(window.isFull(5));
+
+    window.ack(1);
+    window.ack(2);
+    assertEquals(2, window.getInFlight());
+    assertFalse(window.isFull(5));
+
+    AckWindow.Stats stats = window.getStats();
+    assertEquals(4, stats.sent);
+    assertEquals(2, stats.acked);
+    assertEquals(0, stats.retransmits);
+
+    // an ack for nothing in flight is ignored
+    window.ack(9);
+    assertEquals(1, window.getStats().strayAcks);
+    assertEquals(2, window.getInFlight());
+  }
+
+  @Test
+  public void byteLimit() throws Exception {
+    AckWindow window = new AckWindow(new Wire());
+    window.setWindow(16);
+    window.setMaxBytes(12);
+    window.send(frame(1, 0), 0, 5);
+    window.send(frame(2, 0), 0, 5);
+    // a third would be 15 bytes in flight
+    assertTrue(window.isFull(5));
+  }
+
+  @Test
+  public void lostFrameResent() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.send(frame(Msg.DIGITAL_WRITE, 3), 0, 5);
+    window.send(frame(Msg.ANALOG_WRITE, 3), 0, 5);
+
+    // MrlComm acked the second - the first was dropped. It is resent
+    // followed by the analogWrite for the same pin, so the pin ends up as it
+    // was last told
+    window.ack(Msg.ANALOG_WRITE);
+    assertEquals("[24/3, 23/3, 24/3, 23/3]", wire.frames.toString());
+    assertEquals(2, window.getStats().retransmits);
+    assertEquals(2, window.getInFlight());
+
+    window.ack(Msg.DIGITAL_WRITE);
+    window.ack(Msg.ANALOG_WRITE);
+    assertEquals(0, window.getInFlight());
+  }
+
+  /**
+   * a command which can't safely run twice is never replayed
+   */
+  @Test
+  public void notIdempotentNotResent() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.setTimeout(20);
+    window.send(frame(Msg.I2C_WRITE, 1), 0, 5);
+    window.send(frame(Msg.SERVO_ATTACH, 2), 0, 5);
+    window.send(frame(Msg.DIGITAL_WRITE, 3), 0, 5);
+
+    // the i2cWrite was dropped - given up on, not resent
+    window.ack(Msg.SERVO_ATTACH);
+    assertEquals(1, window.getStats().lost);
+    assertEquals(1, window.getInFlight());
+
+    // the ack for the digitalWrite is late - it times out and, being
+    // idempotent, is the only frame resent
+    long deadline = System.currentTimeMillis() + 2000;
+    while (window.getStats().retransmits < 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals("[17/1, 32/2, 24/3, 24/3]", wire.frames.toString());
+    window.clear();
+  }
+
+  @Test
+  public void supersededNotResent() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    int move = Msg.SERVO_MOVE_TO_MICROSECONDS;
+    // two moves for servo 3 then one for servo 4
+    window.send(frame(move, 3), 0, 5);
+    window.send(frame(move, 3), 0, 5);
+    window.send(frame(move, 4), 0, 5);
+    window.send(frame(7, 0), 0, 5);
+
+    // everything before the ack for 7 was lost - the old move for servo 3
+    // must not overtake the new one
+    window.ack(7);
+    assertEquals("[38/3, 38/3, 38/4, 7/0, 38/3, 38/4]", wire.frames.toString());
+    AckWindow.Stats stats = window.getStats();
+    assertEquals(1, stats.superseded);
+    assertEquals(2, stats.retransmits);
+  }
+
+  /**
+   * a lost velocity resent on its own would run after the move sent behind it
+   * - the move goes out again after it
+   */
+  @Test
+  public void deviceOrderKept() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.setWindow(3);
+    window.send(frame(Msg.SERVO_SET_VELOCITY, 3), 0, 5);
+    window.send(frame(Msg.SERVO_MOVE_TO_MICROSECONDS, 3), 0, 5);
+    window.send(frame(Msg.SERVO_MOVE_TO_MICROSECONDS, 4), 0, 5);
+    // queued behind the window
+    window.send(frame(Msg.SERVO_MOVE_TO_MICROSECONDS, 3), 0, 5);
+
+    // the velocity was dropped - the newest move for servo 3 follows it
+    window.ack(Msg.SERVO_MOVE_TO_MICROSECONDS);
+    window.ack(Msg.SERVO_MOVE_TO_MICROSECONDS);
+    window.ack(Msg.SERVO_MOVE_TO_MICROSECONDS);
+    assertEquals("[35/3, 38/3, 38/4, 38/3, 35/3, 38/3]", wire.frames.toString());
+    window.ack(Msg.SERVO_SET_VELOCITY);
+    window.ack(Msg.SERVO_MOVE_TO_MICROSECONDS);
+    assertTrue(window.drain(0));
+
+    // a newer command for the device which can't be resent - the lost frame
+    // is given up on rather than run after it
+    wire.frames.clear();
+    window.send(frame(Msg.SERVO_SET_VELOCITY, 5), 0, 5);
+    window.send(frame(Msg.SERVO_DETACH_PIN, 5), 0, 5);
+    long lost = window.getStats().lost;
+    window.ack(Msg.SERVO_DETACH_PIN);
+    assertEquals("[35/5, 34/5]", wire.frames.toString());
+    assertEquals(lost + 1, window.getStats().lost);
+    assertTrue(window.drain(0));
+  }
+
+  @Test
+  public void timeoutResent() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.setTimeout(20);
+    window.setMaxRetries(1);
+    window.send(frame(Msg.DIGITAL_WRITE, 0), 0, 5);
+    window.send(frame(Msg.ANALOG_WRITE, 0), 0, 5);
+
+    long deadline = System.currentTimeMillis() + 2000;
+    while (window.getStats().lost < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // sent once, resent once in order, then given up
+    assertEquals("[24/0, 23/0, 24/0, 23/0]", wire.frames.toString());
+    AckWindow.Stats stats = window.getStats();
+    assertEquals(2, stats.retransmits);
+    assertEquals(2, stats.lost);
+    assertEquals(0, window.getInFlight());
+  }
+
+  /**
+   * send() never blocks and never puts more than the window on the wire -
+   * what doesn't fit goes out as acks make room
+   */
+  @Test
+  public void queuedBehindWindow() throws Exception {
+    Wire wire = new Wire();
+    AckWindow window = new AckWindow(wire);
+    window.setWindow(2);
+    for (int i = 0; i < 5; ++i) {
+      window.send(frame(Msg.DIGITAL_WRITE, i), 0, 5);
+    }
+    assertEquals(2, wire.frames.size());
+    assertEquals(2, window.getInFlight());
+    assertEquals(3, window.getQueued());
+    window.ack(Msg.DIGITAL_WRITE);
+    assertEquals("[24/0, 24/1, 24/2]", wire.frames.toString());
+    for (int i = 0; i < 4; ++i) {
+      window.ack(Msg.DIGITAL_WRITE);
+    }
+    assertEquals(5, wire.frames.size());
+    assertEquals(0, window.getInFlight());
+    assertTrue(window.drain(0));
+
+    // beyond what the window can hold frames are dropped, not written over
+    window.setWindow(1);
+    for (int i = 0; i < AckWindow.MAX_FRAMES + 3; ++i) {
+      window.send(frame(Msg.DIGITAL_WRITE, i), 0, 5);
+    }
+    assertEquals(1, window.getInFlight());
+    assertEquals(AckWindow.MAX_FRAMES - 1, window.getQueued());
+    assertEquals(3, window.getStats().lost);
+  }
+
+  @Test
+  public void blockedSenderReleasedByAck() throws Exception {
+    final AckWindow window = new AckWindow(new Wire());
+    window.setWindow(1);
+    window.send(frame(1, 0), 0, 5);
+
+    Thread acker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+        }
+        window.ack(1);
+      }
+    };
+    acker.start();
+    long ts = System.currentTimeMillis();
+    window.awaitRoom();
+    long waited = System.currentTimeMillis() - ts;
+    assertTrue(waited >= 40 && waited < 1000);
+    window.send(frame(2, 0), 0, 5);
+    assertEquals(1, window.getInFlight());
+
+    // the thread acks come in on never waits
+    window.ackThread = Thread.currentThread();
+    ts = System.currentTimeMillis();
+    window.awaitRoom();
+    assertTrue(System.currentTimeMillis() - ts < 40);
+  }
+
+  /**
+   * commands/s to the virtual Arduino for different window sizes
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("WARN");
+      String port = "ackBenchmarkPort";
+      VirtualArduino virtual = (VirtualArduino) Runtime.start("virtual", "VirtualArduino");
+      virtual.connect(port);
+      Arduino arduino = (Arduino) Runtime.start("arduino", "Arduino");
+      arduino.connect(port);
+      int count = 5000;
+      for (int window : new int[] { 1, 2, 4, 8, 16 }) {
+        arduino.setAckWindow(window);
+        long ts = System.currentTimeMillis();
+        for (int i = 0; i < count; ++i) {
+          arduino.digitalWrite(13, i & 1);
+        }
+        while (arduino.getAckStats().inFlight > 0) {
+          Thread.sleep(1);
+        }
+        long delta = System.currentTimeMillis() - ts;
+        log.warn(String.format("window %d - %d commands in %d ms - %d commands/s", window, count, delta, count * 1000L / Math.max(delta, 1)));
+        log.warn(arduino.getAckStats().toString());
+      }
+      Runtime.shutdown();
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.Serial;
+import org.slf4j.Logger;
+
+public class CommandQueueTest {
+
+  public final static Logger log = LoggerFactory.getLogger(CommandQueueTest.class);
+
+  /**
+   * keeps every write instead of sending it
+   */
+  static class WriteCapture extends Serial {
+    private static final long serialVersionUID = 1L;
+
+    final List<byte[]> writes = new ArrayList<byte[]>();
+
+    public WriteCapture(String n) {
+      super(n);
+    }
+
+    @Override
+    public synchronized void write(byte[] data, int off, int len) {
+      writes.add(Arrays.copyOfRange(data, off, off + len));
+    }
+
+    synchronized int size() {
+      return writes.size();
+    }
+  }
+
+  WriteCapture serial;
+  Msg msg;
+  CommandQueue queue;
+
+  @Before
+  public void setUp() throws Exception {
+    serial = new WriteCapture("commandQueueTestSerial");
+    msg = new Msg(null, serial);
+    msg.enableAcks(false);
+    queue = new CommandQueue(msg);
+  }
+
+  /**
+   * method type of each frame in a write
+   */
+  static List<Integer> methods(byte[] write) {
+    List<Integer> methods = new ArrayList<Integer>();
+    for (int i = 0; i < write.length; i += write[i + 1] + 2) {
+      assertEquals(Msg.MAGIC_NUMBER, write[i] & 0xff);
+      methods.add((int) write[i + 2]);
+    }
+    return methods;
+  }
+
+  @Test
+  public void coalesce() throws Exception {
+    // long tick - flushed by hand
+    queue.setTick(60000);
+    for (int i = 0; i < 100; ++i) {
+      queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 1, 1000 + i);
+      queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 2, 2000 - i);
+    }
+    queue.add(Msg.SERVO_SET_VELOCITY, 1, 50);
+    assertEquals(0, serial.size());
+
+    queue.flush();
+    // every device in one write
+    assertEquals(1, serial.size());
+    byte[] write = serial.writes.get(0);
+    assertEquals(Arrays.asList(Msg.SERVO_MOVE_TO_MICROSECONDS, Msg.SERVO_MOVE_TO_MICROSECONDS, Msg.SERVO_SET_VELOCITY), methods(write));
+    // latest targets - b16 after magic, size, method and device id
+    assertEquals(1099, ((write[4] & 0xff) << 8) | (write[5] & 0xff));
+    assertEquals(1901, ((write[10] & 0xff) << 8) | (write[11] & 0xff));
+
+    CommandQueue.Stats stats = queue.getStats();
+    assertEquals(201, stats.queued);
+    assertEquals(3, stats.sent);
+    assertEquals(198, stats.coalesced);
+    assertEquals(0, stats.pending);
+    queue.stop();
+  }
+
+  /**
+   * a replaced command goes out after the commands queued before it - the
+   * latest move comes after the velocity it was meant to run at
+   */
+  @Test
+  public void deviceOrder() throws Exception {
+    queue.setTick(60000);
+    queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 1, 1000);
+    queue.add(Msg.SERVO_SET_VELOCITY, 1, 20);
+    queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 1, 2000);
+    queue.flush();
+    byte[] write = serial.writes.get(0);
+    assertEquals(Arrays.asList(Msg.SERVO_SET_VELOCITY, Msg.SERVO_MOVE_TO_MICROSECONDS), methods(write));
+    assertEquals(2000, ((write[10] & 0xff) << 8) | (write[11] & 0xff));
+    queue.stop();
+  }
+
+  @Test
+  public void barrierKeepsOrder() throws Exception {
+    queue.setTick(60000);
+    queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 1, 1500);
+    // not coalescable - the queued move must go out first
+    msg.servoDetachPin(1);
+    assertEquals(2, serial.size());
+    assertEquals(Arrays.asList(Msg.SERVO_MOVE_TO_MICROSECONDS), methods(serial.writes.get(0)));
+    assertEquals(Arrays.asList(Msg.SERVO_DETACH_PIN), methods(serial.writes.get(1)));
+    assertEquals(1, queue.getStats().barriers);
+    queue.stop();
+  }
+
+  @Test
+  public void ticks() throws Exception {
+    queue.setTick(5);
+    queue.add(Msg.ANALOG_WRITE, 3, 128);
+    long deadline = System.currentTimeMillis() + 2000;
+    while (serial.size() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, serial.size());
+    assertTrue(queue.getStats().ticks > 0);
+    queue.stop();
+  }
+
+  @Test
+  public void noTick() throws Exception {
+    queue.setTick(0);
+    queue.add(Msg.ANALOG_WRITE, 3, 128);
+    queue.add(Msg.ANALOG_WRITE, 3, 129);
+    assertEquals(2, serial.size());
+    assertEquals(0, queue.getStats().coalesced);
+  }
+
+  @Test
+  public void dropOnStop() throws Exception {
+    queue.setTick(60000);
+    queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 1, 1500);
+    queue.add(Msg.SERVO_MOVE_TO_MICROSECONDS, 2, 1500);
+    queue.stop();
+    assertEquals(2, queue.getStats().dropped);
+    assertEquals(0, serial.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void orderedCommandsNotQueued() {
+    queue.add(Msg.SERVO_DETACH_PIN, 1, 0);
+  }
+
+}
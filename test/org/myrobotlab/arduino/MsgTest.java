@@ -0,0 +1,168 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.Arduino;
+import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.Serial;
+import org.myrobotlab.service.VirtualArduino;
+import org.slf4j.Logger;
+
+/**
+ * Encodes every message in arduinoMsgs.schema with the generated encoder of
+ * the sending side (Msg for &gt; VirtualMsg for &lt;), decodes the frame with
+ * processCommand of the receiving side and compares what the two sides
+ * recorded.
+ */
+public class MsgTest {
+
+  public final static Logger log = LoggerFactory.getLogger(MsgTest.class);
+
+  static final String SCHEMA = "src/resource/Arduino/generate/arduinoMsgs.schema";
+
+  /**
+   * keeps every frame written instead of sending it
+   */
+  static class FrameCapture extends Serial {
+    private static final long serialVersionUID = 1L;
+
+    final List<byte[]> frames = new ArrayList<byte[]>();
+
+    public FrameCapture(String n) {
+      super(n);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) {
+      frames.add(Arrays.copyOfRange(data, off, off + len));
+    }
+  }
+
+  static Arduino arduino;
+  static VirtualArduino virtual;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    arduino = (Arduino) Runtime.start("msgTestArduino", "Arduino");
+    virtual = (VirtualArduino) Runtime.start("msgTestVirtual", "VirtualArduino");
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    Runtime.release("msgTestArduino");
+    Runtime.release("msgTestVirtual");
+  }
+
+  /**
+   * a value which uses the width of the schema type
+   */
+  static Object testValue(String param, int index) {
+    String[] typeAndName = param.split(" ");
+    String type = (typeAndName.length > 1) ? typeAndName[0] : "";
+    if (type.equals("bool")) {
+      return true;
+    } else if (type.equals("b16")) {
+      return -1234 - index;
+    } else if (type.equals("bu16")) {
+      return 60000 + index;
+    } else if (type.equals("b32")) {
+      return -123456 - index;
+    } else if (type.equals("bu32")) {
+      return 4000000000L + index;
+    } else if (type.equals("f32")) {
+      return 3.25f + index;
+    } else if (type.equals("str")) {
+      return "servo" + index;
+    } else if (type.equals("[]")) {
+      return new int[] { 0, 1, 127, 128, 255, index };
+    }
+    return 200 + index;
+  }
+
+  static Method getEncoder(Class<?> c, String name, int paramCount) {
+    for (Method m : c.getMethods()) {
+      if (m.getName().equals(name) && m.getParameterTypes().length == paramCount) {
+        return m;
+      }
+    }
+    throw new IllegalArgumentException(String.format("%s has no %s with %d parameters", c.getSimpleName(), name, paramCount));
+  }
+
+  @Test
+  public void roundTripEverySchemaMessage() throws Exception {
+    FrameCapture serial = new FrameCapture("msgTestSerial");
+    Msg msg = new Msg(arduino, serial);
+    msg.enableAcks(false);
+    VirtualMsg virtualMsg = new VirtualMsg(virtual.getMrlComm(), serial);
+
+    ByteArrayOutputStream msgRecord = new ByteArrayOutputStream();
+    ByteArrayOutputStream virtualRecord = new ByteArrayOutputStream();
+    msg.record(msgRecord);
+    virtualMsg.record(virtualRecord);
+
+    int count = 0;
+    BufferedReader br = new BufferedReader(new FileReader(SCHEMA));
+    String line;
+    while ((line = br.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.charAt(0) == '#') {
+        continue;
+      }
+      String[] parts = line.split("/");
+      boolean toMrlComm = parts[0].charAt(0) == '>';
+      String name = parts[0].substring(1).trim();
+      Object[] params = new Object[parts.length - 1];
+      for (int i = 0; i < params.length; ++i) {
+        params[i] = testValue(parts[i + 1], i);
+      }
+
+      Object encoder = (toMrlComm) ? msg : virtualMsg;
+      ByteArrayOutputStream sent = (toMrlComm) ? msgRecord : virtualRecord;
+      ByteArrayOutputStream received = (toMrlComm) ? virtualRecord : msgRecord;
+      serial.frames.clear();
+      sent.reset();
+      received.reset();
+
+      getEncoder(encoder.getClass(), name, params.length).invoke(encoder, params);
+
+      assertEquals(name + " written in one call", 1, serial.frames.size());
+      byte[] frame = serial.frames.get(0);
+      assertEquals(Msg.MAGIC_NUMBER, frame[0] & 0xff);
+      assertEquals(frame.length - 2, frame[1]);
+
+      int[] ioCmd = new int[frame.length - 2];
+      for (int i = 0; i < ioCmd.length; ++i) {
+        ioCmd[i] = frame[i + 2] & 0xff;
+      }
+      if (toMrlComm) {
+        virtualMsg.processCommand(ioCmd);
+      } else {
+        msg.processCommand(ioCmd);
+      }
+
+      // "> name/params" sent - "< name/params" received
+      String expected = sent.toString();
+      log.info(expected.trim());
+      assertTrue(expected.startsWith("> " + name));
+      assertEquals(expected.substring(1), received.toString().substring(1));
+      ++count;
+    }
+    br.close();
+
+    assertTrue(count > 0);
+  }
+
+}
@@ -0,0 +1,110 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.data.PinData;
+import org.myrobotlab.service.data.PinSamples;
+import org.slf4j.Logger;
+
+public class PinArrayDecoderTest {
+
+  public final static Logger log = LoggerFactory.getLogger(PinArrayDecoderTest.class);
+
+  /**
+   * publishPinArray data - address|value msb|value lsb per pin
+   */
+  static int[] pinArray(int... addressValue) {
+    int[] data = new int[addressValue.length / 2 * 3];
+    for (int i = 0; i < addressValue.length / 2; ++i) {
+      data[i * 3] = addressValue[i * 2];
+      data[i * 3 + 1] = addressValue[i * 2 + 1] >> 8;
+      data[i * 3 + 2] = addressValue[i * 2 + 1] & 0xff;
+    }
+    return data;
+  }
+
+  @Test
+  public void decode() {
+    PinArrayDecoder decoder = new PinArrayDecoder();
+    PinSamples samples = decoder.decode(pinArray(14, 1023, 15, 0, 16, 300), 1234);
+    assertEquals(3, samples.size);
+    assertEquals(14, samples.address[0]);
+    assertEquals(1023, samples.value[0]);
+    assertEquals(300, samples.value[2]);
+    assertEquals(1234, samples.ts[1]);
+
+    PinData[] pinData = samples.toPinData();
+    assertEquals(3, pinData.length);
+    assertEquals(16, (int) pinData[2].address);
+    assertEquals(300, (int) pinData[2].value);
+    samples.release();
+  }
+
+  @Test
+  public void deadband() {
+    PinArrayDecoder decoder = new PinArrayDecoder();
+    decoder.setDeadband(14, 5);
+
+    // first sample always passes
+    PinSamples samples = decoder.decode(pinArray(14, 500, 15, 500), 0);
+    assertEquals(2, samples.size);
+    samples.release();
+
+    // 14 moved less than its deadband - 15 has none
+    samples = decoder.decode(pinArray(14, 504, 15, 500), 0);
+    assertEquals(1, samples.size);
+    assertEquals(15, samples.address[0]);
+    samples.release();
+
+    // compared to the last value passed - drift adds up
+    samples = decoder.decode(pinArray(14, 505), 0);
+    assertEquals(1, samples.size);
+    samples.release();
+
+    // nothing passed - nothing acquired
+    assertNull(decoder.decode(pinArray(14, 506), 0));
+
+    PinArrayDecoder.Stats stats = decoder.getStats();
+    assertEquals(4, stats.arrays);
+    assertEquals(6, stats.samples);
+    assertEquals(2, stats.filtered);
+  }
+
+  @Test
+  public void pooled() {
+    PinArrayDecoder decoder = new PinArrayDecoder();
+    int[] data = pinArray(14, 1, 15, 2, 16, 3, 17, 4, 18, 5, 19, 6);
+    PinSamples first = decoder.decode(data, 0);
+    first.release();
+    for (int i = 0; i < 10000; ++i) {
+      PinSamples samples = decoder.decode(data, i);
+      assertSame(first, samples);
+      samples.release();
+    }
+    assertEquals(1, decoder.getStats().buffersCreated);
+  }
+
+  @Test
+  public void retained() {
+    PinArrayDecoder decoder = new PinArrayDecoder();
+    int[] data = pinArray(14, 1);
+    PinSamples kept = decoder.decode(data, 0);
+    // a listener keeps it past the callback
+    kept.retain();
+    kept.release();
+
+    PinSamples next = decoder.decode(data, 0);
+    assertNotSame(kept, next);
+    assertEquals(1, kept.value[0]);
+    next.release();
+
+    kept.release();
+    assertSame(kept, decoder.decode(data, 0));
+  }
+
+}
@@ -0,0 +1,160 @@
+package org.myrobotlab.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class InvocationCacheTest {
+
+  public final static Logger log = LoggerFactory.getLogger(InvocationCacheTest.class);
+
+  public static class Target {
+    public int count = 0;
+    public String last = null;
+
+    public void ping() {
+      ++count;
+    }
+
+    public int add(int a, int b) {
+      return a + b;
+    }
+
+    public double scale(double value) {
+      return value * 2;
+    }
+
+    public String name(String name) {
+      last = name;
+      return name;
+    }
+
+    public int size(List<?> list) {
+      return (list == null) ? -1 : list.size();
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Test
+  public void invoke() throws Throwable {
+    InvocationCache cache = InvocationCache.getInstance();
+    Target t = new Target();
+
+    // no params & void
+    InvocationCache.Entry entry = cache.getEntry(Target.class, "ping", null);
+    assertNull(entry.invoke(t, null));
+    assertEquals(1, t.count);
+    // same entry on the next call
+    assertSame(entry, cache.getEntry(Target.class, "ping", null));
+
+    // unboxing
+    Object[] params = new Object[] { 3, 4 };
+    assertEquals(7, cache.getEntry(Target.class, "add", params).invoke(t, params));
+
+    // unboxing with widening Integer -> double
+    params = new Object[] { 3 };
+    assertEquals(6.0, cache.getEntry(Target.class, "scale", params).invoke(t, params));
+
+    // upcasting ArrayList -> List
+    List<String> list = new ArrayList<String>();
+    list.add("a");
+    params = new Object[] { list };
+    assertEquals(1, cache.getEntry(Target.class, "size", params).invoke(t, params));
+
+    // null argument
+    params = new Object[] { null };
+    assertEquals(-1, cache.getEntry(Target.class, "size", params).invoke(t, params));
+  }
+
+  @Test
+  public void negative() {
+    InvocationCache cache = InvocationCache.getInstance();
+    Object[] params = new Object[] { "wrong" };
+    InvocationCache.Entry miss = cache.getEntry(Target.class, "add", params);
+    assertFalse(miss.isValid());
+    assertSame(miss, cache.getEntry(Target.class, "add", params));
+    assertFalse(cache.getEntry(Target.class, "noSuchMethod", null).isValid());
+  }
+
+  @Test
+  public void missesBounded() {
+    InvocationCache cache = InvocationCache.getInstance();
+    Object[] params = new Object[] { 1, 2 };
+    InvocationCache.Entry hit = cache.getEntry(Target.class, "add", params);
+    assertTrue(hit.isValid());
+    InvocationCache.Entry first = cache.getEntry(Target.class, "missing0", null);
+    for (int i = 1; i < InvocationCache.MAX_MISSES * 2; ++i) {
+      cache.getEntry(Target.class, "missing" + i, null);
+    }
+    // early misses are cleared - resolved entries survive
+    InvocationCache.Entry miss = cache.getEntry(Target.class, "missing0", null);
+    assertFalse(miss.isValid());
+    assertNotSame(first, miss);
+    assertSame(miss, cache.getEntry(Target.class, "missing0", null));
+    assertSame(hit, cache.getEntry(Target.class, "add", params));
+  }
+
+  @Test
+  public void compatible() {
+    assertTrue(InvocationCache.isCompatible(long.class, Integer.class));
+    assertFalse(InvocationCache.isCompatible(int.class, Long.class));
+    assertFalse(InvocationCache.isCompatible(int.class, null));
+    assertTrue(InvocationCache.isCompatible(Object.class, null));
+    assertTrue(InvocationCache.isCompatible(Number.class, Double.class));
+  }
+
+  /**
+   * invoke loop - the old Service.invokeOn path (getMethod + reflective
+   * invoke per call) against the cached handle
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      Target t = new Target();
+      InvocationCache cache = InvocationCache.getInstance();
+      int loops = 5000000;
+
+      for (int run = 0; run < 3; ++run) {
+        long start = System.nanoTime();
+        for (int i = 0; i < loops; ++i) {
+          Object[] params = new Object[] { "x" };
+          Class<?>[] paramTypes = new Class[params.length];
+          for (int j = 0; j < params.length; ++j) {
+            paramTypes[j] = params[j].getClass();
+          }
+          Method m = Target.class.getMethod("name", paramTypes);
+          m.invoke(t, params);
+        }
+        long reflect = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < loops; ++i) {
+          Object[] params = new Object[] { "x" };
+          cache.getEntry(Target.class, "name", params).invoke(t, params);
+        }
+        long cached = System.nanoTime() - start;
+        log.info(String.format("getMethod+invoke %d ns/call InvocationCache %d ns/call", reflect / loops, cached / loops));
+      }
+    } catch (Throwable e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+package org.myrobotlab.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class CodecCborTest {
+
+  public final static Logger log = LoggerFactory.getLogger(CodecCborTest.class);
+
+  static class Point {
+    int x;
+    double y;
+    String name;
+    float[] weights;
+  }
+
+  static byte[] encode(Codec codec, Object o) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    codec.encode(bos, o);
+    return bos.toByteArray();
+  }
+
+  static byte[] bytes(int... b) {
+    byte[] ret = new byte[b.length];
+    for (int i = 0; i < b.length; ++i) {
+      ret[i] = (byte) b[i];
+    }
+    return ret;
+  }
+
+  @Test
+  public void simpleValues() throws Exception {
+    CodecCbor codec = new CodecCbor();
+    assertArrayEquals(bytes(0x00), encode(codec, 0));
+    assertArrayEquals(bytes(0x17), encode(codec, 23));
+    assertArrayEquals(bytes(0x18, 0x18), encode(codec, 24));
+    assertArrayEquals(bytes(0x19, 0x01, 0xf4), encode(codec, 500));
+    assertArrayEquals(bytes(0x20), encode(codec, -1));
+    assertArrayEquals(bytes(0x38, 0x63), encode(codec, -100));
+    assertArrayEquals(bytes(0x1b, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00), encode(codec, 4294967296L));
+    assertArrayEquals(bytes(0xf5), encode(codec, true));
+    assertArrayEquals(bytes(0xf6), encode(codec, null));
+    assertArrayEquals(bytes(0x61, 'a'), encode(codec, "a"));
+    assertArrayEquals(bytes(0xfa, 0x3f, 0xc0, 0x00, 0x00), encode(codec, 1.5));
+    assertArrayEquals(bytes(0xfb, 0x3f, 0xb9, 0x99, 0x99, 0x99, 0x99, 0x99, 0x9a), encode(codec, 0.1));
+
+    assertEquals(-100L, CborReader.read(encode(codec, -100)));
+    assertEquals(1.5, CborReader.read(encode(codec, 1.5)));
+    assertEquals(0.1, CborReader.read(encode(codec, 0.1)));
+    // half precision
+    assertEquals(-4.0, CborReader.read(bytes(0xf9, 0xc4, 0x00)));
+  }
+
+  @Test
+  public void text() throws Exception {
+    CodecCbor codec = new CodecCbor();
+    String s = "h\u00e9llo \u2713 \ud83d\ude00";
+    byte[] encoded = encode(codec, s);
+    assertEquals(1 + s.getBytes("UTF-8").length, encoded.length);
+    assertEquals(s, CborReader.read(encoded));
+    // longer than the writer's buffer
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 3000; ++i) {
+      sb.append("\u00e9\u2713");
+    }
+    assertEquals(sb.toString(), codec.decode(encode(codec, sb.toString()), String.class));
+  }
+
+  @Test
+  public void typedArrays() throws Exception {
+    CodecCbor codec = new CodecCbor();
+    int[] ints = new int[] { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 1000 };
+    float[] floats = new float[] { 0.5f, -1.25f, Float.MAX_VALUE };
+    double[] doubles = new double[] { Math.PI, -0.1 };
+    long[] longs = new long[] { Long.MIN_VALUE, 1 };
+    short[] shorts = new short[] { -2, 300 };
+    byte[] image = new byte[20000];
+    for (int i = 0; i < image.length; ++i) {
+      image[i] = (byte) i;
+    }
+
+    byte[] encoded = encode(codec, ints);
+    // tag 74, byte string of 20 bytes, big endian
+    assertEquals(0xd8, encoded[0] & 0xff);
+    assertEquals(74, encoded[1]);
+    assertEquals(0x54, encoded[2]);
+    assertEquals(3 + 20, encoded.length);
+
+    Object[] decoded = codec.decodeArray(encode(codec, new Object[] { ints, floats, doubles, longs, shorts, image }));
+    assertArrayEquals(ints, (int[]) decoded[0]);
+    assertArrayEquals(floats, (float[]) decoded[1], 0);
+    assertArrayEquals(doubles, (double[]) decoded[2], 0);
+    assertArrayEquals(longs, (long[]) decoded[3]);
+    assertArrayEquals(shorts, (short[]) decoded[4]);
+    assertArrayEquals(image, (byte[]) decoded[5]);
+
+    // as its own type
+    assertArrayEquals(floats, (float[]) codec.decode(encode(codec, floats), float[].class), 0);
+    // a byte[] asked for as byte[] is the value
+    assertTrue(image == codec.decode(image, byte[].class));
+  }
+
+  @Test
+  public void pojo() throws Exception {
+    CodecCbor codec = new CodecCbor();
+    Point p = new Point();
+    p.x = 3;
+    p.y = 0.25;
+    p.name = "p1";
+    p.weights = new float[] { 1.5f, 2.5f };
+    byte[] encoded = encode(codec, p);
+
+    @SuppressWarnings("unchecked")
+    Map<Object, Object> map = (Map<Object, Object>) CborReader.read(encoded);
+    assertEquals(3L, map.get("x"));
+    assertTrue(map.get("weights") instanceof float[]);
+
+    Point p2 = (Point) codec.decode(encoded, Point.class);
+    assertEquals(3, p2.x);
+    assertEquals(0.25, p2.y, 0);
+    assertEquals("p1", p2.name);
+    assertArrayEquals(p.weights, p2.weights, 0);
+
+    // from a stream
+    p2 = (Point) codec.decode(new ByteArrayInputStream(encoded), Point.class);
+    assertEquals("p1", p2.name);
+  }
+
+  @Test
+  public void message() throws Exception {
+    CodecCbor codec = new CodecCbor();
+    Message msg = new Message();
+    msg.name = "servo01";
+    msg.sender = "webgui";
+    msg.method = "moveTo";
+    msg.data = new Object[] { 90, new int[] { 1, 2, 3 }, "fast", null };
+
+    Message decoded = (Message) codec.decode(encode(codec, msg), Message.class);
+    assertEquals(msg.msgId, decoded.msgId);
+    assertEquals("servo01", decoded.name);
+    assertEquals("webgui", decoded.sender);
+    assertEquals("moveTo", decoded.method);
+    assertEquals(4, decoded.data.length);
+    assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) decoded.data[1]);
+
+    // parameters to a method's signature - as ApiMessages does
+    assertEquals(90, codec.decode(decoded.data[0], int.class));
+    assertEquals(90.0, codec.decode(decoded.data[0], Double.class));
+    assertEquals("fast", codec.decode(decoded.data[2], String.class));
+    assertEquals(null, codec.decode(decoded.data[3], String.class));
+    @SuppressWarnings("unchecked")
+    List<Object> list = (List<Object>) CborReader.read(encode(codec, new Object[] { 1, 2 }));
+    assertArrayEquals(new double[] { 1, 2 }, (double[]) codec.decode(list, double[].class), 0);
+  }
+
+  @Test
+  public void negotiation() throws Exception {
+    assertEquals(CodecUtils.MIME_TYPE_JSON, CodecFactory.getMimeType(null));
+    assertEquals(CodecUtils.MIME_TYPE_JSON, CodecFactory.getMimeType("*/*"));
+    assertEquals(CodecUtils.MIME_TYPE_CBOR, CodecFactory.getMimeType("cbor"));
+    assertEquals(CodecUtils.MIME_TYPE_CBOR, CodecFactory.getMimeType("application/cbor, application/json;q=0.5"));
+    assertEquals(CodecUtils.MIME_TYPE_JSON, CodecFactory.getMimeType("text/html, application/json"));
+    Codec codec = CodecFactory.getCodec(CodecUtils.MIME_TYPE_CBOR);
+    assertTrue(codec instanceof CodecCbor);
+    assertEquals(CodecUtils.MIME_TYPE_CBOR, codec.getMimeType());
+  }
+
+  static double perSecond(long count, long ns) {
+    return count * 1000000000.0 / ns;
+  }
+
+  static void benchmark(String name, Object param, Class<?> type, int count) throws Exception {
+    Codec[] codecs = new Codec[] { new CodecJson(), new CodecCbor() };
+    Message msg = new Message();
+    msg.name = "webgui";
+    msg.sender = "camera";
+    msg.method = "onData";
+    msg.data = new Object[] { param };
+
+    for (Codec codec : codecs) {
+      boolean json = codec instanceof CodecJson;
+      byte[] encoded = null;
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      // warm up, then timed
+      for (int pass = 0; pass < 2; ++pass) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          bos.reset();
+          codec.encode(bos, msg);
+        }
+        long encodeNs = System.nanoTime() - start;
+        encoded = bos.toByteArray();
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          // the whole message and its parameter to the method's type
+          Message decoded = (Message) codec.decode(json ? new String(encoded) : encoded, Message.class);
+          codec.decode(json ? CodecJson.encode(decoded.data[0]) : decoded.data[0], type);
+        }
+        long decodeNs = System.nanoTime() - start;
+        if (pass == 1) {
+          log.info(String.format("%-10s %-5s %8d bytes encode %10.0f msg/s %8.1f MB/s decode %10.0f msg/s", name, codec.getKey(), encoded.length,
+              perSecond(count, encodeNs), perSecond((long) count * encoded.length, encodeNs) / 1000000, perSecond(count, decodeNs)));
+        }
+      }
+    }
+  }
+
+  /**
+   * encode/decode throughput of the cbor and json codecs
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+
+      int[] pins = new int[64];
+      float[] orientation = new float[] { 0.1f, 0.2f, 0.3f, 0.4f };
+      float[] scan = new float[720];
+      byte[] image = new byte[320 * 240];
+      for (int i = 0; i < scan.length; ++i) {
+        scan[i] = i * 0.01f;
+      }
+      for (int i = 0; i < image.length; ++i) {
+        image[i] = (byte) i;
+      }
+      for (int i = 0; i < pins.length; ++i) {
+        pins[i] = i * 16;
+      }
+
+      benchmark("string", "hello servo01", String.class, 100000);
+      benchmark("quat", orientation, float[].class, 100000);
+      benchmark("pins", pins, int[].class, 50000);
+      benchmark("scan", scan, float[].class, 5000);
+      benchmark("image", image, byte[].class, 100);
+
+    } catch (Exception e) {
+      log.error("main threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+package org.myrobotlab.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class CodecJsonTest {
+
+  public final static Logger log = LoggerFactory.getLogger(CodecJsonTest.class);
+
+  static class State {
+    String name;
+    double[] values;
+    List<String> peers = new ArrayList<String>();
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+  }
+
+  static State state(int size) {
+    State state = new State();
+    state.name = "servo01 \u00e9\u2713\ud83d\ude00";
+    state.values = new double[size];
+    for (int i = 0; i < size; ++i) {
+      state.values[i] = i * 0.5;
+      if (i % 10 == 0) {
+        state.peers.add("peer" + i);
+        state.counts.put("count" + i, i);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * the stream has to be what the String path produced
+   */
+  @Test
+  public void streamMatchesString() throws Exception {
+    State state = state(5000);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    CodecUtils.toJson(bos, state);
+    assertArrayEquals(CodecUtils.toJson(state).getBytes("UTF-8"), bos.toByteArray());
+
+    CodecJson codec = new CodecJson();
+    bos.reset();
+    codec.encode(bos, state);
+    assertArrayEquals(CodecJson.encode(state).getBytes("UTF-8"), bos.toByteArray());
+
+    State decoded = CodecUtils.fromJson(new ByteArrayInputStream(bos.toByteArray()), State.class);
+    assertEquals(state.name, decoded.name);
+    assertArrayEquals(state.values, decoded.values, 0);
+    assertEquals(state.peers, decoded.peers);
+    assertEquals(state.counts, decoded.counts);
+
+    decoded = (State) codec.decode(bos.toByteArray(), State.class);
+    assertEquals(state.name, decoded.name);
+
+    bos.reset();
+    codec.encode(bos, null);
+    assertEquals("null", new String(bos.toByteArray(), "UTF-8"));
+  }
+
+  @Test
+  public void utf8() throws Exception {
+    String s = "a\u00e9\u2713\ud83d\ude00z";
+    // one char at a time - the surrogate pair is split over two writes
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Utf8Writer writer = Utf8Writer.get(bos);
+    for (int i = 0; i < s.length(); ++i) {
+      writer.write(s.charAt(i));
+    }
+    writer.close();
+    assertArrayEquals(s.getBytes("UTF-8"), bos.toByteArray());
+
+    // and read back one char at a time
+    Utf8Reader reader = Utf8Reader.get(new ByteArrayInputStream(bos.toByteArray()));
+    StringBuilder sb = new StringBuilder();
+    char[] c = new char[1];
+    while (reader.read(c, 0, 1) > 0) {
+      sb.append(c[0]);
+    }
+    reader.close();
+    assertEquals(s, sb.toString());
+  }
+
+  /**
+   * a file which is not utf-8 is read as the platform charset - as it was
+   * written
+   */
+  @Test
+  public void legacyFile() throws Exception {
+    String json = "{\"name\":\"caf\u00e9\"}";
+    File file = File.createTempFile("legacy", ".json");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(json.getBytes("UTF-8"));
+    out.close();
+    assertEquals("caf\u00e9", CodecUtils.fromJsonFile(file, State.class).name);
+
+    byte[] latin1 = json.getBytes("ISO-8859-1");
+    out = new FileOutputStream(file);
+    out.write(latin1);
+    out.close();
+    assertEquals(CodecUtils.fromJson(new String(latin1), State.class).name, CodecUtils.fromJsonFile(file, State.class).name);
+  }
+
+  /**
+   * a stream which trickles one byte per read - multi-byte characters are
+   * split over reads
+   */
+  static class Trickle extends InputStream {
+    final byte[] data;
+    int pos = 0;
+
+    Trickle(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      return (pos < data.length) ? data[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos >= data.length) {
+        return -1;
+      }
+      b[off] = data[pos++];
+      return 1;
+    }
+  }
+
+  @Test
+  public void trickle() throws Exception {
+    Message msg = new Message();
+    msg.name = "webgui";
+    msg.method = "onState";
+    msg.data = new Object[] { "\u00e9\u2713\ud83d\ude00" };
+    byte[] json = CodecUtils.toJson(msg).getBytes("UTF-8");
+    Message decoded = CodecUtils.fromJson(new Trickle(json), Message.class);
+    assertEquals("onState", decoded.method);
+    assertEquals("\u00e9\u2713\ud83d\ude00", decoded.data[0]);
+  }
+
+  /**
+   * encoding inside an encode gets its own buffer - the thread's is busy
+   */
+  @Test
+  public void nested() throws Exception {
+    ByteArrayOutputStream outer = new ByteArrayOutputStream();
+    Utf8Writer writer = Utf8Writer.get(outer);
+    writer.write("[");
+    ByteArrayOutputStream inner = new ByteArrayOutputStream();
+    CodecUtils.toJson(inner, "inner");
+    writer.write("1]");
+    writer.close();
+    assertEquals("[1]", new String(outer.toByteArray(), "UTF-8"));
+    assertEquals("\"inner\"", new String(inner.toByteArray(), "UTF-8"));
+    // handed back - reused
+    assertTrue(writer == Utf8Writer.get(outer));
+    writer.close();
+  }
+
+  /**
+   * counts the bytes - the encoded document is never held
+   */
+  static class Counter extends OutputStream {
+    long count = 0;
+
+    @Override
+    public void write(int b) {
+      ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /**
+   * String path vs stream path - time and heap allocated
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      State state = state(200000);
+      java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+      com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+      long id = Thread.currentThread().getId();
+
+      for (int pass = 0; pass < 3; ++pass) {
+        long bytes = sun.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        Counter counter = new Counter();
+        for (int i = 0; i < 10; ++i) {
+          // the old way
+          counter.write(CodecUtils.toJson(state).getBytes());
+        }
+        long stringNs = System.nanoTime() - start;
+        long stringBytes = sun.getThreadAllocatedBytes(id) - bytes;
+
+        bytes = sun.getThreadAllocatedBytes(id);
+        start = System.nanoTime();
+        for (int i = 0; i < 10; ++i) {
+          CodecUtils.toJson(counter, state);
+        }
+        long streamNs = System.nanoTime() - start;
+        long streamBytes = sun.getThreadAllocatedBytes(id) - bytes;
+
+        log.info(String.format("%d bytes per doc - string %d ms %d MB allocated - stream %d ms %d MB allocated", counter.count / 20, stringNs / 1000000,
+            stringBytes / 1000000, streamNs / 1000000, streamBytes / 1000000));
+      }
+    } catch (Exception e) {
+      log.error("main threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,215 @@
+package org.myrobotlab.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+import com.google.gson.JsonSyntaxException;
+
+public class MethodCacheTest {
+
+  public final static Logger log = LoggerFactory.getLogger(MethodCacheTest.class);
+
+  /**
+   * stands in for a service - not public, so its methods need the plan's
+   * setAccessible
+   */
+  static class Target {
+    int pos = 0;
+    String speed = null;
+    List<Integer> sequence = null;
+
+    public int moveTo(int pos, String speed) {
+      this.pos = pos;
+      this.speed = speed;
+      return pos;
+    }
+
+    public int sum(List<Integer> values) {
+      sequence = values;
+      int sum = 0;
+      for (Integer value : values) {
+        sum += value;
+      }
+      return sum;
+    }
+
+    public void fail() {
+      throw new IllegalStateException("failed");
+    }
+
+    public int measure(Shadowed shadowed) {
+      return shadowed.v;
+    }
+  }
+
+  static class Base {
+    int v;
+  }
+
+  /**
+   * Gson refuses this type - two fields named v
+   */
+  static class Shadowed extends Base {
+    int v;
+  }
+
+  @Before
+  public void setUp() {
+    MethodCache.clearPlans();
+  }
+
+  @Test
+  public void plan() throws Exception {
+    Target target = new Target();
+    CodecJson json = new CodecJson();
+
+    MethodCache.DecodePlan plan = MethodCache.getDecodePlan(Target.class, "moveTo", 2);
+    assertEquals(int.class, plan.paramTypes[0]);
+    // quoted and - as uris send them - unquoted strings
+    Object[] params = plan.decode(new Object[] { "90", "\"fast\"" }, json);
+    assertEquals(90, plan.invoke(target, params));
+    assertEquals("fast", target.speed);
+    params = plan.decode(new Object[] { "10", "slow" }, json);
+    plan.invoke(target, params);
+    assertEquals(10, target.pos);
+    assertEquals("slow", target.speed);
+    // empty is null
+    assertEquals(null, plan.decode(new Object[] { "1", "" }, json)[1]);
+    // but not a value and then more - as Gson.fromJson
+    try {
+      plan.decode(new Object[] { "1", "hello world" }, json);
+      assertTrue(false);
+    } catch (JsonSyntaxException e) {
+    }
+
+    // one resolution
+    assertTrue(plan == MethodCache.getDecodePlan(Target.class, "moveTo", 2));
+
+    // values another codec already read
+    params = plan.decode(new Object[] { 45L, "medium" }, new CodecCbor());
+    plan.invoke(target, params);
+    assertEquals(45, target.pos);
+  }
+
+  /**
+   * the adapter is for the generic type - List&lt;Integer&gt; not a list of
+   * doubles
+   */
+  @Test
+  public void genericParameter() throws Exception {
+    Target target = new Target();
+    MethodCache.DecodePlan plan = MethodCache.getDecodePlan(Target.class, "sum", 1);
+    Object[] params = plan.decode(new Object[] { "[1, 2, 3]" }, new CodecJson());
+    assertEquals(6, plan.invoke(target, params));
+    assertTrue(target.sequence.get(0) instanceof Integer);
+  }
+
+  @Test
+  public void rejected() throws Exception {
+    for (int i = 0; i < 3; ++i) {
+      try {
+        MethodCache.getDecodePlan(Target.class, "noSuchMethod", 1);
+        assertTrue(false);
+      } catch (NoSuchMethodException e) {
+        assertTrue(e.getMessage().contains("noSuchMethod"));
+      }
+    }
+    // scanned once - then from the negative cache
+    String stats = MethodCache.getPlanStats();
+    log.info(stats);
+    assertTrue(stats.matches(".*rejected hits [2-9].*"));
+
+    // exceptions of the method come through as they are
+    MethodCache.DecodePlan plan = MethodCache.getDecodePlan(Target.class, "fail", 0);
+    try {
+      plan.invoke(new Target(), new Object[0]);
+      assertTrue(false);
+    } catch (IllegalStateException e) {
+      assertEquals("failed", e.getMessage());
+    }
+  }
+
+  /**
+   * a parameter Gson has no adapter for fails json calls - not the plan, so
+   * other codecs can still call the method
+   */
+  @Test
+  public void lazyAdapters() throws Exception {
+    MethodCache.DecodePlan plan = MethodCache.getDecodePlan(Target.class, "measure", 1);
+    try {
+      plan.decode(new Object[] { "{\"v\":1}" }, new CodecJson());
+      assertTrue(false);
+    } catch (IllegalArgumentException e) {
+    }
+    Shadowed shadowed = new Shadowed();
+    shadowed.v = 7;
+    Object[] params = plan.decode(new Object[] { shadowed }, new CodecCbor());
+    assertEquals(7, plan.invoke(new Target(), params));
+    assertTrue(plan == MethodCache.getDecodePlan(Target.class, "measure", 1));
+  }
+
+  /**
+   * the old per call path vs the cached plan
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      Target target = new Target();
+      Codec codec = new CodecJson();
+      Object[] encoded = new Object[] { "90", "\"fast\"" };
+      int count = 1000000;
+
+      for (int pass = 0; pass < 3; ++pass) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          Class<?>[] paramTypes = MethodCache.getCandidateOnOrdinalSignature(Target.class, "moveTo", encoded.length);
+          Object[] params = new Object[encoded.length];
+          for (int j = 0; j < params.length; ++j) {
+            params[j] = codec.decode(encoded[j], paramTypes[j]);
+          }
+          Method method = Target.class.getMethod("moveTo", paramTypes);
+          method.setAccessible(true);
+          method.invoke(target, params);
+          MethodCache.cache(Target.class, method);
+        }
+        long oldNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          MethodCache.DecodePlan plan = MethodCache.getDecodePlan(Target.class, "moveTo", encoded.length);
+          plan.invoke(target, plan.decode(encoded, codec));
+        }
+        long planNs = System.nanoTime() - start;
+
+        List<String> rejected = new ArrayList<String>();
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          try {
+            MethodCache.getDecodePlan(Target.class, "noSuchMethod", 1);
+          } catch (NoSuchMethodException e) {
+            if (rejected.isEmpty()) {
+              rejected.add(e.getMessage());
+            }
+          }
+        }
+        long rejectNs = System.nanoTime() - start;
+
+        log.info(String.format("per call %d ns - plan %d ns - rejected %d ns", oldNs / count, planNs / count, rejectNs / count));
+      }
+      log.info(MethodCache.getPlanStats());
+    } catch (Exception e) {
+      log.error("main threw", e);
+    }
+  }
+
+}
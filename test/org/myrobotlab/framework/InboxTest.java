@@ -0,0 +1,257 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.framework.interfaces.Mailbox;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class InboxTest {
+
+  public final static Logger log = LoggerFactory.getLogger(InboxTest.class);
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  static Message createMsg(long id) {
+    Message msg = new Message();
+    msg.msgId = id;
+    msg.method = "onTest";
+    return msg;
+  }
+
+  @Test
+  public void ringOrderAndCapacity() throws Exception {
+    RingMailbox box = new RingMailbox(5);
+    // rounded up to a power of 2
+    assertEquals(8, box.capacity());
+    for (int i = 0; i < 8; ++i) {
+      assertTrue(box.offer(createMsg(i)));
+    }
+    assertEquals(8, box.size());
+    assertFalse(box.offer(createMsg(8)));
+    assertEquals(1, box.getDropped());
+    for (int i = 0; i < 8; ++i) {
+      assertEquals(i, box.take().msgId);
+    }
+    assertNull(box.poll());
+    assertEquals(0, box.size());
+  }
+
+  @Test
+  public void ringDropOldest() throws Exception {
+    RingMailbox box = new RingMailbox(4, OverflowPolicy.DROP_OLDEST);
+    for (int i = 0; i < 6; ++i) {
+      assertTrue(box.offer(createMsg(i)));
+    }
+    assertEquals(2, box.getDropped());
+    assertEquals(2, box.poll().msgId);
+  }
+
+  @Test
+  public void ringBlock() throws Exception {
+    final RingMailbox box = new RingMailbox(2, OverflowPolicy.BLOCK);
+    box.offer(createMsg(0));
+    box.offer(createMsg(1));
+    final CountDownLatch added = new CountDownLatch(1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        box.offer(createMsg(2));
+        added.countDown();
+      }
+    };
+    producer.start();
+    Thread.sleep(50);
+    assertEquals(1, added.getCount());
+    assertEquals(0, box.take().msgId);
+    added.await();
+    assertEquals(1, box.take().msgId);
+    assertEquals(2, box.take().msgId);
+  }
+
+  @Test
+  public void multiProducer() throws Exception {
+    checkMultiProducer(new RingMailbox(1024, OverflowPolicy.BLOCK), 4, 20000);
+    checkMultiProducer(new LinkedMailbox(1024, OverflowPolicy.BLOCK), 4, 20000);
+  }
+
+  @Test
+  public void blockingReturn() throws Exception {
+    Inbox inbox = new Inbox("inboxTest");
+    CompletableFuture<Object> future = inbox.expect(7L, 1000);
+
+    Message ret = createMsg(7);
+    ret.status = Message.RETURN;
+    ret.data = new Object[] { "returned" };
+    inbox.add(ret);
+    inbox.add(createMsg(8));
+
+    // return message completes the future - it is never queued or invoked
+    assertEquals(8, inbox.getMsg().msgId);
+    assertEquals("returned", future.get(1, TimeUnit.SECONDS));
+    assertEquals(0, inbox.getPendingCount());
+    assertEquals(0, inbox.size());
+  }
+
+  @Test
+  public void blockingTimeout() throws Exception {
+    Inbox inbox = new Inbox("inboxTest");
+    CompletableFuture<Object> future = inbox.expect(9L, 50);
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("expected timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertEquals(0, inbox.getPendingCount());
+
+    // a late return is treated as an ordinary message
+    Message late = createMsg(9);
+    late.status = Message.RETURN;
+    inbox.add(late);
+    assertEquals(1, inbox.size());
+  }
+
+  /**
+   * a caller which gives up cancels - nothing is left pending, with or
+   * without a timeout
+   */
+  @Test
+  public void blockingCancel() throws Exception {
+    Inbox inbox = new Inbox("inboxTest");
+    CompletableFuture<Object> forever = inbox.expect(10L, null);
+    CompletableFuture<Object> timed = inbox.expect(11L, 5000);
+    assertEquals(2, inbox.getPendingCount());
+    forever.cancel(false);
+    timed.cancel(false);
+    assertEquals(0, inbox.getPendingCount());
+    assertTrue(forever.isCancelled());
+  }
+
+  @Test
+  public void loopDetection() throws Exception {
+    Inbox inbox = new Inbox("inboxTest");
+    Message msg = createMsg(1);
+    inbox.add(msg);
+    // same message delivered to the same inbox again is dropped
+    inbox.add(msg);
+    assertEquals(1, inbox.size());
+    assertTrue(msg.hasHop(inbox.getHopId()));
+
+    // an envelope for another destination starts with a fresh history
+    Message envelope = msg.route("other", "onTest");
+    assertFalse(envelope.hasHop(inbox.getHopId()));
+    assertTrue(envelope.data == msg.data);
+
+    // inbox ids past the first 64 spill into the extended bitset
+    Message far = createMsg(2);
+    assertTrue(far.addHop(200));
+    assertFalse(far.addHop(200));
+    assertTrue(far.hasHop(200));
+    assertFalse(far.hasHop(201));
+    far.clearHops();
+    assertFalse(far.hasHop(200));
+  }
+
+  @Test
+  public void hopIdsReused() throws Exception {
+    // creating and releasing services must not grow the hop ids
+    Inbox first = new Inbox("inboxTest");
+    int id = first.getHopId();
+    first.release();
+    for (int i = 0; i < 1000; ++i) {
+      Inbox inbox = new Inbox("inboxTest");
+      assertEquals(id, inbox.getHopId());
+      inbox.release();
+    }
+
+    // releasing twice must not free an id now owned by another inbox
+    Inbox a = new Inbox("a");
+    a.release();
+    Inbox b = new Inbox("b");
+    a.release();
+    Inbox c = new Inbox("c");
+    assertTrue(b.getHopId() != c.getHopId());
+    b.release();
+    c.release();
+  }
+
+  /**
+   * each producer writes ascending ids - the consumer must see every message
+   * and per producer order must be preserved
+   */
+  static long checkMultiProducer(final Mailbox box, int producers, final int count) throws InterruptedException {
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; ++p) {
+      final long base = ((long) p) << 32;
+      threads[p] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < count; ++i) {
+            box.offer(createMsg(base + i));
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : threads) {
+      t.start();
+    }
+    long[] last = new long[producers];
+    for (int i = 0; i < producers; ++i) {
+      last[i] = -1;
+    }
+    for (int i = 0; i < producers * count; ++i) {
+      long id = box.take().msgId;
+      int p = (int) (id >> 32);
+      long seq = id & 0xFFFFFFFFL;
+      assertTrue(seq > last[p]);
+      last[p] = seq;
+    }
+    long delta = System.nanoTime() - start;
+    assertEquals(0, box.size());
+    return delta;
+  }
+
+  /**
+   * throughput comparison between the original synchronized LinkedList inbox
+   * and the lock-free ring
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      int count = 500000;
+      for (int producers = 1; producers <= 8; producers *= 2) {
+        // warm up
+        checkMultiProducer(new LinkedMailbox(1024, OverflowPolicy.BLOCK), producers, count / 10);
+        checkMultiProducer(new RingMailbox(1024, OverflowPolicy.BLOCK), producers, count / 10);
+
+        long linked = checkMultiProducer(new LinkedMailbox(1024, OverflowPolicy.BLOCK), producers, count);
+        long ring = checkMultiProducer(new RingMailbox(1024, OverflowPolicy.BLOCK), producers, count);
+        long total = (long) producers * count;
+        log.info(String.format("%d producers %d msgs - LinkedMailbox %d msgs/s RingMailbox %d msgs/s", producers, total, total * 1000000000L / linked,
+            total * 1000000000L / ring));
+      }
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -173,6 +173,33 @@ public class MessageTest implements NameProvider {
     assertNotNull(ret);
   }
 
+  /**
+   * publish to inbox throughput of a local pitch loop - the broadcast is
+   * delivered through the route cached on the MRLListener rather than a
+   * registry lookup per message
+   * 
+   * @throws Exception
+   *           e
+   */
+  @Test
+  final public void pitchLoopThroughput() throws Exception {
+    log.info("pitchLoopThroughput");
+    int count = 20000;
+
+    catcher.clear();
+    catcher.getInbox().setBlocking(true);
+    catcher.subscribe("thrower", "pitch");
+    Service.sleep(100);
+
+    long start = System.currentTimeMillis();
+    thrower.pitchInt(count);
+    BlockingQueue<Message> balls = catcher.waitForMsgs(count, 10000);
+    long delta = System.currentTimeMillis() - start;
+    log.info(String.format("caught %d balls in %d ms - %d msgs/s", balls.size(), delta, count * 1000L / Math.max(1, delta)));
+    assertEquals(count, balls.size());
+    catcher.getInbox().setBlocking(false);
+  }
+
   @Override
   public String getName() {
     return "tester";
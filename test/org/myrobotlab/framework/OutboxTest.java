@@ -0,0 +1,146 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.framework.interfaces.NameProvider;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.interfaces.CommunicationInterface;
+import org.slf4j.Logger;
+
+public class OutboxTest implements NameProvider {
+
+  public final static Logger log = LoggerFactory.getLogger(OutboxTest.class);
+
+  static final int COUNT = 1000;
+
+  /**
+   * records what each subscriber received - "slow" sleeps until released
+   */
+  class RecordingComm implements CommunicationInterface {
+    List<Long> fast = new ArrayList<Long>();
+    List<Long> slow = new ArrayList<Long>();
+    CountDownLatch fastDone = new CountDownLatch(COUNT);
+    CountDownLatch slowDone = new CountDownLatch(COUNT);
+    CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void addRemote(URI mrlHost, URI protocolKey) {
+    }
+
+    @Override
+    public void send(Message msg) {
+      if ("slow".equals(msg.name)) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+        }
+        slow.add(msg.msgId);
+        slowDone.countDown();
+      } else {
+        fast.add(msg.msgId);
+        fastDone.countDown();
+      }
+    }
+
+    @Override
+    public void send(URI uri, Message msg) {
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Test
+  public void parallelDispatchOrdering() throws Exception {
+    Outbox outbox = new Outbox(this);
+    RecordingComm comm = new RecordingComm();
+    outbox.setCommunicationManager(comm);
+    outbox.setParallelDispatch(true);
+
+    ArrayList<MRLListener> listeners = new ArrayList<MRLListener>();
+    listeners.add(new MRLListener("publishData", "slow", "onData"));
+    listeners.add(new MRLListener("publishData", "fast", "onData"));
+    outbox.notifyList.put("publishData", listeners);
+    outbox.start();
+
+    for (int i = 0; i < COUNT; ++i) {
+      Message msg = Message.createMessage(this, null, "publishData", i);
+      msg.sendingMethod = "publishData";
+      msg.msgId = i;
+      outbox.add(msg);
+    }
+
+    // fast subscriber is not held up by the blocked slow one
+    assertTrue(comm.fastDone.await(5, TimeUnit.SECONDS));
+    QueueStats stats = outbox.getQueueStats();
+    assertTrue(stats.subscriberMaxQueueDepth.get("slow") > 0);
+
+    comm.release.countDown();
+    assertTrue(comm.slowDone.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < COUNT; ++i) {
+      assertEquals(i, comm.fast.get(i).longValue());
+      assertEquals(i, comm.slow.get(i).longValue());
+    }
+
+    stats = outbox.getQueueStats();
+    assertEquals(0, stats.subscriberQueueDepth.get("slow").intValue());
+    outbox.stop();
+  }
+
+  @Test
+  public void concurrentMaxDepth() throws Exception {
+    final Outbox outbox = new Outbox(this);
+    RecordingComm comm = new RecordingComm();
+    outbox.setCommunicationManager(comm);
+    outbox.setParallelDispatch(true);
+
+    // several publishers queue to the blocked "slow" subscriber at once
+    final int threads = 4;
+    Thread[] producers = new Thread[threads];
+    for (int t = 0; t < threads; ++t) {
+      final int offset = t * COUNT / threads;
+      producers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < COUNT / threads; ++i) {
+            Message msg = Message.createMessage(OutboxTest.this, "slow", "onData", offset + i);
+            msg.msgId = offset + i;
+            outbox.dispatch(msg);
+          }
+        }
+      });
+      producers[t].start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    // at most one message is held by the blocked worker - the high water mark
+    // must not lose any of the concurrent increments
+    int maxDepth = outbox.getQueueStats().subscriberMaxQueueDepth.get("slow");
+    assertTrue(maxDepth >= COUNT - 1);
+
+    comm.release.countDown();
+    assertTrue(comm.slowDone.await(5, TimeUnit.SECONDS));
+    assertEquals(COUNT, comm.slow.size());
+  }
+
+  @Override
+  public String getName() {
+    return "outboxTest";
+  }
+
+}
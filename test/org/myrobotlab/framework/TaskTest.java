@@ -1,5 +1,6 @@
 package org.myrobotlab.framework;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -62,6 +63,38 @@ public class TaskTest {
     catcher.clear();
   }
   
+  @Test
+  public void sharedScheduler() throws InterruptedException {
+    Inbox inbox = new Inbox("taskTest");
+    Message msg = new Message();
+    msg.method = "onTick";
+    Task task = new Task(inbox, "tick", 20, msg);
+    task.start(0);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("onTick", inbox.getMsg().method);
+    }
+    task.cancel();
+    assertTrue(task.getRunCount() >= 3);
+    Service.sleep(100);
+    inbox.clear();
+    Service.sleep(100);
+    assertEquals(0, inbox.size());
+  }
+
+  @Test
+  public void coalesceOverdue() {
+    Inbox inbox = new Inbox("taskTest");
+    Task task = new Task(inbox, "late", 100, new Message());
+    // pretend the process was suspended for ~10 intervals
+    task.expected = System.currentTimeMillis() - 1050;
+    task.run();
+    task.cancel();
+    // one message - not a burst of 11
+    assertEquals(1, inbox.size());
+    assertEquals(10, task.getCoalescedCount());
+    assertTrue(task.getMaxLateMs() >= 1050);
+  }
+
   public void onUptime(String data){
     log.info("uptime {}", data);
   }
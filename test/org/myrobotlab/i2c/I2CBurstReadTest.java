@@ -0,0 +1,45 @@
+package org.myrobotlab.i2c;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class I2CBurstReadTest {
+
+  public final static Logger log = LoggerFactory.getLogger(I2CBurstReadTest.class);
+
+  @Test
+  public void registerBlock() {
+    MockI2CDevice device = new MockI2CDevice("burstBlock");
+    device.setRegisters(0x3b, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+    byte[] buffer = new byte[14];
+    assertEquals(14, device.i2cReadBurst(null, 1, 0x68, 0x3b, true, buffer, buffer.length));
+    assertEquals(1, device.transactions);
+    for (int i = 0; i < buffer.length; ++i) {
+      assertEquals(i + 1, buffer[i]);
+    }
+  }
+
+  @Test
+  public void fifo() {
+    MockI2CDevice device = new MockI2CDevice("burstFifo");
+    byte[] packet = new byte[42];
+    for (int i = 0; i < packet.length; ++i) {
+      packet[i] = (byte) (100 + i);
+    }
+    device.addFifo(0x74, packet);
+    device.addFifo(0x74, packet);
+
+    byte[] buffer = new byte[packet.length];
+    for (int n = 0; n < 2; ++n) {
+      assertEquals(42, device.i2cReadBurst(null, 1, 0x68, 0x74, false, buffer, buffer.length));
+      for (int i = 0; i < packet.length; ++i) {
+        assertEquals(packet[i], buffer[i]);
+      }
+    }
+    assertEquals(2, device.transactions);
+  }
+
+}
@@ -0,0 +1,170 @@
+package org.myrobotlab.i2c;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.myrobotlab.framework.interfaces.Attachable;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.interfaces.I2CControl;
+import org.myrobotlab.service.interfaces.I2CController;
+import org.slf4j.Logger;
+
+public class I2CReadTest {
+
+  public final static Logger log = LoggerFactory.getLogger(I2CReadTest.class);
+
+  @Test
+  public void completeCopiesData() throws Exception {
+    byte[] buffer = new byte[4];
+    I2CRead read = new I2CRead(1, 0x68, 0x3b, buffer, 2);
+    assertFalse(read.isDone());
+    assertEquals(1, read.writeSize);
+    assertEquals(0x3b, read.writeBuffer[0]);
+
+    // never more than readSize
+    read.complete(new int[] { 0x12, 0xff, 0x34 });
+    assertTrue(read.isDone());
+    assertEquals(2, read.waitFor(0));
+    assertEquals(0x12, buffer[0]);
+    assertEquals(-1, buffer[1]);
+    assertEquals(0, buffer[2]);
+
+    // completed once only
+    read.complete(-1);
+    assertEquals(2, read.getCount());
+  }
+
+  @Test
+  public void timeout() throws Exception {
+    I2CRead read = new I2CRead(1, 0x68, new byte[1], 1);
+    long ts = System.currentTimeMillis();
+    assertEquals(-1, read.waitFor(30));
+    assertTrue(System.currentTimeMillis() - ts >= 25);
+    assertFalse(read.isDone());
+  }
+
+  @Test
+  public void waitForAll() throws Exception {
+    final I2CRead[] reads = new I2CRead[4];
+    for (int i = 0; i < reads.length; ++i) {
+      reads[i] = new I2CRead(1, 0x28, i, new byte[1], 1);
+    }
+    // answered on another thread - as the serial receive thread would
+    Thread answer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+        }
+        for (int i = 0; i < reads.length; ++i) {
+          reads[i].complete(new int[] { 10 + i });
+        }
+      }
+    };
+    answer.start();
+    assertTrue(I2CRead.waitForAll(2000, reads));
+    for (int i = 0; i < reads.length; ++i) {
+      assertEquals(10 + i, reads[i].readBuffer[0]);
+    }
+
+    I2CRead failed = new I2CRead(1, 0x28, new byte[1], 1);
+    failed.complete(-1);
+    assertFalse(I2CRead.waitForAll(100, reads[0], failed));
+  }
+
+  /**
+   * controller with only the blocking calls - the answer is the register
+   */
+  static class RegisterEcho implements I2CController {
+    int reads = 0;
+
+    @Override
+    public void attachI2CControl(I2CControl control) {
+    }
+
+    @Override
+    public void detachI2CControl(I2CControl control) {
+    }
+
+    @Override
+    public void i2cWrite(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
+    }
+
+    @Override
+    public int i2cRead(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
+      ++reads;
+      return 0;
+    }
+
+    @Override
+    public int i2cWriteRead(I2CControl control, int busAddress, int deviceAddress, byte[] writeBuffer, int writeSize, byte[] readBuffer, int readSize) {
+      ++reads;
+      readBuffer[0] = writeBuffer[0];
+      return 1;
+    }
+
+    @Override
+    public String getName() {
+      return "registerEcho";
+    }
+
+    @Override
+    public void attach(Attachable service) throws Exception {
+    }
+
+    @Override
+    public void attach(String serviceName) throws Exception {
+    }
+
+    @Override
+    public void detach(Attachable service) {
+    }
+
+    @Override
+    public void detach(String serviceName) {
+    }
+
+    @Override
+    public void detach() {
+    }
+
+    @Override
+    public Set<String> getAttached() {
+      return new HashSet<String>();
+    }
+
+    @Override
+    public boolean isAttached(Attachable instance) {
+      return false;
+    }
+
+    @Override
+    public boolean isAttached(String name) {
+      return false;
+    }
+
+    @Override
+    public boolean isLocal() {
+      return true;
+    }
+  }
+
+  @Test
+  public void defaultAsyncIsSynchronous() throws Exception {
+    RegisterEcho controller = new RegisterEcho();
+    I2CRead a = new I2CRead(1, 0x48, 7, new byte[1], 1);
+    I2CRead b = new I2CRead(1, 0x48, new byte[2], 2);
+    controller.i2cReadAsync(null, a, b);
+    assertEquals(2, controller.reads);
+    assertTrue(a.isDone() && b.isDone());
+    assertEquals(7, a.readBuffer[0]);
+    assertEquals(0, b.getCount());
+  }
+
+}
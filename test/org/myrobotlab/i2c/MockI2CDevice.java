@@ -0,0 +1,153 @@
+package org.myrobotlab.i2c;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.myrobotlab.framework.interfaces.Attachable;
+import org.myrobotlab.service.interfaces.I2CControl;
+import org.myrobotlab.service.interfaces.I2CController;
+
+/**
+ * Stand-in for an i2c device behind a controller - 256 registers with a
+ * register pointer which increments after every byte, like most sensors.
+ * Registers made streaming with addFifo return the next byte of their queue
+ * instead, like the FIFO of an Mpu6050.
+ *
+ * Every read is counted as a transaction, so tests can check how many round
+ * trips a driver needs.
+ */
+public class MockI2CDevice implements I2CController {
+
+  final String name;
+
+  public final byte[] registers = new byte[256];
+
+  final Map<Integer, ArrayDeque<Byte>> fifos = new HashMap<Integer, ArrayDeque<Byte>>();
+
+  int pointer = 0;
+
+  public int transactions = 0;
+
+  public int bytesRead = 0;
+
+  public MockI2CDevice(String name) {
+    this.name = name;
+  }
+
+  /**
+   * make a register streaming and queue data in it
+   */
+  public void addFifo(int register, byte[] data) {
+    ArrayDeque<Byte> fifo = fifos.get(register);
+    if (fifo == null) {
+      fifo = new ArrayDeque<Byte>();
+      fifos.put(register, fifo);
+    }
+    for (byte b : data) {
+      fifo.add(b);
+    }
+  }
+
+  public void setRegisters(int register, int... values) {
+    for (int i = 0; i < values.length; ++i) {
+      registers[(register + i) & 0xff] = (byte) values[i];
+    }
+  }
+
+  byte next() {
+    ArrayDeque<Byte> fifo = fifos.get(pointer);
+    if (fifo != null) {
+      // empty FIFO repeats the last byte read on the device - 0 here
+      Byte b = fifo.poll();
+      return (b == null) ? 0 : b;
+    }
+    byte b = registers[pointer];
+    pointer = (pointer + 1) & 0xff;
+    return b;
+  }
+
+  @Override
+  public synchronized void i2cWrite(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
+    if (size == 0) {
+      return;
+    }
+    pointer = buffer[0] & 0xff;
+    for (int i = 1; i < size; ++i) {
+      registers[pointer] = buffer[i];
+      pointer = (pointer + 1) & 0xff;
+    }
+  }
+
+  @Override
+  public synchronized int i2cRead(I2CControl control, int busAddress, int deviceAddress, byte[] buffer, int size) {
+    ++transactions;
+    for (int i = 0; i < size; ++i) {
+      buffer[i] = next();
+    }
+    bytesRead += size;
+    return size;
+  }
+
+  @Override
+  public synchronized int i2cWriteRead(I2CControl control, int busAddress, int deviceAddress, byte[] writeBuffer, int writeSize, byte[] readBuffer, int readSize) {
+    i2cWrite(control, busAddress, deviceAddress, writeBuffer, writeSize);
+    return i2cRead(control, busAddress, deviceAddress, readBuffer, readSize);
+  }
+
+  @Override
+  public void attachI2CControl(I2CControl control) {
+  }
+
+  @Override
+  public void detachI2CControl(I2CControl control) {
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void attach(Attachable service) throws Exception {
+  }
+
+  @Override
+  public void attach(String serviceName) throws Exception {
+  }
+
+  @Override
+  public void detach(Attachable service) {
+  }
+
+  @Override
+  public void detach(String serviceName) {
+  }
+
+  @Override
+  public void detach() {
+  }
+
+  @Override
+  public Set<String> getAttached() {
+    return new HashSet<String>();
+  }
+
+  @Override
+  public boolean isAttached(Attachable instance) {
+    return false;
+  }
+
+  @Override
+  public boolean isAttached(String name) {
+    return false;
+  }
+
+  @Override
+  public boolean isLocal() {
+    return true;
+  }
+
+}
@@ -0,0 +1,180 @@
+package org.myrobotlab.motion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class MotionEngineTest {
+
+  public final static Logger log = LoggerFactory.getLogger(MotionEngineTest.class);
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Test
+  public void periodicAndCancel() throws Exception {
+    MotionEngine engine = new MotionEngine(1);
+    engine.start();
+    final CountDownLatch steps = new CountDownLatch(5);
+    MotionEngine.Job job = engine.schedule(new MotionEngine.Job(null) {
+      @Override
+      public long run() {
+        steps.countDown();
+        return 10;
+      }
+    }, 0);
+    assertTrue(steps.await(2, TimeUnit.SECONDS));
+    job.cancel();
+    long ran = engine.getStats().jobsRun;
+    Thread.sleep(50);
+    assertTrue(engine.getStats().jobsRun <= ran + 1);
+    engine.stop();
+  }
+
+  @Test
+  public void batchedByKey() throws Exception {
+    // not started - jobs are queued and run in one tick when we start it
+    MotionEngine engine = new MotionEngine(5);
+    final Object controllerA = new Object();
+    final Object controllerB = new Object();
+    final List<Object> order = new ArrayList<Object>();
+    final CountDownLatch done = new CountDownLatch(6);
+    for (int i = 0; i < 6; ++i) {
+      final Object key = (i % 2 == 0) ? controllerA : controllerB;
+      engine.schedule(new MotionEngine.Job(key) {
+        @Override
+        public long run() {
+          order.add(key);
+          done.countDown();
+          return -1;
+        }
+      }, 0);
+    }
+    engine.start();
+    assertTrue(done.await(2, TimeUnit.SECONDS));
+    // writes to one controller go out together
+    int switches = 0;
+    for (int i = 1; i < order.size(); ++i) {
+      if (order.get(i) != order.get(i - 1)) {
+        ++switches;
+      }
+    }
+    assertEquals(1, switches);
+    log.info("stats {}", engine.getStats());
+    engine.stop();
+  }
+
+  /**
+   * a controller whose write blocks holds up its own writes only - the loop
+   * and the other controllers go on, and its pending writes are coalesced to
+   * the latest per target
+   */
+  @Test
+  public void stuckWriter() throws Exception {
+    final MotionEngine engine = new MotionEngine(1);
+    engine.start();
+    final Object stuck = new Object();
+    final Object ok = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch written = new CountDownLatch(10);
+    final List<Integer> stuckWrites = new ArrayList<Integer>();
+
+    engine.write(stuck, "block", new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+        }
+      }
+    });
+    assertTrue(blocked.await(2, TimeUnit.SECONDS));
+
+    MotionEngine.Job sweep = engine.schedule(new MotionEngine.Job(stuck) {
+      int step = 0;
+
+      @Override
+      public long run() {
+        final int pos = ++step;
+        engine.write(stuck, this, new Runnable() {
+          @Override
+          public void run() {
+            stuckWrites.add(pos);
+          }
+        });
+        return 2;
+      }
+    }, 0);
+    MotionEngine.Job other = engine.schedule(new MotionEngine.Job(ok) {
+      @Override
+      public long run() {
+        engine.write(ok, this, new Runnable() {
+          @Override
+          public void run() {
+            written.countDown();
+          }
+        });
+        return 2;
+      }
+    }, 0);
+
+    assertTrue(written.await(2, TimeUnit.SECONDS));
+    sweep.cancel();
+    other.cancel();
+    Thread.sleep(20);
+    release.countDown();
+    Thread.sleep(100);
+    // only the latest position of the stuck controller was written
+    assertEquals(1, stuckWrites.size());
+    MotionEngine.Stats stats = engine.getStats();
+    log.info("stats {}", stats);
+    assertTrue(stats.coalescedWrites > 0);
+    assertEquals(0, stats.writing);
+    engine.stop();
+  }
+
+  /**
+   * writes queued by the jobs of one tick go to the controller as one batch
+   */
+  @Test
+  public void writesBatchedPerTick() throws Exception {
+    final MotionEngine engine = new MotionEngine(5);
+    final Object controller = new Object();
+    final CountDownLatch done = new CountDownLatch(6);
+    for (int i = 0; i < 6; ++i) {
+      engine.schedule(new MotionEngine.Job(controller) {
+        @Override
+        public long run() {
+          engine.write(controller, this, new Runnable() {
+            @Override
+            public void run() {
+              done.countDown();
+            }
+          });
+          return -1;
+        }
+      }, 0);
+    }
+    engine.start();
+    assertTrue(done.await(2, TimeUnit.SECONDS));
+    MotionEngine.Stats stats = engine.getStats();
+    assertEquals(6, stats.writes);
+    assertEquals(1, stats.writeBatches);
+    engine.stop();
+  }
+
+}
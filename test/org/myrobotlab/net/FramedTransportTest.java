@@ -0,0 +1,198 @@
+package org.myrobotlab.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class FramedTransportTest {
+
+  public final static Logger log = LoggerFactory.getLogger(FramedTransportTest.class);
+
+  ServerSocket server;
+  Socket client;
+  Socket accepted;
+  Connection txData;
+  Connection rxData;
+  FramedTransport tx;
+  FramedTransport rx;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+    client = new Socket("localhost", server.getLocalPort());
+    accepted = server.accept();
+    txData = new Connection("remote", new URI("tcp://localhost:" + server.getLocalPort()));
+    rxData = new Connection("remote", new URI("tcp://localhost:" + client.getLocalPort()));
+    tx = new FramedTransport("tx", txData, client.getInputStream(), client.getOutputStream());
+    rx = new FramedTransport("rx", rxData, accepted.getInputStream(), accepted.getOutputStream());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    tx.close();
+    rx.close();
+    server.close();
+  }
+
+  static Message message(int i) {
+    Message msg = new Message();
+    msg.sender = "servo01";
+    msg.sendingMethod = "publishServoEvent";
+    msg.name = "gui";
+    msg.method = "onServoEvent";
+    msg.data = new Object[] { "pos " + i };
+    return msg;
+  }
+
+  @Test
+  public void codecs() throws Exception {
+    for (String codec : new String[] { "java", "json", "cbor" }) {
+      tx.setCodec(codec);
+      tx.send(message(7));
+      Message msg = rx.read();
+      assertEquals(codec, "servo01", msg.sender);
+      assertEquals(codec, "onServoEvent", msg.method);
+      assertEquals(codec, "pos 7", msg.data[0]);
+    }
+    assertEquals("cbor", txData.codec);
+    // and back the other way
+    rx.send(message(1));
+    assertEquals("pos 1", tx.read().data[0]);
+  }
+
+  @Test
+  public void batching() throws Exception {
+    tx.setFlushWindow(50);
+    int count = 200;
+    for (int i = 0; i < count; ++i) {
+      tx.send(message(i));
+    }
+    for (int i = 0; i < count; ++i) {
+      assertEquals("pos " + i, rx.read().data[0]);
+    }
+    log.info(txData.toString());
+    assertEquals(count, txData.txFrames);
+    assertTrue(txData.txBatches < count / 4);
+    assertEquals(txData.txBytes, rxData.rxBytes);
+    assertTrue(txData.txLatencyMaxUs >= txData.txLatencyAvgUs);
+  }
+
+  /**
+   * a message which can not be encoded is dropped - not the connection
+   */
+  @Test
+  public void unencodable() throws Exception {
+    Message bad = message(0);
+    bad.data = new Object[] { new Object() };
+    tx.send(bad);
+    tx.send(message(1));
+    assertEquals("pos 1", rx.read().data[0]);
+    assertTrue(tx.isRunning());
+  }
+
+  @Test
+  public void datagram() throws Exception {
+    byte[] frame = FramedTransport.encode(message(3), "json");
+    assertEquals("pos 3", FramedTransport.decode(frame, 0, frame.length).data[0]);
+    // truncated
+    try {
+      FramedTransport.decode(frame, 0, frame.length - 1);
+      assertTrue(false);
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * synchronized ObjectOutputStream write + flush + reset per message vs
+   * queued frames written in batches - loopback
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      final int count = 20000;
+      for (int pass = 0; pass < 3; ++pass) {
+        final ServerSocket server = new ServerSocket(0);
+        Socket client = new Socket("localhost", server.getLocalPort());
+        final Socket accepted = server.accept();
+
+        final ObjectOutputStream oos = new ObjectOutputStream(client.getOutputStream());
+        oos.flush();
+        Thread reader = new Thread() {
+          @Override
+          public void run() {
+            try {
+              ObjectInputStream ois = new ObjectInputStream(accepted.getInputStream());
+              for (int i = 0; i < count; ++i) {
+                ois.readObject();
+              }
+            } catch (Exception e) {
+              log.error("reader threw", e);
+            }
+          }
+        };
+        reader.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          synchronized (oos) {
+            oos.writeObject(message(i));
+            oos.flush();
+            oos.reset();
+          }
+        }
+        reader.join();
+        long oosNs = System.nanoTime() - start;
+        client.close();
+        accepted.close();
+
+        client = new Socket("localhost", server.getLocalPort());
+        Socket accepted2 = server.accept();
+        client.setTcpNoDelay(true);
+        Connection txData = new Connection("tx", new URI("tcp://localhost:0"));
+        FramedTransport tx = new FramedTransport("tx", txData, client.getInputStream(), client.getOutputStream());
+        final FramedTransport rx = new FramedTransport("rx", new Connection(), accepted2.getInputStream(), accepted2.getOutputStream());
+        reader = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < count; ++i) {
+                rx.read();
+              }
+            } catch (Exception e) {
+              log.error("reader threw", e);
+            }
+          }
+        };
+        reader.start();
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          tx.send(message(i));
+        }
+        reader.join();
+        long framedNs = System.nanoTime() - start;
+        tx.close();
+        rx.close();
+        server.close();
+
+        log.info(String.format("object stream %d msg/s - framed %d msg/s in %d writes, latency avg %d us", count * 1000000000L / oosNs, count * 1000000000L / framedNs,
+            txData.txBatches, txData.txLatencyAvgUs));
+      }
+    } catch (Exception e) {
+      log.error("main threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,189 @@
+package org.myrobotlab.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+
+public class TopicRouterTest {
+
+  /**
+   * records what was sent to whom
+   */
+  static class TestSink implements TopicRouter.Sink {
+    List<String> sent = new ArrayList<String>();
+    int broadcasts = 0;
+
+    @Override
+    public synchronized void send(List<String> clientIds, Object payload, boolean everyone) {
+      ++broadcasts;
+      for (String id : clientIds) {
+        sent.add(id + ":" + payload);
+      }
+    }
+
+    synchronized List<String> get() {
+      return new ArrayList<String>(sent);
+    }
+  }
+
+  TestSink sink;
+  TopicRouter router;
+  int encodes;
+
+  @Before
+  public void setUp() {
+    sink = new TestSink();
+    encodes = 0;
+    router = new TopicRouter(new TopicRouter.Encoder() {
+      @Override
+      public Object encode(Message msg, String mimeType) {
+        ++encodes;
+        String payload = String.format("%s.%s=%s", msg.sender, msg.sendingMethod, msg.data[0]);
+        return (mimeType == null) ? payload : mimeType + ":" + payload;
+      }
+    }, sink);
+  }
+
+  static Message msg(String sender, String method, Object data) {
+    Message msg = new Message();
+    msg.sender = sender;
+    msg.sendingMethod = method;
+    msg.method = "onX";
+    msg.data = new Object[] { data };
+    return msg;
+  }
+
+  @Test
+  public void everything() {
+    router.addClient("a");
+    router.addClient("b");
+    router.broadcast(msg("servo01", "publishServoEvent", 1));
+    assertEquals(1, encodes);
+    assertEquals(1, sink.broadcasts);
+    assertEquals(2, sink.get().size());
+  }
+
+  @Test
+  public void subscriptions() {
+    router.addClient("all");
+    router.subscribe("servos", "servo01.*");
+    router.subscribe("state", "*.publishState");
+    router.subscribe("one", "mpu.publishOrientation");
+
+    router.broadcast(msg("servo01", "publishServoEvent", 1));
+    router.broadcast(msg("servo02", "publishState", 2));
+    router.broadcast(msg("mpu", "publishOrientation", 3));
+    router.broadcast(msg("mpu", "publishState", 4));
+
+    List<String> sent = sink.get();
+    // encoded once per message however many clients take it
+    assertEquals(4, encodes);
+    assertTrue(sent.contains("all:servo01.publishServoEvent=1"));
+    assertTrue(sent.contains("all:mpu.publishState=4"));
+    assertTrue(sent.contains("servos:servo01.publishServoEvent=1"));
+    assertTrue(sent.contains("state:servo02.publishState=2"));
+    assertTrue(sent.contains("state:mpu.publishState=4"));
+    assertTrue(sent.contains("one:mpu.publishOrientation=3"));
+    assertEquals(4 + 1 + 2 + 1, sent.size());
+    assertEquals(3, router.getStats("servos").filtered);
+
+    router.unsubscribe("servos", "servo01.*");
+    router.broadcast(msg("servo01", "publishServoEvent", 5));
+    assertEquals(4 + 1 + 2 + 1 + 1, sink.get().size());
+
+    router.reset("servos");
+    router.broadcast(msg("servo01", "publishServoEvent", 6));
+    assertTrue(sink.get().contains("servos:servo01.publishServoEvent=6"));
+  }
+
+  @Test
+  public void conflation() throws Exception {
+    router.addClient("slow");
+    router.addClient("fast");
+    router.setRate("mpu.publishOrientation", 10);
+    router.subscribe("fast", "mpu.publishOrientation", 1000000);
+
+    for (int i = 0; i < 5; ++i) {
+      router.broadcast(msg("mpu", "publishOrientation", i));
+    }
+    assertEquals(5, encodes);
+
+    List<String> sent = sink.get();
+    assertTrue(sent.contains("slow:mpu.publishOrientation=0"));
+    assertTrue(!sent.contains("slow:mpu.publishOrientation=4"));
+    TopicRouter.ClientStats slow = router.getStats("slow");
+    assertEquals(1, slow.backlog);
+    assertEquals(3, slow.dropped);
+
+    // the latest is delivered when the interval is up
+    for (int i = 0; i < 100 && router.getStats("slow").backlog > 0; ++i) {
+      Thread.sleep(10);
+    }
+    sent = sink.get();
+    assertTrue(sent.contains("slow:mpu.publishOrientation=4"));
+    assertTrue(!sent.contains("slow:mpu.publishOrientation=2"));
+    assertEquals(2, router.getStats("slow").sent);
+    assertEquals(0, router.getStats("slow").backlog);
+    assertEquals(1, router.getStats("slow").maxBacklog);
+
+    // its own rate overrides the topic's
+    assertEquals(5, router.getStats("fast").sent);
+    assertEquals(0, router.getStats("fast").dropped);
+  }
+
+  /**
+   * what is throttled away is never encoded - only what is sent
+   */
+  @Test
+  public void throttledNotEncoded() throws Exception {
+    router.addClient("a");
+    router.addClient("b");
+    router.setRate("opencv.publishDisplay", 10);
+    for (int i = 0; i < 30; ++i) {
+      router.broadcast(msg("opencv", "publishDisplay", i));
+    }
+    // the first went out to both - the rest are conflated
+    assertEquals(1, encodes);
+    for (int i = 0; i < 100 && router.getStats("a").backlog + router.getStats("b").backlog > 0; ++i) {
+      Thread.sleep(10);
+    }
+    // the latest - once for both clients
+    assertEquals(2, encodes);
+    assertTrue(sink.get().contains("a:opencv.publishDisplay=29"));
+    assertTrue(sink.get().contains("b:opencv.publishDisplay=29"));
+    assertEquals(2, router.getEncodedCount());
+  }
+
+  @Test
+  public void codecs() {
+    router.addClient("json");
+    router.addClient("cbor1", "application/cbor");
+    router.addClient("cbor2", "application/cbor");
+    router.broadcast(msg("servo01", "publishServoEvent", 1));
+    // once per codec - one send per codec
+    assertEquals(2, encodes);
+    assertEquals(2, sink.broadcasts);
+    List<String> sent = sink.get();
+    assertTrue(sent.contains("json:servo01.publishServoEvent=1"));
+    assertTrue(sent.contains("cbor1:application/cbor:servo01.publishServoEvent=1"));
+    assertTrue(sent.contains("cbor2:application/cbor:servo01.publishServoEvent=1"));
+    assertEquals("application/cbor", router.getStats("cbor1").mimeType);
+  }
+
+  @Test
+  public void removeClient() {
+    router.subscribe("a", "x.*");
+    router.addClient("b");
+    router.removeClient("a");
+    assertEquals(1, router.getClientCount());
+    router.broadcast(msg("x", "publishY", 1));
+    assertEquals(1, sink.get().size());
+  }
+
+}
@@ -0,0 +1,155 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.slf4j.Logger;
+
+public class ByteRingBufferTest {
+
+  public final static Logger log = LoggerFactory.getLogger(ByteRingBufferTest.class);
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Test
+  public void wrapAndOverrun() throws Exception {
+    ByteRingBuffer ring = new ByteRingBuffer(10);
+    assertEquals(16, ring.capacity());
+
+    byte[] data = new byte[12];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    assertEquals(12, ring.write(data, 0, 12));
+    byte[] out = new byte[8];
+    assertEquals(8, ring.read(out, 0, 8));
+    // wraps around the end
+    assertEquals(12, ring.write(data, 0, 12));
+    assertEquals(16, ring.available());
+    assertEquals(16, ring.getMaxFill());
+    assertEquals(1.0, ring.getFillLevel(), 0.0);
+
+    // full - newest are dropped
+    assertFalse(ring.write(99));
+    assertEquals(0, ring.write(data, 0, 4));
+    assertEquals(5, ring.getOverrunCount());
+
+    out = new byte[16];
+    assertEquals(16, ring.read(out, 0, 16));
+    assertEquals(8, out[0]);
+    assertEquals(11, out[3]);
+    assertEquals(0, out[4]);
+    assertEquals(11, out[15]);
+  }
+
+  @Test
+  public void delimiterAndTimeout() throws Exception {
+    ByteRingBuffer ring = new ByteRingBuffer(64);
+    byte[] line = "hello\nworld".getBytes();
+    ring.write(line, 0, line.length);
+    assertEquals(5, ring.indexOf('\n'));
+    assertEquals(-1, ring.indexOf('!'));
+    byte[] out = new byte[6];
+    assertEquals(6, ring.read(out, 0, 6, null));
+    assertArrayEquals("hello\n".getBytes(), out);
+    assertArrayEquals("world".getBytes(), ring.toArray());
+    ring.clear();
+    assertEquals(0, ring.available());
+
+    long start = System.currentTimeMillis();
+    assertEquals(-1, ring.read(50));
+    assertEquals(0, ring.read(out, 0, out.length, 50));
+    assertTrue(System.currentTimeMillis() - start >= 90);
+  }
+
+  @Test
+  public void producerConsumer() throws Exception {
+    final ByteRingBuffer ring = new ByteRingBuffer(256);
+    final int count = 1000000;
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        byte[] chunk = new byte[37];
+        int sent = 0;
+        while (sent < count) {
+          int len = Math.min(chunk.length, count - sent);
+          for (int i = 0; i < len; ++i) {
+            chunk[i] = (byte) (sent + i);
+          }
+          // only send what fits - no overruns in this test
+          int written = 0;
+          while (written < len) {
+            int free = ring.capacity() - ring.available();
+            if (free == 0) {
+              Thread.yield();
+              continue;
+            }
+            written += ring.write(chunk, written, Math.min(free, len - written));
+          }
+          sent += len;
+        }
+      }
+    };
+    producer.start();
+    byte[] in = new byte[100];
+    int received = 0;
+    while (received < count) {
+      int n = ring.read(in, 0, in.length, 5000);
+      assertTrue(n > 0);
+      for (int i = 0; i < n; ++i) {
+        assertEquals((byte) (received + i), in[i]);
+      }
+      received += n;
+    }
+    producer.join();
+    assertEquals(0, ring.getOverrunCount());
+  }
+
+  /**
+   * bytes moved through the ring against the LinkedBlockingQueue&lt;Integer&gt;
+   * it replaced
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("INFO");
+      int count = 10000000;
+      byte[] chunk = new byte[64];
+      for (int run = 0; run < 3; ++run) {
+        LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i += chunk.length) {
+          for (int j = 0; j < chunk.length; ++j) {
+            queue.add(chunk[j] & 0xff);
+          }
+          for (int j = 0; j < chunk.length; ++j) {
+            chunk[j] = (byte) queue.take().intValue();
+          }
+        }
+        long queueNs = System.nanoTime() - start;
+
+        ByteRingBuffer ring = new ByteRingBuffer(1024);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i += chunk.length) {
+          ring.write(chunk, 0, chunk.length);
+          ring.read(chunk, 0, chunk.length, null);
+        }
+        long ringNs = System.nanoTime() - start;
+        log.info(String.format("LinkedBlockingQueue %.2f ns/byte ByteRingBuffer %.2f ns/byte", queueNs / (double) count, ringNs / (double) count));
+      }
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.framework.QueueStats;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.Arduino;
+import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.Serial;
+import org.myrobotlab.service.VirtualArduino;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+import org.slf4j.Logger;
+
+public class PortTest {
+
+  public final static Logger log = LoggerFactory.getLogger(PortTest.class);
+
+  static final int COUNT = 10000;
+
+  /**
+   * collects what it is given and counts the callbacks
+   */
+  static class BlockListener implements SerialDataListener {
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    int blocks = 0;
+    CountDownLatch done;
+
+    BlockListener(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Override
+    public Integer onByte(Integer b) throws IOException {
+      received.write(b);
+      ++blocks;
+      done.countDown();
+      return b;
+    }
+
+    @Override
+    public void onBytes(byte[] bytes, int off, int len) throws IOException {
+      received.write(bytes, off, len);
+      ++blocks;
+      for (int i = 0; i < len; ++i) {
+        done.countDown();
+      }
+    }
+
+    @Override
+    public String getName() {
+      return "blockListener";
+    }
+
+    @Override
+    public QueueStats publishStats(QueueStats stats) {
+      return stats;
+    }
+
+    @Override
+    public void updateStats(QueueStats stats) {
+    }
+
+    @Override
+    public void onConnect(String portName) {
+    }
+
+    @Override
+    public void onDisconnect(String portName) {
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Test
+  public void blockReceive() throws Exception {
+    PipedInputStream in = new PipedInputStream(4096);
+    PipedOutputStream out = new PipedOutputStream(in);
+    PortStream port = new PortStream("blockReceive", in, null);
+    BlockListener listener = new BlockListener(COUNT);
+    HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+    listeners.put(listener.getName(), listener);
+    port.listen(listeners);
+
+    byte[] chunk = new byte[100];
+    for (int i = 0; i < COUNT; i += chunk.length) {
+      for (int j = 0; j < chunk.length; ++j) {
+        chunk[j] = (byte) (i + j);
+      }
+      out.write(chunk);
+    }
+    out.flush();
+
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    byte[] data = listener.received.toByteArray();
+    assertEquals(COUNT, data.length);
+    for (int i = 0; i < COUNT; ++i) {
+      assertEquals((byte) i, data[i]);
+    }
+    // delivered in blocks - not a callback per byte
+    assertTrue(listener.blocks < COUNT);
+    assertEquals(COUNT, port.stats.total);
+    port.close();
+  }
+
+  /**
+   * available() says nothing about a closed socket - poll still sees the end
+   * of stream
+   */
+  @Test
+  public void socketEndOfStream() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    Socket client = new Socket("localhost", server.getLocalPort());
+    Socket accepted = server.accept();
+    PortStream port = new PortStream("socketEndOfStream", client);
+    assertTrue(port.isPollable());
+
+    byte[] buffer = new byte[64];
+    assertEquals(0, port.poll(buffer));
+    accepted.getOutputStream().write(new byte[] { 1, 2, 3 });
+    int received = 0;
+    long deadline = System.currentTimeMillis() + 5000;
+    while (received < 3 && System.currentTimeMillis() < deadline) {
+      received += port.poll(buffer);
+      Thread.sleep(10);
+    }
+    assertEquals(3, received);
+
+    accepted.close();
+    int count = 0;
+    deadline = System.currentTimeMillis() + 5000;
+    while (count == 0 && System.currentTimeMillis() < deadline) {
+      count = port.poll(buffer);
+      Thread.sleep(10);
+    }
+    assertEquals(-1, count);
+    client.close();
+    server.close();
+  }
+
+  /**
+   * receive throughput over the VirtualArduino loopback - MrlComm pin array
+   * frames from every analog pin polled as fast as the virtual board can go
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("WARN");
+      String port = "benchmarkPort";
+      VirtualArduino virtual = (VirtualArduino) Runtime.start("virtual", "VirtualArduino");
+      virtual.connect(port);
+      Arduino arduino = (Arduino) Runtime.start("arduino", "Arduino");
+      arduino.connect(port);
+      for (int pin = 14; pin < 20; ++pin) {
+        arduino.enablePin(pin, 1000);
+      }
+      Serial serial = arduino.getSerial();
+      for (int run = 0; run < 5; ++run) {
+        int start = serial.getRXCount();
+        long ts = System.currentTimeMillis();
+        Thread.sleep(2000);
+        int bytes = serial.getRXCount() - start;
+        log.warn(String.format("rx %d bytes in %d ms - %d bytes/s", bytes, System.currentTimeMillis() - ts, bytes * 1000L / (System.currentTimeMillis() - ts)));
+      }
+      Runtime.shutdown();
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+import org.slf4j.Logger;
+
+public class SerialReaderPoolTest {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialReaderPoolTest.class);
+
+  static final int PORTS = 5;
+  static final int COUNT = 10000;
+
+  SerialReaderPool pool;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  @Before
+  public void setUp() {
+    pool = new SerialReaderPool("testPool", 2, 256);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  static HashMap<String, SerialDataListener> listeners(SerialDataListener listener) {
+    HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+    listeners.put(listener.getName(), listener);
+    return listeners;
+  }
+
+  @Test
+  public void manyPorts() throws Exception {
+    ByteRingBuffer[] in = new ByteRingBuffer[PORTS];
+    PortQueue[] ports = new PortQueue[PORTS];
+    PortTest.BlockListener[] received = new PortTest.BlockListener[PORTS];
+    for (int i = 0; i < PORTS; ++i) {
+      in[i] = new ByteRingBuffer(4096);
+      ports[i] = new PortQueue("port" + i, in[i], new ByteRingBuffer(16));
+      received[i] = new PortTest.BlockListener(COUNT);
+      ports[i].listen(listeners(received[i]), pool);
+      assertTrue(ports[i].isListening());
+      assertTrue(pool == ports[i].getPool());
+    }
+    assertEquals(PORTS, pool.getPortCount());
+
+    // interleaved writes - every port busy at once
+    byte[] chunk = new byte[100];
+    for (int n = 0; n < COUNT; n += chunk.length) {
+      for (int i = 0; i < PORTS; ++i) {
+        for (int j = 0; j < chunk.length; ++j) {
+          chunk[j] = (byte) (n + j + i);
+        }
+        while (in[i].available() > 4096 - chunk.length) {
+          Thread.sleep(1);
+        }
+        assertEquals(chunk.length, in[i].write(chunk, 0, chunk.length));
+      }
+    }
+
+    for (int i = 0; i < PORTS; ++i) {
+      assertTrue(received[i].done.await(5, TimeUnit.SECONDS));
+      byte[] data = received[i].received.toByteArray();
+      assertEquals(COUNT, data.length);
+      for (int n = 0; n < COUNT; ++n) {
+        assertEquals((byte) (n + i), data[n]);
+      }
+    }
+
+    // the stats are updated after the listeners have the last chunk
+    List<SerialReaderPool.PortStats> stats = pool.getStats();
+    for (int retry = 0; retry < 100 && !allReceived(stats); ++retry) {
+      Thread.sleep(10);
+      stats = pool.getStats();
+    }
+    assertEquals(PORTS, stats.size());
+    for (SerialReaderPool.PortStats s : stats) {
+      log.info("{}", s);
+      assertEquals(COUNT, s.bytes);
+      assertTrue(s.maxChunk <= 256);
+      assertEquals(0, s.errors);
+    }
+
+    // closing a port takes it out of the pool
+    ports[0].close();
+    assertFalse(ports[0].isListening());
+    assertNull(ports[0].getPool());
+    assertEquals(PORTS - 1, pool.getPortCount());
+  }
+
+  static boolean allReceived(List<SerialReaderPool.PortStats> stats) {
+    for (SerialReaderPool.PortStats s : stats) {
+      if (s.bytes < COUNT) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Test
+  public void endOfStream() throws Exception {
+    String filename = SerialRecorderTest.record(20, 1024);
+    PortReplay port = new PortReplay("replay", filename, 0);
+    PortTest.BlockListener listener = new PortTest.BlockListener(20 * 21 / 2);
+    port.open();
+    port.listen(listeners(listener), pool);
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    // the end of the recording drops the port
+    for (int i = 0; i < 100 && pool.getPortCount() > 0; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getPortCount());
+    assertFalse(port.isListening());
+  }
+
+  /**
+   * ports which can't poll get a reading thread of their own
+   */
+  @Test
+  public void notPollable() throws Exception {
+    Port port = new Port("blocking") {
+      @Override
+      public boolean isHardware() {
+        return false;
+      }
+
+      @Override
+      public int read() throws Exception {
+        Thread.sleep(10000);
+        return -1;
+      }
+
+      @Override
+      public void write(int b) throws Exception {
+      }
+
+      @Override
+      public void write(int[] data) throws Exception {
+      }
+
+      @Override
+      public List<String> getPortNames() {
+        return null;
+      }
+    };
+    port.listen(listeners(new PortTest.BlockListener(1)), pool);
+    assertEquals(0, pool.getPortCount());
+    assertNull(port.getPool());
+    assertTrue(port.readingThread != null);
+    port.close();
+  }
+
+}
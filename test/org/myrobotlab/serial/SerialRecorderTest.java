@@ -0,0 +1,200 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+import org.slf4j.Logger;
+
+public class SerialRecorderTest {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialRecorderTest.class);
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LoggingFactory.init("INFO");
+  }
+
+  static String tempFile() throws IOException {
+    File file = File.createTempFile("serial", ".rec");
+    file.deleteOnExit();
+    return file.getAbsolutePath();
+  }
+
+  /**
+   * rx blocks 0..n-1 of n bytes each, a tx byte after every block
+   */
+  static String record(int blocks, int bufferSize) throws IOException {
+    String filename = tempFile();
+    SerialRecorder recorder = new SerialRecorder(filename, bufferSize);
+    for (int i = 0; i < blocks; ++i) {
+      byte[] block = new byte[i + 1];
+      for (int j = 0; j < block.length; ++j) {
+        block[j] = (byte) (i + j);
+      }
+      recorder.rx(block, 0, block.length);
+      recorder.tx(i);
+    }
+    recorder.close();
+    assertEquals(blocks * 2, recorder.getRecords());
+    return filename;
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    // a small buffer so records straddle drains
+    String filename = record(100, 32);
+    SerialRecording recording = new SerialRecording(filename);
+    long lastNs = 0;
+    for (int i = 0; i < 100; ++i) {
+      assertTrue(recording.next());
+      assertTrue(recording.isRx());
+      assertEquals(i + 1, recording.getLength());
+      assertTrue(recording.getNs() >= lastNs);
+      lastNs = recording.getNs();
+      byte[] data = new byte[recording.getLength()];
+      assertEquals(data.length, recording.getData(0, data, 0, data.length));
+      for (int j = 0; j < data.length; ++j) {
+        assertEquals((byte) (i + j), data[j]);
+      }
+
+      assertTrue(recording.next());
+      assertTrue(recording.isTx());
+      assertEquals(1, recording.getLength());
+      assertEquals(i, recording.getByte(0));
+    }
+    assertFalse(recording.next());
+
+    recording.rewind();
+    assertTrue(recording.next());
+    assertEquals(1, recording.getLength());
+  }
+
+  @Test
+  public void truncated() throws Exception {
+    String filename = record(10, 1024);
+    RandomAccessFile file = new RandomAccessFile(filename, "rw");
+    // cut the last record short - as a crash would
+    file.setLength(file.length() - 1);
+    file.close();
+    SerialRecording recording = new SerialRecording(filename);
+    int records = 0;
+    while (recording.next()) {
+      ++records;
+    }
+    assertEquals(19, records);
+  }
+
+  /**
+   * an int[] write is one record - and what comes after close is ignored,
+   * the reading thread may still be recording when it is stopped
+   */
+  @Test
+  public void blockAndClosed() throws Exception {
+    String filename = tempFile();
+    SerialRecorder recorder = new SerialRecorder(filename);
+    recorder.tx(new int[] { 0xaa, 0x02, 0x31, 0x100 });
+    recorder.close();
+    recorder.rx(new byte[3], 0, 3);
+    recorder.rx(7);
+    recorder.flush();
+    recorder.close();
+    assertEquals(1, recorder.getRecords());
+
+    SerialRecording recording = new SerialRecording(filename);
+    assertTrue(recording.next());
+    assertTrue(recording.isTx());
+    assertEquals(4, recording.getLength());
+    assertEquals(0xaa, recording.getByte(0));
+    assertEquals(0x00, recording.getByte(3));
+    assertFalse(recording.next());
+  }
+
+  @Test(expected = IOException.class)
+  public void notARecording() throws Exception {
+    String filename = tempFile();
+    RandomAccessFile file = new RandomAccessFile(filename, "rw");
+    file.write(new byte[64]);
+    file.close();
+    new SerialRecording(filename);
+  }
+
+  @Test
+  public void replay() throws Exception {
+    int blocks = 50;
+    String filename = record(blocks, 1024);
+    int total = blocks * (blocks + 1) / 2;
+
+    PortReplay port = new PortReplay("replay", filename, 0);
+    PortTest.BlockListener listener = new PortTest.BlockListener(total);
+    HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+    listeners.put(listener.getName(), listener);
+    port.open();
+    port.listen(listeners);
+
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    byte[] data = listener.received.toByteArray();
+    assertEquals(total, data.length);
+    int pos = 0;
+    for (int i = 0; i < blocks; ++i) {
+      for (int j = 0; j <= i; ++j) {
+        assertEquals((byte) (i + j), data[pos++]);
+      }
+    }
+
+    // writes are checked against the recorded tx
+    for (int i = 0; i < blocks; ++i) {
+      port.write((i == 10) ? 0xff : i);
+    }
+    assertEquals(blocks, port.getTxBytes());
+    assertEquals(1, port.getTxMismatches());
+    port.close();
+  }
+
+  /**
+   * recording throughput - binary records against the text hex format Serial
+   * used to write
+   */
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("WARN");
+      byte[] block = new byte[64];
+      int count = 200000;
+      String filename = tempFile();
+
+      long ts = System.currentTimeMillis();
+      SerialRecorder recorder = new SerialRecorder(filename);
+      for (int i = 0; i < count; ++i) {
+        recorder.rx(block, 0, block.length);
+      }
+      recorder.close();
+      log.warn("binary {} blocks in {} ms", count, System.currentTimeMillis() - ts);
+
+      ts = System.currentTimeMillis();
+      java.io.FileOutputStream out = new java.io.FileOutputStream(filename);
+      for (int i = 0; i < count; ++i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < block.length; ++j) {
+          sb.append(String.format(" %02X", block[j] & 0xff));
+        }
+        out.write(sb.toString().getBytes());
+      }
+      out.close();
+      log.warn("hex text {} blocks in {} ms", count, System.currentTimeMillis() - ts);
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
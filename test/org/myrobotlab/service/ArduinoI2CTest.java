@@ -0,0 +1,130 @@
+package org.myrobotlab.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.i2c.I2CRead;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * matching of publishI2cData answers to the reads waiting on a bus - MrlComm
+ * answers in order but says nothing about which read an answer is for
+ */
+public class ArduinoI2CTest {
+
+  public final static Logger log = LoggerFactory.getLogger(ArduinoI2CTest.class);
+
+  static final int BUS = 1;
+
+  static Arduino arduino = null;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    arduino = (Arduino) Runtime.start("i2cArduino", "Arduino");
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    arduino.releaseService();
+  }
+
+  @Before
+  public void setUp() {
+    arduino.i2cClearPending();
+    arduino.setI2cStaleLimit(60000);
+  }
+
+  static I2CRead read() {
+    return new I2CRead(1, 0x68, 0x3b, new byte[1], 1);
+  }
+
+  I2CRead[] queue(int count) {
+    I2CRead[] reads = new I2CRead[count];
+    for (int i = 0; i < count; ++i) {
+      reads[i] = read();
+      arduino.i2cQueue(BUS, reads[i]);
+    }
+    return reads;
+  }
+
+  /**
+   * the answer of a timed out read arrives after all - it is thrown away, not
+   * given to the next read
+   */
+  @Test
+  public void lateAnswer() throws Exception {
+    I2CRead[] reads = queue(2);
+    arduino.i2cTimedOut(reads[0]);
+    assertEquals(-1, reads[0].getCount());
+
+    arduino.publishI2cData(BUS, new int[] { 0x11 });
+    assertFalse(reads[1].isDone());
+    arduino.publishI2cData(BUS, new int[] { 0x22 });
+    assertEquals(1, reads[1].waitFor(0));
+    assertEquals(0x22, reads[1].readBuffer[0]);
+  }
+
+  /**
+   * the answer of a timed out read never comes - the tombstone takes the next
+   * read's answer, that read fails too, and the one after is in step again
+   */
+  @Test
+  public void lostAnswer() throws Exception {
+    I2CRead[] reads = queue(3);
+    arduino.i2cTimedOut(reads[0]);
+    arduino.publishI2cData(BUS, new int[] { 0x22 });
+    assertFalse(reads[1].isDone());
+    arduino.i2cTimedOut(reads[1]);
+    assertEquals(-1, reads[1].getCount());
+
+    arduino.publishI2cData(BUS, new int[] { 0x33 });
+    assertEquals(1, reads[2].waitFor(0));
+    assertEquals(0x33, reads[2].readBuffer[0]);
+  }
+
+  /**
+   * past the stale limit a tombstone's answer is taken as lost
+   */
+  @Test
+  public void staleTombstone() throws Exception {
+    arduino.setI2cStaleLimit(0);
+    I2CRead[] reads = queue(2);
+    arduino.i2cTimedOut(reads[0]);
+    arduino.publishI2cData(BUS, new int[] { 0x22 });
+    assertEquals(1, reads[1].waitFor(0));
+    assertEquals(0x22, reads[1].readBuffer[0]);
+  }
+
+  @Test
+  public void tombstonesBounded() throws Exception {
+    I2CRead[] reads = queue(Arduino.MAX_I2C_TOMBSTONES + 3);
+    for (I2CRead read : reads) {
+      arduino.i2cTimedOut(read);
+    }
+    assertEquals(Arduino.MAX_I2C_TOMBSTONES, arduino.i2cPending.get(BUS).size());
+  }
+
+  @Test
+  public void clearPending() throws Exception {
+    I2CRead[] reads = queue(2);
+    arduino.i2cTimedOut(reads[0]);
+    arduino.i2cClearPending();
+    assertTrue(reads[1].isDone());
+    assertEquals(-1, reads[1].getCount());
+
+    // nothing left to take an answer
+    arduino.publishI2cData(BUS, new int[] { 0x11 });
+    I2CRead next = read();
+    arduino.i2cQueue(BUS, next);
+    assertFalse(next.isDone());
+    arduino.publishI2cData(BUS, new int[] { 0x22 });
+    assertEquals(0x22, next.readBuffer[0]);
+  }
+
+}
@@ -0,0 +1,59 @@
+package org.myrobotlab.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.i2c.MockI2CDevice;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class Mpu6050Test {
+
+  public final static Logger log = LoggerFactory.getLogger(Mpu6050Test.class);
+
+  static Mpu6050 mpu6050 = null;
+  static MockI2CDevice device = null;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    mpu6050 = (Mpu6050) Runtime.start("mpu6050Test", "Mpu6050");
+    device = new MockI2CDevice("mpu6050TestDevice");
+    mpu6050.attach(device, "1", "0x68");
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    Runtime.release("mpu6050Test");
+  }
+
+  @Test
+  public void rawInOneTransaction() {
+    // accel x = 16384 (1 G) ... gyro z = -131 (-1 degree/s)
+    device.setRegisters(Mpu6050.MPU6050_RA_ACCEL_XOUT_H, 0x40, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0xff, 0x7d);
+    int before = device.transactions;
+    mpu6050.getRaw();
+    assertEquals(1, device.transactions - before);
+    assertEquals(16384, mpu6050.accelX);
+    assertEquals(1.0, mpu6050.accelGX, 0.0001);
+    assertEquals(-131, mpu6050.gyroZ);
+  }
+
+  @Test
+  public void fifoPacketFromOneRegister() {
+    int[] packet = new int[42];
+    byte[] data = new byte[packet.length];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    device.addFifo(Mpu6050.MPU6050_RA_FIFO_R_W, data);
+    int before = device.transactions;
+    mpu6050.getFIFOBytes(packet, packet.length);
+    assertEquals(1, device.transactions - before);
+    for (int i = 0; i < packet.length; ++i) {
+      assertEquals(i, packet[i]);
+    }
+  }
+
+}